@@ -0,0 +1,39 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The AdmissionPolicy decides which peers may join a hosted group. It is set
+ * with PeerGroupManager.setAdmissionPolicy() and consulted on the AllJoyn 
+ * thread that asks the host to accept a joiner, without holding the lock of 
+ * the PeerGroupManager. Implementations must be thread safe, must not block 
+ * and must not call the PeerGroupManager.
+ */
+public interface AdmissionPolicy {
+    
+    /**
+     * Called when a peer asks to join a hosted group that is not locked.
+     * 
+     * @param groupName  the hosted group the peer wants to join
+     * @param joiner     the id of the peer that wants to join
+     * @param numPeers   the number of peers already in the group, including
+     *                   the peers admitted but not yet joined
+     * @return true to let the peer join, false to reject it
+     */
+    public boolean admit(String groupName, String joiner, int numPeers);
+}
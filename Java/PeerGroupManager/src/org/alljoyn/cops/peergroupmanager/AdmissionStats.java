@@ -0,0 +1,76 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * This class is returned by the getAdmissionStats() method of the peer group
+ * manager. It is a snapshot of the joiners a hosted group accepted and 
+ * rejected and of how long the decisions took.
+ */
+public class AdmissionStats {
+    private final long admitted;
+    private final long rejected;
+    private final long totalDecisionNanos;
+    private final long maxDecisionNanos;
+    
+    AdmissionStats(long admitted, long rejected, long totalDecisionNanos, long maxDecisionNanos) {
+        this.admitted = admitted;
+        this.rejected = rejected;
+        this.totalDecisionNanos = totalDecisionNanos;
+        this.maxDecisionNanos = maxDecisionNanos;
+    }
+    
+    /**
+     * Get the number of joiners accepted.
+     * 
+     * @return the number of admitted joiners
+     */
+    public long getAdmitted() {
+        return admitted;
+    }
+    
+    /**
+     * Get the number of joiners rejected because the group was locked or by
+     * its admission policies.
+     * 
+     * @return the number of rejected joiners
+     */
+    public long getRejected() {
+        return rejected;
+    }
+    
+    /**
+     * Get the average time taken to accept or reject a joiner.
+     * 
+     * @return the average decision latency in microseconds, or 0 if no 
+     *         joiner was seen
+     */
+    public long getAverageDecisionMicros() {
+        long decisions = admitted + rejected;
+        return decisions == 0 ? 0 : totalDecisionNanos / decisions / 1000;
+    }
+    
+    /**
+     * Get the longest time taken to accept or reject a joiner.
+     * 
+     * @return the maximum decision latency in microseconds
+     */
+    public long getMaxDecisionMicros() {
+        return maxDecisionNanos / 1000;
+    }
+}
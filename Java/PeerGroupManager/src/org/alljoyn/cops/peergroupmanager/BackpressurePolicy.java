@@ -0,0 +1,45 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * What happens to the call-backs of a listener with its own executor when 
+ * its queue is full. See ListenerExecutionPolicy.
+ */
+public enum BackpressurePolicy {
+    /**
+     * The call-backs wait on a thread of the listener's own for the listener
+     * to catch up. No call-back is lost and neither the PeerGroupManager nor 
+     * the other listeners are delayed, but the call-backs waiting to enter 
+     * the queue of a slow listener are not bounded.
+     */
+    BLOCK,
+    
+    /**
+     * The oldest queued call-back is discarded to make room for the new one.
+     */
+    DROP_OLDEST,
+    
+    /**
+     * A queued call-back of the same kind for the same group and peer is 
+     * replaced by the new one, so the listener only sees the latest state. 
+     * The oldest queued call-back is discarded if there is nothing to 
+     * replace.
+     */
+    COALESCE
+}
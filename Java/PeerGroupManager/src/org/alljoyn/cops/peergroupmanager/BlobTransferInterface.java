@@ -0,0 +1,49 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
+
+/**
+ * The AllJoyn interface used by the BlobTransferModule. All of the signals
+ * are sent directly to a single peer over the session of the group.
+ */
+@BusInterface(name = "org.alljoyn.cops.peergroupmanager.BlobTransfer")
+public interface BlobTransferInterface {
+    
+    /**
+     * Announces a transfer to a receiver, which replies with an Ack of the
+     * first chunk it is missing.
+     */
+    @BusSignal
+    public void Offer(String transferId, String name, long size, int chunkSize) throws BusException;
+    
+    /**
+     * Carries one chunk of a transfer with the CRC-32 of its data.
+     */
+    @BusSignal
+    public void Chunk(String transferId, int index, byte[] data, int crc) throws BusException;
+    
+    /**
+     * Acknowledges every chunk before nextIndex.
+     */
+    @BusSignal
+    public void Ack(String transferId, int nextIndex) throws BusException;
+}
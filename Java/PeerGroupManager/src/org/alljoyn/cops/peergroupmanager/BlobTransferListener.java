@@ -0,0 +1,73 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.io.File;
+
+import org.alljoyn.bus.Status;
+
+/**
+ * The BlobTransferListener receives the progress and completion call-backs
+ * of the transfers of a BlobTransferModule. The call-backs are made on the
+ * thread of the module, so they should return quickly.
+ */
+public interface BlobTransferListener {
+    
+    /**
+     * Called when a peer acknowledges more of a file you are sending.
+     * 
+     * @param transferId      the id of the transfer
+     * @param peerId          the peer receiving the file
+     * @param bytesSent       the number of bytes acknowledged by the peer
+     * @param totalBytes      the size of the file
+     * @param bytesPerSecond  the average throughput to the peer so far
+     */
+    public void sendProgress(String transferId, String peerId, long bytesSent, long totalBytes, long bytesPerSecond);
+    
+    /**
+     * Called when sending a file to a peer has finished.
+     * 
+     * @param transferId  the id of the transfer
+     * @param peerId      the peer receiving the file
+     * @param status      OK if the peer received the whole file, otherwise 
+     *                    the transfer timed out and can be resumed by 
+     *                    sending the same file again before the peer drops
+     *                    it
+     */
+    public void sendCompleted(String transferId, String peerId, Status status);
+    
+    /**
+     * Called when more of a file sent to you has been received.
+     * 
+     * @param transferId      the id of the transfer
+     * @param peerId          the peer sending the file
+     * @param bytesReceived   the number of bytes received in order
+     * @param totalBytes      the size of the file
+     * @param bytesPerSecond  the average throughput from the peer so far
+     */
+    public void receiveProgress(String transferId, String peerId, long bytesReceived, long totalBytes, long bytesPerSecond);
+    
+    /**
+     * Called when a file sent to you has been completely received.
+     * 
+     * @param transferId  the id of the transfer
+     * @param peerId      the peer that sent the file
+     * @param file        the received file
+     */
+    public void receiveCompleted(String transferId, String peerId, File file);
+}
@@ -0,0 +1,859 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.MessageContext;
+import org.alljoyn.bus.SignalEmitter;
+import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+
+/**
+ * The BlobTransferModule sends files to the peers of a group in chunks. Each
+ * peer is sent to concurrently with its own sliding window of unacknowledged 
+ * chunks, every chunk carries a CRC-32 that the receiver verifies, and lost
+ * or corrupted chunks are resent when the window stalls.
+ * A transfer is identified by the SHA-1 hash of the file and the peer id of
+ * its sender. The receiver keeps the progress of a transfer next to the 
+ * partially received file, so sending the same file again to a peer after a
+ * dropped transfer resumes it from the first chunk the peer is missing, even
+ * after the module was registered again on a new session of the group, as 
+ * long as the peer has not dropped the transfer after its inactivity timeout.
+ * NOTE: Register the module with PeerGroupManager.registerModule() on every
+ * peer that sends or receives files, after the group has a session, and 
+ * register it again when the group is rejoined. Received files are written 
+ * to the receive directory under the name they were sent with.
+ */
+public class BlobTransferModule implements PGLifecycleModule {
+    private static final String TAG = "BlobTransferModule";
+    private static final String IFACE = "org.alljoyn.cops.peergroupmanager.BlobTransfer";
+    
+    /** The default chunk size, well below the AllJoyn message size limit. */
+    public static final int DEFAULT_CHUNK_SIZE = 32 * 1024;
+    /** The default number of unacknowledged chunks in flight per peer. */
+    public static final int DEFAULT_WINDOW_SIZE = 16;
+    /** The default time after which a silent incoming transfer is dropped. */
+    public static final long DEFAULT_INCOMING_TIMEOUT_MILLIS = 60000;
+    /** The default size of the largest file accepted from a peer. */
+    public static final long DEFAULT_MAX_INCOMING_SIZE = 512L * 1024 * 1024;
+    
+    // Resend the window when a peer has not acknowledged anything for this long
+    private static final long RETRANSMIT_MILLIS = 2000;
+    // Give up on a peer after this many resends without progress
+    private static final int MAX_RETRANSMITS = 5;
+    private static final long TICK_MILLIS = 250;
+    
+    private final File receiveDir;
+    private final BlobTransferListener listener;
+    private final int chunkSize;
+    private final int windowSize;
+    private volatile long incomingTimeoutMillis = DEFAULT_INCOMING_TIMEOUT_MILLIS;
+    private volatile long maxIncomingSize = DEFAULT_MAX_INCOMING_SIZE;
+    private final BlobTransferService service = new BlobTransferService();
+    
+    private BusAttachment bus;
+    private volatile int sessionId = -1;
+    
+    // The transfers keyed by transfer id and peer id. They are only touched
+    // on the executor thread
+    private final HashMap<String,OutgoingTransfer> outgoing = new HashMap<String,OutgoingTransfer>();
+    private final HashMap<String,IncomingTransfer> incoming = new HashMap<String,IncomingTransfer>();
+    private final HashMap<String,BlobTransferInterface> emitters = new HashMap<String,BlobTransferInterface>();
+    
+    // Single thread that runs the protocol of all of the transfers while 
+    // the module is registered
+    private ScheduledExecutorService executor = null;
+    
+    private static class OutgoingTransfer {
+        final String transferId;
+        final String peerId;
+        final RandomAccessFile file;
+        final String name;
+        final long size;
+        final int numChunks;
+        final long startTime = System.currentTimeMillis();
+        // Set once the peer has answered the offer
+        boolean accepted = false;
+        // The first chunk the peer has not acknowledged
+        int base = 0;
+        // The chunk the peer started at, for the throughput
+        int startChunk = 0;
+        // The next chunk to send
+        int next = 0;
+        // The last chunk resent because of a duplicate acknowledgment
+        int fastRetransmit = -1;
+        long lastProgress = System.currentTimeMillis();
+        int retransmits = 0;
+        
+        OutgoingTransfer(String transferId, String peerId, RandomAccessFile file, String name, long size, int chunkSize) {
+            this.transferId = transferId;
+            this.peerId = peerId;
+            this.file = file;
+            this.name = name;
+            this.size = size;
+            this.numChunks = (int) ((size + chunkSize - 1) / chunkSize);
+        }
+    }
+    
+    private static class IncomingTransfer {
+        final String transferId;
+        final String peerId;
+        final File partFile;
+        final File progressFile;
+        final File file;
+        final RandomAccessFile out;
+        final long size;
+        final int chunkSize;
+        final int numChunks;
+        final BitSet received = new BitSet();
+        long startTime = System.currentTimeMillis();
+        // The last time the sender offered the file or sent a chunk
+        long lastActivity = System.currentTimeMillis();
+        int startChunk = 0;
+        // The first chunk that has not been received
+        int nextIndex = 0;
+        int lastAcked = 0;
+        
+        IncomingTransfer(String transferId, String peerId, File file, File partFile, long size, int chunkSize) throws IOException {
+            this.transferId = transferId;
+            this.peerId = peerId;
+            this.file = file;
+            this.partFile = partFile;
+            this.progressFile = new File(partFile.getPath() + ".progress");
+            this.out = new RandomAccessFile(partFile, "rw");
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.numChunks = (int) ((size + chunkSize - 1) / chunkSize);
+        }
+    }
+    
+    /**
+     * Constructs a BlobTransferModule with the default chunk and window 
+     * sizes.
+     * 
+     * @param receiveDir  the directory to write received files to
+     * @param listener    the listener to notify of progress and completion.
+     *                    This can be null.
+     */
+    public BlobTransferModule(File receiveDir, BlobTransferListener listener) {
+        this(receiveDir, listener, DEFAULT_CHUNK_SIZE, DEFAULT_WINDOW_SIZE);
+    }
+    
+    /**
+     * Constructs a BlobTransferModule.
+     * 
+     * @param receiveDir  the directory to write received files to
+     * @param listener    the listener to notify of progress and completion.
+     *                    This can be null.
+     * @param chunkSize   the number of bytes sent in each chunk
+     * @param windowSize  the number of unacknowledged chunks allowed in 
+     *                    flight to each peer
+     */
+    public BlobTransferModule(File receiveDir, BlobTransferListener listener, int chunkSize, int windowSize) {
+        if(receiveDir == null || !receiveDir.isDirectory()) {
+            throw new IllegalArgumentException("Invalid receive directory");
+        }
+        if(chunkSize <= 0 || windowSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk or window size");
+        }
+        this.receiveDir = receiveDir;
+        this.listener = listener;
+        this.chunkSize = chunkSize;
+        this.windowSize = windowSize;
+    }
+    
+    /**
+     * setIncomingTimeoutMillis
+     * sets how long an incoming transfer is kept while the sender is silent.
+     * Once it times out the partially received file is deleted, and sending
+     * the same file again starts it over rather than resuming it.
+     * 
+     * @param incomingTimeoutMillis  the inactivity timeout in milliseconds
+     */
+    public void setIncomingTimeoutMillis(long incomingTimeoutMillis) {
+        if(incomingTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid timeout");
+        }
+        this.incomingTimeoutMillis = incomingTimeoutMillis;
+    }
+    
+    /**
+     * setMaxIncomingSize
+     * sets the size of the largest file accepted from a peer. Larger offers
+     * are ignored before any space is allocated for them.
+     * 
+     * @param maxIncomingSize  the largest file size in bytes
+     */
+    public void setMaxIncomingSize(long maxIncomingSize) {
+        if(maxIncomingSize < 0) {
+            throw new IllegalArgumentException("Invalid size");
+        }
+        this.maxIncomingSize = maxIncomingSize;
+    }
+    
+    /**
+     * register
+     * registers the bus object and signal handlers of the module on the bus
+     * attachment of the group. Registering a registered module again moves 
+     * its running transfers over to the new session, for instance after the
+     * group was rejoined.
+     */
+    @Override
+    public synchronized Status register(BusAttachment bus, int sessionId) {
+        if(bus == null || sessionId == -1) {
+            Log.e(TAG, "register(): The group has no session");
+            return Status.FAIL;
+        }
+        if(this.bus != null) {
+            unbind();
+        }
+        String path = "/BlobTransfer/s" + (sessionId & 0xffffffffL);
+        Status status = bus.registerBusObject(service, path);
+        if(status != Status.OK) {
+            return status;
+        }
+        status = bus.registerSignalHandlers(this);
+        if(status != Status.OK) {
+            bus.unregisterBusObject(service);
+            return status;
+        }
+        this.bus = bus;
+        this.sessionId = sessionId;
+        if(executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, TAG);
+                }
+            });
+            executor.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    tick();
+                }
+            }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        else {
+            // The signals of the running transfers go over the new session
+            executor.execute(new Runnable() {
+                public void run() {
+                    emitters.clear();
+                }
+            });
+        }
+        return Status.OK;
+    }
+    
+    /**
+     * unregister
+     * stops all transfers and removes the module from the bus attachment. 
+     * Partially received files are left in the receive directory with their
+     * progress, so that they are resumed when the module is registered 
+     * again and their senders send them again.
+     */
+    @Override
+    public synchronized void unregister() {
+        if(bus != null) {
+            unbind();
+        }
+        if(executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(TICK_MILLIS * 4, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+        for(OutgoingTransfer transfer : outgoing.values()) {
+            closeQuietly(transfer.file);
+        }
+        for(IncomingTransfer transfer : incoming.values()) {
+            closeQuietly(transfer.out);
+        }
+        outgoing.clear();
+        incoming.clear();
+        emitters.clear();
+    }
+    
+    /**
+     * groupJoined
+     * does nothing. A transfer only starts when its sender offers it.
+     */
+    @Override
+    public void groupJoined(String hostPeerId) {
+    }
+    
+    /**
+     * removePeer
+     * fails the transfers to a peer that left the group rather than waiting
+     * for them to time out, and stops receiving from it. What was received 
+     * from the peer is kept so that it resumes if the peer sends the file 
+     * again.
+     * 
+     * @param peerId  the peer that left
+     */
+    @Override
+    public void removePeer(final String peerId) {
+        execute(new Runnable() {
+            public void run() {
+                for(OutgoingTransfer transfer : new ArrayList<OutgoingTransfer>(outgoing.values())) {
+                    if(transfer.peerId.equals(peerId)) {
+                        outgoing.remove(transfer.transferId + "/" + peerId);
+                        closeQuietly(transfer.file);
+                        sendCompleted(transfer.transferId, peerId, Status.FAIL);
+                    }
+                }
+                for(IncomingTransfer transfer : new ArrayList<IncomingTransfer>(incoming.values())) {
+                    if(transfer.peerId.equals(peerId)) {
+                        incoming.remove(transfer.transferId + "/" + peerId);
+                        saveProgress(transfer);
+                        closeQuietly(transfer.out);
+                    }
+                }
+                emitters.remove(peerId);
+            }
+        });
+    }
+    
+    private void unbind() {
+        bus.unregisterSignalHandlers(this);
+        bus.unregisterBusObject(service);
+        bus = null;
+    }
+    
+    /**
+     * send
+     * starts sending a file to the given peers of the group. Each peer is 
+     * sent to concurrently and reports its own progress and completion.
+     * NOTE: The file is read once to hash it before send returns.
+     * 
+     * @param file     the file to send
+     * @param peerIds  the peers to send the file to
+     * @return  the id of the transfer, or null if the file cannot be read
+     *          or the module is not registered
+     */
+    public String send(final File file, List<String> peerIds) {
+        if(file == null || !file.isFile() || peerIds == null) {
+            return null;
+        }
+        synchronized(this) {
+            if(bus == null) {
+                return null;
+            }
+        }
+        final String transferId;
+        try {
+            transferId = hashFile(file);
+        } catch (IOException e) {
+            Log.e(TAG, "send(): " + e.toString());
+            return null;
+        }
+        final ArrayList<String> peers = new ArrayList<String>(peerIds);
+        execute(new Runnable() {
+            public void run() {
+                for(String peerId : peers) {
+                    startSend(transferId, file, peerId);
+                }
+            }
+        });
+        return transferId;
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Signal Handlers
+     *------------------------------------------------------------------------*/
+    @BusSignalHandler(iface = IFACE, signal = "Offer")
+    public void Offer(final String transferId, final String name, final long size, final int chunkSize) {
+        final String peerId = getSender();
+        if(peerId == null) {
+            return;
+        }
+        execute(new Runnable() {
+            public void run() {
+                onOffer(peerId, transferId, name, size, chunkSize);
+            }
+        });
+    }
+    
+    @BusSignalHandler(iface = IFACE, signal = "Chunk")
+    public void Chunk(final String transferId, final int index, final byte[] data, final int crc) {
+        final String peerId = getSender();
+        if(peerId == null) {
+            return;
+        }
+        execute(new Runnable() {
+            public void run() {
+                onChunk(peerId, transferId, index, data, crc);
+            }
+        });
+    }
+    
+    @BusSignalHandler(iface = IFACE, signal = "Ack")
+    public void Ack(final String transferId, final int nextIndex) {
+        final String peerId = getSender();
+        if(peerId == null) {
+            return;
+        }
+        execute(new Runnable() {
+            public void run() {
+                onAck(peerId, transferId, nextIndex);
+            }
+        });
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Sending
+     *------------------------------------------------------------------------*/
+    private void startSend(String transferId, File file, String peerId) {
+        String key = transferId + "/" + peerId;
+        if(outgoing.containsKey(key)) {
+            // Already sending this file to the peer
+            return;
+        }
+        RandomAccessFile in;
+        try {
+            in = new RandomAccessFile(file, "r");
+        } catch (IOException e) {
+            Log.e(TAG, "startSend(): " + e.toString());
+            sendCompleted(transferId, peerId, Status.FAIL);
+            return;
+        }
+        OutgoingTransfer transfer = new OutgoingTransfer(transferId, peerId, in, file.getName(), file.length(), chunkSize);
+        outgoing.put(key, transfer);
+        sendOffer(transfer);
+    }
+    
+    private void sendOffer(OutgoingTransfer transfer) {
+        try {
+            getEmitter(transfer.peerId).Offer(transfer.transferId, transfer.name, transfer.size, chunkSize);
+        } catch (BusException e) {
+            Log.e(TAG, "sendOffer(): " + e.toString());
+        }
+    }
+    
+    private void onAck(String peerId, String transferId, int nextIndex) {
+        OutgoingTransfer transfer = outgoing.get(transferId + "/" + peerId);
+        if(transfer == null || nextIndex < transfer.base) {
+            return;
+        }
+        if(!transfer.accepted) {
+            // The answer to the offer tells us where to resume
+            transfer.accepted = true;
+            transfer.startChunk = nextIndex;
+            transfer.next = nextIndex;
+        }
+        else if(nextIndex == transfer.base && transfer.fastRetransmit != transfer.base && transfer.next > transfer.base) {
+            // A duplicate acknowledgment means the peer is missing the base
+            transfer.fastRetransmit = transfer.base;
+            sendChunk(transfer, transfer.base);
+        }
+        if(nextIndex > transfer.base) {
+            transfer.base = nextIndex;
+            transfer.lastProgress = System.currentTimeMillis();
+            transfer.retransmits = 0;
+            long bytesSent = Math.min((long) transfer.base * chunkSize, transfer.size);
+            long bytesThisRun = bytesSent - (long) transfer.startChunk * chunkSize;
+            if(listener != null) {
+                listener.sendProgress(transferId, peerId, bytesSent, transfer.size, 
+                        getBytesPerSecond(bytesThisRun, transfer.startTime));
+            }
+        }
+        if(transfer.base >= transfer.numChunks) {
+            outgoing.remove(transferId + "/" + peerId);
+            closeQuietly(transfer.file);
+            sendCompleted(transferId, peerId, Status.OK);
+            return;
+        }
+        if(transfer.next < transfer.base) {
+            transfer.next = transfer.base;
+        }
+        pump(transfer);
+    }
+    
+    /**
+     * pump
+     * sends chunks to the peer until its window is full.
+     */
+    private void pump(OutgoingTransfer transfer) {
+        while(transfer.next < transfer.numChunks && transfer.next < transfer.base + windowSize) {
+            if(!sendChunk(transfer, transfer.next)) {
+                return;
+            }
+            transfer.next++;
+        }
+    }
+    
+    /**
+     * sendChunk
+     * reads one chunk of the file and sends it with its CRC-32.
+     * 
+     * @return  true if the chunk was sent
+     */
+    private boolean sendChunk(OutgoingTransfer transfer, int index) {
+        long offset = (long) index * chunkSize;
+        byte[] data = new byte[(int) Math.min(chunkSize, transfer.size - offset)];
+        try {
+            transfer.file.seek(offset);
+            transfer.file.readFully(data);
+        } catch (IOException e) {
+            Log.e(TAG, "sendChunk(): " + e.toString());
+            outgoing.remove(transfer.transferId + "/" + transfer.peerId);
+            closeQuietly(transfer.file);
+            sendCompleted(transfer.transferId, transfer.peerId, Status.FAIL);
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        try {
+            getEmitter(transfer.peerId).Chunk(transfer.transferId, index, data, (int) crc.getValue());
+        } catch (BusException e) {
+            // The send queue is full; retry when the window times out
+            Log.e(TAG, "sendChunk(): " + e.toString());
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * tick
+     * resends the offer or the window of transfers that have stalled, gives
+     * up on peers that stopped answering and drops incoming transfers whose
+     * sender went silent.
+     */
+    private void tick() {
+        long now = System.currentTimeMillis();
+        for(Map.Entry<String,IncomingTransfer> entry : new ArrayList<Map.Entry<String,IncomingTransfer>>(incoming.entrySet())) {
+            IncomingTransfer transfer = entry.getValue();
+            if(now - transfer.lastActivity >= incomingTimeoutMillis) {
+                Log.i(TAG, "tick(): Dropping inactive transfer " + transfer.transferId + " from " + transfer.peerId);
+                incoming.remove(entry.getKey());
+                closeQuietly(transfer.out);
+                transfer.partFile.delete();
+                transfer.progressFile.delete();
+            }
+        }
+        for(OutgoingTransfer transfer : new ArrayList<OutgoingTransfer>(outgoing.values())) {
+            if(now - transfer.lastProgress < RETRANSMIT_MILLIS) {
+                continue;
+            }
+            transfer.lastProgress = now;
+            if(++transfer.retransmits > MAX_RETRANSMITS) {
+                outgoing.remove(transfer.transferId + "/" + transfer.peerId);
+                closeQuietly(transfer.file);
+                sendCompleted(transfer.transferId, transfer.peerId, Status.FAIL);
+            }
+            else if(!transfer.accepted) {
+                sendOffer(transfer);
+            }
+            else {
+                // Offer the file again in case the peer lost the transfer 
+                // when it was registered again, and go back to the first 
+                // unacknowledged chunk
+                sendOffer(transfer);
+                transfer.next = transfer.base;
+                pump(transfer);
+            }
+        }
+    }
+    
+    private void sendCompleted(String transferId, String peerId, Status status) {
+        if(listener != null) {
+            listener.sendCompleted(transferId, peerId, status);
+        }
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Receiving
+     *------------------------------------------------------------------------*/
+    private void onOffer(String peerId, String transferId, String name, long size, int chunkSize) {
+        if(size < 0 || chunkSize <= 0 || size > maxIncomingSize || (size + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) {
+            Log.e(TAG, "onOffer(): Ignoring " + transferId + " of " + size + " bytes from " + peerId);
+            return;
+        }
+        String key = transferId + "/" + peerId;
+        IncomingTransfer transfer = incoming.get(key);
+        if(transfer == null || transfer.size != size || transfer.chunkSize != chunkSize) {
+            if(transfer != null) {
+                closeQuietly(transfer.out);
+            }
+            // Only keep the last path segment so a peer cannot escape the directory
+            File file = new File(receiveDir, new File(name).getName());
+            // Keep apart the partial files of the same file name from different peers
+            File partFile = new File(receiveDir, (transferId + "-" + peerId).replaceAll("[^A-Za-z0-9_.-]", "_") + ".part");
+            try {
+                transfer = new IncomingTransfer(transferId, peerId, file, partFile, size, chunkSize);
+                transfer.out.setLength(size);
+            } catch (IOException e) {
+                Log.e(TAG, "onOffer(): " + e.toString());
+                incoming.remove(key);
+                return;
+            }
+            // Resume what was received before the module was registered again
+            transfer.nextIndex = loadProgress(transfer);
+            transfer.received.set(0, transfer.nextIndex);
+            incoming.put(key, transfer);
+        }
+        // Resume from the first missing chunk
+        transfer.startTime = System.currentTimeMillis();
+        transfer.lastActivity = transfer.startTime;
+        transfer.startChunk = transfer.nextIndex;
+        if(transfer.nextIndex >= transfer.numChunks) {
+            finishReceive(key, transfer);
+            return;
+        }
+        sendAck(transfer);
+    }
+    
+    private void onChunk(String peerId, String transferId, int index, byte[] data, int crc) {
+        String key = transferId + "/" + peerId;
+        IncomingTransfer transfer = incoming.get(key);
+        if(transfer == null || index < 0 || index >= transfer.numChunks) {
+            return;
+        }
+        transfer.lastActivity = System.currentTimeMillis();
+        if(transfer.received.get(index)) {
+            // A resent chunk we already have; the sender may have missed our ack
+            sendAck(transfer);
+            return;
+        }
+        long offset = (long) index * transfer.chunkSize;
+        CRC32 check = new CRC32();
+        check.update(data);
+        if(data.length != Math.min(transfer.chunkSize, transfer.size - offset) || (int) check.getValue() != crc) {
+            Log.e(TAG, "onChunk(): Dropping corrupt chunk " + index + " of " + transferId);
+            return;
+        }
+        try {
+            transfer.out.seek(offset);
+            transfer.out.write(data);
+        } catch (IOException e) {
+            Log.e(TAG, "onChunk(): " + e.toString());
+            return;
+        }
+        transfer.received.set(index);
+        int prevIndex = transfer.nextIndex;
+        while(transfer.nextIndex < transfer.numChunks && transfer.received.get(transfer.nextIndex)) {
+            transfer.nextIndex++;
+        }
+        if(transfer.nextIndex >= transfer.numChunks) {
+            finishReceive(key, transfer);
+            return;
+        }
+        // Acknowledge every half window, or at once when a chunk was skipped
+        if(transfer.nextIndex == prevIndex || transfer.nextIndex - transfer.lastAcked >= Math.max(1, windowSize / 2)) {
+            sendAck(transfer);
+        }
+        if(transfer.nextIndex > prevIndex && listener != null) {
+            long bytesReceived = Math.min((long) transfer.nextIndex * transfer.chunkSize, transfer.size);
+            long bytesThisRun = bytesReceived - (long) transfer.startChunk * transfer.chunkSize;
+            listener.receiveProgress(transferId, peerId, bytesReceived, transfer.size, 
+                    getBytesPerSecond(bytesThisRun, transfer.startTime));
+        }
+    }
+    
+    private void finishReceive(String key, IncomingTransfer transfer) {
+        sendAck(transfer);
+        incoming.remove(key);
+        closeQuietly(transfer.out);
+        transfer.progressFile.delete();
+        transfer.file.delete();
+        if(!transfer.partFile.renameTo(transfer.file)) {
+            Log.e(TAG, "finishReceive(): Cannot rename " + transfer.partFile);
+            return;
+        }
+        if(listener != null) {
+            listener.receiveCompleted(transfer.transferId, transfer.peerId, transfer.file);
+        }
+    }
+    
+    private void sendAck(IncomingTransfer transfer) {
+        if(transfer.nextIndex > transfer.lastAcked) {
+            saveProgress(transfer);
+        }
+        try {
+            getEmitter(transfer.peerId).Ack(transfer.transferId, transfer.nextIndex);
+            transfer.lastAcked = transfer.nextIndex;
+        } catch (BusException e) {
+            Log.e(TAG, "sendAck(): " + e.toString());
+        }
+    }
+    
+    /**
+     * saveProgress
+     * records the first chunk of an incoming transfer that has not been 
+     * received, so that the transfer can be resumed from there.
+     */
+    private void saveProgress(IncomingTransfer transfer) {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(transfer.progressFile));
+            out.writeLong(transfer.size);
+            out.writeInt(transfer.chunkSize);
+            out.writeInt(transfer.nextIndex);
+        } catch (IOException e) {
+            Log.e(TAG, "saveProgress(): " + e.toString());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+    
+    /**
+     * loadProgress
+     * gets the first chunk of an incoming transfer that was not received 
+     * before the module was registered again.
+     * 
+     * @return  the recorded chunk, or 0 if there is no matching record
+     */
+    private int loadProgress(IncomingTransfer transfer) {
+        if(!transfer.progressFile.exists()) {
+            return 0;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(transfer.progressFile));
+            long size = in.readLong();
+            int chunkSize = in.readInt();
+            int nextIndex = in.readInt();
+            if(size == transfer.size && chunkSize == transfer.chunkSize && nextIndex >= 0 && nextIndex <= transfer.numChunks) {
+                return nextIndex;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "loadProgress(): " + e.toString());
+        } finally {
+            closeQuietly(in);
+        }
+        return 0;
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Helper Methods
+     *------------------------------------------------------------------------*/
+    private synchronized String getSender() {
+        if(bus == null) {
+            return null;
+        }
+        MessageContext context = bus.getMessageContext();
+        // Ignore signals from other groups
+        if(context.sessionId != sessionId) {
+            return null;
+        }
+        return context.sender;
+    }
+    
+    private synchronized void execute(Runnable r) {
+        if(executor != null) {
+            executor.execute(r);
+        }
+    }
+    
+    private BlobTransferInterface getEmitter(String peerId) {
+        BlobTransferInterface emitter = emitters.get(peerId);
+        if(emitter == null) {
+            emitter = new SignalEmitter(service, peerId, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(BlobTransferInterface.class);
+            emitters.put(peerId, emitter);
+        }
+        return emitter;
+    }
+    
+    /**
+     * hashFile
+     * gets the SHA-1 hash of the content of a file, which identifies its 
+     * transfers.
+     * 
+     * @return  the hash as a hex string
+     */
+    private static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.toString());
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            closeQuietly(in);
+        }
+        StringBuilder hash = new StringBuilder();
+        for(byte b : digest.digest()) {
+            hash.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return hash.toString();
+    }
+    
+    private static long getBytesPerSecond(long bytes, long startTime) {
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        return bytes * 1000 / elapsed;
+    }
+    
+    private static void closeQuietly(Closeable file) {
+        if(file == null) {
+            return;
+        }
+        try {
+            file.close();
+        } catch (IOException e) {
+            // Nothing left to do with the file
+        }
+    }
+    
+    /*
+     * The bus object the signals are emitted from
+     */
+    private class BlobTransferService implements BlobTransferInterface, BusObject {
+        public void Offer(String transferId, String name, long size, int chunkSize) {
+        }
+        
+        public void Chunk(String transferId, int index, byte[] data, int crc) {
+        }
+        
+        public void Ack(String transferId, int nextIndex) {
+        }
+    }
+}
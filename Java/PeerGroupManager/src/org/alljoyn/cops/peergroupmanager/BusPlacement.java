@@ -0,0 +1,35 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The ways a PeerGroupManager that spreads its groups across several bus
+ * attachments can choose the bus attachment of a new hosted or joined group.
+ */
+public enum BusPlacement {
+    /**
+     * Place the group on the bus attachment selected by the hash of the
+     * group name, so a group always lands on the same bus attachment.
+     */
+    HASH,
+
+    /**
+     * Place the group on the bus attachment with the fewest hosted and
+     * joined groups.
+     */
+    LEAST_LOADED
+}
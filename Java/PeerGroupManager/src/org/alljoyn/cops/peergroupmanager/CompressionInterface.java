@@ -0,0 +1,38 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
+
+/**
+ * The AllJoyn interface used by the CompressionModule. A peer registering the
+ * module sends an Offer of the compression algorithms it supports and its 
+ * threshold to the group, and every peer answers it with an Accept carrying
+ * its own algorithms and threshold sent directly back to the new peer.
+ */
+@BusInterface(name = "org.alljoyn.cops.peergroupmanager.Compression")
+public interface CompressionInterface {
+    
+    @BusSignal
+    public void Offer(int algorithms, int thresholdBytes) throws BusException;
+    
+    @BusSignal
+    public void Accept(int algorithms, int thresholdBytes) throws BusException;
+}
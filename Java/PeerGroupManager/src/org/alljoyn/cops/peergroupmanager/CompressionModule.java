@@ -0,0 +1,475 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.MessageContext;
+import org.alljoyn.bus.SignalEmitter;
+import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+
+/**
+ * The CompressionModule compresses large payloads of group signals and 
+ * module messages. The application passes the bytes it is about to send to
+ * compress() and the bytes it received to decompress(), so it works for any
+ * signal that carries its payload as a byte array.
+ * When a peer registers the module it offers the algorithms it supports and
+ * its threshold to the group and every peer answers with its own. A payload
+ * is only compressed with an algorithm all peers of the group support, and 
+ * only if it is at least as large as the highest threshold of the group. 
+ * Smaller payloads are passed through with a one byte header.
+ * NOTE: Every peer of the group must register the module with 
+ * PeerGroupManager.registerModule() after the group has a session, and a 
+ * joiner must register it before sending compressed payloads.
+ */
+public class CompressionModule implements PGLifecycleModule {
+    private static final String TAG = "CompressionModule";
+    private static final String IFACE = "org.alljoyn.cops.peergroupmanager.Compression";
+    
+    /** Payloads are sent uncompressed. */
+    public static final int ALGORITHM_NONE = 0;
+    /** Payloads are compressed with deflate. */
+    public static final int ALGORITHM_DEFLATE = 1;
+    
+    // The algorithms this implementation can decompress
+    private static final int SUPPORTED_ALGORITHMS = ALGORITHM_DEFLATE;
+    // The algorithm byte plus the original length of a deflated payload
+    private static final int DEFLATE_HEADER_BYTES = 5;
+    // Largest payload decompress() accepts, to bound the memory a malformed
+    // frame can make us allocate
+    private static final int MAX_PAYLOAD_BYTES = 16 * 1024 * 1024;
+    
+    private final int algorithms;
+    private final int thresholdBytes;
+    
+    private final CompressionService service = new CompressionService();
+    // The algorithms and threshold each peer of the group offered
+    private final HashMap<String,int[]> peerOffers = new HashMap<String,int[]>();
+    private BusAttachment bus;
+    private int sessionId = -1;
+    private int negotiatedAlgorithm = ALGORITHM_NONE;
+    private int negotiatedThresholdBytes;
+    
+    // The deflater and inflater are reused and guarded separately so that a
+    // peer can compress and decompress at the same time
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    
+    private long compressed = 0;
+    private long passedThrough = 0;
+    private long decompressed = 0;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long compressNanos = 0;
+    private long decompressNanos = 0;
+    
+    /**
+     * Constructs a CompressionModule offering every supported algorithm.
+     * 
+     * @param thresholdBytes  the size below which payloads are sent 
+     *                        uncompressed
+     */
+    public CompressionModule(int thresholdBytes) {
+        this(SUPPORTED_ALGORITHMS, thresholdBytes);
+    }
+    
+    /**
+     * Constructs a CompressionModule.
+     * 
+     * @param algorithms      the algorithms this peer offers, a combination 
+     *                        of the ALGORITHM_ constants. ALGORITHM_NONE 
+     *                        disables compression for the whole group while 
+     *                        still decompressing what other peers send.
+     * @param thresholdBytes  the size below which payloads are sent 
+     *                        uncompressed
+     */
+    public CompressionModule(int algorithms, int thresholdBytes) {
+        if((algorithms & ~SUPPORTED_ALGORITHMS) != 0) {
+            throw new IllegalArgumentException("Unsupported compression algorithm");
+        }
+        if(thresholdBytes < 0) {
+            throw new IllegalArgumentException("Invalid threshold");
+        }
+        this.algorithms = algorithms;
+        this.thresholdBytes = thresholdBytes;
+        this.negotiatedThresholdBytes = thresholdBytes;
+    }
+    
+    /**
+     * setLevel
+     * sets the deflate compression level. Higher levels save more bytes at 
+     * a higher CPU cost. The default is Deflater.BEST_SPEED.
+     * 
+     * @param level  the level, from 0 to 9
+     */
+    public void setLevel(int level) {
+        if(level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level");
+        }
+        synchronized(deflater) {
+            deflater.setLevel(level);
+        }
+    }
+    
+    /**
+     * register
+     * registers the bus object and signal handlers of the module on the bus
+     * attachment of the group and offers its algorithms to the group.
+     */
+    @Override
+    public synchronized Status register(BusAttachment bus, int sessionId) {
+        if(bus == null || sessionId == -1) {
+            Log.e(TAG, "register(): The group has no session");
+            return Status.FAIL;
+        }
+        if(this.bus != null) {
+            Log.e(TAG, "register(): Already registered");
+            return Status.FAIL;
+        }
+        Status status = bus.registerBusObject(service, "/Compression/s" + (sessionId & 0xffffffffL));
+        if(status != Status.OK) {
+            return status;
+        }
+        status = bus.registerSignalHandlers(this);
+        if(status != Status.OK) {
+            bus.unregisterBusObject(service);
+            return status;
+        }
+        this.bus = bus;
+        this.sessionId = sessionId;
+        negotiate();
+        try {
+            new SignalEmitter(service, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(CompressionInterface.class).Offer(algorithms, thresholdBytes);
+        } catch (BusException e) {
+            Log.e(TAG, "register(): " + e.toString());
+        }
+        return Status.OK;
+    }
+    
+    /**
+     * unregister
+     * removes the module from the bus attachment. Payloads are passed 
+     * through uncompressed afterwards.
+     */
+    @Override
+    public synchronized void unregister() {
+        if(bus != null) {
+            bus.unregisterSignalHandlers(this);
+            bus.unregisterBusObject(service);
+            bus = null;
+        }
+        peerOffers.clear();
+        negotiate();
+    }
+    
+    /**
+     * groupJoined
+     * does nothing. The offers of the peers are exchanged when the 
+     * module is registered.
+     */
+    @Override
+    public void groupJoined(String hostPeerId) {
+    }
+    
+    /**
+     * removePeer
+     * drops the offer of a peer, for example after it left the group, so 
+     * that it no longer limits the algorithm and threshold of the group.
+     * 
+     * @param peerId  the peer to forget
+     */
+    @Override
+    public synchronized void removePeer(String peerId) {
+        if(peerOffers.remove(peerId) != null) {
+            negotiate();
+        }
+    }
+    
+    /**
+     * Get the algorithm negotiated with the peers of the group.
+     * 
+     * @return one of the ALGORITHM_ constants
+     */
+    public synchronized int getAlgorithm() {
+        return negotiatedAlgorithm;
+    }
+    
+    /**
+     * Get the threshold negotiated with the peers of the group.
+     * 
+     * @return the size in bytes below which payloads are sent uncompressed
+     */
+    public synchronized int getThresholdBytes() {
+        return negotiatedThresholdBytes;
+    }
+    
+    /**
+     * getStats
+     * gets the payloads compressed and decompressed so far and the bytes and
+     * time this took.
+     * 
+     * @return  a snapshot of the compression statistics
+     */
+    public synchronized CompressionStats getStats() {
+        return new CompressionStats(compressed, passedThrough, decompressed, bytesIn, bytesOut, 
+                compressNanos, decompressNanos);
+    }
+    
+    /**
+     * compress
+     * frames a payload for sending, compressing it with the negotiated 
+     * algorithm if it is large enough.
+     * 
+     * @param payload  the payload to send
+     * @return  the frame to send, to be given to decompress() by the 
+     *          receivers
+     */
+    public byte[] compress(byte[] payload) {
+        return compress(payload, 0, payload.length);
+    }
+    
+    /**
+     * compress
+     * frames a part of a buffer for sending, for example the buffer of a 
+     * PayloadWriter, without copying it first.
+     * 
+     * @param buffer  the buffer holding the payload
+     * @param offset  the offset of the payload in the buffer
+     * @param length  the length of the payload
+     * @return  the frame to send, to be given to decompress() by the 
+     *          receivers
+     */
+    public byte[] compress(byte[] buffer, int offset, int length) {
+        if(offset < 0 || length < 0 || offset > buffer.length - length) {
+            throw new IllegalArgumentException("Invalid payload range");
+        }
+        int algorithm;
+        int threshold;
+        synchronized(this) {
+            algorithm = negotiatedAlgorithm;
+            threshold = negotiatedThresholdBytes;
+        }
+        byte[] frame = null;
+        long nanos = 0;
+        if(algorithm == ALGORITHM_DEFLATE && length >= threshold) {
+            long start = System.nanoTime();
+            frame = deflate(buffer, offset, length);
+            nanos = System.nanoTime() - start;
+        }
+        if(frame == null) {
+            frame = new byte[length + 1];
+            frame[0] = ALGORITHM_NONE;
+            System.arraycopy(buffer, offset, frame, 1, length);
+        }
+        synchronized(this) {
+            if(frame[0] == ALGORITHM_NONE) {
+                passedThrough++;
+            }
+            else {
+                compressed++;
+            }
+            bytesIn += length;
+            bytesOut += frame.length;
+            // Count the time of attempts that did not pay off as well
+            compressNanos += nanos;
+        }
+        return frame;
+    }
+    
+    /**
+     * decompress
+     * restores the payload of a frame returned by compress() on any peer of
+     * the group.
+     * 
+     * @param frame  the received frame
+     * @return  the original payload
+     * @throws IllegalArgumentException  if the frame is malformed or uses an
+     *                                   unsupported algorithm
+     */
+    public byte[] decompress(byte[] frame) {
+        if(frame.length == 0) {
+            throw new IllegalArgumentException("Truncated frame");
+        }
+        if(frame[0] == ALGORITHM_NONE) {
+            byte[] payload = new byte[frame.length - 1];
+            System.arraycopy(frame, 1, payload, 0, payload.length);
+            return payload;
+        }
+        if(frame[0] != ALGORITHM_DEFLATE) {
+            throw new IllegalArgumentException("Unsupported compression algorithm " + frame[0]);
+        }
+        if(frame.length < DEFLATE_HEADER_BYTES) {
+            throw new IllegalArgumentException("Truncated frame");
+        }
+        int length = ((frame[1] & 0xff) << 24) | ((frame[2] & 0xff) << 16) 
+                | ((frame[3] & 0xff) << 8) | (frame[4] & 0xff);
+        if(length < 0 || length > MAX_PAYLOAD_BYTES) {
+            throw new IllegalArgumentException("Invalid payload length " + length);
+        }
+        long start = System.nanoTime();
+        byte[] payload = new byte[length];
+        synchronized(inflater) {
+            inflater.reset();
+            inflater.setInput(frame, DEFLATE_HEADER_BYTES, frame.length - DEFLATE_HEADER_BYTES);
+            try {
+                int inflated = 0;
+                while(inflated < length && !inflater.finished()) {
+                    int count = inflater.inflate(payload, inflated, length - inflated);
+                    if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += count;
+                }
+                if(inflated == length && !inflater.finished()) {
+                    // Read the end of the stream and its checksum
+                    inflater.inflate(new byte[1]);
+                }
+                if(inflated != length || !inflater.finished()) {
+                    throw new IllegalArgumentException("Malformed compressed payload");
+                }
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Malformed compressed payload");
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        synchronized(this) {
+            decompressed++;
+            decompressNanos += nanos;
+        }
+        return payload;
+    }
+    
+    /*
+     * Deflates a payload behind its header, or returns null if the frame 
+     * would not be smaller than the payload.
+     */
+    private byte[] deflate(byte[] buffer, int offset, int length) {
+        int capacity = length - DEFLATE_HEADER_BYTES;
+        if(capacity <= 0) {
+            return null;
+        }
+        byte[] out = new byte[length];
+        int deflated = 0;
+        synchronized(deflater) {
+            deflater.reset();
+            deflater.setInput(buffer, offset, length);
+            deflater.finish();
+            while(deflated < capacity && !deflater.finished()) {
+                int count = deflater.deflate(out, DEFLATE_HEADER_BYTES + deflated, capacity - deflated);
+                if(count == 0) {
+                    break;
+                }
+                deflated += count;
+            }
+            if(!deflater.finished()) {
+                return null;
+            }
+        }
+        out[0] = ALGORITHM_DEFLATE;
+        out[1] = (byte) (length >>> 24);
+        out[2] = (byte) (length >>> 16);
+        out[3] = (byte) (length >>> 8);
+        out[4] = (byte) length;
+        byte[] frame = new byte[DEFLATE_HEADER_BYTES + deflated];
+        System.arraycopy(out, 0, frame, 0, frame.length);
+        return frame;
+    }
+    
+    /*
+     * Picks the algorithm all peers support and the highest threshold.
+     * Must be called with the lock held.
+     */
+    private void negotiate() {
+        int common = (bus == null) ? ALGORITHM_NONE : algorithms;
+        int threshold = thresholdBytes;
+        for(int[] offer : peerOffers.values()) {
+            common &= offer[0];
+            threshold = Math.max(threshold, offer[1]);
+        }
+        int algorithm = ((common & ALGORITHM_DEFLATE) != 0) ? ALGORITHM_DEFLATE : ALGORITHM_NONE;
+        if(algorithm != negotiatedAlgorithm || threshold != negotiatedThresholdBytes) {
+            Log.i(TAG, "negotiate(): algorithm " + algorithm + ", threshold " + threshold);
+        }
+        negotiatedAlgorithm = algorithm;
+        negotiatedThresholdBytes = threshold;
+    }
+    
+    /*
+     * Records the offer of a peer of our session. Returns the sender, or null
+     * if the signal is not for this module.
+     */
+    private String recordOffer(int algorithms, int thresholdBytes) {
+        if(bus == null) {
+            return null;
+        }
+        MessageContext context = bus.getMessageContext();
+        if(context.sessionId != sessionId || context.sender.equals(bus.getUniqueName())) {
+            return null;
+        }
+        peerOffers.put(context.sender, new int[] { algorithms, Math.max(0, thresholdBytes) });
+        negotiate();
+        return context.sender;
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Signal Handlers
+     *------------------------------------------------------------------------*/
+    @BusSignalHandler(iface = IFACE, signal = "Offer")
+    public void Offer(int algorithms, int thresholdBytes) {
+        CompressionInterface emitter;
+        synchronized(this) {
+            String peerId = recordOffer(algorithms, thresholdBytes);
+            if(peerId == null) {
+                return;
+            }
+            emitter = new SignalEmitter(service, peerId, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(CompressionInterface.class);
+        }
+        try {
+            emitter.Accept(this.algorithms, this.thresholdBytes);
+        } catch (BusException e) {
+            Log.e(TAG, "Offer(): " + e.toString());
+        }
+    }
+    
+    @BusSignalHandler(iface = IFACE, signal = "Accept")
+    public synchronized void Accept(int algorithms, int thresholdBytes) {
+        recordOffer(algorithms, thresholdBytes);
+    }
+    
+    /*
+     * The bus object the signals are emitted from
+     */
+    private class CompressionService implements CompressionInterface, BusObject {
+        public void Offer(int algorithms, int thresholdBytes) {
+        }
+        
+        public void Accept(int algorithms, int thresholdBytes) {
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * This class is returned by the CompressionModule and the 
+ * getCompressionStats() method of the peer group manager. It is a snapshot 
+ * of the payloads a peer compressed and decompressed, the bytes this saved 
+ * and the time it took.
+ */
+public class CompressionStats {
+    private final long compressed;
+    private final long passedThrough;
+    private final long decompressed;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long compressNanos;
+    private final long decompressNanos;
+    
+    CompressionStats(long compressed, long passedThrough, long decompressed, long bytesIn, 
+            long bytesOut, long compressNanos, long decompressNanos) {
+        this.compressed = compressed;
+        this.passedThrough = passedThrough;
+        this.decompressed = decompressed;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.compressNanos = compressNanos;
+        this.decompressNanos = decompressNanos;
+    }
+    
+    /**
+     * Get the number of payloads sent compressed.
+     * 
+     * @return the number of compressed payloads
+     */
+    public long getCompressed() {
+        return compressed;
+    }
+    
+    /**
+     * Get the number of payloads sent uncompressed, because they were below
+     * the threshold, no algorithm was negotiated or compressing them did not
+     * make them smaller.
+     * 
+     * @return the number of payloads passed through
+     */
+    public long getPassedThrough() {
+        return passedThrough;
+    }
+    
+    /**
+     * Get the number of compressed payloads received and decompressed.
+     * 
+     * @return the number of decompressed payloads
+     */
+    public long getDecompressed() {
+        return decompressed;
+    }
+    
+    /**
+     * Get the size of all payloads given to compress().
+     * 
+     * @return the number of payload bytes before compression
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+    
+    /**
+     * Get the size of all frames returned by compress(), including the 
+     * frame headers.
+     * 
+     * @return the number of bytes after compression
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+    
+    /**
+     * Get the number of bytes compression kept off the bus. This is negative
+     * if the frame headers of small payloads cost more than was saved.
+     * 
+     * @return the number of bytes saved
+     */
+    public long getBytesSaved() {
+        return bytesIn - bytesOut;
+    }
+    
+    /**
+     * Get the average time taken to compress a payload.
+     * 
+     * @return the average compression time in microseconds, or 0 if no 
+     *         payload was compressed
+     */
+    public long getAverageCompressMicros() {
+        return compressed == 0 ? 0 : compressNanos / compressed / 1000;
+    }
+    
+    /**
+     * Get the average time taken to decompress a payload.
+     * 
+     * @return the average decompression time in microseconds, or 0 if no 
+     *         payload was decompressed
+     */
+    public long getAverageDecompressMicros() {
+        return decompressed == 0 ? 0 : decompressNanos / decompressed / 1000;
+    }
+    
+    /**
+     * Get the total time spent compressing and decompressing payloads.
+     * 
+     * @return the total time in microseconds
+     */
+    public long getTotalMicros() {
+        return (compressNanos + decompressNanos) / 1000;
+    }
+}
@@ -0,0 +1,299 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The FoundGroupsCache is an optional on-disk cache of the groups that a
+ * PeerGroupManager has recently discovered. When it is passed to the
+ * PeerGroupManager constructor, the cached groups are loaded right away so
+ * that listFoundGroups() returns them before discovery has had a chance to
+ * run. Groups loaded from the cache are considered stale until discovery
+ * finds their advertisement again, and are dropped once they are older than
+ * the time-to-live given to the cache.
+ * NOTE: The cache file is written on a background thread so that discovery
+ * call-backs never block on disk I/O.
+ */
+public class FoundGroupsCache {
+    private static final String TAG = "FoundGroupsCache";
+    private static final int FILE_VERSION = 1;
+
+    private final File cacheFile;
+    private final long ttlMillis;
+
+    // The cached entries keyed by group name
+    private final HashMap<String,Entry> entries = new HashMap<String,Entry>();
+
+    // Single background thread used to write the cache file
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+    // Set while a write is queued so that bursts of changes are coalesced
+    private boolean writePending = false;
+
+    /**
+     * A single cached group. Entries are immutable snapshots of what was
+     * known about the group the last time its advertisement was seen.
+     */
+    public static class Entry {
+        private final String groupName;
+        private final String advertisedName;
+        private final short sessionPort;
+        private final short transport;
+        private final long lastSeen;
+
+        Entry(String groupName, String advertisedName, short sessionPort, short transport, long lastSeen) {
+            this.groupName = groupName;
+            this.advertisedName = advertisedName;
+            this.sessionPort = sessionPort;
+            this.transport = transport;
+            this.lastSeen = lastSeen;
+        }
+
+        /**
+         * Get the name of the group.
+         *
+         * @return the group name
+         */
+        public String getGroupName() {
+            return groupName;
+        }
+
+        /**
+         * Get the full well known name the group was advertised with.
+         *
+         * @return the advertised name
+         */
+        public String getAdvertisedName() {
+            return advertisedName;
+        }
+
+        /**
+         * Get the session port the group is hosted on.
+         *
+         * @return the session port
+         */
+        public short getSessionPort() {
+            return sessionPort;
+        }
+
+        /**
+         * Get the transport the group advertisement was last seen on.
+         *
+         * @return the transport mask
+         */
+        public short getTransport() {
+            return transport;
+        }
+
+        /**
+         * Get the wall clock time the group advertisement was last seen.
+         *
+         * @return the last seen time in milliseconds since the epoch
+         */
+        public long getLastSeen() {
+            return lastSeen;
+        }
+    }
+
+    /**
+     * Constructs a FoundGroupsCache backed by the given file.
+     *
+     * @param cacheFile  the file to store the cached groups in. The file is
+     *                   created when the first group is cached.
+     * @param ttlMillis  how long, in milliseconds, a group stays in the cache
+     *                   after its advertisement was last seen
+     */
+    public FoundGroupsCache(File cacheFile, long ttlMillis) {
+        if(cacheFile == null) {
+            throw new IllegalArgumentException("Invalid cache file");
+        }
+        if(ttlMillis <= 0) {
+            throw new IllegalArgumentException("Invalid time-to-live");
+        }
+        this.cacheFile = cacheFile;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Get the time-to-live of the cached groups.
+     *
+     * @return the time-to-live in milliseconds
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * load
+     * reads the cache file and returns all entries that have not expired.
+     * Expired entries are discarded. A missing or corrupt cache file results
+     * in an empty cache.
+     *
+     * @return  the unexpired cached entries
+     */
+    synchronized ArrayList<Entry> load() {
+        entries.clear();
+        if(cacheFile.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+                if(in.readInt() == FILE_VERSION) {
+                    long now = System.currentTimeMillis();
+                    int count = in.readInt();
+                    for(int i = 0; i < count; i++) {
+                        Entry entry = new Entry(in.readUTF(), in.readUTF(), in.readShort(), in.readShort(), in.readLong());
+                        if(!isExpired(entry, now)) {
+                            entries.put(entry.getGroupName(), entry);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "load(): " + e.toString());
+                entries.clear();
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    /**
+     * put
+     * records that the group advertisement was just seen.
+     */
+    synchronized void put(String groupName, String advertisedName, short sessionPort, short transport) {
+        entries.put(groupName, new Entry(groupName, advertisedName, sessionPort, transport, System.currentTimeMillis()));
+        scheduleWrite();
+    }
+
+    /**
+     * touch
+     * records that the cached group advertisement is still seen. AllJoyn only
+     * signals an advertisement once, so groups that stay advertised must be
+     * touched to keep them from expiring.
+     */
+    synchronized void touch(String groupName) {
+        Entry entry = entries.get(groupName);
+        if(entry != null) {
+            entries.put(groupName, new Entry(groupName, entry.getAdvertisedName(), entry.getSessionPort(), 
+                    entry.getTransport(), System.currentTimeMillis()));
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * remove
+     * removes a group that is no longer available from the cache.
+     */
+    synchronized void remove(String groupName) {
+        if(entries.remove(groupName) != null) {
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * isExpired
+     * checks whether the entry is older than the time-to-live.
+     */
+    boolean isExpired(Entry entry, long now) {
+        return now - entry.getLastSeen() >= ttlMillis;
+    }
+
+    /**
+     * close
+     * writes any pending changes and stops the background writer.
+     */
+    synchronized void close() {
+        scheduleWrite();
+        writer.shutdown();
+    }
+
+    private void scheduleWrite() {
+        if(writePending || writer.isShutdown()) {
+            return;
+        }
+        writePending = true;
+        writer.execute(new Runnable() {
+            public void run() {
+                ArrayList<Entry> snapshot;
+                synchronized(FoundGroupsCache.this) {
+                    writePending = false;
+                    snapshot = new ArrayList<Entry>(entries.values());
+                }
+                write(snapshot);
+            }
+        });
+    }
+
+    private void write(ArrayList<Entry> snapshot) {
+        // Write to a temporary file first so a crash never leaves a torn cache
+        File tmpFile = new File(cacheFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(snapshot.size());
+            for(Entry entry : snapshot) {
+                out.writeUTF(entry.getGroupName());
+                out.writeUTF(entry.getAdvertisedName());
+                out.writeShort(entry.getSessionPort());
+                out.writeShort(entry.getTransport());
+                out.writeLong(entry.getLastSeen());
+            }
+            out.close();
+            out = null;
+            if(!tmpFile.renameTo(cacheFile)) {
+                Log.e(TAG, "write(): Failed to replace " + cacheFile.getPath());
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "write(): " + e.toString());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        if(stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Nothing left to do with the stream
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
+
+/**
+ * The AllJoyn interface used by the FragmentationModule. A message is sent
+ * to the group or to a single peer as one or more Fragment signals.
+ */
+@BusInterface(name = "org.alljoyn.cops.peergroupmanager.Fragmentation")
+public interface FragmentationInterface {
+    
+    /**
+     * Carries the fragment at index of the count fragments of a message. A
+     * message that fits in a single fragment is sent with a count of 1.
+     */
+    @BusSignal
+    public void Fragment(int messageId, int index, int count, byte[] data) throws BusException;
+}
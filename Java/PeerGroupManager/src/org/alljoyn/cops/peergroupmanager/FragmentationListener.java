@@ -0,0 +1,34 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The FragmentationListener receives the messages reassembled by a 
+ * FragmentationModule. The call-backs are made on the AllJoyn thread that 
+ * delivered the last fragment, so they should return quickly.
+ */
+public interface FragmentationListener {
+    
+    /**
+     * Called when all of the fragments of a message have been received.
+     * 
+     * @param peerId   the peer that sent the message
+     * @param message  the reassembled message
+     */
+    public void messageReceived(String peerId, byte[] message);
+}
@@ -0,0 +1,615 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.MessageContext;
+import org.alljoyn.bus.SignalEmitter;
+import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+
+/**
+ * The FragmentationModule sends messages larger than AllJoyn allows in a 
+ * single signal. Each message is split into fragments of a bounded size and
+ * the fragments of all queued messages are sent round robin, one fragment 
+ * per message at a time, so a small message queued behind a large one waits
+ * for at most one fragment of each message ahead of it instead of the whole
+ * message.
+ * Receivers reassemble the fragments of each message and hand the complete
+ * message to the FragmentationListener. The memory used by partly received
+ * messages is bounded: when it is exceeded the oldest partial messages are 
+ * dropped, and partial messages that stop receiving fragments are dropped 
+ * after a timeout.
+ * NOTE: Every peer of the group that sends or receives messages must 
+ * register the module with PeerGroupManager.registerModule() after the 
+ * group has a session. Delivery is not reliable: a dropped message is not 
+ * resent.
+ */
+public class FragmentationModule implements PGLifecycleModule {
+    private static final String TAG = "FragmentationModule";
+    private static final String IFACE = "org.alljoyn.cops.peergroupmanager.Fragmentation";
+    
+    /** The default fragment size, small enough not to delay other signals. */
+    public static final int DEFAULT_FRAGMENT_SIZE = 16 * 1024;
+    /** The default memory bound for partly received messages. */
+    public static final int DEFAULT_MAX_REASSEMBLY_BYTES = 4 * 1024 * 1024;
+    /** The default time after which a partly received message is dropped. */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    
+    // Largest fragment, leaving room for the header below the AllJoyn 
+    // message size limit of 128 KB
+    private static final int MAX_FRAGMENT_SIZE = 96 * 1024;
+    // Largest number of fragments a received message may announce
+    private static final int MAX_FRAGMENTS = 65536;
+    // Memory charged for the slot of each fragment of a partial message, 
+    // the size of a reference on 64-bit VMs
+    private static final int SLOT_BYTES = 8;
+    
+    private final FragmentationListener listener;
+    private final int fragmentSize;
+    private final int maxReassemblyBytes;
+    private final long timeoutMillis;
+    
+    private final FragmentationService service = new FragmentationService();
+    private BusAttachment bus;
+    private int sessionId = -1;
+    private FragmentationInterface groupEmitter;
+    private final HashMap<String,FragmentationInterface> emitters = new HashMap<String,FragmentationInterface>();
+    
+    // The messages with fragments left to send, in round robin order
+    private final LinkedList<OutgoingMessage> sendQueue = new LinkedList<OutgoingMessage>();
+    private boolean pumping = false;
+    private int nextMessageId = 0;
+    
+    // The partly received messages keyed by peer id and message id, oldest 
+    // first
+    private final LinkedHashMap<String,PartialMessage> partials = new LinkedHashMap<String,PartialMessage>();
+    private long reassemblyBytes = 0;
+    private long peakReassemblyBytes = 0;
+    
+    private long messagesSent = 0;
+    private long fragmentsSent = 0;
+    private long messagesReceived = 0;
+    private long fragmentsReceived = 0;
+    private long messagesTimedOut = 0;
+    private long messagesDropped = 0;
+    
+    // Single thread that sends the fragments and drops stale partial messages
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            return new Thread(r, TAG);
+        }
+    });
+    
+    private static class OutgoingMessage {
+        final int messageId;
+        final FragmentationInterface emitter;
+        final byte[] data;
+        final int count;
+        // The next fragment to send
+        int next = 0;
+        
+        OutgoingMessage(int messageId, FragmentationInterface emitter, byte[] data, int count) {
+            this.messageId = messageId;
+            this.emitter = emitter;
+            this.data = data;
+            this.count = count;
+        }
+    }
+    
+    private static class PartialMessage {
+        // Null once the message is dropped, or if it never fit, so that its
+        // late fragments are ignored until it times out
+        byte[][] fragments;
+        int received = 0;
+        int bytes = 0;
+        // The memory charged against the bound for the slots and fragments
+        long charged = 0;
+        long lastArrival;
+        
+        PartialMessage(long now) {
+            lastArrival = now;
+        }
+    }
+    
+    /**
+     * Constructs a FragmentationModule with the default fragment size, 
+     * memory bound and timeout.
+     * 
+     * @param listener  the listener to hand received messages to. This can 
+     *                  be null on peers that only send.
+     */
+    public FragmentationModule(FragmentationListener listener) {
+        this(listener, DEFAULT_FRAGMENT_SIZE, DEFAULT_MAX_REASSEMBLY_BYTES, DEFAULT_TIMEOUT_MILLIS);
+    }
+    
+    /**
+     * Constructs a FragmentationModule.
+     * 
+     * @param listener            the listener to hand received messages to.
+     *                            This can be null on peers that only send.
+     * @param fragmentSize        the largest number of message bytes sent in
+     *                            one fragment, at most 96 KB
+     * @param maxReassemblyBytes  the most memory used by partly received 
+     *                            messages, counting 8 bytes for the slot of
+     *                            each of their fragments on top of the 
+     *                            fragments received. Larger messages cannot
+     *                            be received.
+     * @param timeoutMillis       the time after the last fragment of a 
+     *                            partly received message at which it is 
+     *                            dropped
+     */
+    public FragmentationModule(FragmentationListener listener, int fragmentSize, int maxReassemblyBytes, 
+            long timeoutMillis) {
+        if(fragmentSize <= 0 || fragmentSize > MAX_FRAGMENT_SIZE) {
+            throw new IllegalArgumentException("Invalid fragment size");
+        }
+        if(maxReassemblyBytes <= 0) {
+            throw new IllegalArgumentException("Invalid reassembly bound");
+        }
+        if(timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Invalid timeout");
+        }
+        this.listener = listener;
+        this.fragmentSize = fragmentSize;
+        this.maxReassemblyBytes = maxReassemblyBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+    
+    /**
+     * register
+     * registers the bus object and signal handlers of the module on the bus
+     * attachment of the group and starts dropping stale partial messages.
+     */
+    @Override
+    public synchronized Status register(BusAttachment bus, int sessionId) {
+        if(bus == null || sessionId == -1) {
+            Log.e(TAG, "register(): The group has no session");
+            return Status.FAIL;
+        }
+        if(this.bus != null) {
+            Log.e(TAG, "register(): Already registered");
+            return Status.FAIL;
+        }
+        Status status = bus.registerBusObject(service, "/Fragmentation/s" + (sessionId & 0xffffffffL));
+        if(status != Status.OK) {
+            return status;
+        }
+        status = bus.registerSignalHandlers(this);
+        if(status != Status.OK) {
+            bus.unregisterBusObject(service);
+            return status;
+        }
+        this.bus = bus;
+        this.sessionId = sessionId;
+        this.groupEmitter = new SignalEmitter(service, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                .getInterface(FragmentationInterface.class);
+        long sweepMillis = Math.max(1, timeoutMillis / 4);
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                sweep();
+            }
+        }, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+        return Status.OK;
+    }
+    
+    /**
+     * unregister
+     * stops sending, drops the partly received messages and removes the 
+     * module from the bus attachment. The module cannot be registered again
+     * afterwards.
+     */
+    @Override
+    public synchronized void unregister() {
+        executor.shutdownNow();
+        if(bus != null) {
+            bus.unregisterSignalHandlers(this);
+            bus.unregisterBusObject(service);
+            bus = null;
+        }
+        sendQueue.clear();
+        emitters.clear();
+        partials.clear();
+        reassemblyBytes = 0;
+    }
+    
+    /**
+     * send
+     * queues a message for all of the peers of the group.
+     * NOTE: The message is sent from the array passed in, which must not be 
+     * modified until it has been sent.
+     * 
+     * @param message  the message to send
+     * @return  OK if the message was queued, FAIL if the module is not 
+     *          registered
+     */
+    public Status send(byte[] message) {
+        return send(null, message);
+    }
+    
+    /**
+     * send
+     * queues a message for a single peer of the group.
+     * NOTE: The message is sent from the array passed in, which must not be 
+     * modified until it has been sent.
+     * 
+     * @param peerId   the peer to send the message to, or null to send it to
+     *                 the whole group
+     * @param message  the message to send
+     * @return  OK if the message was queued, FAIL if the module is not 
+     *          registered
+     */
+    public synchronized Status send(String peerId, byte[] message) {
+        if(message == null) {
+            Log.e(TAG, "send(): Invalid message");
+            return Status.FAIL;
+        }
+        if(bus == null) {
+            Log.e(TAG, "send(): Not registered");
+            return Status.FAIL;
+        }
+        FragmentationInterface emitter = (peerId == null) ? groupEmitter : getEmitter(peerId);
+        int count = Math.max(1, (message.length + fragmentSize - 1) / fragmentSize);
+        sendQueue.addLast(new OutgoingMessage(nextMessageId++, emitter, message, count));
+        if(!pumping) {
+            pumping = true;
+            executor.execute(new Runnable() {
+                public void run() {
+                    pump();
+                }
+            });
+        }
+        return Status.OK;
+    }
+    
+    /**
+     * groupJoined
+     * does nothing, as messages are reassembled from their first 
+     * fragment.
+     */
+    @Override
+    public void groupJoined(String hostPeerId) {
+    }
+    
+    /**
+     * removePeer
+     * drops the partly received messages of a peer, for example after it 
+     * left the group.
+     * 
+     * @param peerId  the peer to forget
+     */
+    @Override
+    public synchronized void removePeer(String peerId) {
+        emitters.remove(peerId);
+        String prefix = peerId + "/";
+        Iterator<Map.Entry<String,PartialMessage>> it = partials.entrySet().iterator();
+        while(it.hasNext()) {
+            Map.Entry<String,PartialMessage> entry = it.next();
+            if(entry.getKey().startsWith(prefix)) {
+                reassemblyBytes -= entry.getValue().charged;
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+     * Get the number of messages waiting for fragments to be sent.
+     * 
+     * @return the number of queued messages
+     */
+    public synchronized int getQueuedMessages() {
+        return sendQueue.size();
+    }
+    
+    /**
+     * Get the number of messages whose fragments have all been sent.
+     * 
+     * @return the number of messages sent
+     */
+    public synchronized long getMessagesSent() {
+        return messagesSent;
+    }
+    
+    /**
+     * Get the number of fragments sent.
+     * 
+     * @return the number of fragments sent
+     */
+    public synchronized long getFragmentsSent() {
+        return fragmentsSent;
+    }
+    
+    /**
+     * Get the number of messages received and handed to the listener.
+     * 
+     * @return the number of messages received
+     */
+    public synchronized long getMessagesReceived() {
+        return messagesReceived;
+    }
+    
+    /**
+     * Get the number of fragments received from all peers.
+     * 
+     * @return the number of fragments received
+     */
+    public synchronized long getFragmentsReceived() {
+        return fragmentsReceived;
+    }
+    
+    /**
+     * Get the number of partly received messages dropped because their 
+     * remaining fragments did not arrive in time.
+     * 
+     * @return the number of messages timed out
+     */
+    public synchronized long getMessagesTimedOut() {
+        return messagesTimedOut;
+    }
+    
+    /**
+     * Get the number of received messages dropped to stay within the memory
+     * bound or because their fragments were invalid.
+     * 
+     * @return the number of messages dropped
+     */
+    public synchronized long getMessagesDropped() {
+        return messagesDropped;
+    }
+    
+    /**
+     * Get the memory currently held by partly received messages, including
+     * the slots of their fragments.
+     * 
+     * @return the number of bytes buffered for reassembly
+     */
+    public synchronized long getReassemblyBytes() {
+        return reassemblyBytes;
+    }
+    
+    /**
+     * Get the most memory held by partly received messages at once.
+     * 
+     * @return the peak number of bytes buffered for reassembly
+     */
+    public synchronized long getPeakReassemblyBytes() {
+        return peakReassemblyBytes;
+    }
+    
+    /**
+     * pump
+     * sends one fragment of each queued message in turn until the queue is
+     * empty.
+     */
+    private void pump() {
+        while(true) {
+            OutgoingMessage message;
+            int index;
+            synchronized(this) {
+                message = sendQueue.poll();
+                if(message == null || bus == null) {
+                    pumping = false;
+                    return;
+                }
+                index = message.next++;
+                if(message.next < message.count) {
+                    // Go to the back of the queue behind the other messages
+                    sendQueue.addLast(message);
+                }
+            }
+            int offset = index * fragmentSize;
+            int length = Math.min(fragmentSize, message.data.length - offset);
+            byte[] fragment = new byte[length];
+            System.arraycopy(message.data, offset, fragment, 0, length);
+            try {
+                message.emitter.Fragment(message.messageId, index, message.count, fragment);
+                synchronized(this) {
+                    fragmentsSent++;
+                    if(index == message.count - 1) {
+                        messagesSent++;
+                    }
+                }
+            } catch (BusException e) {
+                // The rest of the message is useless to the receivers
+                Log.e(TAG, "pump(): " + e.toString());
+                synchronized(this) {
+                    sendQueue.remove(message);
+                }
+            }
+        }
+    }
+    
+    /**
+     * sweep
+     * drops the partial messages that have not received a fragment within 
+     * the timeout.
+     */
+    private synchronized void sweep() {
+        long now = System.currentTimeMillis();
+        Iterator<PartialMessage> it = partials.values().iterator();
+        while(it.hasNext()) {
+            PartialMessage partial = it.next();
+            if(now - partial.lastArrival >= timeoutMillis) {
+                if(partial.fragments != null) {
+                    reassemblyBytes -= partial.charged;
+                    messagesTimedOut++;
+                }
+                it.remove();
+            }
+        }
+    }
+    
+    /*
+     * Adds a fragment to its message. Returns the message once it is 
+     * complete, otherwise null. Must be called with the lock held.
+     */
+    private byte[] reassemble(String peerId, int messageId, int index, int count, byte[] data) {
+        if(count <= 0 || count > MAX_FRAGMENTS || index < 0 || index >= count) {
+            messagesDropped++;
+            return null;
+        }
+        if(count == 1) {
+            // Small messages never hold reassembly memory
+            messagesReceived++;
+            return data;
+        }
+        long now = System.currentTimeMillis();
+        String key = peerId + "/" + messageId;
+        PartialMessage partial = partials.get(key);
+        if(partial == null) {
+            partial = new PartialMessage(now);
+            partials.put(key, partial);
+            // The fragment slots are charged against the bound as well, so 
+            // that announcing many fragments cannot exhaust the memory
+            int slotBytes = count * SLOT_BYTES;
+            if(makeRoom(partial, slotBytes)) {
+                partial.fragments = new byte[count][];
+                charge(partial, slotBytes);
+            }
+            else {
+                messagesDropped++;
+            }
+        }
+        if(partial.fragments == null) {
+            // The message was dropped; wait for it to time out
+            partial.lastArrival = now;
+            return null;
+        }
+        if(partial.fragments.length != count) {
+            discard(partial);
+            return null;
+        }
+        if(partial.fragments[index] != null) {
+            return null;
+        }
+        if(!makeRoom(partial, data.length)) {
+            // The message alone is larger than the bound
+            discard(partial);
+            return null;
+        }
+        partial.fragments[index] = data;
+        partial.received++;
+        partial.bytes += data.length;
+        partial.lastArrival = now;
+        charge(partial, data.length);
+        if(partial.received < count) {
+            return null;
+        }
+        partials.remove(key);
+        reassemblyBytes -= partial.charged;
+        byte[] message = new byte[partial.bytes];
+        int offset = 0;
+        for(byte[] fragment : partial.fragments) {
+            System.arraycopy(fragment, 0, message, offset, fragment.length);
+            offset += fragment.length;
+        }
+        messagesReceived++;
+        return message;
+    }
+    
+    /*
+     * Drops the oldest partial messages other than the given one until the
+     * given number of bytes fits within the bound. Returns false without 
+     * dropping any if the given message would not fit even alone. Must be 
+     * called with the lock held.
+     */
+    private boolean makeRoom(PartialMessage partial, long numBytes) {
+        if(partial.charged + numBytes > maxReassemblyBytes) {
+            return false;
+        }
+        Iterator<PartialMessage> it = partials.values().iterator();
+        while(reassemblyBytes + numBytes > maxReassemblyBytes && it.hasNext()) {
+            PartialMessage oldest = it.next();
+            if(oldest != partial && oldest.fragments != null) {
+                discard(oldest);
+            }
+        }
+        return reassemblyBytes + numBytes <= maxReassemblyBytes;
+    }
+    
+    private void charge(PartialMessage partial, long numBytes) {
+        partial.charged += numBytes;
+        reassemblyBytes += numBytes;
+        peakReassemblyBytes = Math.max(peakReassemblyBytes, reassemblyBytes);
+    }
+    
+    private void discard(PartialMessage partial) {
+        reassemblyBytes -= partial.charged;
+        partial.fragments = null;
+        partial.bytes = 0;
+        partial.charged = 0;
+        messagesDropped++;
+    }
+    
+    private FragmentationInterface getEmitter(String peerId) {
+        FragmentationInterface emitter = emitters.get(peerId);
+        if(emitter == null) {
+            emitter = new SignalEmitter(service, peerId, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(FragmentationInterface.class);
+            emitters.put(peerId, emitter);
+        }
+        return emitter;
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Signal Handlers
+     *------------------------------------------------------------------------*/
+    @BusSignalHandler(iface = IFACE, signal = "Fragment")
+    public void Fragment(int messageId, int index, int count, byte[] data) {
+        String peerId;
+        byte[] message;
+        synchronized(this) {
+            if(bus == null) {
+                return;
+            }
+            MessageContext context = bus.getMessageContext();
+            if(context.sessionId != sessionId || context.sender.equals(bus.getUniqueName())) {
+                return;
+            }
+            peerId = context.sender;
+            fragmentsReceived++;
+            message = reassemble(peerId, messageId, index, count, data);
+        }
+        // Deliver without holding the lock
+        if(message != null && listener != null) {
+            listener.messageReceived(peerId, message);
+        }
+    }
+    
+    /*
+     * The bus object the signals are emitted from
+     */
+    private class FragmentationService implements FragmentationInterface, BusObject {
+        public void Fragment(int messageId, int index, int count, byte[] data) {
+        }
+    }
+}
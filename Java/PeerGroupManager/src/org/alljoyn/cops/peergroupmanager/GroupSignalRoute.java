@@ -0,0 +1,245 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.MessageContext;
+import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+
+/**
+ * The GroupSignalRoute delivers the signals of one interface to the signal 
+ * handlers of a class only when they come from the session of a group. It 
+ * registers a proxy of the signal interface with AllJoyn in place of the 
+ * handlers, which checks the session id of each signal on the AllJoyn 
+ * dispatch thread and hands the matching ones to an executor, so that slow
+ * handlers do not hold up the other incoming signals. When it is given a 
+ * SignalRingBuffer instead of handlers, it copies the signals into the ring.
+ */
+class GroupSignalRoute implements InvocationHandler {
+    private static final String TAG = "GroupSignalRoute";
+    
+    // The context of the signal being handled on the current thread
+    private static final ThreadLocal<MessageContext> currentContext = new ThreadLocal<MessageContext>();
+    
+    private final String groupName;
+    private final Object handlers;
+    private final Class<?> iface;
+    // The bus attachment the group is placed on
+    private volatile BusAttachment bus;
+    private final Executor executor;
+    private final Object proxy;
+    // The handler of each signal keyed by the method of the signal interface
+    private final HashMap<Method,Method> signalHandlers = new HashMap<Method,Method>();
+    // The member name of each registered signal
+    private final HashMap<Method,String> signalNames = new HashMap<Method,String>();
+    // The session ids of the group, including the session of each joiner of
+    // a hosted point to point group. Replaced rather than modified so that 
+    // it is read without locking.
+    private volatile Set<Integer> sessionIds = Collections.emptySet();
+    
+    GroupSignalRoute(String groupName, Object handlers, Class<?> iface, BusAttachment bus, Executor executor) {
+        this.groupName = groupName;
+        this.handlers = handlers;
+        this.iface = iface;
+        this.bus = bus;
+        this.executor = executor;
+        this.proxy = Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] { iface }, this);
+    }
+    
+    /**
+     * getCurrentContext
+     * gets the context of the signal handled on the current thread.
+     * 
+     * @return  the message context, or null if the current thread is not 
+     *          running a group signal handler
+     */
+    static MessageContext getCurrentContext() {
+        return currentContext.get();
+    }
+    
+    String getGroupName() {
+        return groupName;
+    }
+    
+    Object getHandlers() {
+        return handlers;
+    }
+    
+    void setSessionIds(Collection<Integer> sessionIds) {
+        this.sessionIds = Collections.unmodifiableSet(new HashSet<Integer>(sessionIds));
+    }
+    
+    /**
+     * register
+     * registers the handlers of the signals of the interface.
+     * 
+     * @return  OK if successful, otherwise FAIL if the class has no handler 
+     *          for the signals of the interface
+     */
+    Status register() {
+        boolean toRing = handlers instanceof SignalRingBuffer;
+        String ifaceName = getInterfaceName(iface);
+        for(Method signal : iface.getMethods()) {
+            BusSignal busSignal = signal.getAnnotation(BusSignal.class);
+            if(busSignal == null) {
+                continue;
+            }
+            String signalName = (busSignal.name().length() > 0) ? busSignal.name() : signal.getName();
+            Method handler = null;
+            if(!toRing) {
+                handler = findHandler(ifaceName, signalName, signal.getParameterTypes());
+                if(handler == null) {
+                    continue;
+                }
+                handler.setAccessible(true);
+            }
+            try {
+                Method proxyMethod = proxy.getClass().getMethod(signal.getName(), signal.getParameterTypes());
+                Status status = bus.registerSignalHandler(ifaceName, signalName, proxy, proxyMethod);
+                if(status != Status.OK) {
+                    Log.e(TAG, "register(): " + ifaceName + "." + signalName + " - " + status);
+                    unregister();
+                    return status;
+                }
+                signalNames.put(signal, signalName);
+                if(handler != null) {
+                    signalHandlers.put(signal, handler);
+                }
+            } catch (NoSuchMethodException e) {
+                Log.e(TAG, "register(): " + e);
+                unregister();
+                return Status.FAIL;
+            }
+        }
+        return signalNames.isEmpty() ? Status.FAIL : Status.OK;
+    }
+    
+    /**
+     * setBus
+     * moves the handlers to another bus attachment, for example once the 
+     * group is placed on it.
+     * 
+     * @param bus  the bus attachment the group is placed on
+     * @return  OK if successful
+     */
+    Status setBus(BusAttachment bus) {
+        if(bus == this.bus) {
+            return Status.OK;
+        }
+        unregister();
+        this.bus = bus;
+        return register();
+    }
+    
+    /**
+     * unregister
+     * stops delivering the signals to the handlers.
+     */
+    void unregister() {
+        for(Method signal : signalNames.keySet()) {
+            try {
+                bus.unregisterSignalHandler(proxy, proxy.getClass().getMethod(signal.getName(), signal.getParameterTypes()));
+            } catch (NoSuchMethodException e) {
+                Log.e(TAG, "unregister(): " + e);
+            }
+        }
+        signalHandlers.clear();
+        signalNames.clear();
+    }
+    
+    @Override
+    public Object invoke(Object proxy, Method method, final Object[] args) {
+        if(method.getDeclaringClass() == Object.class) {
+            if(method.getName().equals("equals")) {
+                return proxy == args[0];
+            }
+            if(method.getName().equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            return TAG + "(" + groupName + ", " + iface.getName() + ")";
+        }
+        String signalName = signalNames.get(method);
+        if(signalName == null) {
+            return null;
+        }
+        // The context can only be read on the AllJoyn dispatch thread
+        final MessageContext context = bus.getMessageContext();
+        if(!sessionIds.contains(context.sessionId)) {
+            return null;
+        }
+        if(handlers instanceof SignalRingBuffer) {
+            ((SignalRingBuffer) handlers).put(signalName, context.sender, args);
+            return null;
+        }
+        final Method handler = signalHandlers.get(method);
+        executor.execute(new Runnable() {
+            public void run() {
+                currentContext.set(context);
+                try {
+                    handler.invoke(handlers, args);
+                } catch (InvocationTargetException e) {
+                    Log.e(TAG, "invoke(): " + handler.getName() + " - " + e.getCause());
+                } catch (IllegalAccessException e) {
+                    Log.e(TAG, "invoke(): " + e);
+                } finally {
+                    currentContext.remove();
+                }
+            }
+        });
+        return null;
+    }
+    
+    private Method findHandler(String ifaceName, String signalName, Class<?>[] parameterTypes) {
+        for(Class<?> c = handlers.getClass(); c != null; c = c.getSuperclass()) {
+            for(Method method : c.getDeclaredMethods()) {
+                BusSignalHandler busSignalHandler = method.getAnnotation(BusSignalHandler.class);
+                if(busSignalHandler != null && busSignalHandler.iface().equals(ifaceName) 
+                        && busSignalHandler.signal().equals(signalName) 
+                        && Arrays.equals(method.getParameterTypes(), parameterTypes)) {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+    
+    private static String getInterfaceName(Class<?> iface) {
+        BusInterface busInterface = iface.getAnnotation(BusInterface.class);
+        if(busInterface != null && busInterface.name().length() > 0) {
+            return busInterface.name();
+        }
+        return iface.getName();
+    }
+}
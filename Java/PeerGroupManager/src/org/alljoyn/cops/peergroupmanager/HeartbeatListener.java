@@ -0,0 +1,44 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The HeartbeatListener is notified by a HeartbeatModule when it starts or 
+ * stops suspecting that a peer has failed. The call-backs are made on the 
+ * thread of the module, so they should return quickly.
+ */
+public interface HeartbeatListener {
+    
+    /**
+     * Called when the heartbeats of a peer have stopped for long enough that
+     * it is suspected to have failed. AllJoyn may still report the peer as
+     * a member of the group until its session times out.
+     * 
+     * @param peerId  the suspected peer
+     * @param phi     the suspicion level of the peer when phi accrual 
+     *                detection is used, otherwise the threshold
+     */
+    public void peerSuspected(String peerId, double phi);
+    
+    /**
+     * Called when a heartbeat arrives from a suspected peer.
+     * 
+     * @param peerId  the peer that is no longer suspected
+     */
+    public void peerRecovered(String peerId);
+}
@@ -0,0 +1,519 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.MessageContext;
+import org.alljoyn.bus.Mutable;
+import org.alljoyn.bus.SignalEmitter;
+import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+
+/**
+ * The HeartbeatModule detects failed peers much sooner than AllJoyn reports
+ * them as removed from the group. Every peer running the module sends a 
+ * small heartbeat signal to the group at a fixed rate, and a peer whose 
+ * heartbeats stop is reported as suspected to the HeartbeatListener.
+ * By default suspicion uses phi accrual detection: the arrival times of each
+ * peer's heartbeats are modelled as a normal distribution and a peer is 
+ * suspected once the phi value of its silence, -log10 of the probability 
+ * that a heartbeat is still on its way, reaches the threshold. A phi of 8 
+ * corresponds to a 1 in 10^8 chance of a false suspicion. A fixed timeout 
+ * can be used instead with setTimeoutMillis().
+ * The module also lowers the link timeout of the group session so that 
+ * AllJoyn itself drops failed peers sooner on transports that support it.
+ * NOTE: Every peer of the group must register the module with 
+ * PeerGroupManager.registerModule() after the group has a session.
+ */
+public class HeartbeatModule implements PGLifecycleModule {
+    private static final String TAG = "HeartbeatModule";
+    private static final String IFACE = "org.alljoyn.cops.peergroupmanager.Heartbeat";
+    
+    /** The default phi threshold at which a peer is suspected. */
+    public static final double DEFAULT_PHI_THRESHOLD = 8.0;
+    
+    private static final String MEMBER = "Heartbeat";
+    // Number of heartbeat intervals kept per peer for phi accrual
+    private static final int MAX_SAMPLES = 100;
+    // Detection is checked this many times per heartbeat interval
+    private static final int CHECKS_PER_INTERVAL = 4;
+    
+    private final long intervalMillis;
+    private final HeartbeatListener listener;
+    private double phiThreshold = DEFAULT_PHI_THRESHOLD;
+    private long timeoutMillis = 0;
+    private int linkTimeoutSeconds = 0;
+    
+    private final HeartbeatService service = new HeartbeatService();
+    private final HashMap<String,PeerHistory> peers = new HashMap<String,PeerHistory>();
+    private BusAttachment bus;
+    private int sessionId = -1;
+    private HeartbeatInterface groupEmitter;
+    private int sequence = 0;
+    private long heartbeatsSent = 0;
+    private long heartbeatsReceived = 0;
+    private long bytesSent = 0;
+    private long bytesReceived = 0;
+    private int sentMessageBytes;
+    private long startTime;
+    
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        }
+    });
+    
+    private static class PeerHistory {
+        // The last intervals between heartbeats in a ring
+        final long[] intervals = new long[MAX_SAMPLES];
+        int numIntervals = 0;
+        int nextInterval = 0;
+        long lastArrival;
+        boolean suspected = false;
+        
+        PeerHistory(long now) {
+            lastArrival = now;
+        }
+        
+        void heartbeat(long now) {
+            intervals[nextInterval] = now - lastArrival;
+            nextInterval = (nextInterval + 1) % MAX_SAMPLES;
+            numIntervals = Math.min(numIntervals + 1, MAX_SAMPLES);
+            lastArrival = now;
+        }
+        
+        double phi(long now, long expectedInterval) {
+            // Until we have history assume the configured interval
+            double mean = expectedInterval;
+            double variance = 0;
+            if(numIntervals > 0) {
+                double sum = 0;
+                for(int i = 0; i < numIntervals; i++) {
+                    sum += intervals[i];
+                }
+                mean = sum / numIntervals;
+                for(int i = 0; i < numIntervals; i++) {
+                    variance += (intervals[i] - mean) * (intervals[i] - mean);
+                }
+                variance /= numIntervals;
+            }
+            // Keep a minimum deviation so that a very regular peer is not 
+            // suspected on the first late heartbeat
+            double stdDev = Math.max(Math.sqrt(variance), expectedInterval / 4.0);
+            double y = ((now - lastArrival) - mean) / stdDev;
+            // Logistic approximation of the normal cumulative distribution
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if(now - lastArrival > mean) {
+                return -Math.log10(e / (1.0 + e));
+            }
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+    
+    /**
+     * Constructs a HeartbeatModule using phi accrual detection with the 
+     * default threshold.
+     * 
+     * @param intervalMillis  the time between two heartbeats
+     * @param listener        the listener to notify of suspected peers. This 
+     *                        can be null.
+     */
+    public HeartbeatModule(long intervalMillis, HeartbeatListener listener) {
+        if(intervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid heartbeat interval");
+        }
+        this.intervalMillis = intervalMillis;
+        this.listener = listener;
+    }
+    
+    /**
+     * setPhiThreshold
+     * sets the phi value at which a peer is suspected. Lower values detect 
+     * failures sooner at the cost of more false suspicions.
+     * 
+     * @param phiThreshold  the threshold, typically between 1 and 16
+     */
+    public synchronized void setPhiThreshold(double phiThreshold) {
+        if(phiThreshold <= 0) {
+            throw new IllegalArgumentException("Invalid phi threshold");
+        }
+        this.phiThreshold = phiThreshold;
+    }
+    
+    /**
+     * setTimeoutMillis
+     * switches to fixed timeout detection: a peer is suspected once no 
+     * heartbeat has arrived from it for the given time.
+     * 
+     * @param timeoutMillis  the timeout, or 0 to use phi accrual detection
+     */
+    public synchronized void setTimeoutMillis(long timeoutMillis) {
+        if(timeoutMillis < 0) {
+            throw new IllegalArgumentException("Invalid timeout");
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+    
+    /**
+     * setLinkTimeoutSeconds
+     * sets the link timeout requested for the group session when the module
+     * is registered. By default it is derived from the detection latency.
+     * 
+     * @param linkTimeoutSeconds  the link timeout, or 0 for the default
+     */
+    public synchronized void setLinkTimeoutSeconds(int linkTimeoutSeconds) {
+        if(linkTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("Invalid link timeout");
+        }
+        this.linkTimeoutSeconds = linkTimeoutSeconds;
+    }
+    
+    /**
+     * register
+     * registers the bus object and signal handlers of the module on the bus
+     * attachment of the group, lowers the link timeout of the session and 
+     * starts sending heartbeats.
+     */
+    @Override
+    public synchronized Status register(BusAttachment bus, int sessionId) {
+        if(bus == null || sessionId == -1) {
+            Log.e(TAG, "register(): The group has no session");
+            return Status.FAIL;
+        }
+        if(this.bus != null) {
+            Log.e(TAG, "register(): Already registered");
+            return Status.FAIL;
+        }
+        String objectPath = "/Heartbeat/s" + (sessionId & 0xffffffffL);
+        Status status = bus.registerBusObject(service, objectPath);
+        if(status != Status.OK) {
+            return status;
+        }
+        status = bus.registerSignalHandlers(this);
+        if(status != Status.OK) {
+            bus.unregisterBusObject(service);
+            return status;
+        }
+        this.bus = bus;
+        this.sessionId = sessionId;
+        this.groupEmitter = new SignalEmitter(service, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                .getInterface(HeartbeatInterface.class);
+        this.sentMessageBytes = messageBytes(objectPath, bus.getUniqueName());
+        this.startTime = System.currentTimeMillis();
+        
+        // Ask AllJoyn to probe the link as often as we expect to detect failures
+        long detectionMillis = (timeoutMillis > 0) ? timeoutMillis : intervalMillis * 4;
+        Mutable.IntegerValue linkTimeout = new Mutable.IntegerValue(
+                (linkTimeoutSeconds > 0) ? linkTimeoutSeconds : (int) Math.max(1, (detectionMillis + 999) / 1000));
+        Status linkStatus = bus.setLinkTimeout(sessionId, linkTimeout);
+        Log.i(TAG, "register(): setLinkTimeout(" + linkTimeout.value + ") - " + linkStatus.toString());
+        linkTimeoutSeconds = (linkStatus == Status.OK) ? linkTimeout.value : 0;
+        
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                beat();
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                check();
+            }
+        }, intervalMillis, Math.max(1, intervalMillis / CHECKS_PER_INTERVAL), TimeUnit.MILLISECONDS);
+        return Status.OK;
+    }
+    
+    /**
+     * unregister
+     * stops sending heartbeats and removes the module from the bus 
+     * attachment. The module cannot be registered again afterwards.
+     */
+    @Override
+    public synchronized void unregister() {
+        executor.shutdownNow();
+        if(bus != null) {
+            bus.unregisterSignalHandlers(this);
+            bus.unregisterBusObject(service);
+            bus = null;
+        }
+    }
+    
+    /**
+     * getSuspectedPeers
+     * lists the peers that are currently suspected to have failed.
+     * 
+     * @return  a list of the suspected peer ids
+     */
+    public synchronized ArrayList<String> getSuspectedPeers() {
+        ArrayList<String> suspected = new ArrayList<String>();
+        for(Map.Entry<String,PeerHistory> entry : peers.entrySet()) {
+            if(entry.getValue().suspected) {
+                suspected.add(entry.getKey());
+            }
+        }
+        return suspected;
+    }
+    
+    /**
+     * getPhi
+     * gets the current suspicion level of a peer.
+     * 
+     * @param peerId  the peer to get the suspicion level of
+     * @return  the phi value of the peer, or 0 if no heartbeat has been 
+     *          received from it
+     */
+    public synchronized double getPhi(String peerId) {
+        PeerHistory history = peers.get(peerId);
+        return (history == null) ? 0 : history.phi(System.currentTimeMillis(), intervalMillis);
+    }
+    
+    /**
+     * groupJoined
+     * does nothing, as a peer is watched from its first heartbeat.
+     */
+    @Override
+    public void groupJoined(String hostPeerId) {
+    }
+    
+    /**
+     * removePeer
+     * stops watching a peer, for example after it left the group.
+     * 
+     * @param peerId  the peer to forget
+     */
+    @Override
+    public synchronized void removePeer(String peerId) {
+        peers.remove(peerId);
+    }
+    
+    /**
+     * Get the link timeout AllJoyn granted for the group session.
+     * 
+     * @return the link timeout in seconds, or 0 if the transport does not 
+     *         support link timeouts
+     */
+    public synchronized int getLinkTimeoutSeconds() {
+        return linkTimeoutSeconds;
+    }
+    
+    /**
+     * Get the number of heartbeats sent to the group.
+     * 
+     * @return the number of heartbeats sent
+     */
+    public synchronized long getHeartbeatsSent() {
+        return heartbeatsSent;
+    }
+    
+    /**
+     * Get the number of heartbeats received from all peers.
+     * 
+     * @return the number of heartbeats received
+     */
+    public synchronized long getHeartbeatsReceived() {
+        return heartbeatsReceived;
+    }
+    
+    /**
+     * Get the number of bytes of the heartbeats sent to the group.
+     * 
+     * @return the size of the heartbeats sent
+     * @see #getOverheadBytesPerSecond()
+     */
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+    
+    /**
+     * Get the number of bytes of the heartbeats received from all peers.
+     * 
+     * @return the size of the heartbeats received
+     * @see #getOverheadBytesPerSecond()
+     */
+    public synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+    
+    /**
+     * Get the heartbeat traffic of this peer, counting both the heartbeats 
+     * it sends and the ones it receives. Each heartbeat is counted at its 
+     * size in the D-Bus wire format, computed from its actual path, sender 
+     * and session header fields and its body. AllJoyn does not report the 
+     * bytes it puts on the link, so transport framing and AllJoyn header 
+     * compression are not accounted for.
+     * 
+     * @return the overhead in bytes per second
+     */
+    public synchronized long getOverheadBytesPerSecond() {
+        if(startTime == 0) {
+            return 0;
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        return (bytesSent + bytesReceived) * 1000 / elapsed;
+    }
+    
+    /**
+     * messageBytes
+     * computes the size of a heartbeat signal in the D-Bus wire format: the
+     * fixed header, the path, interface, member, sender, signature and 
+     * session id header fields, and the int32 body.
+     */
+    static int messageBytes(String objectPath, String sender) {
+        // The fixed header and the length of the header field array
+        int size = 16;
+        size = addStringField(size, objectPath);
+        size = addStringField(size, IFACE);
+        size = addStringField(size, MEMBER);
+        size = addStringField(size, sender);
+        // Signature field: the code, the variant signature and "i"
+        size = align8(size) + 4 + 3;
+        // Session id field: the code, the variant signature and a uint32
+        size = align8(size) + 4 + 4;
+        // The body starts on a boundary of 8
+        return align8(size) + 4;
+    }
+    
+    private static int addStringField(int size, String value) {
+        // Each field is a struct of the code, the variant signature, and the
+        // length, characters and terminating nul of the value
+        return align8(size) + 4 + 4 + ((value == null) ? 0 : value.length()) + 1;
+    }
+    
+    private static int align8(int size) {
+        return (size + 7) & ~7;
+    }
+    
+    private void beat() {
+        HeartbeatInterface emitter;
+        int beatSequence;
+        synchronized(this) {
+            if(bus == null) {
+                return;
+            }
+            emitter = groupEmitter;
+            beatSequence = sequence++;
+        }
+        try {
+            emitter.Heartbeat(beatSequence);
+            synchronized(this) {
+                heartbeatsSent++;
+                bytesSent += sentMessageBytes;
+            }
+        } catch (BusException e) {
+            Log.e(TAG, "beat(): " + e.toString());
+        }
+    }
+    
+    private void check() {
+        ArrayList<String> suspected = new ArrayList<String>();
+        ArrayList<Double> phis = new ArrayList<Double>();
+        synchronized(this) {
+            long now = System.currentTimeMillis();
+            for(Map.Entry<String,PeerHistory> entry : peers.entrySet()) {
+                PeerHistory history = entry.getValue();
+                if(history.suspected) {
+                    continue;
+                }
+                if(timeoutMillis > 0) {
+                    if(now - history.lastArrival >= timeoutMillis) {
+                        history.suspected = true;
+                        suspected.add(entry.getKey());
+                        phis.add(phiThreshold);
+                    }
+                }
+                else {
+                    double phi = history.phi(now, intervalMillis);
+                    if(phi >= phiThreshold) {
+                        history.suspected = true;
+                        suspected.add(entry.getKey());
+                        phis.add(phi);
+                    }
+                }
+            }
+        }
+        // Notify without holding the lock
+        if(listener != null) {
+            for(int i = 0; i < suspected.size(); i++) {
+                listener.peerSuspected(suspected.get(i), phis.get(i));
+            }
+        }
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Signal Handlers
+     *------------------------------------------------------------------------*/
+    @BusSignalHandler(iface = IFACE, signal = MEMBER)
+    public void Heartbeat(int sequence) {
+        final String peerId;
+        boolean recovered = false;
+        synchronized(this) {
+            if(bus == null) {
+                return;
+            }
+            MessageContext context = bus.getMessageContext();
+            if(context.sessionId != sessionId || context.sender.equals(bus.getUniqueName())) {
+                return;
+            }
+            peerId = context.sender;
+            heartbeatsReceived++;
+            bytesReceived += messageBytes(context.objectPath, context.sender);
+            long now = System.currentTimeMillis();
+            PeerHistory history = peers.get(peerId);
+            if(history == null) {
+                peers.put(peerId, new PeerHistory(now));
+            }
+            else if(history.suspected) {
+                // Keep the silence out of the interval history
+                history.lastArrival = now;
+                history.suspected = false;
+                recovered = true;
+            }
+            else {
+                history.heartbeat(now);
+            }
+        }
+        if(recovered && listener != null && !executor.isShutdown()) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    listener.peerRecovered(peerId);
+                }
+            });
+        }
+    }
+    
+    /*
+     * The bus object the signals are emitted from
+     */
+    private class HeartbeatService implements HeartbeatInterface, BusObject {
+        public void Heartbeat(int sequence) {
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
+
+/**
+ * The AllJoyn interface used for host migration. The host of a JoinOrCreate
+ * group sends the Members of the group to the whole group whenever they 
+ * change, so that the peers elect the successor from the same membership.
+ * The host of any other multipoint group sends them only to each peer that 
+ * joins, so that the peer knows when the existing members are all known.
+ */
+@BusInterface(name = "org.alljoyn.cops.peergroupmanager.HostMigration")
+public interface HostMigrationInterface {
+    
+    @BusSignal
+    public void Members(String[] peerIds) throws BusException;
+}
@@ -0,0 +1,356 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The HostedGroupJournal records the groups a PeerGroupManager is hosting,
+ * whether they are locked and their session profiles, in a compact 
+ * append-only file. It is given to PeerGroupManager.restoreHostedGroups() 
+ * after a restart so that all of the groups recorded by the previous run are re-established in a single burst
+ * with the same names, lock states and session profiles.
+ * NOTE: Records are appended and synced to disk in batches on a background
+ * thread, so a crash can lose the changes made in the last few moments
+ * before it.
+ */
+public class HostedGroupJournal {
+    private static final String TAG = "HostedGroupJournal";
+
+    // Record types
+    private static final byte RECORD_CREATED = 1;
+    private static final byte RECORD_DESTROYED = 2;
+    private static final byte RECORD_LOCKED = 3;
+    private static final byte RECORD_UNLOCKED = 4;
+    private static final byte RECORD_RENAMED = 5;
+    private static final byte RECORD_CREATED_WITH_PROFILE = 6;
+
+    // Compact the file when it holds this many records per live group
+    private static final int COMPACT_RATIO = 8;
+    private static final int COMPACT_MIN_RECORDS = 64;
+
+    private final File journalFile;
+
+    // The hosted groups described by the journal, in creation order
+    private final LinkedHashMap<String,GroupState> groups = new LinkedHashMap<String,GroupState>();
+    // Encoded records waiting to be appended to the file
+    private ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+    // Snapshot of all live groups that replaces the file on the next flush
+    private byte[] compactedRecords = null;
+    // Number of records currently in the file
+    private int recordCount = 0;
+    private boolean flushPending = false;
+    private boolean loaded = false;
+
+    // Single background thread used to append to and sync the journal file
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * The journaled state of a single hosted group.
+     */
+    static class GroupState {
+        final String groupName;
+        final short sessionPort;
+        boolean locked;
+        // The session profile, or null for the default one
+        final SessionProfile profile;
+
+        GroupState(String groupName, short sessionPort, boolean locked, SessionProfile profile) {
+            this.groupName = groupName;
+            this.sessionPort = sessionPort;
+            this.locked = locked;
+            this.profile = profile;
+        }
+    }
+
+    /**
+     * Constructs a HostedGroupJournal backed by the given file.
+     *
+     * @param journalFile  the file to journal the hosted groups in. The file
+     *                     is created if it does not exist.
+     */
+    public HostedGroupJournal(File journalFile) {
+        if(journalFile == null) {
+            throw new IllegalArgumentException("Invalid journal file");
+        }
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * clear
+     * forgets all of the journaled groups so that nothing is restored on
+     * the next start.
+     */
+    public synchronized void clear() {
+        loaded = true;
+        groups.clear();
+        scheduleCompaction();
+    }
+
+    /**
+     * load
+     * replays the journal file and returns the hosted groups it describes.
+     * The file is compacted to a single record per group afterwards.
+     *
+     * @return  the journaled groups in the order they were created
+     */
+    synchronized ArrayList<GroupState> load() {
+        if(!loaded) {
+            loaded = true;
+            replay();
+            scheduleCompaction();
+        }
+        ArrayList<GroupState> states = new ArrayList<GroupState>(groups.size());
+        for(GroupState state : groups.values()) {
+            states.add(new GroupState(state.groupName, state.sessionPort, state.locked, state.profile));
+        }
+        return states;
+    }
+
+    synchronized void groupCreated(String groupName, short sessionPort, boolean locked, SessionProfile profile) {
+        groups.remove(groupName);
+        GroupState state = new GroupState(groupName, sessionPort, locked, profile);
+        groups.put(groupName, state);
+        append(RECORD_CREATED, state, null);
+    }
+
+    synchronized void groupDestroyed(String groupName) {
+        if(groups.remove(groupName) != null) {
+            append(RECORD_DESTROYED, new GroupState(groupName, (short) 0, false, null), null);
+        }
+    }
+
+    synchronized void groupLocked(String groupName, boolean locked) {
+        GroupState state = groups.get(groupName);
+        if(state != null && state.locked != locked) {
+            state.locked = locked;
+            append(locked ? RECORD_LOCKED : RECORD_UNLOCKED, state, null);
+        }
+    }
+
+    synchronized void groupRenamed(String prevGroupName, String newGroupName) {
+        GroupState state = groups.remove(prevGroupName);
+        if(state != null) {
+            groups.put(newGroupName, new GroupState(newGroupName, state.sessionPort, state.locked, state.profile));
+            append(RECORD_RENAMED, state, newGroupName);
+        }
+    }
+
+    /**
+     * close
+     * syncs any pending records and stops the background writer.
+     */
+    synchronized void close() {
+        scheduleFlush();
+        writer.shutdown();
+    }
+
+    private void replay() {
+        groups.clear();
+        recordCount = 0;
+        if(!journalFile.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+            while(true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                String groupName = in.readUTF();
+                switch(type) {
+                case RECORD_CREATED:
+                case RECORD_CREATED_WITH_PROFILE:
+                    short sessionPort = in.readShort();
+                    boolean locked = in.readBoolean();
+                    SessionProfile profile = null;
+                    if(type == RECORD_CREATED_WITH_PROFILE) {
+                        byte traffic = in.readByte();
+                        boolean isMultipoint = in.readBoolean();
+                        byte proximity = in.readByte();
+                        short transports = in.readShort();
+                        try {
+                            profile = new SessionProfile(traffic, isMultipoint, proximity, transports);
+                        } catch (IllegalArgumentException e) {
+                            throw new IOException("Invalid session profile of " + groupName);
+                        }
+                    }
+                    groups.remove(groupName);
+                    groups.put(groupName, new GroupState(groupName, sessionPort, locked, profile));
+                    break;
+                case RECORD_DESTROYED:
+                    groups.remove(groupName);
+                    break;
+                case RECORD_LOCKED:
+                case RECORD_UNLOCKED:
+                    GroupState state = groups.get(groupName);
+                    if(state != null) {
+                        state.locked = (type == RECORD_LOCKED);
+                    }
+                    break;
+                case RECORD_RENAMED:
+                    String newGroupName = in.readUTF();
+                    GroupState prevState = groups.remove(groupName);
+                    if(prevState != null) {
+                        groups.put(newGroupName, new GroupState(newGroupName, prevState.sessionPort, prevState.locked, 
+                                prevState.profile));
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+                }
+                recordCount++;
+            }
+        } catch (IOException e) {
+            // A torn record at the end of the file is expected after a crash
+            Log.e(TAG, "replay(): " + e.toString());
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void append(byte type, GroupState state, String newGroupName) {
+        encode(pendingRecords, type, state, newGroupName);
+        recordCount++;
+        if(recordCount > COMPACT_MIN_RECORDS && recordCount > groups.size() * COMPACT_RATIO) {
+            scheduleCompaction();
+        }
+        else {
+            scheduleFlush();
+        }
+    }
+
+    private static void encode(ByteArrayOutputStream buffer, byte type, GroupState state, String newGroupName) {
+        DataOutputStream out = new DataOutputStream(buffer);
+        try {
+            // Groups with the default profile keep the record of older journals
+            if(type == RECORD_CREATED && state.profile != null) {
+                type = RECORD_CREATED_WITH_PROFILE;
+            }
+            out.writeByte(type);
+            out.writeUTF(state.groupName);
+            if(type == RECORD_CREATED || type == RECORD_CREATED_WITH_PROFILE) {
+                out.writeShort(state.sessionPort);
+                out.writeBoolean(state.locked);
+            }
+            if(type == RECORD_CREATED_WITH_PROFILE) {
+                out.writeByte(state.profile.getTraffic());
+                out.writeBoolean(state.profile.isMultipoint());
+                out.writeByte(state.profile.getProximity());
+                out.writeShort(state.profile.getTransports());
+            }
+            else if(type == RECORD_RENAMED) {
+                out.writeUTF(newGroupName);
+            }
+        } catch (IOException e) {
+            // Writing to a byte array cannot fail
+        }
+    }
+
+    private void scheduleFlush() {
+        if(flushPending || writer.isShutdown()) {
+            return;
+        }
+        flushPending = true;
+        writer.execute(new Runnable() {
+            public void run() {
+                byte[] snapshot;
+                byte[] records;
+                synchronized(HostedGroupJournal.this) {
+                    flushPending = false;
+                    snapshot = compactedRecords;
+                    compactedRecords = null;
+                    records = pendingRecords.toByteArray();
+                    pendingRecords.reset();
+                }
+                if(snapshot != null) {
+                    // Replace the file with the snapshot followed by any newer records
+                    byte[] combined = new byte[snapshot.length + records.length];
+                    System.arraycopy(snapshot, 0, combined, 0, snapshot.length);
+                    System.arraycopy(records, 0, combined, snapshot.length, records.length);
+                    write(combined, false);
+                }
+                else if(records.length > 0) {
+                    write(records, true);
+                }
+            }
+        });
+    }
+
+    private void scheduleCompaction() {
+        // Replace the file and any pending records with a snapshot of every
+        // live group
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        for(GroupState state : groups.values()) {
+            encode(snapshot, RECORD_CREATED, state, null);
+        }
+        compactedRecords = snapshot.toByteArray();
+        recordCount = groups.size();
+        pendingRecords.reset();
+        scheduleFlush();
+    }
+
+    private void write(byte[] records, boolean append) {
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(journalFile, append);
+            out.write(records);
+            out.flush();
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "write(): " + e.toString());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void closeQuietly(Closeable stream) {
+        if(stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // Nothing left to do with the stream
+            }
+        }
+    }
+}
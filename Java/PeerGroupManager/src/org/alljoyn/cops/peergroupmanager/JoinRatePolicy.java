@@ -0,0 +1,97 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The JoinRatePolicy limits how fast peers can join a hosted group with a 
+ * token bucket. The bucket holds up to burst tokens and is refilled at the 
+ * given number of tokens per second; each admitted joiner takes a token and
+ * joiners are rejected while the bucket is empty. The bucket is updated 
+ * without locking.
+ * NOTE: Set it after the other policies of the group so that joiners they
+ * reject do not use up tokens.
+ */
+public class JoinRatePolicy implements AdmissionPolicy {
+    
+    private static class Bucket {
+        final double tokens;
+        final long nanos;
+        
+        Bucket(double tokens, long nanos) {
+            this.tokens = tokens;
+            this.nanos = nanos;
+        }
+    }
+    
+    private final double joinsPerSecond;
+    private final int burst;
+    private final AtomicReference<Bucket> bucket;
+    
+    /**
+     * Constructs a JoinRatePolicy with a full bucket.
+     * 
+     * @param joinsPerSecond  the sustained number of joins per second
+     * @param burst           the number of joins admitted back to back
+     */
+    public JoinRatePolicy(double joinsPerSecond, int burst) {
+        if(!(joinsPerSecond > 0)) {
+            throw new IllegalArgumentException("Invalid join rate");
+        }
+        if(burst <= 0) {
+            throw new IllegalArgumentException("Invalid burst");
+        }
+        this.joinsPerSecond = joinsPerSecond;
+        this.burst = burst;
+        this.bucket = new AtomicReference<Bucket>(new Bucket(burst, System.nanoTime()));
+    }
+    
+    /**
+     * Get the sustained number of joins per second.
+     * 
+     * @return the join rate
+     */
+    public double getJoinsPerSecond() {
+        return joinsPerSecond;
+    }
+    
+    /**
+     * Get the number of joins admitted back to back.
+     * 
+     * @return the size of the bucket
+     */
+    public int getBurst() {
+        return burst;
+    }
+    
+    @Override
+    public boolean admit(String groupName, String joiner, int numPeers) {
+        while(true) {
+            Bucket current = bucket.get();
+            long now = System.nanoTime();
+            double tokens = Math.min(burst, current.tokens + (now - current.nanos) * joinsPerSecond / 1e9);
+            if(tokens < 1) {
+                return false;
+            }
+            if(bucket.compareAndSet(current, new Bucket(tokens - 1, now))) {
+                return true;
+            }
+        }
+    }
+}
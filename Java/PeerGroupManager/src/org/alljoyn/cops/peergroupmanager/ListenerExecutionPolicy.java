@@ -0,0 +1,84 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The ListenerExecutionPolicy makes the PeerGroupManager call a listener on 
+ * its own executor instead of the thread that handles the AllJoyn events, so
+ * a listener that does slow work in its call-backs does not delay the other 
+ * listeners. The call-backs are queued in order and run one at a time, even 
+ * on an executor with several threads. When more call-backs than the queue 
+ * bound are waiting, the BackpressurePolicy decides what to do.
+ */
+public class ListenerExecutionPolicy {
+    private final Executor executor;
+    private final int queueBound;
+    private final BackpressurePolicy backpressure;
+    
+    /**
+     * Constructs a ListenerExecutionPolicy.
+     * 
+     * @param executor      the executor to call the listener on
+     * @param queueBound    the maximum number of call-backs waiting for the 
+     *                      listener
+     * @param backpressure  what to do when the queue is full
+     */
+    public ListenerExecutionPolicy(Executor executor, int queueBound, BackpressurePolicy backpressure) {
+        if(executor == null) {
+            throw new IllegalArgumentException("Invalid executor");
+        }
+        if(queueBound <= 0) {
+            throw new IllegalArgumentException("Invalid queue bound");
+        }
+        if(backpressure == null) {
+            throw new IllegalArgumentException("Invalid backpressure policy");
+        }
+        this.executor = executor;
+        this.queueBound = queueBound;
+        this.backpressure = backpressure;
+    }
+    
+    /**
+     * Get the executor the listener is called on.
+     * 
+     * @return the executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+    
+    /**
+     * Get the maximum number of call-backs waiting for the listener.
+     * 
+     * @return the queue bound
+     */
+    public int getQueueBound() {
+        return queueBound;
+    }
+    
+    /**
+     * Get what happens when the queue is full.
+     * 
+     * @return the backpressure policy
+     */
+    public BackpressurePolicy getBackpressure() {
+        return backpressure;
+    }
+}
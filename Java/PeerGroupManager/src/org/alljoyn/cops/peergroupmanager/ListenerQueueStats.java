@@ -0,0 +1,113 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * This class is returned by the getListenerQueueStats() method of the peer 
+ * group manager. It is a snapshot of the queue of a listener added with a 
+ * ListenerExecutionPolicy.
+ */
+public class ListenerQueueStats {
+    private int queued;
+    private long delivered;
+    private long dropped;
+    private long coalesced;
+    private long maxQueueDelayNanos;
+    private long totalQueueDelayNanos;
+    
+    ListenerQueueStats() {
+    }
+    
+    ListenerQueueStats(ListenerQueueStats stats, int queued) {
+        this.queued = queued;
+        this.delivered = stats.delivered;
+        this.dropped = stats.dropped;
+        this.coalesced = stats.coalesced;
+        this.maxQueueDelayNanos = stats.maxQueueDelayNanos;
+        this.totalQueueDelayNanos = stats.totalQueueDelayNanos;
+    }
+    
+    void delivered(long queueDelayNanos) {
+        delivered++;
+        totalQueueDelayNanos += queueDelayNanos;
+        maxQueueDelayNanos = Math.max(maxQueueDelayNanos, queueDelayNanos);
+    }
+    
+    void dropped() {
+        dropped++;
+    }
+    
+    void coalesced() {
+        coalesced++;
+    }
+    
+    /**
+     * Get the number of call-backs waiting for the listener.
+     * 
+     * @return the current queue length
+     */
+    public int getQueued() {
+        return queued;
+    }
+    
+    /**
+     * Get the number of call-backs made to the listener.
+     * 
+     * @return the number of delivered call-backs
+     */
+    public long getDelivered() {
+        return delivered;
+    }
+    
+    /**
+     * Get the number of call-backs discarded because the queue was full.
+     * 
+     * @return the number of dropped call-backs
+     */
+    public long getDropped() {
+        return dropped;
+    }
+    
+    /**
+     * Get the number of queued call-backs replaced by a newer one.
+     * 
+     * @return the number of coalesced call-backs
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+    
+    /**
+     * Get the longest time a call-back waited in the queue.
+     * 
+     * @return the maximum queue delay in milliseconds
+     */
+    public long getMaxQueueDelayMillis() {
+        return maxQueueDelayNanos / 1000000;
+    }
+    
+    /**
+     * Get the average time a call-back waited in the queue.
+     * 
+     * @return the average queue delay in milliseconds, or 0 if no call-back 
+     *         was delivered
+     */
+    public long getAverageQueueDelayMillis() {
+        return delivered == 0 ? 0 : totalQueueDelayNanos / delivered / 1000000;
+    }
+}
@@ -0,0 +1,54 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The MaxMembersPolicy rejects joiners once a hosted group has the maximum 
+ * number of peers. The host counts as a peer.
+ */
+public class MaxMembersPolicy implements AdmissionPolicy {
+    private final int maxMembers;
+    
+    /**
+     * Constructs a MaxMembersPolicy.
+     * 
+     * @param maxMembers  the maximum number of peers in the group, including
+     *                    the host
+     */
+    public MaxMembersPolicy(int maxMembers) {
+        if(maxMembers < 2) {
+            throw new IllegalArgumentException("Invalid maximum number of members");
+        }
+        this.maxMembers = maxMembers;
+    }
+    
+    /**
+     * Get the maximum number of peers in the group.
+     * 
+     * @return the maximum number of peers, including the host
+     */
+    public int getMaxMembers() {
+        return maxMembers;
+    }
+    
+    @Override
+    public boolean admit(String groupName, String joiner, int numPeers) {
+        // A group that has not had any joiner yet only holds the host
+        return Math.max(numPeers, 1) < maxMembers;
+    }
+}
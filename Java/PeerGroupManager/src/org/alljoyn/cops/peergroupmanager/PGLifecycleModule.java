@@ -0,0 +1,50 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The interface a module implements on top of PGModule if it keeps state 
+ * about the peers of its group. The PeerGroupManager keeps track of the 
+ * modules registered for each group and tells them about the group until it
+ * is destroyed or left.
+ *
+ */
+public interface PGLifecycleModule extends PGModule {
+    /**
+     * groupJoined will be called by the PeerGroupManager after register() 
+     * when the module is registered for a group that was joined rather than 
+     * created, so that it can catch up with the state of the group
+     * 
+     * @param hostPeerId  the peer id of the host of the group
+     */
+    public void groupJoined(String hostPeerId);
+    
+    /**
+     * removePeer will be called by the PeerGroupManager when a peer leaves 
+     * the group of the module
+     * 
+     * @param peerId  the peer that left
+     */
+    public void removePeer(String peerId);
+    
+    /**
+     * unregister will be called by the PeerGroupManager when the group of 
+     * the module is destroyed or left, or the PeerGroupManager is cleaned 
+     * up, to stop the module and remove it from the bus attachment
+     */
+    public void unregister();
+}
@@ -0,0 +1,192 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * The PayloadReader decodes the values of a payload written by a 
+ * PayloadWriter, in the order they were written. A reader can be reused for
+ * the next payload with reset(). Reading past the end of the payload or a 
+ * malformed varint throws an IllegalArgumentException, which modules should
+ * catch for payloads received from other peers.
+ * NOTE: A PayloadReader is not thread safe.
+ */
+public class PayloadReader {
+    private byte[] data;
+    private int position;
+    private int end;
+    
+    /**
+     * Constructs a PayloadReader over a whole payload.
+     * 
+     * @param data  the payload to read
+     */
+    public PayloadReader(byte[] data) {
+        reset(data, 0, data.length);
+    }
+    
+    /**
+     * reset
+     * starts reading another payload.
+     * 
+     * @param data    the buffer holding the payload
+     * @param offset  the start of the payload in the buffer
+     * @param length  the length of the payload
+     * @return  the reader
+     */
+    public PayloadReader reset(byte[] data, int offset, int length) {
+        if(data == null || offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IllegalArgumentException("Invalid payload bounds");
+        }
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+        return this;
+    }
+    
+    /**
+     * Get the number of bytes not read yet.
+     * 
+     * @return the number of remaining bytes
+     */
+    public int remaining() {
+        return end - position;
+    }
+    
+    /**
+     * readVarint
+     * reads an unsigned value written by PayloadWriter.writeVarint().
+     * 
+     * @return  the value
+     */
+    public long readVarint() {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            require(1);
+            byte b = data[position++];
+            value |= (long) (b & 0x7f) << shift;
+            if((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+    
+    /**
+     * readInt
+     * reads a signed int written by PayloadWriter.writeInt().
+     * 
+     * @return  the value
+     */
+    public int readInt() {
+        long zigzag = readVarint();
+        if((zigzag >>> 32) != 0) {
+            throw new IllegalArgumentException("Malformed varint");
+        }
+        int value = (int) zigzag;
+        return (value >>> 1) ^ -(value & 1);
+    }
+    
+    /**
+     * readLong
+     * reads a signed long written by PayloadWriter.writeLong().
+     * 
+     * @return  the value
+     */
+    public long readLong() {
+        long zigzag = readVarint();
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+    
+    /**
+     * readBoolean
+     * reads a boolean written by PayloadWriter.writeBoolean().
+     * 
+     * @return  the value
+     */
+    public boolean readBoolean() {
+        require(1);
+        return data[position++] != 0;
+    }
+    
+    /**
+     * readDouble
+     * reads a double written by PayloadWriter.writeDouble().
+     * 
+     * @return  the value
+     */
+    public double readDouble() {
+        require(8);
+        long bits = 0;
+        for(int i = 0; i < 8; i++) {
+            bits |= (long) (data[position++] & 0xff) << (8 * i);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+    
+    /**
+     * readBytes
+     * reads a byte array written by PayloadWriter.writeBytes().
+     * 
+     * @return  the value
+     */
+    public byte[] readBytes() {
+        int numBytes = readLength();
+        byte[] value = new byte[numBytes];
+        System.arraycopy(data, position, value, 0, numBytes);
+        position += numBytes;
+        return value;
+    }
+    
+    /**
+     * readString
+     * reads a string written by PayloadWriter.writeString().
+     * 
+     * @return  the value
+     */
+    public String readString() {
+        int numBytes = readLength();
+        try {
+            String value = new String(data, position, numBytes, "UTF-8");
+            position += numBytes;
+            return value;
+        } catch (UnsupportedEncodingException e) {
+            // Every Java platform supports UTF-8
+            throw new IllegalStateException(e.toString());
+        }
+    }
+    
+    private int readLength() {
+        long length = readVarint();
+        // A length of 2^63 or more reads as negative
+        if(length < 0) {
+            throw new IllegalArgumentException("Invalid length");
+        }
+        if(length > remaining()) {
+            throw new IllegalArgumentException("Truncated payload");
+        }
+        return (int) length;
+    }
+    
+    private void require(int numBytes) {
+        if(numBytes > remaining()) {
+            throw new IllegalArgumentException("Truncated payload");
+        }
+    }
+}
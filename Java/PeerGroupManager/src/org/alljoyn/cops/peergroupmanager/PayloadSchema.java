@@ -0,0 +1,168 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.Arrays;
+
+/**
+ * The PayloadSchema describes the fields of a module message so that it can
+ * be encoded with a PayloadWriter into a compact byte array and carried as a
+ * single "ay" argument of a signal or method call. The peers sending and 
+ * receiving the payload must use the same schema; the encoding does not 
+ * carry field types or names. Fields can be added to the end of a schema 
+ * and read with PayloadReader.remaining() by peers that know them.
+ */
+public class PayloadSchema {
+    private final PayloadType[] fields;
+    
+    /**
+     * Constructs a PayloadSchema.
+     * 
+     * @param fields  the types of the fields in the order they are encoded
+     */
+    public PayloadSchema(PayloadType... fields) {
+        if(fields == null || fields.length == 0) {
+            throw new IllegalArgumentException("Invalid fields");
+        }
+        for(PayloadType field : fields) {
+            if(field == null) {
+                throw new IllegalArgumentException("Invalid fields");
+            }
+        }
+        this.fields = fields.clone();
+    }
+    
+    /**
+     * Get the number of fields.
+     * 
+     * @return the number of fields of the schema
+     */
+    public int getFieldCount() {
+        return fields.length;
+    }
+    
+    /**
+     * Get the type of a field.
+     * 
+     * @param index  the position of the field
+     * @return the type of the field
+     */
+    public PayloadType getFieldType(int index) {
+        return fields[index];
+    }
+    
+    /**
+     * encode
+     * resets the writer and writes the values of the fields into it.
+     * 
+     * @param writer  the writer to encode into
+     * @param values  the values of the fields, of the Boolean, Integer, Long,
+     *                Double, String or byte[] class matching their type
+     * @return  the length of the payload in the buffer of the writer
+     */
+    public int encode(PayloadWriter writer, Object... values) {
+        if(values == null || values.length != fields.length) {
+            throw new IllegalArgumentException("Expected " + fields.length + " values");
+        }
+        writer.reset();
+        for(int i = 0; i < fields.length; i++) {
+            Object value = values[i];
+            if(value == null) {
+                throw new IllegalArgumentException("Field " + i + " is null");
+            }
+            try {
+                switch(fields[i]) {
+                case BOOLEAN:
+                    writer.writeBoolean((Boolean) value);
+                    break;
+                case INT:
+                    writer.writeInt((Integer) value);
+                    break;
+                case LONG:
+                    writer.writeLong((Long) value);
+                    break;
+                case DOUBLE:
+                    writer.writeDouble((Double) value);
+                    break;
+                case STRING:
+                    writer.writeString((String) value);
+                    break;
+                case BYTES:
+                    writer.writeBytes((byte[]) value);
+                    break;
+                }
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Field " + i + " is not " + fields[i]);
+            }
+        }
+        return writer.getLength();
+    }
+    
+    /**
+     * decode
+     * reads the values of the fields from a payload.
+     * 
+     * @param reader  the reader positioned at the start of the payload
+     * @return  the values of the fields
+     */
+    public Object[] decode(PayloadReader reader) {
+        Object[] values = new Object[fields.length];
+        decode(reader, values);
+        return values;
+    }
+    
+    /**
+     * decode
+     * reads the values of the fields from a payload into an existing array.
+     * 
+     * @param reader  the reader positioned at the start of the payload
+     * @param values  the array to store the values of the fields in
+     */
+    public void decode(PayloadReader reader, Object[] values) {
+        if(values.length < fields.length) {
+            throw new IllegalArgumentException("Expected " + fields.length + " values");
+        }
+        for(int i = 0; i < fields.length; i++) {
+            switch(fields[i]) {
+            case BOOLEAN:
+                values[i] = reader.readBoolean();
+                break;
+            case INT:
+                values[i] = reader.readInt();
+                break;
+            case LONG:
+                values[i] = reader.readLong();
+                break;
+            case DOUBLE:
+                values[i] = reader.readDouble();
+                break;
+            case STRING:
+                values[i] = reader.readString();
+                break;
+            case BYTES:
+                values[i] = reader.readBytes();
+                break;
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return "PayloadSchema" + Arrays.toString(fields);
+    }
+}
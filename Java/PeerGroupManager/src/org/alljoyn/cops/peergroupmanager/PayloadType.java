@@ -0,0 +1,55 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The types of the fields of a PayloadSchema and how each is encoded.
+ */
+public enum PayloadType {
+    /**
+     * A Boolean encoded as a single byte.
+     */
+    BOOLEAN,
+    
+    /**
+     * An Integer encoded as a zigzag varint of 1 to 5 bytes, so that small
+     * negative values are as short as small positive ones.
+     */
+    INT,
+    
+    /**
+     * A Long encoded as a zigzag varint of 1 to 10 bytes.
+     */
+    LONG,
+    
+    /**
+     * A Double encoded as its 8 IEEE 754 bytes.
+     */
+    DOUBLE,
+    
+    /**
+     * A String encoded as the varint length of its UTF-8 bytes followed by 
+     * the bytes.
+     */
+    STRING,
+    
+    /**
+     * A byte[] encoded as its varint length followed by the bytes.
+     */
+    BYTES
+}
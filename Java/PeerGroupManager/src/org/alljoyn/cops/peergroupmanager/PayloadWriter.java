@@ -0,0 +1,227 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The PayloadWriter encodes values into a compact binary payload that a 
+ * module can send as a single byte array ("ay") argument instead of having 
+ * AllJoyn marshal a struct. Integers are written as varints and strings as 
+ * UTF-8. The writer grows its buffer as needed and is meant to be reused: 
+ * reset() it before each payload so that encoding does not allocate once 
+ * the buffer is large enough. The values are usually written with a 
+ * PayloadSchema, and read back in the same order with a PayloadReader.
+ * NOTE: A PayloadWriter is not thread safe.
+ */
+public class PayloadWriter {
+    private byte[] buffer;
+    private int length = 0;
+    
+    /**
+     * Constructs a PayloadWriter.
+     * 
+     * @param initialCapacity  the initial size of the buffer in bytes
+     */
+    public PayloadWriter(int initialCapacity) {
+        if(initialCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity");
+        }
+        buffer = new byte[initialCapacity];
+    }
+    
+    /**
+     * reset
+     * empties the writer, keeping its buffer.
+     * 
+     * @return  the writer
+     */
+    public PayloadWriter reset() {
+        length = 0;
+        return this;
+    }
+    
+    /**
+     * Get the number of bytes written.
+     * 
+     * @return the length of the payload
+     */
+    public int getLength() {
+        return length;
+    }
+    
+    /**
+     * Get the buffer of the writer. The payload is in its first getLength() 
+     * bytes. The buffer is reused by the next payload.
+     * 
+     * @return the buffer of the writer
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+    
+    /**
+     * toByteArray
+     * copies the payload into a byte array of its exact length, as needed to
+     * send it as an AllJoyn argument.
+     * 
+     * @return  a copy of the payload
+     */
+    public byte[] toByteArray() {
+        byte[] payload = new byte[length];
+        System.arraycopy(buffer, 0, payload, 0, length);
+        return payload;
+    }
+    
+    /**
+     * writeVarint
+     * writes an unsigned value 7 bits at a time, least significant first.
+     * 
+     * @param value  the value to write, taken as unsigned
+     */
+    public void writeVarint(long value) {
+        ensureCapacity(10);
+        while((value & ~0x7fL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+    
+    /**
+     * writeInt
+     * writes a signed int as a zigzag varint.
+     * 
+     * @param value  the value to write
+     */
+    public void writeInt(int value) {
+        writeVarint(((value << 1) ^ (value >> 31)) & 0xffffffffL);
+    }
+    
+    /**
+     * writeLong
+     * writes a signed long as a zigzag varint.
+     * 
+     * @param value  the value to write
+     */
+    public void writeLong(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+    
+    /**
+     * writeBoolean
+     * writes a boolean as a single byte.
+     * 
+     * @param value  the value to write
+     */
+    public void writeBoolean(boolean value) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) (value ? 1 : 0);
+    }
+    
+    /**
+     * writeDouble
+     * writes the 8 bytes of a double, least significant first.
+     * 
+     * @param value  the value to write
+     */
+    public void writeDouble(double value) {
+        ensureCapacity(8);
+        long bits = Double.doubleToLongBits(value);
+        for(int i = 0; i < 8; i++) {
+            buffer[length++] = (byte) (bits >>> (8 * i));
+        }
+    }
+    
+    /**
+     * writeBytes
+     * writes the length of a byte array followed by its bytes.
+     * 
+     * @param value  the bytes to write
+     */
+    public void writeBytes(byte[] value) {
+        writeVarint(value.length);
+        ensureCapacity(value.length);
+        System.arraycopy(value, 0, buffer, length, value.length);
+        length += value.length;
+    }
+    
+    /**
+     * writeString
+     * writes the UTF-8 bytes of a string directly into the buffer.
+     * 
+     * @param value  the string to write
+     */
+    public void writeString(String value) {
+        int utf8Length = 0;
+        int numChars = value.length();
+        for(int i = 0; i < numChars; i++) {
+            char c = value.charAt(i);
+            if(c < 0x80) {
+                utf8Length += 1;
+            }
+            else if(c < 0x800) {
+                utf8Length += 2;
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < numChars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            }
+            else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                utf8Length += 1;
+            }
+            else {
+                utf8Length += 3;
+            }
+        }
+        writeVarint(utf8Length);
+        ensureCapacity(utf8Length);
+        for(int i = 0; i < numChars; i++) {
+            char c = value.charAt(i);
+            if(c < 0x80) {
+                buffer[length++] = (byte) c;
+            }
+            else if(c < 0x800) {
+                buffer[length++] = (byte) (0xc0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < numChars && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+            }
+            else if(c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // Unpaired surrogates are replaced like String.getBytes() does
+                buffer[length++] = '?';
+            }
+            else {
+                buffer[length++] = (byte) (0xe0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+    
+    private void ensureCapacity(int numBytes) {
+        if(length + numBytes > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + numBytes)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The PeerAccessPolicy admits joiners by their peer id. Peers on the deny 
+ * list are always rejected; if there is an allow list, only the peers on it
+ * are admitted.
+ * NOTE: Peer ids are the unique bus names of the peers, which change every 
+ * time a peer reconnects to the bus.
+ */
+public class PeerAccessPolicy implements AdmissionPolicy {
+    private final Set<String> allowedPeers;
+    private final Set<String> deniedPeers;
+    
+    /**
+     * Constructs a PeerAccessPolicy.
+     * 
+     * @param allowedPeers  the only peers to admit, or null to admit every 
+     *                      peer that is not denied
+     * @param deniedPeers   the peers to reject, or null to reject none
+     */
+    public PeerAccessPolicy(Set<String> allowedPeers, Set<String> deniedPeers) {
+        this.allowedPeers = (allowedPeers == null) ? null : Collections.unmodifiableSet(new HashSet<String>(allowedPeers));
+        this.deniedPeers = (deniedPeers == null) ? Collections.<String>emptySet() 
+                : Collections.unmodifiableSet(new HashSet<String>(deniedPeers));
+    }
+    
+    /**
+     * Get the only peers to admit.
+     * 
+     * @return the allowed peers, or null if every peer not denied is admitted
+     */
+    public Set<String> getAllowedPeers() {
+        return allowedPeers;
+    }
+    
+    /**
+     * Get the peers to reject.
+     * 
+     * @return the denied peers
+     */
+    public Set<String> getDeniedPeers() {
+        return deniedPeers;
+    }
+    
+    @Override
+    public boolean admit(String groupName, String joiner, int numPeers) {
+        if(deniedPeers.contains(joiner)) {
+            return false;
+        }
+        return allowedPeers == null || allowedPeers.contains(joiner);
+    }
+}
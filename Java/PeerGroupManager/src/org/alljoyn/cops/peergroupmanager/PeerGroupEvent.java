@@ -0,0 +1,54 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The kinds of events a PeerGroupManager reports to its listeners, used to
+ * register a listener for only some of them with a PeerGroupListenerFilter.
+ */
+public enum PeerGroupEvent {
+    /**
+     * The foundAdvertisedName() call-back.
+     */
+    FOUND_ADVERTISED_NAME,
+    
+    /**
+     * The lostAdvertisedName() call-back.
+     */
+    LOST_ADVERTISED_NAME,
+    
+    /**
+     * The groupLost() call-back.
+     */
+    GROUP_LOST,
+    
+    /**
+     * The peerAdded() call-back.
+     */
+    PEER_ADDED,
+    
+    /**
+     * The peerRemoved() call-back.
+     */
+    PEER_REMOVED,
+    
+    /**
+     * The membershipSnapshot() call-back of a PeerGroupMembershipListener.
+     */
+    MEMBERSHIP_SNAPSHOT
+}
@@ -0,0 +1,102 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The PeerGroupListenerFilter limits the events a listener added with 
+ * PeerGroupManager.addPeerGroupListener() receives to some groups and some
+ * kinds of events. Listeners filtered on group names are looked up by name 
+ * when an event is dispatched, so they cost nothing for the events of other
+ * groups. Listeners filtered on a pattern are matched against the group 
+ * name of every event of their kinds.
+ */
+public class PeerGroupListenerFilter {
+    private final Set<String> groupNames;
+    private final Pattern groupNamePattern;
+    private final EnumSet<PeerGroupEvent> events;
+    
+    /**
+     * Constructs a PeerGroupListenerFilter for the given groups.
+     * 
+     * @param groupNames  the names of the groups to receive the events of, 
+     *                    or null for all groups
+     * @param events      the kinds of events to receive, or null for all
+     */
+    public PeerGroupListenerFilter(Set<String> groupNames, EnumSet<PeerGroupEvent> events) {
+        if(groupNames != null && groupNames.isEmpty()) {
+            throw new IllegalArgumentException("Invalid group names");
+        }
+        this.groupNames = (groupNames == null) ? null : Collections.unmodifiableSet(new HashSet<String>(groupNames));
+        this.groupNamePattern = null;
+        this.events = (events == null) ? EnumSet.allOf(PeerGroupEvent.class) : EnumSet.copyOf(events);
+    }
+    
+    /**
+     * Constructs a PeerGroupListenerFilter for the groups whose names match 
+     * a pattern.
+     * 
+     * @param groupNamePattern  the pattern the whole group name must match
+     * @param events            the kinds of events to receive, or null for 
+     *                          all
+     */
+    public PeerGroupListenerFilter(Pattern groupNamePattern, EnumSet<PeerGroupEvent> events) {
+        if(groupNamePattern == null) {
+            throw new IllegalArgumentException("Invalid group name pattern");
+        }
+        this.groupNames = null;
+        this.groupNamePattern = groupNamePattern;
+        this.events = (events == null) ? EnumSet.allOf(PeerGroupEvent.class) : EnumSet.copyOf(events);
+    }
+    
+    /**
+     * Get the names of the groups the filter accepts.
+     * 
+     * @return the group names, or null if the filter does not list names
+     */
+    public Set<String> getGroupNames() {
+        return groupNames;
+    }
+    
+    /**
+     * Get the pattern the group names must match.
+     * 
+     * @return the pattern, or null if the filter does not use a pattern
+     */
+    public Pattern getGroupNamePattern() {
+        return groupNamePattern;
+    }
+    
+    /**
+     * Get the kinds of events the filter accepts.
+     * 
+     * @return a copy of the accepted kinds of events
+     */
+    public EnumSet<PeerGroupEvent> getEvents() {
+        return EnumSet.copyOf(events);
+    }
+    
+    boolean accepts(PeerGroupEvent event) {
+        return events.contains(event);
+    }
+}
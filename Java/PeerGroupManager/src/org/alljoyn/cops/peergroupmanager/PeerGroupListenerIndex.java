@@ -0,0 +1,221 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * The PeerGroupListenerIndex keeps the listeners of a PeerGroupManager 
+ * indexed by the kinds of events and the groups they are registered for, so
+ * that an event is only dispatched to the listeners interested in it. It is 
+ * not thread safe; the PeerGroupManager only uses it with its lock held.
+ */
+class PeerGroupListenerIndex {
+    
+    private static class Registration {
+        final PeerGroupListenerInterface listener;
+        final PeerGroupListenerFilter filter;
+        // The listener itself, or its queue if it has its own executor
+        final PeerGroupListenerInterface dispatcher;
+        // Listeners are called in the order they were added
+        final long order;
+        
+        Registration(PeerGroupListenerInterface listener, PeerGroupListenerFilter filter, 
+                PeerGroupListenerInterface dispatcher, long order) {
+            this.listener = listener;
+            this.filter = filter;
+            this.dispatcher = dispatcher;
+            this.order = order;
+        }
+    }
+    
+    private static final Comparator<Registration> REGISTRATION_ORDER = new Comparator<Registration>() {
+        public int compare(Registration lhs, Registration rhs) {
+            return (lhs.order < rhs.order) ? -1 : ((lhs.order == rhs.order) ? 0 : 1);
+        }
+    };
+    
+    private final LinkedHashMap<PeerGroupListenerInterface,Registration> registrations = 
+            new LinkedHashMap<PeerGroupListenerInterface,Registration>();
+    // Listeners of each kind of event for every group
+    private final EnumMap<PeerGroupEvent,ArrayList<Registration>> allGroups = 
+            new EnumMap<PeerGroupEvent,ArrayList<Registration>>(PeerGroupEvent.class);
+    // Listeners of each kind of event keyed by group name
+    private final EnumMap<PeerGroupEvent,HashMap<String,ArrayList<Registration>>> byGroupName = 
+            new EnumMap<PeerGroupEvent,HashMap<String,ArrayList<Registration>>>(PeerGroupEvent.class);
+    // Listeners of each kind of event with a group name pattern
+    private final EnumMap<PeerGroupEvent,ArrayList<Registration>> byPattern = 
+            new EnumMap<PeerGroupEvent,ArrayList<Registration>>(PeerGroupEvent.class);
+    private long nextOrder = 0;
+    
+    PeerGroupListenerIndex() {
+        for(PeerGroupEvent event : PeerGroupEvent.values()) {
+            allGroups.put(event, new ArrayList<Registration>());
+            byGroupName.put(event, new HashMap<String,ArrayList<Registration>>());
+            byPattern.put(event, new ArrayList<Registration>());
+        }
+    }
+    
+    /**
+     * add
+     * adds a listener, replacing its previous registration if any.
+     * 
+     * @param listener   the listener to add
+     * @param filter     the events to give the listener, or null for all
+     * @param execution  the executor to call the listener on, or null to 
+     *                   call it directly
+     */
+    void add(PeerGroupListenerInterface listener, PeerGroupListenerFilter filter, ListenerExecutionPolicy execution) {
+        remove(listener);
+        PeerGroupListenerInterface dispatcher = (execution == null) ? listener : new QueuedPeerGroupListener(listener, execution);
+        Registration registration = new Registration(listener, filter, dispatcher, nextOrder++);
+        registrations.put(listener, registration);
+        for(PeerGroupEvent event : PeerGroupEvent.values()) {
+            if(!accepts(registration, event)) {
+                continue;
+            }
+            if(filter == null || (filter.getGroupNames() == null && filter.getGroupNamePattern() == null)) {
+                allGroups.get(event).add(registration);
+            }
+            else if(filter.getGroupNames() != null) {
+                HashMap<String,ArrayList<Registration>> groups = byGroupName.get(event);
+                for(String groupName : filter.getGroupNames()) {
+                    ArrayList<Registration> list = groups.get(groupName);
+                    if(list == null) {
+                        list = new ArrayList<Registration>();
+                        groups.put(groupName, list);
+                    }
+                    list.add(registration);
+                }
+            }
+            else {
+                byPattern.get(event).add(registration);
+            }
+        }
+    }
+    
+    /**
+     * remove
+     * removes a listener.
+     * 
+     * @param listener  the listener to remove
+     * @return  true if the listener was added
+     */
+    boolean remove(PeerGroupListenerInterface listener) {
+        Registration registration = registrations.remove(listener);
+        if(registration == null) {
+            return false;
+        }
+        if(registration.dispatcher instanceof QueuedPeerGroupListener) {
+            ((QueuedPeerGroupListener) registration.dispatcher).close();
+        }
+        for(PeerGroupEvent event : PeerGroupEvent.values()) {
+            allGroups.get(event).remove(registration);
+            byPattern.get(event).remove(registration);
+            PeerGroupListenerFilter filter = registration.filter;
+            if(filter != null && filter.getGroupNames() != null) {
+                HashMap<String,ArrayList<Registration>> groups = byGroupName.get(event);
+                for(String groupName : filter.getGroupNames()) {
+                    ArrayList<Registration> list = groups.get(groupName);
+                    if(list != null) {
+                        list.remove(registration);
+                        if(list.isEmpty()) {
+                            groups.remove(groupName);
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+    
+    void clear() {
+        for(Registration registration : registrations.values()) {
+            if(registration.dispatcher instanceof QueuedPeerGroupListener) {
+                ((QueuedPeerGroupListener) registration.dispatcher).close();
+            }
+        }
+        registrations.clear();
+        for(PeerGroupEvent event : PeerGroupEvent.values()) {
+            allGroups.get(event).clear();
+            byGroupName.get(event).clear();
+            byPattern.get(event).clear();
+        }
+    }
+    
+    /**
+     * get
+     * gets the listeners of an event of a group.
+     * 
+     * @param event      the kind of event
+     * @param groupName  the group of the event
+     * @return  the listeners to call, in the order they were added. Listeners 
+     *          with their own executor are replaced by their queue.
+     */
+    ArrayList<PeerGroupListenerInterface> get(PeerGroupEvent event, String groupName) {
+        ArrayList<Registration> all = allGroups.get(event);
+        ArrayList<Registration> named = (groupName == null) ? null : byGroupName.get(event).get(groupName);
+        ArrayList<Registration> patterns = byPattern.get(event);
+        ArrayList<Registration> matched = new ArrayList<Registration>(all);
+        if(named != null) {
+            matched.addAll(named);
+        }
+        if(groupName != null) {
+            for(Registration registration : patterns) {
+                if(registration.filter.getGroupNamePattern().matcher(groupName).matches()) {
+                    matched.add(registration);
+                }
+            }
+        }
+        if(matched.size() > all.size()) {
+            Collections.sort(matched, REGISTRATION_ORDER);
+        }
+        ArrayList<PeerGroupListenerInterface> listeners = new ArrayList<PeerGroupListenerInterface>(matched.size());
+        for(Registration registration : matched) {
+            listeners.add(registration.dispatcher);
+        }
+        return listeners;
+    }
+    
+    /**
+     * getQueue
+     * gets the queue of a listener added with a ListenerExecutionPolicy.
+     * 
+     * @param listener  the listener
+     * @return  the queue of the listener or null if it is called directly
+     */
+    QueuedPeerGroupListener getQueue(PeerGroupListenerInterface listener) {
+        Registration registration = registrations.get(listener);
+        if(registration == null || !(registration.dispatcher instanceof QueuedPeerGroupListener)) {
+            return null;
+        }
+        return (QueuedPeerGroupListener) registration.dispatcher;
+    }
+    
+    private static boolean accepts(Registration registration, PeerGroupEvent event) {
+        if(event == PeerGroupEvent.MEMBERSHIP_SNAPSHOT && !(registration.listener instanceof PeerGroupMembershipListener)) {
+            return false;
+        }
+        return registration.filter == null || registration.filter.accepts(event);
+    }
+}
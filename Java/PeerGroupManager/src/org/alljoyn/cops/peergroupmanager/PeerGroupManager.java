@@ -16,18 +16,41 @@
 
 package org.alljoyn.cops.peergroupmanager;
 
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import java.io.IOException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alljoyn.bus.BusAttachment;
 import org.alljoyn.bus.BusException;
 import org.alljoyn.bus.BusListener;
 import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.MessageContext;
 import org.alljoyn.bus.Mutable;
 import org.alljoyn.bus.ProxyBusObject;
 import org.alljoyn.bus.SessionListener;
@@ -35,6 +58,7 @@ import org.alljoyn.bus.SessionOpts;
 import org.alljoyn.bus.SessionPortListener;
 import org.alljoyn.bus.SignalEmitter;
 import org.alljoyn.bus.Status;
+import org.alljoyn.bus.ifaces.Peer;
 
 
 /**
@@ -54,14 +78,62 @@ import org.alljoyn.bus.Status;
  * right for you.
  */
 public class PeerGroupManager implements PeerGroupManagerInterface {
+    private static boolean nativeLibraryLoaded;
+    
 	/* Load the native alljoyn_java library. */
     static {
-        System.loadLibrary("alljoyn_java");
+        loadNativeLibrary();
+    }
+    
+    /*
+     * Loads the native alljoyn_java library once, for the PeerGroupManager 
+     * and for the SharedBusAttachment, which creates its bus attachment 
+     * before any PeerGroupManager may have been created.
+     */
+    static synchronized void loadNativeLibrary() {
+        if(!nativeLibraryLoaded) {
+            System.loadLibrary("alljoyn_java");
+            nativeLibraryLoaded = true;
+        }
     }
     
     private final String TAG = "PeerGroupManager";
     private final short INVALID_SESSION_PORT = -1;
+    private final int REJOIN_THREADS = 4;
+    private final int SIGNAL_HANDLER_THREADS = 4;
+    private final int SCATTER_GATHER_THREADS = 8;
+    // The membership of a joined group is reported once the members its 
+    // host sent are known, or after this long for hosts that send none
+    private final long MEMBERSHIP_SNAPSHOT_TIMEOUT_MILLIS = 2000;
+    // Journaled groups that could not be restored are retried after this 
+    // long, doubling up to the maximum
+    private final long RESTORE_RETRY_MILLIS = 1000;
+    private final long RESTORE_RETRY_MAX_MILLIS = 60000;
+    // Single round JoinOrCreate groups are hosted on a session port derived
+    // from their name, kept positive so that it parses in advertised names
+    private final int JOC_SESSION_PORT_BASE = 0x4000;
+    private final int JOC_SESSION_PORT_MASK = 0x3fff;
+    private final String HOST_CLAIM_SEPARATOR = ".JoCHost-";
+    private final String HOST_MIGRATION_PATH = "/HostMigration";
+    // The round trip time of a transport is measured by pinging the host of
+    // a group joined over it
+    private final int RTT_MEASUREMENT_TIMEOUT_MILLIS = 2000;
+    // Joiners admitted to a hosted group count against its admission 
+    // policies until they are counted as peers, or at most for this long
+    private final long ADMISSION_RESERVATION_MILLIS = 30000;
+    private static final short[] DEFAULT_TRANSPORT_PREFERENCE = new short[] { SessionOpts.TRANSPORT_LOCAL, 
+        SessionOpts.TRANSPORT_LAN, SessionOpts.TRANSPORT_WLAN, SessionOpts.TRANSPORT_WFD, 
+        SessionOpts.TRANSPORT_BLUETOOTH, SessionOpts.TRANSPORT_ICE, SessionOpts.TRANSPORT_WWAN };
     private BusAttachment bus = null;
+    // All of the bus attachments the groups are spread across. The first one
+    // is the primary bus attachment used for discovery
+    private ArrayList<BusAttachment> buses = new ArrayList<BusAttachment>();
+    // How new groups are placed on the bus attachments
+    private BusPlacement busPlacement = BusPlacement.HASH;
+    // The bus attachment shared with other PeerGroupManagers, if any
+    private SharedBusAttachment sharedBus = null;
+    // Map hosted and joined group names to the bus attachment they are on
+    private HashMap<String,BusAttachment> groupNameToBus = new HashMap<String,BusAttachment>();
     private BusListener pgBusListener;
     private SessionListener pgSessionListener;
     
@@ -81,35 +153,180 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
     private ArrayList<String> joinedGroups = new ArrayList<String>();
     // Stores the available groups with the interested well known name prefix
     private HashMap<String,Short> foundGroups = new HashMap<String,Short>(); 
+    // The transports each found group has been discovered on
+    private HashMap<String,Short> foundGroupTransports = new HashMap<String,Short>();
+    // The transport each joined group was joined over
+    private HashMap<String,Short> joinedGroupTransports = new HashMap<String,Short>();
+    // The transports to prefer when joining, lowest latency first
+    private short[] transportPreference = DEFAULT_TRANSPORT_PREFERENCE;
+    // Whether to prefer the transport with the lowest measured round trip time
+    private boolean useMeasuredRtt = false;
+    // Moving average of the round trip time in microseconds measured over 
+    // each transport
+    private HashMap<Short,Long> transportRtts = new HashMap<Short,Long>();
+    // The modules registered for each group that follow its life cycle
+    private HashMap<String,ArrayList<PGLifecycleModule>> groupModules = new HashMap<String,ArrayList<PGLifecycleModule>>();
+    // Found groups loaded from the FoundGroupsCache that discovery has not
+    // confirmed yet
+    private HashMap<String,FoundGroupsCache.Entry> staleFoundGroups = new HashMap<String,FoundGroupsCache.Entry>();
+    // The optional on-disk cache of found groups
+    private FoundGroupsCache foundGroupsCache;
+    // The optional journal of hosted groups
+    private HostedGroupJournal hostedGroupJournal;
     // All the groups that are locked
-    private ArrayList<String> lockedGroups = new ArrayList<String>();
+    // Copied on write so joiners can be checked against it without locking
+    private CopyOnWriteArrayList<String> lockedGroups = new CopyOnWriteArrayList<String>();
     // Stores the group names created by JoinOrCreate()
     private ArrayList<String> jocGroups = new ArrayList<String>();
     
-    // Stores the PeerGroupListeners
-    private ArrayList<PeerGroupListenerInterface> peerGroupListeners = new ArrayList<PeerGroupListenerInterface>();
+    // Stores the PeerGroupListeners indexed by the events they receive
+    private PeerGroupListenerIndex peerGroupListeners = new PeerGroupListenerIndex();
     // Stores the bus objects registered on the bus
     private ArrayList<BusObject> registeredBusObjects = new ArrayList<BusObject>();
     // Stores classes which contain signal handlers to be registered
     private ArrayList<Object> classesWithSignalHandlers = new ArrayList<Object>();
     
-    // Map session Ids to peers
-    private HashMap<Integer,ArrayList<String>> sessionIdToPeers = new HashMap<Integer,ArrayList<String>>();
+    // Map session Ids to peers in the order they were added
+    private HashMap<Integer,LinkedHashSet<String>> sessionIdToPeers = new HashMap<Integer,LinkedHashSet<String>>();
+    // Joined sessions whose existing members are still being reported
+    private HashMap<Integer,SettlingSession> settlingSessions = new HashMap<Integer,SettlingSession>();
+    // Members sent by a host before its session was mapped to a group
+    private HashMap<Integer,String[]> earlyMembers = new HashMap<Integer,String[]>();
+    
+    // Guards the batch of member events that is still open to new events,
+    // which the other session call-backs close so they are not overtaken
+    private final Object sessionEventLock = new Object();
+    private ArrayList<MemberEvent> openMemberBatch = null;
     
     // Map group names to session Ids
     private HashMap<String,Integer> groupNameToSessionId = new HashMap<String,Integer>();
     // Map session ids to group names
     private HashMap<Integer,String> sessionIdToGroupName = new HashMap<Integer,String>();
     
+    // Session profiles of the hosted and joined groups not using the default
+    private HashMap<String,SessionProfile> groupProfiles = new HashMap<String,SessionProfile>();
+    // Map the joiners of hosted point to point groups to their session Ids
+    private HashMap<String,HashMap<String,Integer>> pointToPointSessions = new HashMap<String,HashMap<String,Integer>>();
+    
     // HashMaps to map hosted group names to session ports
     private HashMap<String,Short> groupNameToSessionPort = new HashMap<String,Short>();
-    // HashMaps to map hosted session ports to group names
-    private HashMap<Short,String> sessionPortToGroupName = new HashMap<Short,String>();
+    // HashMaps to map hosted session ports to group names for each bus 
+    // attachment since session ports are only unique per bus attachment. 
+    // Read without locking when a peer asks to join a group.
+    private ConcurrentHashMap<BusAttachment,ConcurrentHashMap<Short,String>> sessionPortToGroupName = 
+            new ConcurrentHashMap<BusAttachment,ConcurrentHashMap<Short,String>>();
+    
+    // Rejoin policies of the joined groups that are rejoined automatically
+    private HashMap<String,RejoinPolicy> rejoinPolicies = new HashMap<String,RejoinPolicy>();
+    // Groups waiting to be rejoined after their session was lost
+    private HashMap<String,PendingRejoin> pendingRejoins = new HashMap<String,PendingRejoin>();
+    // Automatic rejoin statistics of each group
+    private HashMap<String,RejoinStats> rejoinStats = new HashMap<String,RejoinStats>();
+    // Runs the rejoin attempts of different groups concurrently
+    private ScheduledExecutorService rejoinExecutor = null;
+    // Pings the hosts of joined groups when measured round trip times are used
+    private ExecutorService rttExecutor = null;
+    // The signal handlers registered for each group
+    private HashMap<String,ArrayList<GroupSignalRoute>> groupSignalRoutes = new HashMap<String,ArrayList<GroupSignalRoute>>();
+    // Run the signal handlers of each group in order on the signal handler executor
+    private HashMap<String,SerialExecutor> groupSignalExecutors = new HashMap<String,SerialExecutor>();
+    private Executor signalHandlerExecutor = null;
+    // The default signal handler executor, shut down on cleanup
+    private ExecutorService signalHandlerPool = null;
+    // Runs the calls of scatterGather() to the peers of a group concurrently
+    private ExecutorService scatterGatherPool = null;
+    // The host of each joined JoinOrCreate group that migrates to a 
+    // successor when its host leaves
+    private HashMap<String,HostMigration> hostMigrations = new HashMap<String,HostMigration>();
+    // The host claim advertised for each JoinOrCreate group hosted without 
+    // a GUID round, so that competing hosts of the group find each other
+    private HashMap<String,String> hostClaims = new HashMap<String,String>();
+    // The host claims of other peers discovered for each JoinOrCreate group
+    private HashMap<String,HashSet<String>> foundHostClaims = new HashMap<String,HashSet<String>>();
+    // The hosted JoinOrCreate groups whose members are sent to the peers 
+    // so that they elect the same successor when the host leaves
+    private HashSet<String> migratingGroups = new HashSet<String>();
+    // Sends and receives the members of the groups on each bus attachment
+    private HashMap<BusAttachment,HostMigrationService> hostMigrationServices = new HashMap<BusAttachment,HostMigrationService>();
+    private Method hostMigrationHandler = null;
+    // Rejoin policy of JoinOrCreate groups that have none set, short enough
+    // for the successor to be joined soon after it takes over
+    private static final RejoinPolicy HOST_MIGRATION_REJOIN_POLICY = new RejoinPolicy(20, 100, 1000);
+    // The admission policies and statistics of the hosted groups, read 
+    // without locking when a peer asks to join a group
+    private final ConcurrentHashMap<String,GroupAdmission> admissions = new ConcurrentHashMap<String,GroupAdmission>();
+    
+    private static class PendingRejoin {
+        // The time the session of the group was lost
+        final long lostTime = System.currentTimeMillis();
+        // The number of attempts made so far
+        int attempts = 0;
+        // Set while an attempt is scheduled or running
+        boolean scheduled = false;
+    }
+    
+    private static class SettlingSession {
+        // The members the host sent, or null until they arrive
+        HashSet<String> hostMembers = null;
+    }
+    
+    private static class MemberEvent {
+        final int sessionId;
+        final String peerId;
+        final boolean added;
+        
+        MemberEvent(int sessionId, String peerId, boolean added) {
+            this.sessionId = sessionId;
+            this.peerId = peerId;
+            this.added = added;
+        }
+    }
+    
+    private static class GroupAdmission {
+        volatile AdmissionPolicy[] policies = new AdmissionPolicy[0];
+        // The peers in the group plus the joiners admitted since they were counted
+        final AtomicInteger numPeers = new AtomicInteger();
+        // The peers in the group when they were last counted, guarded by the
+        // PeerGroupManager lock
+        int members = 0;
+        // The times the joiners not counted yet were admitted, oldest first
+        final ConcurrentLinkedQueue<Long> reservations = new ConcurrentLinkedQueue<Long>();
+        final AtomicLong admitted = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong totalDecisionNanos = new AtomicLong();
+        final AtomicLong maxDecisionNanos = new AtomicLong();
+        
+        void decided(boolean accepted, long decisionNanos) {
+            (accepted ? admitted : rejected).incrementAndGet();
+            totalDecisionNanos.addAndGet(decisionNanos);
+            long max = maxDecisionNanos.get();
+            while(decisionNanos > max && !maxDecisionNanos.compareAndSet(max, decisionNanos)) {
+                max = maxDecisionNanos.get();
+            }
+        }
+    }
+    
+    private static class HostMigration {
+        // The peer id of the current host of the group
+        String hostPeerId;
+        // The session port the group is hosted on
+        short sessionPort;
+        // The members of the group last sent by the host, or null if the 
+        // host has not sent any yet
+        ArrayList<String> members = null;
+        
+        HostMigration(String hostPeerId, short sessionPort) {
+            this.hostPeerId = hostPeerId;
+            this.sessionPort = sessionPort;
+        }
+    }
     
     private static HandlerThread callbackHandler = HandlerThread.create();
     
     private static class HandlerThread extends Thread {
-        private Handler handler;
+        private volatile Handler handler;
+        // Released once the handler of the thread is set up
+        private final CountDownLatch handlerReady = new CountDownLatch(1);
         
         public static HandlerThread create() {
             HandlerThread handlerThread = new HandlerThread();
@@ -123,11 +340,35 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         public void run() {
             Looper.prepare();
             handler = new Handler();
+            handlerReady.countDown();
             Looper.loop();
         }
         
         public void post(Runnable r) {
-            handler.post(r);
+            getHandler().post(r);
+        }
+        
+        public void postDelayed(Runnable r, long delayMillis) {
+            getHandler().postDelayed(r, delayMillis);
+        }
+        
+        /*
+         * Waits for the thread to set up its handler, since the first 
+         * call-backs can be posted right after the thread is started.
+         */
+        private Handler getHandler() {
+            boolean interrupted = false;
+            while(handler == null) {
+                try {
+                    handlerReady.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return handler;
         }
     }
         
@@ -152,12 +393,109 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
      *                     objects cannot be registered beyond this point.
      */
     public PeerGroupManager (String pgPrefix, PeerGroupListenerInterface pgListener, ArrayList<BusObjectData> busObjects) {
+        this(pgPrefix, pgListener, busObjects, null, 1, BusPlacement.HASH, null);
+    }
+    
+    /**
+     * Construct a PeerGroupManager that uses a FoundGroupsCache to remember 
+     * the groups it discovers across restarts. The cached groups are loaded 
+     * before discovery starts so they are immediately returned by 
+     * listFoundGroups(). They are reported by listStaleFoundGroups() until 
+     * discovery finds them again and are removed once their time-to-live has 
+     * passed without being found.
+     * 
+     * @param pgPrefix          the prefix of the advertised name that will be
+     *                          used for advertisement and discovery.
+     * @param pgListener        the PeerGroupListener to register. This can be
+     *                          null.
+     * @param busObjects        the bus objects to register. This can be null.
+     * @param foundGroupsCache  the cache of found groups to load and keep up 
+     *                          to date. This can be null.
+     */
+    public PeerGroupManager (String pgPrefix, PeerGroupListenerInterface pgListener, ArrayList<BusObjectData> busObjects, FoundGroupsCache foundGroupsCache) {
+        this(pgPrefix, pgListener, busObjects, foundGroupsCache, 1, BusPlacement.HASH, null);
+    }
+    
+    /**
+     * Construct a PeerGroupManager that spreads its hosted and joined groups 
+     * across several bus attachments so that AllJoyn can process the 
+     * call-backs and calls of different groups in parallel. Each group stays
+     * on the bus attachment it was placed on until it is destroyed, left or 
+     * lost. Discovery is done on the first bus attachment only.
+     * NOTE: AllJoyn ties a bus object to a single bus attachment, so the bus
+     * objects are registered on the first bus attachment and, while any are
+     * registered, all new groups are placed on that bus attachment as well.
+     * Give the bus objects to a separate PeerGroupManager to keep spreading 
+     * the groups. Signal handlers are registered on all of the bus 
+     * attachments. Your peer id in a group depends on the bus attachment the
+     * group is placed on, see getMyPeerId(String).
+     * 
+     * @param pgPrefix           the prefix of the advertised name that will 
+     *                           be used for advertisement and discovery.
+     * @param pgListener         the PeerGroupListener to register. This can 
+     *                           be null.
+     * @param busObjects         the bus objects to register. This can be 
+     *                           null.
+     * @param numBusAttachments  the number of bus attachments to spread the 
+     *                           groups across
+     * @param placement          how to choose the bus attachment of a new 
+     *                           group
+     */
+    public PeerGroupManager (String pgPrefix, PeerGroupListenerInterface pgListener, ArrayList<BusObjectData> busObjects, int numBusAttachments, BusPlacement placement) {
+        this(pgPrefix, pgListener, busObjects, null, numBusAttachments, placement, null);
+    }
+    
+    /**
+     * Construct a PeerGroupManager that uses a bus attachment shared with 
+     * other PeerGroupManagers instead of creating and connecting its own. 
+     * This allows an application using several group prefixes to keep a 
+     * single connection to the AllJoyn daemon. The discovery call-backs of 
+     * the shared bus attachment are delivered to the PeerGroupManager with the
+     * matching group prefix.
+     * NOTE: Each PeerGroupManager sharing the bus attachment must use a 
+     * different group prefix. cleanup() only disconnects the shared bus 
+     * attachment once all of the PeerGroupManagers sharing it have been 
+     * cleaned up.
+     * 
+     * @param pgPrefix    the prefix of the advertised name that will be used
+     *                    for advertisement and discovery.
+     * @param pgListener  the PeerGroupListener to register. This can be null.
+     * @param busObjects  the bus objects to register. This can be null.
+     * @param sharedBus   the shared bus attachment to use. If null, the 
+     *                    PeerGroupManager creates its own bus attachment.
+     */
+    public PeerGroupManager (String pgPrefix, PeerGroupListenerInterface pgListener, ArrayList<BusObjectData> busObjects, SharedBusAttachment sharedBus) {
+        this(pgPrefix, pgListener, busObjects, null, 1, BusPlacement.HASH, sharedBus);
+    }
+    
+    private PeerGroupManager (String pgPrefix, PeerGroupListenerInterface pgListener, ArrayList<BusObjectData> busObjects, 
+            FoundGroupsCache foundGroupsCache, int numBusAttachments, BusPlacement placement, SharedBusAttachment sharedBus) {
         String methodName = "Constructor()";
         if(isInvalidStringParam(pgPrefix)) {
             logError(methodName, "Invalid name prefix");
             throw new IllegalArgumentException("Invalid name prefix");
         }
-        this.bus = new BusAttachment(pgPrefix, BusAttachment.RemoteMessage.Receive);
+        if(numBusAttachments < 1 || placement == null) {
+            logError(methodName, "Invalid bus attachment placement");
+            throw new IllegalArgumentException("Invalid bus attachment placement");
+        }
+        if(sharedBus != null) {
+            // Use the shared bus attachment, connecting it if we are the first
+            this.bus = sharedBus.attach();
+            if(this.bus == null) {
+                logError(methodName, "Failed to connect the shared bus attachment");
+                throw new IllegalArgumentException("Failed to connect the shared bus attachment");
+            }
+            this.sharedBus = sharedBus;
+        }
+        else {
+            this.bus = new BusAttachment(pgPrefix, BusAttachment.RemoteMessage.Receive);
+        }
+        this.buses.add(bus);
+        for(int i = 1; i < numBusAttachments; i++) {
+            this.buses.add(new BusAttachment(pgPrefix, BusAttachment.RemoteMessage.Receive));
+        }
+        this.busPlacement = placement;
         this.groupPrefix = pgPrefix.trim() + ".sp";
         addPeerGroupListener(pgListener);
         this.pgBusListener = new PGBusListener();
@@ -165,11 +503,13 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         this.defaultSessionOpts = new SessionOpts(SessionOpts.TRAFFIC_MESSAGES, true, SessionOpts.PROXIMITY_ANY, SessionOpts.TRANSPORT_ANY);
         this.defaultSessionPort = INVALID_SESSION_PORT;
         registerBusObjects(busObjects);
+        loadFoundGroupsCache(foundGroupsCache);
         Status status = connectBus();
         if(status != Status.OK) {
             logError(methodName, "Failed to connect: " + status.toString());
             throw new IllegalArgumentException("Failed to connect: " + status.toString());
         }
+        registerHostMigrationServices();
     }
     
     
@@ -199,6 +539,31 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             return;
         }
         
+        /*
+         * Detach the hosted group journal before destroying the hosted 
+         * groups so that they can be restored on the next start
+         */
+        if(hostedGroupJournal != null) {
+            hostedGroupJournal.close();
+            hostedGroupJournal = null;
+        }
+        
+        // Stop rejoining lost groups
+        pendingRejoins.clear();
+        rejoinPolicies.clear();
+        hostMigrations.clear();
+        foundHostClaims.clear();
+        migratingGroups.clear();
+        admissions.clear();
+        if(rejoinExecutor != null) {
+            rejoinExecutor.shutdownNow();
+            rejoinExecutor = null;
+        }
+        if(rttExecutor != null) {
+            rttExecutor.shutdownNow();
+            rttExecutor = null;
+        }
+        
         // Leave all joined groups
         logInfo(methodName, "Leaving all joined groups");
         ArrayList<String> currentlyJoinedGroups = listJoinedGroups();
@@ -220,50 +585,114 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         hostedGroups.clear();
         lockedGroups.clear();
         
+        // Unregister the modules of groups that were lost rather than left
+        logInfo(methodName, "Unregistering Modules");
+        for(String groupName : new ArrayList<String>(groupModules.keySet())) {
+            unregisterModules(groupName);
+        }
+        
         // Unregister the all app defined bus objects
         logInfo(methodName, "Unregistering All Bus Objects");
         unregisterAllBusObjects();
         
         // Unregister the bus listener
         logInfo(methodName, "Unregistering Bus Listener");
-        bus.unregisterBusListener(pgBusListener);
+        if(sharedBus == null) {
+            bus.unregisterBusListener(pgBusListener);
+        }
         peerGroupListeners.clear();
         
         // Unregister all signal handlers
         logInfo(methodName, "Unregistering Signal Handlers");
         for(Object classObj : classesWithSignalHandlers) {
-            bus.unregisterSignalHandlers(classObj);
+            for(BusAttachment busAttachment : buses) {
+                if(sharedBus != null) {
+                    sharedBus.unregisterSignalHandlers(this, classObj);
+                }
+                else {
+                    busAttachment.unregisterSignalHandlers(classObj);
+                }
+            }
         }
         classesWithSignalHandlers.clear();
+        for(ArrayList<GroupSignalRoute> routes : groupSignalRoutes.values()) {
+            for(GroupSignalRoute route : routes) {
+                route.unregister();
+            }
+        }
+        groupSignalRoutes.clear();
+        groupSignalExecutors.clear();
+        if(signalHandlerPool != null) {
+            signalHandlerPool.shutdown();
+            signalHandlerPool = null;
+        }
+        signalHandlerExecutor = null;
+        if(scatterGatherPool != null) {
+            scatterGatherPool.shutdown();
+            scatterGatherPool = null;
+        }
         
         // Stop Discovery
         if(defaultSessionPort == INVALID_SESSION_PORT) {
             // If the default session port was never set, stop discovery on groupPrefix.sp
-            bus.cancelFindAdvertisedName(groupPrefix);
+            cancelFindAdvertisedName(groupPrefix);
         }
         else {
             // If the default session port was set, stop discovery on groupPrefix
-            bus.cancelFindAdvertisedName(groupPrefix.substring(0, groupPrefix.lastIndexOf(".")));
+            cancelFindAdvertisedName(groupPrefix.substring(0, groupPrefix.lastIndexOf(".")));
         }
         logInfo(methodName, "Stopping Discovery");
+        // Groups that are still advertised were seen up to now
+        if(foundGroupsCache != null) {
+            for(String groupName : listConfirmedFoundGroups()) {
+                foundGroupsCache.touch(groupName);
+            }
+        }
         foundGroups.clear(); 
+        foundGroupTransports.clear();
+        joinedGroupTransports.clear();
+        staleFoundGroups.clear();
         
-        // Disconnect the bus attachment
-        bus.disconnect();
-        logInfo(methodName, "Disconnecting Bus Attachment");
+        // Flush the found groups cache so it is available on the next start
+        if(foundGroupsCache != null) {
+            foundGroupsCache.close();
+            foundGroupsCache = null;
+        }
         
-        // Release all AllJoyn resources immediately
-        bus.release();
-        logInfo(methodName, "Releasing Resources");
+        if(sharedBus != null) {
+            // Let the shared bus attachment disconnect once nobody uses it
+            sharedBus.detach();
+            sharedBus = null;
+            logInfo(methodName, "Detaching Shared Bus Attachment");
+        }
+        else {
+            // Disconnect the bus attachments
+            for(BusAttachment busAttachment : buses) {
+                busAttachment.disconnect();
+            }
+            logInfo(methodName, "Disconnecting Bus Attachment");
+            
+            // Release all AllJoyn resources immediately
+            for(BusAttachment busAttachment : buses) {
+                busAttachment.release();
+            }
+            logInfo(methodName, "Releasing Resources");
+        }
         
         // Clean up all of our lists
         jocGroups.clear();
         registeredBusObjects.clear();
         sessionIdToPeers.clear();
+        settlingSessions.clear();
+        earlyMembers.clear();
         groupNameToSessionId.clear();
         sessionIdToGroupName.clear();
+        groupProfiles.clear();
+        pointToPointSessions.clear();
         groupNameToSessionPort.clear();
         sessionPortToGroupName.clear();
+        groupNameToBus.clear();
+        buses.clear();
         
         bus = null;
     }
@@ -303,6 +732,28 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
      */
     @Override
     public synchronized Status createGroup(String groupName, boolean locked) {      
+        return createGroup(groupName, locked, null);
+    }
+    
+    /**
+     * createGroup
+     * creates a locked or unlocked group that peers join with the given 
+     * session profile. With a point to point profile every peer that joins 
+     * gets its own session with you; with a raw profile the session carries 
+     * raw bytes that are read and written through getRawSessionChannel().
+     * NOTE: Peers must join the group with the same profile. Bus objects, 
+     * signals and modules cannot be used over raw sessions.
+     * 
+     * @param groupName  the name of the group to create.
+     * @param locked     If set to true, the group will be locked preventing 
+     *                   peers from discovering and joining the group until it
+     *                   is unlocked.
+     * @param profile    the session profile of the group. If null, the 
+     *                   default MULTIPOINT_MESSAGES profile is used.
+     * @return  OK if successful
+     */
+    @Override
+    public synchronized Status createGroup(String groupName, boolean locked, SessionProfile profile) {      
         String methodName = "createGroup()";
         if(isInvalidStringParam(groupName)) {
             logInfo(methodName, "Invalid group name");
@@ -315,18 +766,44 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             return Status.FAIL;
         }
         
-        Mutable.ShortValue sessionPort = new Mutable.ShortValue(BusAttachment.SESSION_PORT_ANY);
-        PGSessionPortListener pgSessionPortListener = new PGSessionPortListener();
+        return hostGroup(groupName, locked, profile, BusAttachment.SESSION_PORT_ANY, false);
+    }
+    
+    /**
+     * hostGroup
+     * binds a session port for a group and advertises the group on it. 
+     * 
+     * @param groupName      the name of the group to host
+     * @param locked         whether to hold back the advertisement
+     * @param profile        the session profile of the group, or null
+     * @param preferredPort  the session port to bind, or SESSION_PORT_ANY
+     * @param takeOver       true if the group is taken over from its 
+     *                       previous host. It is then bound on another port
+     *                       if the preferred one is taken, and may still be 
+     *                       listed as found.
+     * @return  OK if successful
+     */
+    private Status hostGroup(String groupName, boolean locked, SessionProfile profile, short preferredPort, boolean takeOver) {
+        String methodName = "hostGroup()";
+        Mutable.ShortValue sessionPort = new Mutable.ShortValue(preferredPort);
+        BusAttachment groupBus = placeGroup(groupName);
+        PGSessionPortListener pgSessionPortListener = new PGSessionPortListener(groupBus);
+        SessionOpts sessionOpts = (profile == null) ? defaultSessionOpts : profile.getSessionOpts();
         
         // Bind the session Port
-        Status status = bus.bindSessionPort(sessionPort, defaultSessionOpts, pgSessionPortListener);
+        Status status = groupBus.bindSessionPort(sessionPort, sessionOpts, pgSessionPortListener);
+        if(status != Status.OK && takeOver) {
+            sessionPort.value = BusAttachment.SESSION_PORT_ANY;
+            status = groupBus.bindSessionPort(sessionPort, sessionOpts, pgSessionPortListener);
+        }
         logInfo(methodName, "Binding Session Port " + sessionPort.value + " - " + status.toString());
         if(status != Status.OK) {
             return status;
         }
         
-        // Make sure the group name isn't already taken
-        if(listFoundGroups().contains(groupName) || listHostedGroups().contains(groupName) 
+        // Make sure the group name isn't already taken. Groups loaded from 
+        // the FoundGroupsCache that discovery has not confirmed don't count.
+        if((listConfirmedFoundGroups().contains(groupName) && !takeOver) || listHostedGroups().contains(groupName) 
                 || listJoinedGroups().contains(groupName)) {
             logInfo(methodName, groupName + " is already taken");
             status = Status.FAIL;
@@ -337,7 +814,7 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             String advertisedName = getAdvertisedName(groupName, sessionPort.value);
             // Request the Advertised Name
             int flag = BusAttachment.ALLJOYN_REQUESTNAME_FLAG_DO_NOT_QUEUE;
-            status = bus.requestName(advertisedName, flag);
+            status = groupBus.requestName(advertisedName, flag);
             logInfo(methodName, "Requesting name " + advertisedName + " - " + status.toString());
             if(status == Status.OK) {
                 // Add the new group to the list of hosted groups
@@ -349,22 +826,34 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
                 // Otherwise advertise the group
                 else {
                     // Advertise the well known name of the group
-                    status = bus.advertiseName(advertisedName, defaultSessionOpts.transports);
+                    status = groupBus.advertiseName(advertisedName, sessionOpts.transports);
                     logInfo(methodName, "Advertising name " + advertisedName + " - " + status.toString());
                 }
                 // The status check is here in case we advertise the session
                 if(status == Status.OK) {
-                    // Map the newly created group to the session port
+                    // Forget a stale cached group of the same name
+                    if(staleFoundGroups.containsKey(groupName)) {
+                        removeFoundGroup(groupName);
+                    }
+                    // Map the newly created group to its bus attachment and session port
+                    groupNameToBus.put(groupName, groupBus);
+                    if(profile != null) {
+                        groupProfiles.put(groupName, profile);
+                    }
                     addGroupNameToSessionPort(groupName, sessionPort.value);
+                    refreshAdmissionPeers(groupName);
+                    if(hostedGroupJournal != null) {
+                        hostedGroupJournal.groupCreated(groupName, sessionPort.value, locked, profile);
+                    }
                     // Successful return here
                     return status;
                 }
                 // Fall through and cleanup on failure
                 hostedGroups.remove(groupName);
-                bus.releaseName(advertisedName);
+                groupBus.releaseName(advertisedName);
             }
         }
-        bus.unbindSessionPort(sessionPort.value);
+        groupBus.unbindSessionPort(sessionPort.value);
         return status;
     }
 
@@ -394,11 +883,12 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         if(groupNameToSessionPort.containsKey(groupName)) {
             short sessionPort = groupNameToSessionPort.get(groupName);
             String advertisedName = getAdvertisedName(groupName, sessionPort);
+            BusAttachment groupBus = busForGroup(groupName);
             
             // If the group is locked, we don't need to cancel the advertisement
             if(!lockedGroups.contains(groupName)) {
                 // Stop advertising the group
-                status = bus.cancelAdvertiseName(advertisedName, defaultSessionOpts.transports);
+                status = groupBus.cancelAdvertiseName(advertisedName, getTransports(groupName));
                 logInfo(methodName, "Canceling Advertised Name " + advertisedName);
                 if(status != Status.OK) {
                     return status;
@@ -406,32 +896,34 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             }
             
             // Release the well known name
-            status = bus.releaseName(advertisedName);
+            status = groupBus.releaseName(advertisedName);
             logInfo(methodName, "Releasing Name " + advertisedName);
             if(status != Status.OK) {
                 // Restore the advertisement if the group isn't locked
                 if(!lockedGroups.contains(groupName)) {
-                    bus.advertiseName(advertisedName, defaultSessionOpts.transports);
+                    groupBus.advertiseName(advertisedName, getTransports(groupName));
                 }
                 return status;
             }
 
             // Unbind the session port
-            status = bus.unbindSessionPort(sessionPort);
+            status = groupBus.unbindSessionPort(sessionPort);
             logInfo(methodName, "Unbinding Session Port " + sessionPort);
             if(status != Status.OK) {
                 // Re-request the advertised name
                 int flag = BusAttachment.ALLJOYN_REQUESTNAME_FLAG_DO_NOT_QUEUE;
-                bus.requestName(advertisedName, flag);
+                groupBus.requestName(advertisedName, flag);
                 // Restore the advertisement if the group isn't locked 
                 if(!lockedGroups.contains(groupName)) {
-                    bus.advertiseName(advertisedName, defaultSessionOpts.transports);
+                    groupBus.advertiseName(advertisedName, getTransports(groupName));
                 }
                 return status;
             }
             
             // Remove the group from the list of locked groups
             lockedGroups.remove(groupName);
+            releaseHostClaim(groupName);
+            migratingGroups.remove(groupName);
             
             if(groupNameToSessionId.containsKey(groupName)) {
                 int sessionId = groupNameToSessionId.get(groupName);
@@ -439,11 +931,26 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
                 clearPeers(sessionId);
                 removeGroupNameToSessionId(groupName);
             }
+            // Forget the sessions of a point to point group
+            HashMap<String,Integer> joinerSessions = pointToPointSessions.remove(groupName);
+            if(joinerSessions != null) {
+                for(Integer joinerSessionId : joinerSessions.values()) {
+                    sessionIdToGroupName.remove(joinerSessionId);
+                }
+                updateSignalRoutes(groupName);
+            }
+            groupProfiles.remove(groupName);
+            admissions.remove(groupName);
+            unregisterModules(groupName);
             
             // Remove the group from the list of hosted groups
             hostedGroups.remove(groupName); 
             // Remove the group from the group name to session port mapping
             removeGroupNameToSessionPort(groupName);
+            groupNameToBus.remove(groupName);
+            if(hostedGroupJournal != null) {
+                hostedGroupJournal.groupDestroyed(groupName);
+            }
             
             /* 
              * If the group is a JoinOrCreate group, then remove it from
@@ -455,6 +962,217 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         return status;
     }
     
+    /**
+     * restoreHostedGroups
+     * re-establishes all of the groups recorded in the given journal by a 
+     * previous run, keeping their names, lock states and session profiles, 
+     * and then keeps journaling the hosted groups of this PeerGroupManager 
+     * into it. The session ports of all groups are bound first, then all 
+     * names are requested and finally the unlocked groups are advertised, so
+     * the groups come back together in a single burst. Each group is restored on the 
+     * same session port as before when it is still free so that its 
+     * advertised name is unchanged for peers that cached it.
+     * Groups that cannot be restored, for instance because another peer 
+     * still holds their names, stay in the journal and are retried in the 
+     * background until they are restored.
+     * NOTE: Temporary JoinOrCreate GUID groups are not restored. The hosted 
+     * groups destroyed by cleanup() are left in the journal so that they are 
+     * restored on the next start. Call clear() on the journal to forget them.
+     * 
+     * @param journal  the journal to restore from and record into
+     * @return  OK if all of the journaled groups were restored, otherwise the
+     *          status of the last group that failed
+     */
+    @Override
+    public synchronized Status restoreHostedGroups(HostedGroupJournal journal) {
+        String methodName = "restoreHostedGroups()";
+        logInfo(methodName, "");
+        if(journal == null) {
+            logInfo(methodName, "Invalid journal");
+            return Status.FAIL;
+        }
+        // Make sure the bus attachment is set up
+        if(isBusInvalid()) {
+            logInfo(methodName, "Bus Attachment has already been disconnected");
+            return Status.FAIL;
+        }
+        
+        // Keep journaling the hosted groups into the given journal
+        if(hostedGroupJournal != null && hostedGroupJournal != journal) {
+            hostedGroupJournal.close();
+        }
+        hostedGroupJournal = journal;
+        ArrayList<HostedGroupJournal.GroupState> states = journal.load();
+        for(String groupName : hostedGroups) {
+            journal.groupCreated(groupName, groupNameToSessionPort.get(groupName), lockedGroups.contains(groupName), 
+                    groupProfiles.get(groupName));
+        }
+        
+        ArrayList<HostedGroupJournal.GroupState> failed = new ArrayList<HostedGroupJournal.GroupState>();
+        Status result = restoreGroups(states, failed);
+        scheduleRestoreRetry(journal, failed, RESTORE_RETRY_MILLIS);
+        return result;
+    }
+    
+    /**
+     * restoreGroups
+     * re-establishes journaled groups in a single burst and records the 
+     * restored groups in the journal. The session ports of all groups are 
+     * bound first, then all names are requested and finally the unlocked 
+     * groups are advertised.
+     * 
+     * @param states  the journaled groups to restore
+     * @param failed  receives the groups that could not be restored
+     * @return  OK if all of the groups were restored, otherwise the status of
+     *          the last group that failed
+     */
+    private Status restoreGroups(List<HostedGroupJournal.GroupState> states, List<HostedGroupJournal.GroupState> failed) {
+        String methodName = "restoreGroups()";
+        Status result = Status.OK;
+        ArrayList<HostedGroupJournal.GroupState> restored = new ArrayList<HostedGroupJournal.GroupState>();
+        ArrayList<Short> sessionPorts = new ArrayList<Short>();
+        ArrayList<BusAttachment> groupBuses = new ArrayList<BusAttachment>();
+        
+        // Bind the session ports of all the groups
+        for(HostedGroupJournal.GroupState state : states) {
+            String groupName = state.groupName;
+            if(groupName.contains(".JoC-")) {
+                hostedGroupJournal.groupDestroyed(groupName);
+                continue;
+            }
+            if(hostedGroups.contains(groupName)) {
+                continue;
+            }
+            if(joinedGroups.contains(groupName)) {
+                logInfo(methodName, groupName + " is already taken");
+                failed.add(state);
+                result = Status.FAIL;
+                continue;
+            }
+            /* 
+             * A group found on a different session port belongs to another
+             * peer. Our own advertisement from the previous run may still be
+             * reported with the same session port.
+             */
+            Short foundPort = foundGroups.get(groupName);
+            if(foundPort != null && foundPort.shortValue() != state.sessionPort) {
+                logInfo(methodName, groupName + " is already taken");
+                failed.add(state);
+                result = Status.FAIL;
+                continue;
+            }
+            Mutable.ShortValue sessionPort = new Mutable.ShortValue(state.sessionPort);
+            BusAttachment groupBus = placeGroup(groupName);
+            SessionOpts sessionOpts = (state.profile == null) ? defaultSessionOpts : state.profile.getSessionOpts();
+            Status status = groupBus.bindSessionPort(sessionPort, sessionOpts, new PGSessionPortListener(groupBus));
+            if(status != Status.OK) {
+                // Fall back to any free session port
+                sessionPort.value = BusAttachment.SESSION_PORT_ANY;
+                status = groupBus.bindSessionPort(sessionPort, sessionOpts, new PGSessionPortListener(groupBus));
+            }
+            logInfo(methodName, "Binding Session Port " + sessionPort.value + " for " + groupName + " - " + status.toString());
+            if(status != Status.OK) {
+                failed.add(state);
+                result = status;
+                continue;
+            }
+            restored.add(state);
+            sessionPorts.add(sessionPort.value);
+            groupBuses.add(groupBus);
+        }
+        
+        // Request the advertised names of all the groups
+        int flag = BusAttachment.ALLJOYN_REQUESTNAME_FLAG_DO_NOT_QUEUE;
+        for(int i = 0; i < restored.size(); i++) {
+            String advertisedName = getAdvertisedName(restored.get(i).groupName, sessionPorts.get(i));
+            Status status = groupBuses.get(i).requestName(advertisedName, flag);
+            logInfo(methodName, "Requesting name " + advertisedName + " - " + status.toString());
+            if(status != Status.OK) {
+                groupBuses.get(i).unbindSessionPort(sessionPorts.get(i));
+                failed.add(restored.get(i));
+                restored.remove(i);
+                sessionPorts.remove(i);
+                groupBuses.remove(i);
+                i--;
+                result = status;
+            }
+        }
+        
+        // Advertise the unlocked groups
+        for(int i = 0; i < restored.size(); i++) {
+            HostedGroupJournal.GroupState state = restored.get(i);
+            short sessionPort = sessionPorts.get(i);
+            BusAttachment groupBus = groupBuses.get(i);
+            String advertisedName = getAdvertisedName(state.groupName, sessionPort);
+            if(!state.locked) {
+                short transports = (state.profile == null) ? defaultSessionOpts.transports : state.profile.getTransports();
+                Status status = groupBus.advertiseName(advertisedName, transports);
+                logInfo(methodName, "Advertising name " + advertisedName + " - " + status.toString());
+                if(status != Status.OK) {
+                    groupBus.releaseName(advertisedName);
+                    groupBus.unbindSessionPort(sessionPort);
+                    failed.add(state);
+                    result = status;
+                    continue;
+                }
+            }
+            hostedGroups.add(state.groupName);
+            if(state.locked) {
+                lockedGroups.add(state.groupName);
+            }
+            groupNameToBus.put(state.groupName, groupBus);
+            if(state.profile != null) {
+                groupProfiles.put(state.groupName, state.profile);
+            }
+            addGroupNameToSessionPort(state.groupName, sessionPort);
+            refreshAdmissionPeers(state.groupName);
+            hostedGroupJournal.groupCreated(state.groupName, sessionPort, state.locked, state.profile);
+        }
+        return result;
+    }
+    
+    /**
+     * scheduleRestoreRetry
+     * schedules another attempt at restoring the journaled groups that could
+     * not be restored, for instance because a peer still held their names, 
+     * backing off up to a maximum delay. The groups stay in the journal until
+     * they are restored or the journal is cleared or detached.
+     * 
+     * @param journal      the journal the groups were restored from
+     * @param failed       the groups that could not be restored
+     * @param delayMillis  the time to wait before the attempt
+     */
+    private void scheduleRestoreRetry(final HostedGroupJournal journal, final List<HostedGroupJournal.GroupState> failed, 
+            final long delayMillis) {
+        if(failed.isEmpty()) {
+            return;
+        }
+        logInfo("scheduleRestoreRetry()", failed.size() + " groups in " + delayMillis + " ms");
+        callbackHandler.postDelayed(new Runnable() {
+            public void run() {
+                synchronized(PeerGroupManager.this) {
+                    if(hostedGroupJournal != journal || isBusInvalid()) {
+                        return;
+                    }
+                    // Only retry the groups that are still journaled
+                    HashSet<String> failedNames = new HashSet<String>();
+                    for(HostedGroupJournal.GroupState state : failed) {
+                        failedNames.add(state.groupName);
+                    }
+                    ArrayList<HostedGroupJournal.GroupState> retry = new ArrayList<HostedGroupJournal.GroupState>();
+                    for(HostedGroupJournal.GroupState state : journal.load()) {
+                        if(failedNames.contains(state.groupName)) {
+                            retry.add(state);
+                        }
+                    }
+                    ArrayList<HostedGroupJournal.GroupState> stillFailed = new ArrayList<HostedGroupJournal.GroupState>();
+                    restoreGroups(retry, stillFailed);
+                    scheduleRestoreRetry(journal, stillFailed, Math.min(delayMillis * 2, RESTORE_RETRY_MAX_MILLIS));
+                }
+            }
+        }, delayMillis);
+    }
+    
     /**
      * unlockGroup
      * unlocks the specified group allowing peers to discover and join it. You
@@ -492,10 +1210,13 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         if(groupNameToSessionPort.containsKey(groupName)) {
             String advertisedName = getAdvertisedName(groupName, groupNameToSessionPort.get(groupName));
             // Advertise the well known name of the group
-            status = bus.advertiseName(advertisedName, defaultSessionOpts.transports);
+            status = busForGroup(groupName).advertiseName(advertisedName, getTransports(groupName));
             if(status == Status.OK) {
                 // Unlock the group if it was previously locked
                 lockedGroups.remove(groupName);
+                if(hostedGroupJournal != null) {
+                    hostedGroupJournal.groupLocked(groupName, false);
+                }
             }
             logInfo(methodName, advertisedName + " - " + status.toString());
         }
@@ -541,10 +1262,13 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         if(groupNameToSessionPort.containsKey(groupName)) {
             String advertisedName = getAdvertisedName(groupName, groupNameToSessionPort.get(groupName));
             // Stop advertising the well known name of the group
-            status = bus.cancelAdvertiseName(advertisedName, defaultSessionOpts.transports);
+            status = busForGroup(groupName).cancelAdvertiseName(advertisedName, getTransports(groupName));
             if(status == Status.OK) {
                 // Add the group to the list of locked groups
                 lockedGroups.add(groupName);
+                if(hostedGroupJournal != null) {
+                    hostedGroupJournal.groupLocked(groupName, true);
+                }
             }
             logInfo(methodName, advertisedName + " - " + status.toString());
         }
@@ -562,6 +1286,21 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
      */
     @Override
     public synchronized Status joinGroup (String groupName) {
+        return joinGroup(groupName, null);
+    }
+    
+    /**
+     * joinGroup
+     * joins an existing group with the given session profile. The profile 
+     * must match the one the host created the group with.
+     * 
+     * @param groupName  the name of the group to join
+     * @param profile    the session profile to join with. If null, the 
+     *                   default MULTIPOINT_MESSAGES profile is used.
+     * @return  OK if successful
+     */
+    @Override
+    public synchronized Status joinGroup (String groupName, SessionProfile profile) {
         String methodName = "joinGroup()";
         Status status = Status.FAIL;
         if(isInvalidStringParam(groupName)) {
@@ -591,44 +1330,108 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         short sessionPort = foundGroups.get(groupName);
         String advertisedName = getAdvertisedName(groupName, sessionPort);
         Mutable.IntegerValue sessionId = new Mutable.IntegerValue();
-        
-        // Join the group
-        status = bus.joinSession(advertisedName, sessionPort, sessionId, defaultSessionOpts, pgSessionListener);
-        logInfo(methodName, "joinSession(" + advertisedName + ", " + sessionPort + ")" + " - " + status.toString());
-        if(status == Status.OK) {
-            /* 
-             * Add yourself to your list of peers for the group because 
-             * sessionMemberAdded wont be triggered for yourself
-             */
-            addPeer(sessionId.value, bus.getUniqueName());
-            // Add the group to the list of joined groups
-            joinedGroups.add(groupName);
-            addGroupNameToSessionId(groupName, sessionId.value);
+        BusAttachment groupBus = placeGroup(groupName);
+        SessionOpts sessionOpts = (profile == null) ? defaultSessionOpts : profile.getSessionOpts();
+        if(profile != null) {
+            groupProfiles.put(groupName, profile);
         }
+        
+        // Join the group over the preferred transport it was discovered on
+        short transports = selectTransport(groupName, sessionOpts.transports);
+        SessionOpts joinOpts = new SessionOpts(sessionOpts.traffic, sessionOpts.isMultipoint, sessionOpts.proximity, transports);
+        status = joinOverTransport(groupBus, advertisedName, sessionPort, joinOpts, sessionOpts.transports, sessionId, 
+                pgSessionListener);
         // Try joining with the default session port
-        else if(defaultSessionPort != INVALID_SESSION_PORT){
+        if(status != Status.OK && defaultSessionPort != INVALID_SESSION_PORT){
             Status prevStatus = status;
             advertisedName = getLegacyAdvertisedName(groupName);
             // Try joining with the defaultSessionPort
-            status = bus.joinSession(advertisedName, defaultSessionPort, sessionId, defaultSessionOpts, pgSessionListener);
-            logInfo(methodName, "joinSession(" + advertisedName + ", " + defaultSessionPort + ")" + " - " + status.toString());
-            if(status == Status.OK) {
-                /* 
-                 * Add yourself to your list of peers for the group because 
-                 * sessionMemberAdded wont be triggered for yourself
-                 */
-                addPeer(sessionId.value, bus.getUniqueName());
-                // Add the group to the list of joined groups
-                joinedGroups.add(groupName);
-                addGroupNameToSessionId(groupName, sessionId.value);
-            }
-            else {
+            joinOpts = new SessionOpts(sessionOpts.traffic, sessionOpts.isMultipoint, sessionOpts.proximity, transports);
+            status = joinOverTransport(groupBus, advertisedName, defaultSessionPort, joinOpts, sessionOpts.transports, 
+                    sessionId, pgSessionListener);
+            if(status != Status.OK) {
                 // Return the original failed status if both join attempts fail
                 status = prevStatus;
             }
         }
+        if(status == Status.OK) {
+            // joinSession() updates the options to the ones of the session
+            joinedGroupTransports.put(groupName, joinOpts.transports);
+            addJoinedGroup(groupName, sessionId.value, groupBus);
+            measureTransportRtt(groupName, groupBus, advertisedName, sessionId.value, joinOpts.transports);
+        }
+        else {
+            groupProfiles.remove(groupName);
+        }
         return status;
     }
+    
+    /**
+     * setTransportPreference
+     * sets the order in which joinGroup() picks the transport to join a 
+     * group over when the group has been discovered on several transports.
+     * When measured round trip times are used, the transport with the lowest
+     * average round trip time measured so far is picked first and the 
+     * preference only orders the transports that have not been measured.
+     * The round trip times are measured by the RttProbeModules registered 
+     * for joined groups, or else by pinging the host of each group joined 
+     * over the transport while measured round trip times are used.
+     * 
+     * @param transports      the SessionOpts transports in order of 
+     *                        preference. If null, the default order of local,
+     *                        LAN, WLAN, Wi-Fi Direct, Bluetooth, ICE and WWAN
+     *                        is used.
+     * @param useMeasuredRtt  true to prefer the transport with the lowest 
+     *                        measured round trip time
+     */
+    @Override
+    public synchronized void setTransportPreference(short[] transports, boolean useMeasuredRtt) {
+        logInfo("setTransportPreference()", "useMeasuredRtt - " + useMeasuredRtt);
+        if(transports == null) {
+            this.transportPreference = DEFAULT_TRANSPORT_PREFERENCE;
+        }
+        else {
+            this.transportPreference = new short[transports.length];
+            System.arraycopy(transports, 0, this.transportPreference, 0, transports.length);
+        }
+        this.useMeasuredRtt = useMeasuredRtt;
+    }
+    
+    /**
+     * getGroupTransports
+     * gets all of the transports a found group has been discovered on.
+     * 
+     * @param groupName  the name of the found group
+     * @return  the SessionOpts transport mask of the group, or 
+     *          TRANSPORT_NONE if the group has not been found
+     */
+    @Override
+    public synchronized short getGroupTransports(String groupName) {
+        if(isInvalidStringParam(groupName)) {
+            logInfo("getGroupTransports()", "Invalid group name");
+            return SessionOpts.TRANSPORT_NONE;
+        }
+        Short transports = foundGroupTransports.get(groupName);
+        return (transports == null) ? SessionOpts.TRANSPORT_NONE : transports;
+    }
+    
+    /**
+     * getJoinedGroupTransport
+     * gets the transport a joined group was joined over.
+     * 
+     * @param groupName  the name of the joined group
+     * @return  the SessionOpts transports of the session, or TRANSPORT_NONE 
+     *          if the group is not joined
+     */
+    @Override
+    public synchronized short getJoinedGroupTransport(String groupName) {
+        if(isInvalidStringParam(groupName)) {
+            logInfo("getJoinedGroupTransport()", "Invalid group name");
+            return SessionOpts.TRANSPORT_NONE;
+        }
+        Short transport = joinedGroupTransports.get(groupName);
+        return (transport == null) ? SessionOpts.TRANSPORT_NONE : transport;
+    }
 
     /**
      * leaveGroup
@@ -660,67 +1463,273 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             return status;
         }
         
+        // Stop any automatic rejoin or host migration of the group
+        pendingRejoins.remove(groupName);
+        hostMigrations.remove(groupName);
+        
         // Get the sessionId of the group
         int sessionId = getSessionId(groupName);
         // Leave the group
-        status = bus.leaveSession(sessionId);
+        status = busForGroup(groupName).leaveSession(sessionId);
         if(status == Status.OK) {
             removeGroupNameToSessionId(groupName);
             clearPeers(sessionId);
             joinedGroups.remove(groupName);
+            groupNameToBus.remove(groupName);
+            groupProfiles.remove(groupName);
+            admissions.remove(groupName);
+            joinedGroupTransports.remove(groupName);
+            unregisterModules(groupName);
         }
         logInfo(methodName, "leaveSession(" + sessionId + ") - " + status.toString());
         return status;
     }
 
     /**
-     * joinOrCreateGroup
-     * joins the specified group if it exists, otherwise creates it.
-     * NOTE: There are opportunities for race conditions to occur during 
-     * startup where two peers might not see each other and both create the 
-     * group. This method is intended to be used for test and developmental 
-     * purposes only.
+     * setRejoinPolicy
+     * enables or disables the automatic rejoin of a group. When the session of
+     * a joined group with a rejoin policy is lost, the groupLost() call-back 
+     * is still triggered, and the PeerGroupManager then tries to rejoin the 
+     * group in the background, spacing the attempts with the backoff of the 
+     * policy. Attempts wait for the advertisement of the group to be 
+     * discovered again and are made as soon as it is. Rejoins of different 
+     * groups run concurrently and do not hold up other calls on the 
+     * PeerGroupManager while they wait for the session to be joined.
      * 
-     * @param groupName  the name of the group to join or create
-     * @return  JoinOrCreateReturn  an object containing a flag to tell whether
-     *                              the method tried to join or create 
-     *                              a group and the AllJoyn return status of 
-     *                              the operation
+     * @param groupName  the name of the group to rejoin automatically
+     * @param policy     the rejoin policy of the group, or null to disable the
+     *                   automatic rejoin of the group
+     * @return  OK if successful
      */
     @Override
-    public synchronized JoinOrCreateReturn joinOrCreateGroup(String groupName) {
-        String methodName = "joinOrCreateGroup()";
-        Status status = Status.FAIL;
+    public synchronized Status setRejoinPolicy(String groupName, RejoinPolicy policy) {
+        String methodName = "setRejoinPolicy()";
         if(isInvalidStringParam(groupName)) {
             logInfo(methodName, "Invalid group name");
-            return new JoinOrCreateReturn(status, true);
+            return Status.FAIL;
         }
-        logInfo("joinOrCreateGroup(" + groupName + ")", "");
+        logInfo("setRejoinPolicy(" + groupName + ")", "");
         // Make sure the bus attachment is set up
         if(isBusInvalid()) {
             logInfo(methodName, "Bus Attachment has already been disconnected");
-            return new JoinOrCreateReturn(status, true);
+            return Status.FAIL;
         }
         
-        String masterGroupName = getJoCMasterGroupName(groupName);
-        String guidGroupName = getJoCGuidGroupName(groupName);
-        
-        // If we're hosting the master group we're already joined
-        if(listHostedGroups().contains(masterGroupName)) {
-            logInfo(methodName, "Master group already created");
-            return new JoinOrCreateReturn(Status.FAIL, false);
+        if(policy == null) {
+            rejoinPolicies.remove(groupName);
+            pendingRejoins.remove(groupName);
+            hostMigrations.remove(groupName);
         }
-        
-        // If we see the master group then just join it
-        if(listFoundGroups().contains(masterGroupName)) {
-            logInfo(methodName, "Joining master group");
-            status = joinGroup(masterGroupName);
-            return new JoinOrCreateReturn(status, true);
+        else {
+            rejoinPolicies.put(groupName, policy);
+            if(!rejoinStats.containsKey(groupName)) {
+                rejoinStats.put(groupName, new RejoinStats());
+            }
         }
-        
-        // Create a group with your GUID if the main group wasn't found
-        status = createGroup(guidGroupName);
-        logInfo(methodName, "Creating group with GUID - " + status.toString());
+        return Status.OK;
+    }
+    
+    /**
+     * getRejoinStats
+     * gets the automatic rejoin statistics of a group, including the number 
+     * of rejoin attempts and the time it took to reconnect.
+     * 
+     * @param groupName  the name of the group to get the statistics of
+     * @return  a snapshot of the rejoin statistics of the group, or null if 
+     *          a rejoin policy was never set for the group
+     */
+    @Override
+    public synchronized RejoinStats getRejoinStats(String groupName) {
+        RejoinStats stats = rejoinStats.get(groupName);
+        if(stats == null) {
+            return null;
+        }
+        return new RejoinStats(stats);
+    }
+    
+    /**
+     * setAdmissionPolicy
+     * sets the policies that decide which peers may join a hosted group, on 
+     * top of lockGroup(). The policies are checked in order and a joiner is 
+     * rejected by the first policy that does not admit it. They can be set 
+     * before the group is created and are dropped, along with the admission
+     * statistics, when it is destroyed. For a JoinOrCreate group, use the 
+     * group name passed to joinOrCreateGroup().
+     * 
+     * @param groupName  the name of the group the policies apply to
+     * @param policies   the admission policies of the group, or none to 
+     *                   admit every joiner while the group is unlocked
+     * @return  OK if successful
+     */
+    @Override
+    public synchronized Status setAdmissionPolicy(String groupName, AdmissionPolicy... policies) {
+        String methodName = "setAdmissionPolicy()";
+        if(isInvalidStringParam(groupName)) {
+            logInfo(methodName, "Invalid group name");
+            return Status.FAIL;
+        }
+        logInfo("setAdmissionPolicy(" + groupName + ")", "");
+        // Make sure the bus attachment is set up
+        if(isBusInvalid()) {
+            logInfo(methodName, "Bus Attachment has already been disconnected");
+            return Status.FAIL;
+        }
+        AdmissionPolicy[] copy = (policies == null) ? new AdmissionPolicy[0] : policies.clone();
+        for(AdmissionPolicy policy : copy) {
+            if(policy == null) {
+                logInfo(methodName, "Invalid admission policy");
+                return Status.FAIL;
+            }
+        }
+        GroupAdmission admission = admissions.get(groupName);
+        if(admission == null) {
+            admission = new GroupAdmission();
+            admissions.put(groupName, admission);
+        }
+        admission.policies = copy;
+        refreshAdmissionPeers(groupName);
+        return Status.OK;
+    }
+    
+    /**
+     * getAdmissionStats
+     * gets the number of joiners a hosted group accepted and rejected and the
+     * time taken to decide.
+     * 
+     * @param groupName  the name of the group to get the statistics of
+     * @return  a snapshot of the admission statistics of the group, or null 
+     *          if no peer asked to join it and no admission policy was set
+     */
+    @Override
+    public synchronized AdmissionStats getAdmissionStats(String groupName) {
+        GroupAdmission admission = admissions.get(groupName);
+        if(admission == null) {
+            return null;
+        }
+        return new AdmissionStats(admission.admitted.get(), admission.rejected.get(), 
+                admission.totalDecisionNanos.get(), admission.maxDecisionNanos.get());
+    }
+    
+    /**
+     * getRawSessionChannel
+     * gets an NIO channel over the socket of a joined group that uses a raw 
+     * session profile, so bulk bytes can be exchanged with the host without 
+     * AllJoyn marshalling.
+     * NOTE: The socket can only be taken once per session. The channel must 
+     * be closed when done; leaveGroup() does not close it. Raw session 
+     * channels need API level 13 or later.
+     * 
+     * @param groupName  the name of the joined raw group
+     * @return  the channel, or null if the group is not a joined raw group
+     */
+    @Override
+    public synchronized RawSessionChannel getRawSessionChannel(String groupName) {
+        String methodName = "getRawSessionChannel()";
+        if(isInvalidStringParam(groupName)) {
+            logInfo(methodName, "Invalid group name");
+            return null;
+        }
+        logInfo("getRawSessionChannel(" + groupName + ")", "");
+        if(isBusInvalid()) {
+            logInfo(methodName, "Bus Attachment has already been disconnected");
+            return null;
+        }
+        if(!joinedGroups.contains(groupName)) {
+            logInfo(methodName, "You have not joined the group - " + groupName);
+            return null;
+        }
+        return openRawSessionChannel(groupName, getSessionId(groupName));
+    }
+    
+    /**
+     * getRawSessionChannel
+     * gets an NIO channel over the socket of the session with one of the 
+     * peers of a hosted group that uses a raw session profile.
+     * NOTE: The socket can only be taken once per session. The channel must 
+     * be closed when done; destroyGroup() does not close it. Raw session 
+     * channels need API level 13 or later.
+     * 
+     * @param groupName  the name of the hosted raw group
+     * @param peerId     the peer id of the joiner to get the channel to
+     * @return  the channel, or null if the peer has not joined the group
+     */
+    @Override
+    public synchronized RawSessionChannel getRawSessionChannel(String groupName, String peerId) {
+        String methodName = "getRawSessionChannel()";
+        if(isInvalidStringParam(groupName) || isInvalidStringParam(peerId)) {
+            logInfo(methodName, "Invalid group name or peer id");
+            return null;
+        }
+        logInfo("getRawSessionChannel(" + groupName + ", " + peerId + ")", "");
+        if(isBusInvalid()) {
+            logInfo(methodName, "Bus Attachment has already been disconnected");
+            return null;
+        }
+        HashMap<String,Integer> joinerSessions = pointToPointSessions.get(groupName);
+        if(!hostedGroups.contains(groupName) || joinerSessions == null || !joinerSessions.containsKey(peerId)) {
+            logInfo(methodName, peerId + " has not joined the group - " + groupName);
+            return null;
+        }
+        return openRawSessionChannel(groupName, joinerSessions.get(peerId));
+    }
+    
+    /**
+     * joinOrCreateGroup
+     * joins the specified group if it exists, otherwise creates it.
+     * NOTE: There are opportunities for race conditions to occur during 
+     * startup where two peers might not see each other and both create the 
+     * group. This method is intended to be used for test and developmental 
+     * purposes only.
+     * NOTE: When the host of a joined JoinOrCreate group leaves, the peer with
+     * the lowest peer id among the remaining peers hosts the group again on 
+     * the same session port and the others rejoin it directly, without 
+     * another round of joinOrCreateGroup(). groupLost() is still triggered.
+     * The failover is retried with the rejoin policy of the group, which is
+     * a short one unless setRejoinPolicy() is called, and the time it took is
+     * reported by getRejoinStats(). Setting a null rejoin policy disables
+     * host migration for the group.
+     * 
+     * @param groupName  the name of the group to join or create
+     * @return  JoinOrCreateReturn  an object containing a flag to tell whether
+     *                              the method tried to join or create 
+     *                              a group and the AllJoyn return status of 
+     *                              the operation
+     */
+    @Override
+    public synchronized JoinOrCreateReturn joinOrCreateGroup(String groupName) {
+        String methodName = "joinOrCreateGroup()";
+        Status status = Status.FAIL;
+        if(isInvalidStringParam(groupName)) {
+            logInfo(methodName, "Invalid group name");
+            return new JoinOrCreateReturn(status, true);
+        }
+        logInfo("joinOrCreateGroup(" + groupName + ")", "");
+        // Make sure the bus attachment is set up
+        if(isBusInvalid()) {
+            logInfo(methodName, "Bus Attachment has already been disconnected");
+            return new JoinOrCreateReturn(status, true);
+        }
+        
+        String masterGroupName = getJoCMasterGroupName(groupName);
+        String guidGroupName = getJoCGuidGroupName(groupName);
+        
+        // If we're hosting the master group we're already joined
+        if(listHostedGroups().contains(masterGroupName)) {
+            logInfo(methodName, "Master group already created");
+            return new JoinOrCreateReturn(Status.FAIL, false);
+        }
+        
+        // If we see the master group then just join it
+        if(listConfirmedFoundGroups().contains(masterGroupName)) {
+            logInfo(methodName, "Joining master group");
+            status = joinGroup(masterGroupName);
+            enableHostMigration(masterGroupName, masterGroupName, status);
+            return new JoinOrCreateReturn(status, true);
+        }
+        
+        // Create a group with your GUID if the main group wasn't found
+        status = createGroup(guidGroupName);
+        logInfo(methodName, "Creating group with GUID - " + status.toString());
         if(status != Status.OK) {
             return new JoinOrCreateReturn(status, false);
         }
@@ -736,12 +1745,13 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             logError(methodName, e.toString());
         }
         
-        ArrayList<String> availableGroups = listFoundGroups();
+        ArrayList<String> availableGroups = listConfirmedFoundGroups();
         
         // Join the master group if it exists and we are not hosting it
         if(availableGroups.contains(masterGroupName) && !listHostedGroups().contains(masterGroupName)) {
             logInfo(methodName, "Joining master group");
             status = joinGroup(masterGroupName);
+            enableHostMigration(masterGroupName, masterGroupName, status);
             // Clean up your GUID group
             destroyGroup(guidGroupName);
             return new JoinOrCreateReturn(status, true);
@@ -760,12 +1770,13 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         logInfo(methodName, "Highest GUID group is " + groupWithHighestGuid);
         
         // Check for master group again
-        availableGroups = listFoundGroups();
+        availableGroups = listConfirmedFoundGroups();
         
         // Join the master group if it exists and we are not hosting it
         if(availableGroups.contains(masterGroupName) && !listHostedGroups().contains(masterGroupName)) {
             logInfo(methodName, "Joining master group");
             status = joinGroup(masterGroupName);
+            enableHostMigration(masterGroupName, masterGroupName, status);
             // Clean up your GUID group
             destroyGroup(guidGroupName);
             return new JoinOrCreateReturn(status, true);
@@ -794,9 +1805,15 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             // Swap out the GUID group name for the master group name
             joinedGroups.remove(groupWithHighestGuid);
             joinedGroups.add(masterGroupName);
+            groupNameToBus.put(masterGroupName, groupNameToBus.remove(groupWithHighestGuid));
+            if(joinedGroupTransports.containsKey(groupWithHighestGuid)) {
+                joinedGroupTransports.put(masterGroupName, joinedGroupTransports.remove(groupWithHighestGuid));
+            }
             int sessionId = groupNameToSessionId.get(groupWithHighestGuid);
             removeGroupNameToSessionId(groupWithHighestGuid);
             addGroupNameToSessionId(masterGroupName, sessionId);
+            // The host keeps its session port when it takes the master name
+            enableHostMigration(masterGroupName, groupWithHighestGuid, status);
             
             // Clean up your GUID group
             logInfo(methodName, "Destroying my GUID group");
@@ -805,6 +1822,100 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         }
     }
     
+    /**
+     * joinOrCreateGroup
+     * joins the specified group if it exists, otherwise creates it. In single
+     * round mode every peer hosts the group on the same session port, 
+     * derived from the group name, so they all request the same advertised
+     * name. The daemon grants the name to only one of them since it is 
+     * requested with DO_NOT_QUEUE. That peer hosts the group right away and
+     * the others join it right away, without GUID groups or waiting for 
+     * discovery.
+     * NOTE: Name requests are arbitrated by the routing node, so peers on 
+     * different routing nodes that start at the same moment can still both
+     * create the group. The host therefore also advertises a host claim 
+     * with its peer id, and when it discovers the claim of another host of 
+     * the group, the host with the lower peer id keeps hosting and the other
+     * one destroys its group and joins it. Peers that had joined the group 
+     * that is given up lose it and rejoin through host migration. If the 
+     * name is owned by a peer that cannot be joined directly, or the session
+     * port derived from the group name is taken by another group, the 
+     * regular JoinOrCreate round is used instead.
+     * 
+     * @param groupName    the name of the group to join or create
+     * @param singleRound  true to arbitrate by name ownership, false for the
+     *                     regular JoinOrCreate round
+     * @return  JoinOrCreateReturn  an object containing a flag to tell whether
+     *                              the method tried to join or create 
+     *                              a group and the AllJoyn return status of 
+     *                              the operation
+     */
+    @Override
+    public synchronized JoinOrCreateReturn joinOrCreateGroup(String groupName, boolean singleRound) {
+        if(!singleRound) {
+            return joinOrCreateGroup(groupName);
+        }
+        String methodName = "joinOrCreateGroup()";
+        Status status = Status.FAIL;
+        if(isInvalidStringParam(groupName)) {
+            logInfo(methodName, "Invalid group name");
+            return new JoinOrCreateReturn(status, true);
+        }
+        logInfo("joinOrCreateGroup(" + groupName + ", " + singleRound + ")", "");
+        // Make sure the bus attachment is set up
+        if(isBusInvalid()) {
+            logInfo(methodName, "Bus Attachment has already been disconnected");
+            return new JoinOrCreateReturn(status, true);
+        }
+        
+        // If we're hosting the group we're already joined
+        if(listHostedGroups().contains(groupName)) {
+            logInfo(methodName, "Master group already created");
+            return new JoinOrCreateReturn(Status.FAIL, false);
+        }
+        
+        // If we see the group then just join it
+        if(listConfirmedFoundGroups().contains(groupName)) {
+            logInfo(methodName, "Joining master group");
+            status = joinGroup(groupName);
+            enableHostMigration(groupName, groupName, status);
+            return new JoinOrCreateReturn(status, true);
+        }
+        
+        // Whoever gets the advertised name hosts the group
+        short sessionPort = getJoCSessionPort(groupName);
+        status = hostGroup(groupName, false, null, sessionPort, false);
+        if(status == Status.OK) {
+            logInfo(methodName, "I own the advertised name. I am the Host");
+            claimHost(groupName);
+            return new JoinOrCreateReturn(status, false);
+        }
+        // Another group of ours is hosted on the same session port
+        if(status == Status.ALLJOYN_BINDSESSIONPORT_REPLY_ALREADY_EXISTS) {
+            logInfo(methodName, "Session port " + sessionPort + " is taken - falling back to the JoinOrCreate round");
+            return joinOrCreateGroup(groupName);
+        }
+        // Only a name already owned by another peer means we lost
+        if(status != Status.DBUS_REQUEST_NAME_REPLY_EXISTS) {
+            logInfo(methodName, "Failed to host the group - " + status.toString());
+            return new JoinOrCreateReturn(status, false);
+        }
+        
+        // Join the owner of the advertised name, which bound the session 
+        // port before requesting the name
+        String advertisedName = getAdvertisedName(groupName, sessionPort);
+        if(getNameOwner(bus, advertisedName) == null) {
+            logInfo(methodName, "Advertised name not owned - falling back to the JoinOrCreate round");
+            return joinOrCreateGroup(groupName);
+        }
+        logInfo(methodName, "Joining the owner of " + advertisedName);
+        status = joinAdvertisedName(groupName, advertisedName, sessionPort);
+        if(status == Status.OK) {
+            enableHostMigration(groupName, advertisedName, sessionPort);
+        }
+        return new JoinOrCreateReturn(status, true);
+    }
+    
     /** 
      * getPeers
      * gets the PeerIds of all peers in the specified group. You must be a
@@ -836,12 +1947,18 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
          * the only ones in the group
          */
         if(listHostedGroups().contains(groupName) && sessionId == -1) {
-            clone.add(bus.getUniqueName());
+            clone.add(busForGroup(groupName).getUniqueName());
+            // The joiners of a point to point group each have their own session
+            if(pointToPointSessions.containsKey(groupName)) {
+                for(String peer : pointToPointSessions.get(groupName).keySet()) {
+                    clone.add(new String(peer));
+                }
+            }
             return clone;
         }
         // Get the list of peers for the group
         if(sessionIdToPeers.containsKey(sessionId)) {
-            ArrayList<String> peerList = sessionIdToPeers.get(sessionId);
+            LinkedHashSet<String> peerList = sessionIdToPeers.get(sessionId);
             if(peerList != null) {
                 // Create and return a deep copy of the peer list for the specified group
                 for (String peer : peerList) {
@@ -871,10 +1988,29 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             return size;
         }
         
-        size = getPeers(groupName).size();
+        size = countPeers(groupName);
         logInfo("getNumPeers(" + groupName + ")", "numPeers - " + size);
         return size;
     }
+    
+    /*
+     * Handles a peer being added to or removed from the session of a group
+     * as if AllJoyn had reported it. It lets the tests drive groups with more
+     * peers than a device can run bus attachments for.
+     */
+    synchronized boolean simulateMemberEvent(String groupName, String peerId, boolean added) {
+        int sessionId = getSessionId(groupName);
+        if(sessionId == -1) {
+            return false;
+        }
+        if(added) {
+            ((PGSessionListener) pgSessionListener).onSessionMemberAdded(sessionId, peerId);
+        }
+        else {
+            ((PGSessionListener) pgSessionListener).onSessionMemberRemoved(sessionId, peerId);
+        }
+        return true;
+    }
 
     /** 
      * listFoundGroups
@@ -894,6 +2030,26 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         return clone;
     }
     
+    /**
+     * listStaleFoundGroups
+     * lists the group names of the found groups that were loaded from the 
+     * FoundGroupsCache and have not been discovered again since the 
+     * PeerGroupManager was created. These groups are also returned by 
+     * listFoundGroups(), but may no longer be available.
+     * 
+     * @return  a list of group names of all the stale found groups
+     */
+    @Override
+    public synchronized ArrayList<String> listStaleFoundGroups() {
+        // Create and return a deep copy of the stale group list
+        ArrayList<String> clone = new ArrayList<String>(staleFoundGroups.size());
+        for (String groupName : staleFoundGroups.keySet()) {
+            clone.add(new String(groupName));
+        }
+        logInfo("listStaleFoundGroups()", clone.toString());
+        return clone;
+    }
+    
     /**
      * listHostedGroups
      * lists the group names of all the groups you have created and are 
@@ -953,6 +2109,10 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
     /**
      * registerSignalHandlers
      * registers all annotated signal handlers in the specified class.
+     * NOTE: The handlers receive the signals of every session of the bus 
+     * attachment, including the ones of other PeerGroupManagers sharing it.
+     * Use registerSignalHandlers(String, Object, Class) to only receive the
+     * signals of a group.
      * 
      * @param classWithSignalHandlers  the class containing the signal handlers 
      *                                 to be registered
@@ -970,7 +2130,18 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         }
         
         if(classWithSignalHandlers != null) {
-            status = bus.registerSignalHandlers(classWithSignalHandlers);
+            // Register the signal handlers on every bus attachment
+            for(BusAttachment busAttachment : buses) {
+                if(sharedBus != null) {
+                    status = sharedBus.registerSignalHandlers(this, classWithSignalHandlers);
+                }
+                else {
+                    status = busAttachment.registerSignalHandlers(classWithSignalHandlers);
+                }
+                if(status != Status.OK) {
+                    break;
+                }
+            }
             if(status == Status.OK && !classesWithSignalHandlers.contains(classWithSignalHandlers)) {
                 classesWithSignalHandlers.add(classWithSignalHandlers);
             }
@@ -979,87 +2150,446 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
     }
     
     /**
-     * addPeerGroupListener
-     * adds an additional listener to detect the foundAdvertisedName(), 
-     * lostAdvertisedName(), groupLost(), peerAdded(), and 
-     * peerRemoved() signals. Multiple listeners can be added at any time 
-     * without affecting the previous listeners.
+     * registerSignalHandlers
+     * registers the annotated handlers in the specified class for the signals
+     * of the given interface that are sent over the session of a group. 
+     * Signals from other sessions are not delivered to them. The handlers do 
+     * not run on the AllJoyn dispatch thread but on the signal handler 
+     * executor, in the order the signals arrived for the group, while the 
+     * handlers of different groups run in parallel. The handlers stay 
+     * registered when the group is left and receive its signals again once 
+     * it is rejoined.
+     * NOTE: Handlers registered this way must call getSignalContext() instead
+     * of BusAttachment.getMessageContext().
      * 
-     * @param peerGroupListener  the listener with the desired call-back methods 
-     *                           to invoke
+     * @param groupName                the group to receive the signals of
+     * @param classWithSignalHandlers  the class containing the signal handlers 
+     *                                 to be registered
+     * @param iface                    the interface defining the signals
+     * @return  OK if successful, otherwise FAIL if the class has no handler 
+     *          for the signals of the interface
      */
     @Override
-    public synchronized void addPeerGroupListener(PeerGroupListenerInterface peerGroupListener) {
-        if(peerGroupListener != null) {
-            peerGroupListeners.remove(peerGroupListener);
-            peerGroupListeners.add(peerGroupListener);
+    public synchronized Status registerSignalHandlers(String groupName, Object classWithSignalHandlers, Class<?> iface) {
+        String methodName = "registerSignalHandlers()";
+        if(isInvalidStringParam(groupName)) {
+            logInfo(methodName, "Invalid group name");
+            return Status.FAIL;
         }
-    }
-    
-    /**
-     * getRemoteObjectInterface
-     * gets a proxy to be used for making remote method calls. This is a proxy 
-     * to a remote bus object implementing the specified interface. This object
-     * is only valid for the specified group.
-     * 
-     * @param peerId      the id of the peer to make the remote method calls on
-     * @param groupName   the name of the group to communicate over
-     * @param objectPath  the object path of the remote bus object
-     * @param iface       the interface object defining the remote method call
-     * @return  a proxy to a remote bus object that can be used for making 
-     *          remote method calls or null if an error occurred
-     */
-    @Override
-    public synchronized <T> T getRemoteObjectInterface(String peerId, String groupName, String objectPath, Class<T> iface) {
-        String methodName = "getRemoteObjectInterface()";
-        logInfo(methodName, "");
-        
+        logInfo("registerSignalHandlers(" + groupName + ")", "");
         // Make sure the bus attachment is set up
         if(isBusInvalid()) {
             logInfo(methodName, "Bus Attachment has already been disconnected");
-            return null;
+            return Status.FAIL;
         }
-        
-        if(isInvalidStringParam(peerId)) {
-            logInfo(methodName, "Invalid peer Id");
-            return null;
+        if(classWithSignalHandlers == null || iface == null || !iface.isInterface()) {
+            logInfo(methodName, "Invalid signal handlers");
+            return Status.FAIL;
         }
-        if(isInvalidStringParam(groupName)) {
-            logInfo(methodName, "Invalid group name");
-            return null;
+        
+        // Ring buffers are drained by the application and need no executor
+        SerialExecutor groupExecutor = null;
+        if(!(classWithSignalHandlers instanceof SignalRingBuffer)) {
+            if(signalHandlerExecutor == null) {
+                signalHandlerPool = Executors.newFixedThreadPool(SIGNAL_HANDLER_THREADS);
+                signalHandlerExecutor = signalHandlerPool;
+            }
+            groupExecutor = groupSignalExecutors.get(groupName);
+            if(groupExecutor == null) {
+                groupExecutor = new SerialExecutor(signalHandlerExecutor);
+                groupSignalExecutors.put(groupName, groupExecutor);
+            }
         }
-        if(objectPath == null) {
-            logInfo(methodName, "Invalid object path");
-            return null;
+        // Register the signal handlers on the bus attachment of the group only,
+        // or the one it will be placed on. They follow the group if it is 
+        // placed elsewhere later.
+        GroupSignalRoute route = new GroupSignalRoute(groupName, classWithSignalHandlers, iface, placeGroup(groupName), groupExecutor);
+        route.setSessionIds(getSessionIds(groupName));
+        Status status = route.register();
+        if(status != Status.OK) {
+            logInfo(methodName, iface.getName() + " - " + status.toString());
+            return status;
         }
-        if(iface == null) {
-            logInfo(methodName, "Invalid interface");
-            return null;
+        if(!groupSignalRoutes.containsKey(groupName)) {
+            groupSignalRoutes.put(groupName, new ArrayList<GroupSignalRoute>());
         }
-        ProxyBusObject proxy = bus.getProxyBusObject(peerId, objectPath, getSessionId(groupName), new Class<?>[] {iface});
-        return proxy.getInterface(iface);
+        groupSignalRoutes.get(groupName).add(route);
+        return Status.OK;
     }
     
     /**
-     * getSignalInterface
-     * gets the interface object from a bus object to be used for emitting  
-     * signals to a group. This object is only valid for the specified group.
+     * registerSignalRingBuffer
+     * registers a ring buffer that receives the signals of the given 
+     * interface that are sent over the session of a group. The AllJoyn 
+     * dispatch thread copies each signal into the ring and the application 
+     * drains it in batches on its own thread with SignalRingBuffer.drain(). 
+     * Like group signal handlers, the ring keeps receiving the signals of the
+     * group when it is rejoined. Use unregisterSignalHandlers() to stop 
+     * filling the ring.
      * 
-     * @param groupName  the name of the group to emit signals over
-     * @param busObject  the bus object that implements the interface 
-     *                   containing the signals
-     * @param iface      the interface object defining the signal
-     * @return  an interface object that can be used to emit signals to a group
-     *          or null if an error occurred 
+     * @param groupName   the group to receive the signals of
+     * @param ringBuffer  the ring buffer to copy the signals into
+     * @param iface       the interface defining the signals
+     * @return  OK if successful, otherwise FAIL if the interface has no 
+     *          signals
      */
     @Override
-    public synchronized <T> T getSignalInterface(String groupName, BusObject busObject, Class<T> iface) {
-        String methodName = "getSignalInterface()";
-        logInfo(methodName, "");
-        
-        // Make sure the bus attachment is set up
-        if(isBusInvalid()) {
-            logInfo(methodName, "Bus Attachment has already been disconnected");
+    public synchronized Status registerSignalRingBuffer(String groupName, SignalRingBuffer ringBuffer, Class<?> iface) {
+        return registerSignalHandlers(groupName, ringBuffer, iface);
+    }
+    
+    /**
+     * unregisterSignalHandlers
+     * unregisters the signal handlers in the specified class, or the signal 
+     * ring buffer, that were registered for a group.
+     * 
+     * @param groupName                the group the handlers were registered for
+     * @param classWithSignalHandlers  the class containing the signal handlers
+     *                                 or the signal ring buffer
+     * @return  OK if successful, otherwise FAIL if no handlers of the class 
+     *          were registered for the group
+     */
+    @Override
+    public synchronized Status unregisterSignalHandlers(String groupName, Object classWithSignalHandlers) {
+        String methodName = "unregisterSignalHandlers()";
+        ArrayList<GroupSignalRoute> routes = groupSignalRoutes.get(groupName);
+        if(routes == null) {
+            logInfo(methodName, "No signal handlers registered for the group");
+            return Status.FAIL;
+        }
+        Status status = Status.FAIL;
+        for(Iterator<GroupSignalRoute> it = routes.iterator(); it.hasNext();) {
+            GroupSignalRoute route = it.next();
+            if(route.getHandlers() == classWithSignalHandlers) {
+                route.unregister();
+                it.remove();
+                status = Status.OK;
+            }
+        }
+        if(routes.isEmpty()) {
+            groupSignalRoutes.remove(groupName);
+            groupSignalExecutors.remove(groupName);
+        }
+        return status;
+    }
+    
+    /**
+     * setSignalHandlerExecutor
+     * sets the executor the signal handlers registered for a group run on. A
+     * pool of 4 threads is used unless one is set. The 
+     * handlers of each group still run one at a time on it.
+     * 
+     * @param executor  the executor to run the group signal handlers on
+     * @return  OK if successful
+     */
+    @Override
+    public synchronized Status setSignalHandlerExecutor(Executor executor) {
+        String methodName = "setSignalHandlerExecutor()";
+        if(executor == null) {
+            logInfo(methodName, "Invalid executor");
+            return Status.FAIL;
+        }
+        if(isBusInvalid()) {
+            logInfo(methodName, "Bus Attachment has already been disconnected");
+            return Status.FAIL;
+        }
+        signalHandlerExecutor = executor;
+        for(SerialExecutor groupExecutor : groupSignalExecutors.values()) {
+            groupExecutor.setExecutor(executor);
+        }
+        if(signalHandlerPool != null) {
+            signalHandlerPool.shutdown();
+            signalHandlerPool = null;
+        }
+        return Status.OK;
+    }
+    
+    /**
+     * getSignalContext
+     * gets the message context of the signal being handled by a signal 
+     * handler registered for a group, such as the sender and session id of 
+     * the signal.
+     * 
+     * @return  the message context of the signal, or null if not called from
+     *          a group signal handler
+     */
+    @Override
+    public MessageContext getSignalContext() {
+        return GroupSignalRoute.getCurrentContext();
+    }
+    
+    /**
+     * addPeerGroupListener
+     * adds an additional listener to detect the foundAdvertisedName(), 
+     * lostAdvertisedName(), groupLost(), peerAdded(), and 
+     * peerRemoved() signals. Multiple listeners can be added at any time 
+     * without affecting the previous listeners. Listeners that also 
+     * implement PeerGroupMembershipListener get the members of each joined
+     * group in a single membershipSnapshot() call-back.
+     * 
+     * @param peerGroupListener  the listener with the desired call-back methods 
+     *                           to invoke
+     */
+    @Override
+    public synchronized void addPeerGroupListener(PeerGroupListenerInterface peerGroupListener) {
+        if(peerGroupListener != null) {
+            peerGroupListeners.add(peerGroupListener, null, null);
+        }
+    }
+    
+    /**
+     * addPeerGroupListener
+     * adds a listener that only receives the events accepted by the given 
+     * filter. Adding a listener that was already added replaces its filter.
+     * Listeners are called in the order they were added.
+     * 
+     * @param peerGroupListener  the listener with the desired call-back methods 
+     *                           to invoke
+     * @param filter             the groups and kinds of events to receive, or
+     *                           null for all of them
+     */
+    @Override
+    public synchronized void addPeerGroupListener(PeerGroupListenerInterface peerGroupListener, PeerGroupListenerFilter filter) {
+        if(peerGroupListener != null) {
+            peerGroupListeners.add(peerGroupListener, filter, null);
+        }
+    }
+    
+    /**
+     * addPeerGroupListener
+     * adds a listener that is called on its own executor, so that slow 
+     * call-backs do not delay the other listeners or the handling of the 
+     * AllJoyn events. The call-backs are queued and made one at a time in 
+     * order; the policy decides what happens once the queue is full. Adding a
+     * listener that was already added replaces its filter and policy and 
+     * discards its queued call-backs.
+     * 
+     * @param peerGroupListener  the listener with the desired call-back methods 
+     *                           to invoke
+     * @param filter             the groups and kinds of events to receive, or
+     *                           null for all of them
+     * @param execution          the executor, queue bound and backpressure 
+     *                           policy of the listener, or null to call it 
+     *                           directly
+     */
+    @Override
+    public synchronized void addPeerGroupListener(PeerGroupListenerInterface peerGroupListener, PeerGroupListenerFilter filter, 
+            ListenerExecutionPolicy execution) {
+        if(peerGroupListener != null) {
+            peerGroupListeners.add(peerGroupListener, filter, execution);
+        }
+    }
+    
+    /**
+     * getListenerQueueStats
+     * gets the queue statistics of a listener added with a 
+     * ListenerExecutionPolicy.
+     * 
+     * @param peerGroupListener  the listener
+     * @return  a snapshot of the queue statistics of the listener or null if 
+     *          the listener has no executor of its own
+     */
+    @Override
+    public synchronized ListenerQueueStats getListenerQueueStats(PeerGroupListenerInterface peerGroupListener) {
+        QueuedPeerGroupListener queue = peerGroupListeners.getQueue(peerGroupListener);
+        return (queue == null) ? null : queue.getStats();
+    }
+    
+    /**
+     * removePeerGroupListener
+     * removes a listener added with addPeerGroupListener(). The listener added
+     * through the constructor can be removed as well. Call-backs still queued
+     * for a listener with its own executor are discarded.
+     * 
+     * @param peerGroupListener  the listener to remove
+     * @return  OK if the listener was removed, otherwise FAIL
+     */
+    @Override
+    public synchronized Status removePeerGroupListener(PeerGroupListenerInterface peerGroupListener) {
+        String methodName = "removePeerGroupListener()";
+        if(peerGroupListener == null || !peerGroupListeners.remove(peerGroupListener)) {
+            logInfo(methodName, "Listener was not added");
+            return Status.FAIL;
+        }
+        return Status.OK;
+    }
+    
+    /**
+     * getRemoteObjectInterface
+     * gets a proxy to be used for making remote method calls. This is a proxy 
+     * to a remote bus object implementing the specified interface. This object
+     * is only valid for the specified group.
+     * 
+     * @param peerId      the id of the peer to make the remote method calls on
+     * @param groupName   the name of the group to communicate over
+     * @param objectPath  the object path of the remote bus object
+     * @param iface       the interface object defining the remote method call
+     * @return  a proxy to a remote bus object that can be used for making 
+     *          remote method calls or null if an error occurred
+     */
+    @Override
+    public synchronized <T> T getRemoteObjectInterface(String peerId, String groupName, String objectPath, Class<T> iface) {
+        String methodName = "getRemoteObjectInterface()";
+        logInfo(methodName, "");
+        
+        // Make sure the bus attachment is set up
+        if(isBusInvalid()) {
+            logInfo(methodName, "Bus Attachment has already been disconnected");
+            return null;
+        }
+        
+        if(isInvalidStringParam(peerId)) {
+            logInfo(methodName, "Invalid peer Id");
+            return null;
+        }
+        if(isInvalidStringParam(groupName)) {
+            logInfo(methodName, "Invalid group name");
+            return null;
+        }
+        if(objectPath == null) {
+            logInfo(methodName, "Invalid object path");
+            return null;
+        }
+        if(iface == null) {
+            logInfo(methodName, "Invalid interface");
+            return null;
+        }
+        ProxyBusObject proxy = busForGroup(groupName).getProxyBusObject(peerId, objectPath, getSessionId(groupName), new Class<?>[] {iface});
+        return proxy.getInterface(iface);
+    }
+    
+    /**
+     * scatterGather
+     * makes the same remote method calls on the bus object at the given path
+     * of every other peer of a group concurrently and waits for them until 
+     * the deadline, so the total latency is that of the slowest peer rather
+     * than the sum of all of them.
+     * NOTE: At most 8 calls run at once across all scatterGather() calls; 
+     * the others wait for a thread and count against the deadline. Calls 
+     * still running or waiting at the deadline are reported as timed out and
+     * left to finish in the background. Their results are discarded.
+     * 
+     * @param groupName      the name of the group to communicate over
+     * @param objectPath     the object path of the remote bus objects
+     * @param iface          the interface object defining the remote method 
+     *                       calls
+     * @param call           the remote method calls to make on each peer
+     * @param timeoutMillis  the time to wait for all of the peers to answer
+     * @return  the results, errors and latencies of the peers, or null if an
+     *          error occurred
+     */
+    @Override
+    public <T,R> ScatterGatherResult<R> scatterGather(String groupName, String objectPath, Class<T> iface, 
+            final RemoteCall<T,R> call, long timeoutMillis) {
+        String methodName = "scatterGather()";
+        logInfo(methodName, "");
+        
+        if(isInvalidStringParam(groupName)) {
+            logInfo(methodName, "Invalid group name");
+            return null;
+        }
+        if(objectPath == null) {
+            logInfo(methodName, "Invalid object path");
+            return null;
+        }
+        if(iface == null) {
+            logInfo(methodName, "Invalid interface");
+            return null;
+        }
+        if(call == null || timeoutMillis <= 0) {
+            logInfo(methodName, "Invalid remote call or timeout");
+            return null;
+        }
+        
+        ArrayList<String> peers = new ArrayList<String>();
+        ArrayList<ProxyBusObject> proxies = new ArrayList<ProxyBusObject>();
+        ExecutorService pool;
+        synchronized(this) {
+            // Make sure the bus attachment is set up
+            if(isBusInvalid()) {
+                logInfo(methodName, "Bus Attachment has already been disconnected");
+                return null;
+            }
+            BusAttachment bus = busForGroup(groupName);
+            HashMap<String,Integer> joinerSessions = pointToPointSessions.get(groupName);
+            for(String peerId : getPeers(groupName)) {
+                if(peerId.equals(bus.getUniqueName())) {
+                    continue;
+                }
+                // The joiners of a point to point group each have their own session
+                int sessionId = (joinerSessions != null && joinerSessions.containsKey(peerId)) 
+                        ? joinerSessions.get(peerId) : getSessionId(groupName);
+                ProxyBusObject proxy = bus.getProxyBusObject(peerId, objectPath, sessionId, new Class<?>[] {iface});
+                // Have AllJoyn give up on the call at the deadline as well
+                proxy.setReplyTimeout((int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+                peers.add(peerId);
+                proxies.add(proxy);
+            }
+            if(scatterGatherPool == null) {
+                scatterGatherPool = Executors.newFixedThreadPool(SCATTER_GATHER_THREADS);
+            }
+            pool = scatterGatherPool;
+        }
+        
+        final ScatterGatherResult<R> result = new ScatterGatherResult<R>(peers);
+        final CountDownLatch done = new CountDownLatch(peers.size());
+        long start = System.nanoTime();
+        for(int i = 0; i < peers.size(); i++) {
+            final String peerId = peers.get(i);
+            final ProxyBusObject proxy = proxies.get(i);
+            final T remote = proxy.getInterface(iface);
+            try {
+                pool.execute(new Runnable() {
+                    public void run() {
+                        long callStart = System.nanoTime();
+                        try {
+                            result.succeeded(peerId, call.call(peerId, remote), System.nanoTime() - callStart);
+                        } catch (Exception e) {
+                            result.failed(peerId, e, System.nanoTime() - callStart);
+                        } finally {
+                            proxy.release();
+                            done.countDown();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The PeerGroupManager was cleaned up
+                result.failed(peerId, e, 0);
+                proxy.release();
+                done.countDown();
+            }
+        }
+        try {
+            done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        result.close((System.nanoTime() - start) / 1000000);
+        logInfo(methodName, groupName + " - " + result.getResults().size() + " of " + peers.size() 
+                + " peers answered in " + result.getElapsedMillis() + " ms");
+        return result;
+    }
+    
+    /**
+     * getSignalInterface
+     * gets the interface object from a bus object to be used for emitting  
+     * signals to a group. This object is only valid for the specified group.
+     * 
+     * @param groupName  the name of the group to emit signals over
+     * @param busObject  the bus object that implements the interface 
+     *                   containing the signals
+     * @param iface      the interface object defining the signal
+     * @return  an interface object that can be used to emit signals to a group
+     *          or null if an error occurred 
+     */
+    @Override
+    public synchronized <T> T getSignalInterface(String groupName, BusObject busObject, Class<T> iface) {
+        String methodName = "getSignalInterface()";
+        logInfo(methodName, "");
+        
+        // Make sure the bus attachment is set up
+        if(isBusInvalid()) {
+            logInfo(methodName, "Bus Attachment has already been disconnected");
             return null;
         }
         
@@ -1126,7 +2656,10 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
     
     /**
      * registerBusObject
-     * registers a bus object on the bus.
+     * registers a bus object on the bus. When the PeerGroupManager spreads 
+     * its groups across several bus attachments, the bus object is 
+     * registered on the first one and new groups are placed on it from then
+     * on. This fails if groups are already placed on other bus attachments.
      * 
      * @param   busObjectData  the bus object and path to register
      * @return  OK if successful
@@ -1145,9 +2678,22 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         if(busObjectData == null) {
             logInfo(methodName, "Invalid bus object");
             return null;
+        }
+        
+        // The groups on other bus attachments could not reach the bus object
+        for(BusAttachment groupBus : groupNameToBus.values()) {
+            if(groupBus != bus) {
+                logInfo(methodName, "Groups are placed on other bus attachments");
+                return status;
+            }
         }
 
-        status = bus.registerBusObject(busObjectData.getBusObject(), busObjectData.getObjectPath());
+        if(sharedBus != null) {
+            status = sharedBus.registerBusObject(this, busObjectData.getBusObject(), busObjectData.getObjectPath());
+        }
+        else {
+            status = bus.registerBusObject(busObjectData.getBusObject(), busObjectData.getObjectPath());
+        }
         logInfo("registerBusObjects()", "Registering bus object at " + busObjectData.getObjectPath() 
                 + " - " + status.toString());
         if(status == Status.OK) {
@@ -1162,6 +2708,9 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
      * registers a module with the PeerGroupManager to allow it to communicate
      * over the specified group. This will provide the module with the
      * BusAttachment and the session Id for the group.
+     * NOTE: Modules that implement PGLifecycleModule are told when peers 
+     * leave the group, and are unregistered when the group is destroyed or 
+     * left.
      * 
      * @param module     the module to register
      * @param groupName  the name of the group to give the module access to
@@ -1182,7 +2731,98 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             return Status.FAIL;
         }
         
-        return module.register(bus, getSessionId(groupName));
+        Status status = module.register(busForGroup(groupName), getSessionId(groupName));
+        if(status != Status.OK || !(module instanceof PGLifecycleModule)) {
+            return status;
+        }
+        // Keep track of the module to tell it about the group
+        PGLifecycleModule lifecycleModule = (PGLifecycleModule) module;
+        ArrayList<PGLifecycleModule> modules = groupModules.get(groupName);
+        if(modules == null) {
+            modules = new ArrayList<PGLifecycleModule>();
+            groupModules.put(groupName, modules);
+        }
+        if(!modules.contains(lifecycleModule)) {
+            modules.add(lifecycleModule);
+        }
+        if(joinedGroups.contains(groupName)) {
+            lifecycleModule.groupJoined(getGroupHostPeerId(groupName));
+        }
+        return status;
+    }
+    
+    /**
+     * getSuspectedPeers
+     * gets the peers of a group that the HeartbeatModule registered for the
+     * group suspects to have failed. Suspected peers are still listed by 
+     * getPeers() until AllJoyn removes them from the group.
+     * 
+     * @param groupName  the name of the group
+     * @return  a list of PeerIds of the suspected peers, which is empty if no
+     *          HeartbeatModule is registered for the group
+     */
+    @Override
+    public synchronized ArrayList<String> getSuspectedPeers(String groupName) {
+        String methodName = "getSuspectedPeers()";
+        if(isInvalidStringParam(groupName)) {
+            logInfo(methodName, "Invalid group name");
+            return new ArrayList<String>();
+        }
+        HeartbeatModule heartbeat = getModule(groupName, HeartbeatModule.class);
+        if(heartbeat == null) {
+            logInfo(methodName, "No HeartbeatModule registered for " + groupName);
+            return new ArrayList<String>();
+        }
+        return heartbeat.getSuspectedPeers();
+    }
+    
+    /**
+     * getPeerRttStats
+     * gets the round trip times to a peer measured by the RttProbeModule 
+     * registered for the group.
+     * 
+     * @param groupName  the name of the group the probe is registered for
+     * @param peerId     the peer to get the round trip times of
+     * @return  a snapshot of the round trip times, or null if no probe is 
+     *          registered for the group or the peer has not answered it
+     */
+    @Override
+    public synchronized RttStats getPeerRttStats(String groupName, String peerId) {
+        String methodName = "getPeerRttStats()";
+        if(isInvalidStringParam(groupName) || isInvalidStringParam(peerId)) {
+            logInfo(methodName, "Invalid group name or peer id");
+            return null;
+        }
+        RttProbeModule probe = getModule(groupName, RttProbeModule.class);
+        if(probe == null) {
+            logInfo(methodName, "No RTT probe registered for " + groupName);
+            return null;
+        }
+        return probe.getRttStats(peerId);
+    }
+    
+    /**
+     * getCompressionStats
+     * gets the bytes saved and the time spent by the CompressionModule 
+     * registered for the group.
+     * 
+     * @param groupName  the name of the group the module is registered for
+     * @return  a snapshot of the compression statistics, or null if no 
+     *          CompressionModule is registered for the group
+     */
+    @Override
+    public synchronized CompressionStats getCompressionStats(String groupName) {
+        String methodName = "getCompressionStats()";
+        if(isInvalidStringParam(groupName)) {
+            logInfo(methodName, "Invalid group name");
+            return null;
+        }
+        CompressionModule compression = getModule(groupName, CompressionModule.class);
+        if(compression == null) {
+            logInfo(methodName, "No CompressionModule registered for " + groupName);
+            return null;
+        }
+        return compression.getStats();
     }
     
     /**
@@ -1214,6 +2854,36 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         return bus.getUniqueName();
     }
     
+    /**
+     * getMyPeerId
+     * returns the user's own peer id in the specified group. This is the 
+     * same as getMyPeerId() unless the PeerGroupManager spreads its groups 
+     * across several bus attachments, in which case it is the peer id of the
+     * bus attachment the group is placed on. Groups that are not hosted or 
+     * joined are not placed on a bus attachment yet.
+     * 
+     * @param groupName  the name of the hosted or joined group
+     * @return  the user's peer id in the group or null if an error occurred
+     */
+    @Override
+    public synchronized String getMyPeerId(String groupName) {
+        // Make sure the bus attachment is set up
+        if(isBusInvalid()) {
+            logInfo("getMyPeerId()", "Bus Attachment has already been disconnected");
+            return null;
+        }
+        BusAttachment groupBus = groupNameToBus.get(groupName);
+        if(groupBus == null) {
+            // The group could still be placed on any of the bus attachments
+            if(buses.size() > 1) {
+                logInfo("getMyPeerId()", "Group not hosted or joined");
+                return null;
+            }
+            groupBus = bus;
+        }
+        return groupBus.getUniqueName();
+    }
+    
     /**
      * getGUID
      * returns the user's globally unique id. The returned value may be 
@@ -1294,9 +2964,9 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
                 }
             }
         }
-        // If you are hosting the group, return your own peer id
+        // If you are hosting the group, return your own peer id in the group
         else if(hostedGroups.contains(groupName)) {
-            peerId = getMyPeerId();
+            peerId = getMyPeerId(groupName);
         }
         else {
             logInfo(methodName, "Group not found");
@@ -1336,13 +3006,13 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
              */
             defaultSessionPort = sessionPort;
             String discoveryName = groupPrefix.substring(0, groupPrefix.lastIndexOf("."));
-            Status status = bus.findAdvertisedName(discoveryName);
+            Status status = findAdvertisedName(discoveryName);
             logInfo(methodName, "findAdvertisedName(" + discoveryName + ") - " + status);
             if(status != Status.OK) {
                 defaultSessionPort = INVALID_SESSION_PORT;
                 return;
             }
-            status = bus.cancelFindAdvertisedName(groupPrefix);
+            status = cancelFindAdvertisedName(groupPrefix);
             logInfo(methodName, "cancelFindAdvertisedName(" + groupPrefix + ") - " + status);
         }
         else {
@@ -1377,6 +3047,11 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             String methodName = "PGBusListener.onFoundAdvertisedName"; 
             logInfo(methodName, "(" + name + ", " + transport + ")");
             String groupName = getGroupName(name);
+            // Host claims of JoinOrCreate groups are not groups themselves
+            if(groupName.contains(HOST_CLAIM_SEPARATOR)) {
+                addFoundHostClaim(groupName.substring(0, groupName.lastIndexOf(HOST_CLAIM_SEPARATOR)), name);
+                return;
+            }
             // Don't trigger foundAdvertisedName() for our own group advertisements
             if(!listHostedGroups().contains(groupName)) {
                 // Check if the newly found group is the master JoC group for a GUID group
@@ -1384,6 +3059,10 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
                     if(joinedGroup.startsWith(groupName) && joinedGroup.contains(".JoC-")) {
                         joinedGroups.remove(joinedGroup);
                         joinedGroups.add(groupName);
+                        groupNameToBus.put(groupName, groupNameToBus.remove(joinedGroup));
+                        if(joinedGroupTransports.containsKey(joinedGroup)) {
+                            joinedGroupTransports.put(groupName, joinedGroupTransports.remove(joinedGroup));
+                        }
                         int sessionId = groupNameToSessionId.get(joinedGroup);
                         removeGroupNameToSessionId(joinedGroup);
                         addGroupNameToSessionId(groupName, sessionId);
@@ -1394,11 +3073,13 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
                 if(name.matches(groupPrefix + "\\d+.\\S+")) {
                     logInfo(methodName, "Triggering foundAdvertisedName() on PeerGroupListeners");
                     // Store the advertised name
-                    addFoundGroup(groupName, getSessionPort(name));
+                    addFoundGroup(groupName, getSessionPort(name), name, transport);
                     // Call the listeners on the group name
-                    for(PeerGroupListenerInterface listener : peerGroupListeners) {
+                    for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.FOUND_ADVERTISED_NAME, groupName)) {
                         listener.foundAdvertisedName(groupName, transport);
                     }
+                    // Rejoin the group if we lost its session
+                    scheduleRejoin(groupName);
                 }
                 // Store the group name if we have the defaultSessionPort set
                 else if(defaultSessionPort != INVALID_SESSION_PORT) {
@@ -1408,11 +3089,13 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
                     if(!listHostedGroups().contains(groupName)) {
                         logInfo(methodName, "Triggering foundAdvertisedName() on PeerGroupListeners");
                         // Store the advertised name
-                        addFoundGroup(groupName, defaultSessionPort);
+                        addFoundGroup(groupName, defaultSessionPort, name, transport);
                         // Call the listeners on the group name
-                        for(PeerGroupListenerInterface listener : peerGroupListeners) {
+                        for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.FOUND_ADVERTISED_NAME, groupName)) {
                             listener.foundAdvertisedName(groupName, transport);
                         }
+                        // Rejoin the group if we lost its session
+                        scheduleRejoin(groupName);
                     }
                 }
             }
@@ -1439,12 +3122,16 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
             String methodName = "PGBusListener.onLostAdvertisedName"; 
             logInfo(methodName, "(" + name + ", " + transport + ")");
             String groupName = getGroupName(name);
+            if(groupName.contains(HOST_CLAIM_SEPARATOR)) {
+                removeFoundHostClaim(groupName.substring(0, groupName.lastIndexOf(HOST_CLAIM_SEPARATOR)), name);
+                return;
+            }
             if(!listHostedGroups().contains(groupName)) {
                 logInfo(methodName, "Triggering lostAdvertisedName() on PeerGroupListeners");
-                // Remove the full advertised name
-                removeFoundGroup(groupName);
+                // Remove the full advertised name once it is lost on every transport
+                removeFoundGroupTransport(groupName, transport);
                 // Call the listeners on the group name
-                for(PeerGroupListenerInterface listener : peerGroupListeners) {
+                for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.LOST_ADVERTISED_NAME, groupName)) {
                     listener.lostAdvertisedName(groupName, transport);
                 }
             }
@@ -1452,6 +3139,13 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
     }
     
     private class PGSessionPortListener extends SessionPortListener {     
+        // The bus attachment the session port is bound on
+        private final BusAttachment portBus;
+        
+        public PGSessionPortListener(BusAttachment portBus) {
+            this.portBus = portBus;
+        }
+        
         /**
          * This method is called when a peer tries to join the group
          * we have hosted.  It asks us if we want to accept the peer into
@@ -1459,25 +3153,49 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
          */
         @Override
         public boolean acceptSessionJoiner(final short sessionPort, final String joiner, final SessionOpts sessionOpts) {
-            synchronized(PeerGroupManager.this) {
-                return onAcceptSessionJoiner(sessionPort, joiner, sessionOpts);
-            }
+            // Decided without the PeerGroupManager lock so that joiners are 
+            // not held up by API calls in progress
+            return onAcceptSessionJoiner(sessionPort, joiner, sessionOpts);
         }
         
         private boolean onAcceptSessionJoiner(short sessionPort, String joiner, SessionOpts sessionOpts) {
+            long startNanos = System.nanoTime();
             logInfo("PGSessionPortListener.onAcceptSessionJoiner(" + sessionPort + "," + joiner + ")", "");
-            String groupName = sessionPortToGroupName.get(sessionPort);
+            String groupName = getGroupNameOfSessionPort(portBus, sessionPort);
          
-            if(groupName != null) {
-                // Reject joiners if the group is locked from a 
-                // lockGroup() call
-                if(lockedGroups.contains(groupName)) {
-                    return false;
+            if(groupName == null) {
+                // Allow everyone to join
+                return true;
+            }
+            GroupAdmission admission = getAdmission(groupName);
+            if(admission == null) {
+                admission = new GroupAdmission();
+                GroupAdmission previous = admissions.putIfAbsent(groupName, admission);
+                if(previous != null) {
+                    admission = previous;
                 }
             }
-            
-            // Allow everyone to join
-            return true;
+            // Reject joiners if the group is locked from a 
+            // lockGroup() call
+            boolean accepted = !lockedGroups.contains(groupName);
+            for(AdmissionPolicy policy : admission.policies) {
+                if(!accepted) {
+                    break;
+                }
+                try {
+                    accepted = policy.admit(groupName, joiner, admission.numPeers.get());
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "onAcceptSessionJoiner(): " + e);
+                    accepted = false;
+                }
+            }
+            if(accepted) {
+                // Count the joiner until it is counted as a peer
+                admission.reservations.add(System.currentTimeMillis());
+                admission.numPeers.incrementAndGet();
+            }
+            admission.decided(accepted, System.nanoTime() - startNanos);
+            return accepted;
         }
         
         /**
@@ -1491,7 +3209,7 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         public void sessionJoined(final short sessionPort, final int id, final String joiner) {
             String methodName = "PGSessionPortListener.sessionJoined()";
             logInfo("PGSessionPortListener.sessionJoined(" + sessionPort + "," + joiner + ")", "");
-            callbackHandler.post(new Runnable() {
+            postSessionEvent(new Runnable() {
                 public void run() {
                     synchronized(PeerGroupManager.this) {
                         onSessionJoined(sessionPort, id, joiner);
@@ -1502,19 +3220,34 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         
         private void onSessionJoined(short sessionPort, int id, String joiner) {
             String methodName = "PGSessionPortListener.onSessionJoined";
-            String groupName = sessionPortToGroupName.get(sessionPort);
-            if(groupName != null) {
+            String groupName = getGroupNameOfSessionPort(portBus, sessionPort);
+            if(groupName != null && isPointToPoint(groupName)) {
+                // Every joiner of a point to point group has its own session
+                if(!pointToPointSessions.containsKey(groupName)) {
+                    pointToPointSessions.put(groupName, new HashMap<String,Integer>());
+                }
+                pointToPointSessions.get(groupName).put(joiner, id);
+                refreshAdmissionPeers(groupName);
+                sessionIdToGroupName.put(id, groupName);
+                updateSignalRoutes(groupName);
+                portBus.setSessionListener(id, pgSessionListener);
+                int numParticipants = countPeers(groupName);
+                for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.PEER_ADDED, groupName)) {
+                    listener.peerAdded(joiner, groupName, numParticipants);
+                }
+            }
+            else if(groupName != null) {
                 addGroupNameToSessionId(groupName, id);
                 if(groupName.contains(".JoC-")) {
                     addGroupNameToSessionId(groupName.substring(0, groupName.lastIndexOf(".")), id);
                 }
                 
                 // Add the host to the list of participants. Should only happen once
-                if(!getPeers(groupName).contains(bus.getUniqueName())) {
+                if(!getPeers(groupName).contains(portBus.getUniqueName())) {
                     logInfo(methodName, "Host adding self to Participant list");
-                    addPeer(id, bus.getUniqueName());
+                    addPeer(id, portBus.getUniqueName());
                     logInfo(methodName, "Setting Session Listener");
-                    bus.setSessionListener(id, pgSessionListener); 
+                    portBus.setSessionListener(id, pgSessionListener); 
                     // Explicitly trigger SessionMemberAdded for the first Joiner in the Host 
                     pgSessionListener.sessionMemberAdded(id, joiner);
                     
@@ -1526,133 +3259,1407 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
                     }
                 }
             }
-            else {
-                logInfo(methodName, "No group name for port " + sessionPort);
-            }
-        }             
+            else {
+                logInfo(methodName, "No group name for port " + sessionPort);
+            }
+        }             
+    }
+    
+    private class PGSessionListener extends SessionListener {
+        @Override
+        public void sessionLost(final int sessionId) {
+            logInfo("PGSessionListener.sessionLost(" + sessionId + ")", "");
+            postSessionEvent(new Runnable() {
+                public void run() {
+                    synchronized(PeerGroupManager.this) {
+                        onSessionLost(sessionId);
+                    }
+                }
+            });
+        }
+        
+        private void onSessionLost(int sessionId) {
+            String methodName = "PGSessionPortListener.onSessionLost";
+            logInfo(methodName, "(" + sessionId + ")");
+            String groupName = sessionIdToGroupName.get(sessionId);
+            // Losing the session of a joiner only removes it from a hosted point to point group
+            if(hostedGroups.contains(groupName) && pointToPointSessions.containsKey(groupName)) {
+                sessionIdToGroupName.remove(sessionId);
+                String joiner = null;
+                for(Map.Entry<String,Integer> entry : pointToPointSessions.get(groupName).entrySet()) {
+                    if(entry.getValue() == sessionId) {
+                        joiner = entry.getKey();
+                    }
+                }
+                if(joiner != null) {
+                    pointToPointSessions.get(groupName).remove(joiner);
+                    updateSignalRoutes(groupName);
+                    refreshAdmissionPeers(groupName);
+                    int numParticipants = countPeers(groupName);
+                    for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.PEER_REMOVED, groupName)) {
+                        listener.peerRemoved(joiner, groupName, numParticipants);
+                    }
+                }
+                return;
+            }
+            // Automatically rejoin lost joined groups that have a rejoin policy
+            if(joinedGroups.contains(groupName) && rejoinPolicies.containsKey(groupName)) {
+                pendingRejoins.put(groupName, new PendingRejoin());
+            }
+            // Elect the successor of the host of a JoinOrCreate group
+            boolean takeOver = false;
+            if(joinedGroups.contains(groupName) && pendingRejoins.containsKey(groupName) 
+                    && hostMigrations.containsKey(groupName)) {
+                HostMigration migration = hostMigrations.get(groupName);
+                // Elect from the members the host sent, which every peer 
+                // received, rather than from our own view of the session
+                Collection<String> members = (migration.members != null) ? migration.members : sessionIdToPeers.get(sessionId);
+                String successor = electSuccessor(members, migration.hostPeerId);
+                takeOver = busForGroup(groupName).getUniqueName().equals(successor);
+                logInfo(methodName, "Successor of the host of " + groupName + " is " + successor);
+            }
+            // Remove the group from your list of joined groups
+            if(joinedGroups.remove(groupName)) {
+                groupNameToBus.remove(groupName);
+                joinedGroupTransports.remove(groupName);
+                // Keep the session profile for rejoining the group
+                if(!pendingRejoins.containsKey(groupName)) {
+                    groupProfiles.remove(groupName);
+                }
+            }
+            // Remove the session id from the group
+            removeGroupNameToSessionId(groupName);
+            // Clear the peers for the group
+            sessionIdToPeers.remove(sessionId);
+            settlingSessions.remove(sessionId);
+            refreshAdmissionPeers(groupName);
+            logInfo("PGSessionListener.groupLost(" + groupName + ")", "");
+            for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.GROUP_LOST, groupName)) {
+                listener.groupLost(groupName);
+            }
+            if(takeOver) {
+                takeOverGroup(groupName);
+            }
+            scheduleRejoin(groupName);
+        }
+        
+        @Override 
+        public void sessionMemberAdded(final int sessionId, final String uniqueName) {
+            logInfo("PGSessionListener.sessionMemberAdded(" + sessionId + ", " + uniqueName + ")", "");
+            queueMemberEvent(new MemberEvent(sessionId, uniqueName, true));
+        }
+        
+        /*
+         * Queues a member event and posts a single task that handles all of 
+         * the queued events, so that a burst of members, such as the ones 
+         * already in a session that was just joined, takes the lock once.
+         * The batch is closed when it starts running or when another session
+         * call-back is posted, so that no event overtakes the ones reported 
+         * before it.
+         */
+        private void queueMemberEvent(MemberEvent event) {
+            synchronized(sessionEventLock) {
+                if(openMemberBatch != null) {
+                    openMemberBatch.add(event);
+                    return;
+                }
+                final ArrayList<MemberEvent> events = new ArrayList<MemberEvent>();
+                events.add(event);
+                openMemberBatch = events;
+                callbackHandler.post(new Runnable() {
+                    public void run() {
+                        synchronized(sessionEventLock) {
+                            if(openMemberBatch == events) {
+                                openMemberBatch = null;
+                            }
+                        }
+                        onMemberEvents(events);
+                    }
+                });
+            }
+        }
+        
+        private void onMemberEvents(ArrayList<MemberEvent> events) {
+            synchronized(PeerGroupManager.this) {
+                HashSet<String> changedGroups = new HashSet<String>();
+                for(MemberEvent event : events) {
+                    if(event.added) {
+                        onSessionMemberAdded(event.sessionId, event.peerId);
+                    }
+                    else {
+                        onSessionMemberRemoved(event.sessionId, event.peerId);
+                    }
+                    String groupName = sessionIdToGroupName.get(event.sessionId);
+                    if(groupName != null) {
+                        changedGroups.add(groupName);
+                    }
+                }
+                // Send the new members of our JoinOrCreate groups once per burst
+                for(String groupName : changedGroups) {
+                    sendMembers(groupName);
+                }
+                // Tell the peers that joined our other groups who is already there
+                for(MemberEvent event : events) {
+                    if(event.added) {
+                        sendMembersTo(sessionIdToGroupName.get(event.sessionId), event.peerId);
+                    }
+                }
+            }
+        }
+        
+        private void onSessionMemberAdded(int sessionId, String uniqueName) {
+            String methodName = "PGSessionPortListener.onSessionMemberAdded";
+            logInfo(methodName, "(" + sessionId + ", " + uniqueName + ")");
+            // Add the new peer to the list of peers for the group
+            addPeer(sessionId, uniqueName);
+            String groupName = sessionIdToGroupName.get(sessionId);
+            int numParticipants = countPeers(groupName);
+            SettlingSession settling = settlingSessions.get(sessionId);
+            List<PeerGroupListenerInterface> snapshotListeners = Collections.emptyList();
+            if(settling != null) {
+                snapshotListeners = peerGroupListeners.get(PeerGroupEvent.MEMBERSHIP_SNAPSHOT, groupName);
+            }
+            for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.PEER_ADDED, groupName)) {
+                // Membership listeners get the existing members in one snapshot
+                if(!snapshotListeners.contains(listener)) {
+                    listener.peerAdded(uniqueName, groupName, numParticipants);
+                }
+            }
+            checkMembershipSnapshot(sessionId);
+        }
+        
+        @Override
+        public void sessionMemberRemoved(final int sessionId, final String uniqueName) {
+            logInfo("PGSessionListener.sessionMemberRemoved(" + sessionId + ", " + uniqueName + ")", "");
+            queueMemberEvent(new MemberEvent(sessionId, uniqueName, false));
+        }
+        
+        private void onSessionMemberRemoved(int sessionId, String uniqueName) {
+            String methodName = "PGSessionPortListener.onSessionMemberRemoved";
+            logInfo(methodName, "(" + sessionId + ", " + uniqueName + ")");       
+            // Remove the peer from the list of peers for the group
+            removePeer(sessionId, uniqueName);
+            String groupName = sessionIdToGroupName.get(sessionId);
+            // A session can outlive its host, but no one can join it any more
+            HostMigration migration = hostMigrations.get(groupName);
+            if(migration != null && uniqueName.equals(migration.hostPeerId) && joinedGroups.contains(groupName)) {
+                logInfo(methodName, "The host of " + groupName + " left");
+                busForGroup(groupName).leaveSession(sessionId);
+                onSessionLost(sessionId);
+                return;
+            }
+            ArrayList<PGLifecycleModule> modules = groupModules.get(groupName);
+            if(modules != null) {
+                for(PGLifecycleModule module : modules) {
+                    module.removePeer(uniqueName);
+                }
+            }
+            int numParticipants = countPeers(groupName);
+            List<PeerGroupListenerInterface> snapshotListeners = Collections.emptyList();
+            if(settlingSessions.containsKey(sessionId)) {
+                snapshotListeners = peerGroupListeners.get(PeerGroupEvent.MEMBERSHIP_SNAPSHOT, groupName);
+            }
+            for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.PEER_REMOVED, groupName)) {
+                if(!snapshotListeners.contains(listener)) {
+                    listener.peerRemoved(uniqueName, groupName, numParticipants);
+                }
+            }
+        }
+    }
+    
+    /*
+     * The session listener of a session joined without holding the 
+     * PeerGroupManager lock. It holds back the call-backs of the session 
+     * until release() is called once the session is mapped to its group, 
+     * so that the members reported in the meantime are not dropped, and 
+     * then passes them on to the PGSessionListener in order.
+     */
+    private class DeferredSessionListener extends SessionListener {
+        private ArrayList<Runnable> deferred = new ArrayList<Runnable>();
+        
+        synchronized void release() {
+            for(Runnable callback : deferred) {
+                callback.run();
+            }
+            deferred = null;
+        }
+        
+        private synchronized void forward(Runnable callback) {
+            if(deferred != null) {
+                deferred.add(callback);
+            }
+            else {
+                callback.run();
+            }
+        }
+        
+        // Only bridges the legacy call-back that PGSessionListener handles
+        @Override
+        @SuppressWarnings("deprecation")
+        public void sessionLost(final int sessionId) {
+            forward(new Runnable() {
+                public void run() {
+                    pgSessionListener.sessionLost(sessionId);
+                }
+            });
+        }
+        
+        @Override
+        public void sessionMemberAdded(final int sessionId, final String uniqueName) {
+            forward(new Runnable() {
+                public void run() {
+                    pgSessionListener.sessionMemberAdded(sessionId, uniqueName);
+                }
+            });
+        }
+        
+        @Override
+        public void sessionMemberRemoved(final int sessionId, final String uniqueName) {
+            forward(new Runnable() {
+                public void run() {
+                    pgSessionListener.sessionMemberRemoved(sessionId, uniqueName);
+                }
+            });
+        }
+    }
+
+    
+    /*------------------------------------------------------------------------*
+     * Helper Methods
+     *------------------------------------------------------------------------*/
+    /**
+     * connectBus
+     * registers the bus listener, connects the bus attachment to the bus, 
+     * starts discovery, and registers signal handlers. 
+     * 
+     * @return  OK if successful
+     */
+    private Status connectBus() {
+        String methodName = "connectBus()";
+        logInfo(methodName, "");
+        Status status;
+        
+        // A shared bus attachment is already connected and demultiplexes the
+        // discovery call-backs to our bus listener
+        if(sharedBus == null) {
+            // Register the bus listener
+            bus.registerBusListener(pgBusListener);
+            logInfo(methodName, "Registering Bus Listener");
+            
+            // Connect the bus attachments
+            for(BusAttachment busAttachment : buses) {
+                status = busAttachment.connect();
+                logInfo(methodName, "Connecting Bus Attachment - " + status.toString());
+                if(status != Status.OK) {
+                    return status;
+                }
+            }
+        }
+        
+        // Start Discovery
+        status = findAdvertisedName(groupPrefix);
+        logInfo(methodName, "FindAdvertisedName(" + groupPrefix + ") - " + status.toString());
+        if(status != Status.OK) {
+            return status;
+        }
+        
+        // Pause the thread for 20 milliseconds to let the foundAdvertiseName() signals come through
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            logError(methodName, e.toString());
+        }
+
+        return status; 
+    }
+    
+    /**
+     * busForGroup
+     * gets the bus attachment a hosted or joined group is placed on.
+     * 
+     * @param groupName  the name of the group
+     * @return  the bus attachment of the group, or the primary bus attachment
+     *          if the group is not placed on any
+     */
+    private BusAttachment busForGroup(String groupName) {
+        BusAttachment groupBus = groupNameToBus.get(groupName);
+        return groupBus != null ? groupBus : bus;
+    }
+    
+    /**
+     * placeGroup
+     * chooses the bus attachment for a new hosted or joined group according 
+     * to the bus placement of the PeerGroupManager. The choice is recorded 
+     * once the group has been successfully created or joined.
+     * 
+     * @param groupName  the name of the group to place
+     * @return  the bus attachment to create or join the group on
+     */
+    private BusAttachment placeGroup(String groupName) {
+        if(groupNameToBus.containsKey(groupName)) {
+            return groupNameToBus.get(groupName);
+        }
+        // Bus objects can only be reached in groups on the first bus attachment
+        if(buses.size() == 1 || !registeredBusObjects.isEmpty()) {
+            return bus;
+        }
+        if(busPlacement == BusPlacement.LEAST_LOADED) {
+            HashMap<BusAttachment,Integer> load = new HashMap<BusAttachment,Integer>();
+            for(BusAttachment groupBus : groupNameToBus.values()) {
+                Integer count = load.get(groupBus);
+                load.put(groupBus, count == null ? 1 : count + 1);
+            }
+            BusAttachment leastLoaded = bus;
+            int leastLoad = Integer.MAX_VALUE;
+            for(BusAttachment busAttachment : buses) {
+                Integer count = load.get(busAttachment);
+                int busLoad = (count == null) ? 0 : count;
+                if(busLoad < leastLoad) {
+                    leastLoaded = busAttachment;
+                    leastLoad = busLoad;
+                }
+            }
+            return leastLoaded;
+        }
+        return buses.get((groupName.hashCode() & Integer.MAX_VALUE) % buses.size());
+    }
+    
+    /**
+     * addJoinedGroup
+     * records a successfully joined group.
+     * 
+     * @param groupName  the name of the joined group
+     * @param sessionId  the session id of the joined group
+     * @param groupBus   the bus attachment the group was joined on
+     */
+    private void addJoinedGroup(String groupName, int sessionId, BusAttachment groupBus) {
+        groupNameToBus.put(groupName, groupBus);
+        /* 
+         * Add yourself to your list of peers for the group because 
+         * sessionMemberAdded wont be triggered for yourself
+         */
+        addPeer(sessionId, groupBus.getUniqueName());
+        // Add the group to the list of joined groups
+        joinedGroups.add(groupName);
+        addGroupNameToSessionId(groupName, sessionId);
+        // Report the members already in the session once they are all known
+        SettlingSession settling = new SettlingSession();
+        String[] hostMembers = earlyMembers.remove(sessionId);
+        if(hostMembers != null) {
+            settling.hostMembers = new HashSet<String>(Arrays.asList(hostMembers));
+        }
+        settlingSessions.put(sessionId, settling);
+        scheduleMembershipSnapshot(sessionId);
+        /*
+         * The host of a point to point session is the only other member and
+         * sessionMemberAdded wont be triggered for it
+         */
+        SessionProfile profile = groupProfiles.get(groupName);
+        if(profile != null && !profile.isMultipoint()) {
+            String hostPeerId = getGroupHostPeerId(groupName);
+            if(hostPeerId != null) {
+                addPeer(sessionId, hostPeerId);
+            }
+        }
+    }
+    
+    /**
+     * unregisterModules
+     * unregisters the modules the PeerGroupManager keeps track of for a group
+     * that is destroyed or left, so that they stop their timers and release
+     * their bus objects and signal handlers.
+     * 
+     * @param groupName  the name of the group
+     */
+    private void unregisterModules(String groupName) {
+        ArrayList<PGLifecycleModule> modules = groupModules.remove(groupName);
+        if(modules != null) {
+            for(PGLifecycleModule module : modules) {
+                module.unregister();
+            }
+        }
+    }
+    
+    /**
+     * getModule
+     * gets the first module of a type the PeerGroupManager keeps track of 
+     * for a group.
+     * 
+     * @param groupName  the name of the group
+     * @param type       the class of the module
+     * @return  the module, or null if none of the type is registered
+     */
+    private <T extends PGModule> T getModule(String groupName, Class<T> type) {
+        ArrayList<PGLifecycleModule> modules = groupModules.get(groupName);
+        if(modules != null) {
+            for(PGLifecycleModule module : modules) {
+                if(type.isInstance(module)) {
+                    return type.cast(module);
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * scheduleMembershipSnapshot
+     * schedules the membership snapshot of a joined session to be sent to 
+     * the PeerGroupMembershipListeners with the members known by then, in 
+     * case the host never sends its members.
+     * 
+     * @param sessionId  the session that was joined
+     */
+    private void scheduleMembershipSnapshot(final int sessionId) {
+        final SettlingSession settling = settlingSessions.get(sessionId);
+        callbackHandler.postDelayed(new Runnable() {
+            public void run() {
+                synchronized(PeerGroupManager.this) {
+                    if(settlingSessions.get(sessionId) == settling) {
+                        sendMembershipSnapshot(sessionId);
+                    }
+                }
+            }
+        }, MEMBERSHIP_SNAPSHOT_TIMEOUT_MILLIS);
+    }
+    
+    /**
+     * checkMembershipSnapshot
+     * sends the membership snapshot of a joined session as soon as all of 
+     * the members its host sent have been reported.
+     * 
+     * @param sessionId  the session that was joined
+     */
+    private void checkMembershipSnapshot(int sessionId) {
+        SettlingSession settling = settlingSessions.get(sessionId);
+        LinkedHashSet<String> peers = sessionIdToPeers.get(sessionId);
+        if(settling != null && settling.hostMembers != null 
+                && peers != null && peers.containsAll(settling.hostMembers)) {
+            sendMembershipSnapshot(sessionId);
+        }
+    }
+    
+    /**
+     * sendMembershipSnapshot
+     * ends the settling of a joined session and sends its members to the 
+     * PeerGroupMembershipListeners.
+     * 
+     * @param sessionId  the session that was joined
+     */
+    private void sendMembershipSnapshot(int sessionId) {
+        settlingSessions.remove(sessionId);
+        String groupName = sessionIdToGroupName.get(sessionId);
+        if(groupName == null || !joinedGroups.contains(groupName)) {
+            return;
+        }
+        ArrayList<String> peers = getPeers(groupName);
+        logInfo("sendMembershipSnapshot()", groupName + " has " + peers.size() + " peers");
+        for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.MEMBERSHIP_SNAPSHOT, groupName)) {
+            ((PeerGroupMembershipListener) listener).membershipSnapshot(groupName, new ArrayList<String>(peers));
+        }
+    }
+    
+    /**
+     * postSessionEvent
+     * posts a session call-back to the callback thread behind the member 
+     * events reported before it. The open batch of member events is closed
+     * so that the members reported after the call-back are handled after it.
+     * 
+     * @param callback  the session call-back to post
+     */
+    private void postSessionEvent(Runnable callback) {
+        synchronized(sessionEventLock) {
+            openMemberBatch = null;
+            callbackHandler.post(callback);
+        }
+    }
+    
+    /**
+     * scheduleRejoin
+     * schedules the next automatic rejoin attempt of a lost group after the
+     * backoff of its rejoin policy. Nothing is scheduled if the group is not
+     * waiting to be rejoined, if an attempt is already scheduled or if the 
+     * advertisement of the group has not been discovered again. Groups that
+     * migrate to a new host are rejoined without waiting for discovery.
+     * 
+     * @param groupName  the name of the group to rejoin
+     */
+    private void scheduleRejoin(final String groupName) {
+        PendingRejoin pending = pendingRejoins.get(groupName);
+        RejoinPolicy policy = rejoinPolicies.get(groupName);
+        if(pending == null || policy == null || pending.scheduled) {
+            return;
+        }
+        if(!hostMigrations.containsKey(groupName) 
+                && (!foundGroups.containsKey(groupName) || staleFoundGroups.containsKey(groupName))) {
+            return;
+        }
+        if(rejoinExecutor == null) {
+            rejoinExecutor = Executors.newScheduledThreadPool(REJOIN_THREADS);
+        }
+        long delay = policy.getBackoffMillis(pending.attempts);
+        logInfo("scheduleRejoin(" + groupName + ")", "Attempt " + (pending.attempts + 1) + " in " + delay + " ms");
+        pending.scheduled = true;
+        rejoinExecutor.schedule(new Runnable() {
+            public void run() {
+                attemptRejoin(groupName);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * attemptRejoin
+     * makes one automatic rejoin attempt for a lost group. The session is 
+     * joined without holding the PeerGroupManager lock so that attempts for
+     * different groups and other calls on the PeerGroupManager are not held
+     * up behind each other.
+     * 
+     * @param groupName  the name of the group to rejoin
+     */
+    private void attemptRejoin(String groupName) {
+        String methodName = "attemptRejoin()";
+        BusAttachment rejoinBus;
+        String advertisedName;
+        short sessionPort;
+        short legacySessionPort;
+        SessionOpts sessionOpts;
+        short transports;
+        PendingRejoin pending;
+        synchronized(this) {
+            pending = pendingRejoins.get(groupName);
+            if(pending == null || isBusInvalid()) {
+                return;
+            }
+            pending.scheduled = false;
+            // Wait for the advertisement to be discovered again
+            HostMigration migration = hostMigrations.get(groupName);
+            if((!foundGroups.containsKey(groupName) && migration == null) || joinedGroups.contains(groupName)) {
+                return;
+            }
+            pending.attempts++;
+            rejoinStats.get(groupName).attempted();
+            pending.scheduled = true;
+            rejoinBus = placeGroup(groupName);
+            // The successor of a migrating group takes the port of the 
+            // previous host, until it is discovered with another one
+            sessionPort = foundGroups.containsKey(groupName) ? foundGroups.get(groupName) : migration.sessionPort;
+            advertisedName = getAdvertisedName(groupName, sessionPort);
+            legacySessionPort = defaultSessionPort;
+            sessionOpts = groupProfiles.containsKey(groupName) ? groupProfiles.get(groupName).getSessionOpts() : defaultSessionOpts;
+            transports = selectTransport(groupName, sessionOpts.transports);
+        }
+        
+        // Hold back the call-backs of the session until it is mapped to the
+        // group, like joinGroup() does by joining with the lock held
+        DeferredSessionListener sessionListener = new DeferredSessionListener();
+        Mutable.IntegerValue sessionId = new Mutable.IntegerValue();
+        SessionOpts joinOpts = new SessionOpts(sessionOpts.traffic, sessionOpts.isMultipoint, sessionOpts.proximity, transports);
+        Status status = joinOverTransport(rejoinBus, advertisedName, sessionPort, joinOpts, sessionOpts.transports, 
+                sessionId, sessionListener);
+        // Try joining with the default session port like joinGroup() does
+        if(status != Status.OK && legacySessionPort != INVALID_SESSION_PORT) {
+            String legacyAdvertisedName = getLegacyAdvertisedName(groupName);
+            SessionOpts legacyOpts = new SessionOpts(sessionOpts.traffic, sessionOpts.isMultipoint, sessionOpts.proximity, 
+                    transports);
+            Status legacyStatus = joinOverTransport(rejoinBus, legacyAdvertisedName, legacySessionPort, legacyOpts, 
+                    sessionOpts.transports, sessionId, sessionListener);
+            if(legacyStatus == Status.OK) {
+                status = legacyStatus;
+                advertisedName = legacyAdvertisedName;
+                joinOpts = legacyOpts;
+            }
+        }
+        
+        synchronized(this) {
+            pending.scheduled = false;
+            // The rejoin was cancelled while the session was being joined
+            if(pendingRejoins.get(groupName) != pending || isBusInvalid() || joinedGroups.contains(groupName)) {
+                if(status == Status.OK) {
+                    rejoinBus.leaveSession(sessionId.value);
+                }
+                return;
+            }
+            RejoinPolicy policy = rejoinPolicies.get(groupName);
+            if(status == Status.OK) {
+                pendingRejoins.remove(groupName);
+                joinedGroupTransports.put(groupName, joinOpts.transports);
+                addJoinedGroup(groupName, sessionId.value, rejoinBus);
+                measureTransportRtt(groupName, rejoinBus, advertisedName, sessionId.value, joinOpts.transports);
+                // The call-backs held back are handled once the lock is released
+                sessionListener.release();
+                HostMigration migration = hostMigrations.get(groupName);
+                if(migration != null) {
+                    migration.hostPeerId = getNameOwner(rejoinBus, advertisedName);
+                    migration.members = null;
+                }
+                rejoinStats.get(groupName).rejoined(System.currentTimeMillis() - pending.lostTime);
+                logInfo(methodName, "Rejoined " + groupName);
+            }
+            else if(policy == null || pending.attempts >= policy.getMaxAttempts()) {
+                pendingRejoins.remove(groupName);
+                rejoinStats.get(groupName).failed();
+                logInfo(methodName, "Giving up rejoining " + groupName);
+            }
+            else {
+                scheduleRejoin(groupName);
+            }
+        }
+    }
+    
+    /**
+     * enableHostMigration
+     * remembers the host of a joined JoinOrCreate group so that the group 
+     * migrates to a successor when the host leaves.
+     * 
+     * @param groupName        the name of the joined group
+     * @param foundGroupName   the name the host's group was found with
+     * @param joinStatus       the status of joining the group
+     */
+    private void enableHostMigration(String groupName, String foundGroupName, Status joinStatus) {
+        if(joinStatus != Status.OK || !foundGroups.containsKey(foundGroupName)) {
+            return;
+        }
+        short sessionPort = foundGroups.get(foundGroupName);
+        enableHostMigration(groupName, getAdvertisedName(foundGroupName, sessionPort), sessionPort);
+    }
+    
+    /**
+     * enableHostMigration
+     * remembers the host of a joined JoinOrCreate group from the name it 
+     * advertises.
+     * 
+     * @param groupName       the name of the joined group
+     * @param advertisedName  the name advertised by the host
+     * @param sessionPort     the session port the group is hosted on
+     */
+    private void enableHostMigration(String groupName, String advertisedName, short sessionPort) {
+        String hostPeerId = getNameOwner(busForGroup(groupName), advertisedName);
+        hostMigrations.put(groupName, new HostMigration(hostPeerId, sessionPort));
+        if(!rejoinPolicies.containsKey(groupName)) {
+            rejoinPolicies.put(groupName, HOST_MIGRATION_REJOIN_POLICY);
+        }
+        if(!rejoinStats.containsKey(groupName)) {
+            rejoinStats.put(groupName, new RejoinStats());
+        }
+    }
+    
+    /**
+     * getJoCSessionPort
+     * gets the session port a single round JoinOrCreate group is hosted on.
+     * Every peer derives the same port, and so the same advertised name, 
+     * from the group name.
+     * 
+     * @param groupName  the name of the JoinOrCreate group
+     * @return  the session port of the group
+     */
+    private short getJoCSessionPort(String groupName) {
+        return (short) (JOC_SESSION_PORT_BASE + (groupName.hashCode() & JOC_SESSION_PORT_MASK));
+    }
+    
+    /**
+     * claimHost
+     * advertises the host claim of a JoinOrCreate group hosted without a 
+     * GUID round. The claim carries the peer id of the host and is owned by
+     * it, so another host of the group on a different routing node can tell
+     * which host to keep and join it through the claim.
+     * 
+     * @param groupName  the name of the hosted group
+     */
+    private void claimHost(String groupName) {
+        migratingGroups.add(groupName);
+        BusAttachment groupBus = busForGroup(groupName);
+        short sessionPort = groupNameToSessionPort.get(groupName);
+        String claimName = getAdvertisedName(groupName + HOST_CLAIM_SEPARATOR 
+                + groupBus.getUniqueName().replace(":", "").replace('.', '_'), sessionPort);
+        int flag = BusAttachment.ALLJOYN_REQUESTNAME_FLAG_DO_NOT_QUEUE;
+        Status status = groupBus.requestName(claimName, flag);
+        if(status == Status.OK) {
+            status = groupBus.advertiseName(claimName, getTransports(groupName));
+            if(status != Status.OK) {
+                groupBus.releaseName(claimName);
+            }
+        }
+        logInfo("claimHost(" + groupName + ")", "Advertising " + claimName + " - " + status.toString());
+        if(status == Status.OK) {
+            hostClaims.put(groupName, claimName);
+            checkHostClaims(groupName);
+        }
+    }
+    
+    /**
+     * releaseHostClaim
+     * stops advertising the host claim of a group that is no longer hosted.
+     * 
+     * @param groupName  the name of the group
+     */
+    private void releaseHostClaim(String groupName) {
+        String claimName = hostClaims.remove(groupName);
+        if(claimName != null) {
+            BusAttachment groupBus = busForGroup(groupName);
+            groupBus.cancelAdvertiseName(claimName, getTransports(groupName));
+            groupBus.releaseName(claimName);
+        }
+    }
+    
+    private void addFoundHostClaim(String groupName, String claimName) {
+        if(claimName.equals(hostClaims.get(groupName))) {
+            return;
+        }
+        HashSet<String> claims = foundHostClaims.get(groupName);
+        if(claims == null) {
+            claims = new HashSet<String>();
+            foundHostClaims.put(groupName, claims);
+        }
+        claims.add(claimName);
+        checkHostClaims(groupName);
+    }
+    
+    private void removeFoundHostClaim(String groupName, String claimName) {
+        HashSet<String> claims = foundHostClaims.get(groupName);
+        if(claims != null) {
+            claims.remove(claimName);
+            if(claims.isEmpty()) {
+                foundHostClaims.remove(groupName);
+            }
+        }
+    }
+    
+    /**
+     * checkHostClaims
+     * compares the host claim of a group we host with the ones discovered 
+     * from other hosts of the group. Every host compares the same claims, so
+     * they all agree that the host with the lowest peer id keeps the group. 
+     * Any other host gives the group up and joins that one.
+     * 
+     * @param groupName  the name of the group
+     */
+    private void checkHostClaims(final String groupName) {
+        final String claimName = hostClaims.get(groupName);
+        HashSet<String> claims = foundHostClaims.get(groupName);
+        if(claimName == null || claims == null) {
+            return;
+        }
+        String winner = claimName;
+        for(String claim : claims) {
+            if(getHostClaimant(claim).compareTo(getHostClaimant(winner)) < 0) {
+                winner = claim;
+            }
+        }
+        if(winner.equals(claimName)) {
+            return;
+        }
+        logInfo("checkHostClaims(" + groupName + ")", "Yielding to the owner of " + winner);
+        if(rejoinExecutor == null) {
+            rejoinExecutor = Executors.newScheduledThreadPool(REJOIN_THREADS);
+        }
+        final String winnerClaim = winner;
+        rejoinExecutor.execute(new Runnable() {
+            public void run() {
+                yieldGroup(groupName, claimName, winnerClaim);
+            }
+        });
+    }
+    
+    private String getHostClaimant(String claimName) {
+        return claimName.substring(claimName.lastIndexOf(HOST_CLAIM_SEPARATOR) + HOST_CLAIM_SEPARATOR.length());
+    }
+    
+    /**
+     * yieldGroup
+     * gives up hosting a JoinOrCreate group that another peer also hosts and
+     * joins that peer's group through its host claim instead.
+     * 
+     * @param groupName    the name of the group
+     * @param claimName    the host claim we advertised for the group
+     * @param winnerClaim  the host claim of the host that keeps the group
+     */
+    private synchronized void yieldGroup(String groupName, String claimName, String winnerClaim) {
+        String methodName = "yieldGroup()";
+        // The group was destroyed or yielded in the meantime
+        if(isBusInvalid() || !claimName.equals(hostClaims.get(groupName))) {
+            return;
+        }
+        Status status = destroyGroup(groupName);
+        logInfo(methodName, "Destroying " + groupName + " - " + status.toString());
+        if(status != Status.OK) {
+            return;
+        }
+        short sessionPort = getSessionPort(winnerClaim);
+        status = joinAdvertisedName(groupName, winnerClaim, sessionPort);
+        logInfo(methodName, "Joining the owner of " + winnerClaim + " - " + status.toString());
+        if(status == Status.OK) {
+            enableHostMigration(groupName, winnerClaim, sessionPort);
+        }
+    }
+    
+    /**
+     * joinAdvertisedName
+     * joins a group through its advertised name without waiting for the 
+     * advertisement to be discovered.
+     * 
+     * @param groupName       the name of the group to join
+     * @param advertisedName  the name advertised by the host
+     * @param sessionPort     the session port the group is hosted on
+     * @return  OK if successful
+     */
+    private Status joinAdvertisedName(String groupName, String advertisedName, short sessionPort) {
+        String methodName = "joinAdvertisedName()";
+        Mutable.IntegerValue sessionId = new Mutable.IntegerValue();
+        BusAttachment groupBus = placeGroup(groupName);
+        SessionOpts joinOpts = new SessionOpts(defaultSessionOpts.traffic, defaultSessionOpts.isMultipoint, 
+                defaultSessionOpts.proximity, selectTransport(groupName, defaultSessionOpts.transports));
+        Status status = joinOverTransport(groupBus, advertisedName, sessionPort, joinOpts, defaultSessionOpts.transports, 
+                sessionId, pgSessionListener);
+        logInfo(methodName, "Joined " + groupName + " through " + advertisedName + " - " + status.toString());
+        if(status == Status.OK) {
+            // joinSession() updates the options to the ones of the session
+            joinedGroupTransports.put(groupName, joinOpts.transports);
+            addJoinedGroup(groupName, sessionId.value, groupBus);
+            measureTransportRtt(groupName, groupBus, advertisedName, sessionId.value, joinOpts.transports);
+        }
+        return status;
+    }
+    
+    /**
+     * joinOverTransport
+     * joins a session over the transports set in the join options and falls
+     * back to any of the allowed transports if that fails.
+     * 
+     * @param groupBus        the bus attachment to join with
+     * @param advertisedName  the name advertised by the host
+     * @param sessionPort     the session port to join
+     * @param joinOpts        the options to join with. joinSession() updates 
+     *                        them to the options of the joined session.
+     * @param allowed         the transports allowed by the session profile
+     * @param sessionId       set to the id of the joined session
+     * @param listener        the listener of the joined session
+     * @return  OK if successful
+     */
+    private Status joinOverTransport(BusAttachment groupBus, String advertisedName, short sessionPort, 
+            SessionOpts joinOpts, short allowed, Mutable.IntegerValue sessionId, SessionListener listener) {
+        String methodName = "joinOverTransport()";
+        short transports = joinOpts.transports;
+        Status status = groupBus.joinSession(advertisedName, sessionPort, sessionId, joinOpts, listener);
+        logInfo(methodName, "joinSession(" + advertisedName + ", " + sessionPort + ", " + transports + ")" + " - " + status.toString());
+        if(status != Status.OK && transports != allowed) {
+            // Fall back to any of the allowed transports
+            joinOpts.transports = allowed;
+            status = groupBus.joinSession(advertisedName, sessionPort, sessionId, joinOpts, listener);
+            logInfo(methodName, "joinSession(" + advertisedName + ", " + sessionPort + ", " + allowed + ")" + " - " + status.toString());
+        }
+        return status;
+    }
+    
+    /**
+     * electSuccessor
+     * picks the peer that hosts a group after its host left. Every peer 
+     * picks the same one from the same membership: the lowest peer id other
+     * than the previous host. The membership is the last one sent by the 
+     * host, so the peers agree on it even if they saw members join and leave
+     * in a different order.
+     * 
+     * @param peers       the last known peers of the group
+     * @param hostPeerId  the peer id of the previous host
+     * @return  the peer id of the successor, or null if there is none
+     */
+    private String electSuccessor(Collection<String> peers, String hostPeerId) {
+        String successor = null;
+        if(peers == null) {
+            return successor;
+        }
+        for(String peerId : peers) {
+            if(!peerId.equals(hostPeerId) && (successor == null || peerId.compareTo(successor) < 0)) {
+                successor = peerId;
+            }
+        }
+        return successor;
+    }
+    
+    /**
+     * takeOverGroup
+     * hosts a lost JoinOrCreate group again on the session port of its 
+     * previous host, after this peer was elected its successor. If that 
+     * fails the group is rejoined like the other peers do. The new host 
+     * claims the group, so that it yields if another successor with a lower
+     * peer id hosts the group as well.
+     * 
+     * @param groupName  the name of the group to host
+     */
+    private void takeOverGroup(String groupName) {
+        String methodName = "takeOverGroup()";
+        PendingRejoin pending = pendingRejoins.get(groupName);
+        HostMigration migration = hostMigrations.get(groupName);
+        // The advertisement of the previous host may not be lost yet
+        removeFoundGroup(groupName);
+        Status status = hostGroup(groupName, false, groupProfiles.get(groupName), migration.sessionPort, true);
+        logInfo(methodName, "Hosting " + groupName + " - " + status.toString());
+        if(status == Status.OK) {
+            pendingRejoins.remove(groupName);
+            hostMigrations.remove(groupName);
+            rejoinStats.get(groupName).rejoined(System.currentTimeMillis() - pending.lostTime);
+            // Another peer may have taken over as well, on a different 
+            // routing node or with a different view of the members
+            claimHost(groupName);
+        }
+    }
+    
+    /**
+     * getNameOwner
+     * gets the peer id that owns a well-known name.
+     * 
+     * @param groupBus        the bus attachment to ask
+     * @param advertisedName  the well-known name
+     * @return  the peer id of the owner, or null if it is not owned
+     */
+    private String getNameOwner(BusAttachment groupBus, String advertisedName) {
+        try {
+            return groupBus.getDBusProxyObj().GetNameOwner(advertisedName);
+        } catch (BusException e) {
+            logError("getNameOwner()", e.toString());
+            return null;
+        }
+    }
+    
+    /*
+     * Sends and receives the Members signal of host migration on one bus 
+     * attachment. The same object emits the signal for the groups we host 
+     * and handles it for the groups we joined.
+     */
+    private class HostMigrationService implements HostMigrationInterface, BusObject {
+        private final BusAttachment serviceBus;
+        
+        HostMigrationService(BusAttachment serviceBus) {
+            this.serviceBus = serviceBus;
+        }
+        
+        public void Members(final String[] peerIds) {
+            final MessageContext context = serviceBus.getMessageContext();
+            postSessionEvent(new Runnable() {
+                public void run() {
+                    synchronized(PeerGroupManager.this) {
+                        onMembers(context.sessionId, context.sender, peerIds);
+                    }
+                }
+            });
+        }
+    }
+    
+    /**
+     * getHostMigrationPath
+     * gets the object path of the host migration service. The path holds 
+     * the group prefix to keep apart the services of the PeerGroupManagers 
+     * sharing a bus attachment.
+     * 
+     * @return  the object path of the host migration service
+     */
+    private String getHostMigrationPath() {
+        return HOST_MIGRATION_PATH + "/" + groupPrefix.replaceAll("[^A-Za-z0-9_]", "_");
+    }
+    
+    /**
+     * registerHostMigrationServices
+     * registers the object that sends the members of our JoinOrCreate groups
+     * and the handler of the members sent by the hosts of the groups we 
+     * joined on each bus attachment.
+     */
+    private void registerHostMigrationServices() {
+        String methodName = "registerHostMigrationServices()";
+        try {
+            hostMigrationHandler = HostMigrationInterface.class.getMethod("Members", String[].class);
+        } catch (NoSuchMethodException e) {
+            logError(methodName, e.toString());
+            return;
+        }
+        String objectPath = getHostMigrationPath();
+        for(BusAttachment busAttachment : buses) {
+            HostMigrationService service = new HostMigrationService(busAttachment);
+            Status status = (sharedBus != null) ? sharedBus.registerBusObject(this, service, objectPath) 
+                    : busAttachment.registerBusObject(service, objectPath);
+            if(status == Status.OK) {
+                status = busAttachment.registerSignalHandler("org.alljoyn.cops.peergroupmanager.HostMigration", 
+                        "Members", service, hostMigrationHandler);
+                if(status == Status.OK) {
+                    hostMigrationServices.put(busAttachment, service);
+                }
+                else if(sharedBus != null) {
+                    sharedBus.unregisterBusObject(this, service);
+                }
+                else {
+                    busAttachment.unregisterBusObject(service);
+                }
+            }
+            logInfo(methodName, "Registering " + objectPath + " - " + status.toString());
+        }
     }
     
-    private class PGSessionListener extends SessionListener {
-        @Override
-        public void sessionLost(final int sessionId) {
-            logInfo("PGSessionListener.sessionLost(" + sessionId + ")", "");
-            callbackHandler.post(new Runnable() {
+    /**
+     * sendMembers
+     * sends the current members of a JoinOrCreate group we host to its 
+     * peers.
+     * 
+     * @param groupName  the name of the group
+     */
+    private void sendMembers(String groupName) {
+        HostMigrationService service = hostMigrationServices.get(busForGroup(groupName));
+        int sessionId = getSessionId(groupName);
+        if(!migratingGroups.contains(groupName) || !hostedGroups.contains(groupName) 
+                || service == null || sessionId == -1) {
+            return;
+        }
+        ArrayList<String> peers = getPeers(groupName);
+        try {
+            new SignalEmitter(service, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(HostMigrationInterface.class).Members(peers.toArray(new String[peers.size()]));
+        } catch (BusException e) {
+            logError("sendMembers()", e.toString());
+        }
+    }
+    
+    /**
+     * sendMembersTo
+     * sends the current members of a multipoint group we host to a peer 
+     * that just joined it, so that it knows when all of them have been 
+     * reported. The members of JoinOrCreate groups already reach every peer
+     * through sendMembers().
+     * 
+     * @param groupName  the name of the group
+     * @param joiner     the peer id that joined
+     */
+    private void sendMembersTo(String groupName, String joiner) {
+        if(groupName == null) {
+            return;
+        }
+        HostMigrationService service = hostMigrationServices.get(busForGroup(groupName));
+        int sessionId = getSessionId(groupName);
+        LinkedHashSet<String> members = sessionIdToPeers.get(sessionId);
+        if(migratingGroups.contains(groupName) || !hostedGroups.contains(groupName) 
+                || service == null || members == null || !members.contains(joiner)) {
+            return;
+        }
+        try {
+            new SignalEmitter(service, joiner, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(HostMigrationInterface.class).Members(members.toArray(new String[members.size()]));
+        } catch (BusException e) {
+            logError("sendMembersTo()", e.toString());
+        }
+    }
+    
+    /**
+     * onMembers
+     * keeps the members of a joined group sent by its host, to complete its
+     * membership snapshot and to elect the successor of the host of a 
+     * JoinOrCreate group.
+     * 
+     * @param sessionId  the session the members were sent over
+     * @param sender     the peer id that sent the members
+     * @param peerIds    the members of the group
+     */
+    private void onMembers(int sessionId, String sender, String[] peerIds) {
+        String groupName = sessionIdToGroupName.get(sessionId);
+        if(groupName == null) {
+            // The session of a group joined without the lock is mapped later
+            earlyMembers.put(sessionId, peerIds);
+            return;
+        }
+        SettlingSession settling = settlingSessions.get(sessionId);
+        if(settling != null && joinedGroups.contains(groupName)) {
+            settling.hostMembers = new HashSet<String>(Arrays.asList(peerIds));
+            checkMembershipSnapshot(sessionId);
+        }
+        HostMigration migration = hostMigrations.get(groupName);
+        if(migration == null || !joinedGroups.contains(groupName) || !sender.equals(migration.hostPeerId)) {
+            return;
+        }
+        logInfo("onMembers(" + groupName + ")", peerIds.length + " members");
+        migration.members = new ArrayList<String>(Arrays.asList(peerIds));
+    }
+    
+    /**
+     * loadFoundGroupsCache
+     * loads the unexpired groups of the given cache into the list of found 
+     * groups, marks them as stale and schedules their expiry.
+     * 
+     * @param cache  the cache to load, or null to disable caching
+     */
+    private void loadFoundGroupsCache(FoundGroupsCache cache) {
+        String methodName = "loadFoundGroupsCache()";
+        foundGroupsCache = cache;
+        if(cache == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for(FoundGroupsCache.Entry entry : cache.load()) {
+            logInfo(methodName, "Loaded stale group " + entry.getGroupName());
+            foundGroups.put(entry.getGroupName(), entry.getSessionPort());
+            foundGroupTransports.put(entry.getGroupName(), entry.getTransport());
+            staleFoundGroups.put(entry.getGroupName(), entry);
+            final String groupName = entry.getGroupName();
+            long delay = Math.max(0, entry.getLastSeen() + cache.getTtlMillis() - now);
+            callbackHandler.postDelayed(new Runnable() {
                 public void run() {
                     synchronized(PeerGroupManager.this) {
-                        onSessionLost(sessionId);
+                        expireStaleFoundGroup(groupName);
                     }
                 }
-            });
+            }, delay);
         }
-        
-        private void onSessionLost(int sessionId) {
-            String methodName = "PGSessionPortListener.onSessionLost";
-            logInfo(methodName, "(" + sessionId + ")");
-            String groupName = sessionIdToGroupName.get(sessionId);
-            // Remove the group from your list of joined groups
-            joinedGroups.remove(groupName);
-            // Remove the session id from the group
-            removeGroupNameToSessionId(groupName);
-            // Clear the peers for the group
-            sessionIdToPeers.remove(sessionId);
-            logInfo("PGSessionListener.groupLost(" + groupName + ")", "");
-            for(PeerGroupListenerInterface listener : peerGroupListeners) {
-                listener.groupLost(groupName);
+    }
+    
+    /**
+     * expireStaleFoundGroup
+     * removes a group loaded from the FoundGroupsCache if discovery did not
+     * confirm it within its time-to-live, and reports it as lost.
+     * 
+     * @param groupName  the stale group to expire
+     */
+    private void expireStaleFoundGroup(String groupName) {
+        FoundGroupsCache.Entry entry = staleFoundGroups.get(groupName);
+        if(entry == null) {
+            // The group was confirmed or removed in the meantime
+            return;
+        }
+        logInfo("expireStaleFoundGroup(" + groupName + ")", "");
+        removeFoundGroup(groupName);
+        for(PeerGroupListenerInterface listener : peerGroupListeners.get(PeerGroupEvent.LOST_ADVERTISED_NAME, groupName)) {
+            listener.lostAdvertisedName(groupName, entry.getTransport());
+        }
+    }
+    
+    /**
+     * listConfirmedFoundGroups
+     * lists the found groups excluding the stale groups loaded from the 
+     * FoundGroupsCache that discovery has not confirmed yet.
+     * 
+     * @return  a list of group names of the confirmed found groups
+     */
+    private ArrayList<String> listConfirmedFoundGroups() {
+        ArrayList<String> groups = new ArrayList<String>(foundGroups.size());
+        for (String groupName : foundGroups.keySet()) {
+            if(!staleFoundGroups.containsKey(groupName)) {
+                groups.add(groupName);
             }
         }
-        
-        @Override 
-        public void sessionMemberAdded(final int sessionId, final String uniqueName) {
-            logInfo("PGSessionListener.sessionMemberAdded(" + sessionId + ", " + uniqueName + ")", "");
-            callbackHandler.post(new Runnable() {
-                public void run() {
-                    synchronized(PeerGroupManager.this) {                    
-                        onSessionMemberAdded(sessionId, uniqueName);
-                    }
+        return groups;
+    }
+    
+    /**
+     * getTransports
+     * gets the transports the group is advertised over.
+     * 
+     * @param groupName  the name of the group
+     * @return  the transports of the session profile of the group
+     */
+    private short getTransports(String groupName) {
+        SessionProfile profile = groupProfiles.get(groupName);
+        return (profile == null) ? defaultSessionOpts.transports : profile.getTransports();
+    }
+    
+    /**
+     * selectTransport
+     * picks the transports to join a group over from the ones it was 
+     * discovered on, using the measured round trip times and the transport
+     * preference.
+     * 
+     * @param groupName  the name of the group to join
+     * @param allowed    the transports allowed by the session profile
+     * @return  the transports to join with
+     */
+    private short selectTransport(String groupName, short allowed) {
+        Short found = foundGroupTransports.get(groupName);
+        int available = (found == null) ? 0 : (found & allowed);
+        if(available == 0) {
+            return allowed;
+        }
+        if(useMeasuredRtt) {
+            short best = SessionOpts.TRANSPORT_NONE;
+            long bestRtt = Long.MAX_VALUE;
+            for(Map.Entry<Short,Long> entry : getMeasuredTransportRtts().entrySet()) {
+                if((available & entry.getKey()) != 0 && entry.getValue() < bestRtt) {
+                    best = entry.getKey();
+                    bestRtt = entry.getValue();
                 }
-            });
+            }
+            if(best != SessionOpts.TRANSPORT_NONE) {
+                return best;
+            }
         }
-        
-        private void onSessionMemberAdded(int sessionId, String uniqueName) {
-            String methodName = "PGSessionPortListener.onSessionMemberAdded";
-            logInfo(methodName, "(" + sessionId + ", " + uniqueName + ")");
-            // Add the new peer to the list of peers for the group
-            addPeer(sessionId, uniqueName);
-            String groupName = sessionIdToGroupName.get(sessionId);
-            int numParticipants = getNumPeers(groupName);
-            for(PeerGroupListenerInterface listener : peerGroupListeners) {
-                listener.peerAdded(uniqueName, groupName, numParticipants);
+        for(short transport : transportPreference) {
+            if((available & transport) != 0) {
+                return transport;
             }
         }
-        
-        @Override
-        public void sessionMemberRemoved(final int sessionId, final String uniqueName) {
-            logInfo("PGSessionListener.sessionMemberRemoved(" + sessionId + ", " + uniqueName + ")", "");
-            callbackHandler.post(new Runnable() {
-                public void run() {
-                    synchronized(PeerGroupManager.this) {                    
-                        onSessionMemberRemoved(sessionId, uniqueName);
-                    }
-                }
-            });
+        return (short) available;
+    }
+    
+    /**
+     * getMeasuredTransportRtts
+     * gets the round trip time of each transport. The median measured by 
+     * the RTT probes of the joined groups takes precedence over the time it
+     * took to join groups over the transport.
+     * 
+     * @return  the round trip time in microseconds of each measured transport
+     */
+    private HashMap<Short,Long> getMeasuredTransportRtts() {
+        HashMap<Short,Long> rtts = new HashMap<Short,Long>(transportRtts);
+        HashMap<Short,Long> probed = new HashMap<Short,Long>();
+        for(String groupName : groupModules.keySet()) {
+            RttProbeModule probe = getModule(groupName, RttProbeModule.class);
+            Short transport = joinedGroupTransports.get(groupName);
+            if(probe == null || transport == null) {
+                continue;
+            }
+            RttStats stats = probe.getRttStats();
+            if(stats.getCount() == 0) {
+                continue;
+            }
+            long medianMicros = stats.getPercentileMicros(50);
+            if(!probed.containsKey(transport) || medianMicros < probed.get(transport)) {
+                probed.put(transport, medianMicros);
+            }
         }
-        
-        private void onSessionMemberRemoved(int sessionId, String uniqueName) {
-            String methodName = "PGSessionPortListener.onSessionMemberRemoved";
-            logInfo(methodName, "(" + sessionId + ", " + uniqueName + ")");       
-            // Remove the peer from the list of peers for the group
-            removePeer(sessionId, uniqueName);
-            String groupName = sessionIdToGroupName.get(sessionId);
-            int numParticipants = getNumPeers(groupName);
-            for(PeerGroupListenerInterface listener : peerGroupListeners) {
-                listener.peerRemoved(uniqueName, groupName, numParticipants);
+        rtts.putAll(probed);
+        return rtts;
+    }
+    
+    /**
+     * measureTransportRtt
+     * measures the round trip time to the host of a group that was just 
+     * joined and adds it to the moving average of the transport it was 
+     * joined over. Nothing is measured unless measured round trip times are 
+     * used. The round trip is a single ping of the host, which the bus 
+     * answers without calling into the app. It is made in the background so 
+     * that joining does not wait for it.
+     * 
+     * @param groupName  the name of the joined group
+     * @param groupBus   the bus attachment the group was joined with
+     * @param hostName   the name advertised by the host
+     * @param sessionId  the id of the joined session
+     * @param transport  the transport the group was joined over
+     */
+    private void measureTransportRtt(final String groupName, final BusAttachment groupBus, final String hostName, 
+            final int sessionId, final short transport) {
+        if(!useMeasuredRtt) {
+            return;
+        }
+        if(rttExecutor == null) {
+            rttExecutor = Executors.newSingleThreadExecutor();
+        }
+        rttExecutor.execute(new Runnable() {
+            public void run() {
+                String methodName = "measureTransportRtt()";
+                ProxyBusObject proxy = groupBus.getProxyBusObject(hostName, getHostMigrationPath(), sessionId, 
+                        new Class<?>[] {Peer.class});
+                proxy.setReplyTimeout(RTT_MEASUREMENT_TIMEOUT_MILLIS);
+                Peer host = proxy.getInterface(Peer.class);
+                long rttNanos;
+                try {
+                    long start = System.nanoTime();
+                    host.Ping();
+                    rttNanos = System.nanoTime() - start;
+                } catch (BusException e) {
+                    logInfo(methodName, groupName + " - " + e.toString());
+                    return;
+                } finally {
+                    proxy.release();
+                }
+                logInfo(methodName, groupName + " - " + (rttNanos / 1000) + " us over transport " + transport);
+                synchronized(PeerGroupManager.this) {
+                    recordTransportRtt(transport, rttNanos / 1000);
+                }
             }
+        });
+    }
+    
+    /**
+     * recordTransportRtt
+     * adds a round trip time measured over a transport to its moving 
+     * average.
+     * 
+     * @param transport  the single transport the time was measured over
+     * @param rttMicros  the measured round trip time in microseconds
+     */
+    private void recordTransportRtt(short transport, long rttMicros) {
+        // Only keep averages of single transports
+        if(transport == SessionOpts.TRANSPORT_NONE || (transport & (transport - 1)) != 0) {
+            return;
         }
+        Long average = transportRtts.get(transport);
+        transportRtts.put(transport, (average == null) ? rttMicros : (average * 7 + rttMicros) / 8);
     }
-
     
-    /*------------------------------------------------------------------------*
-     * Helper Methods
-     *------------------------------------------------------------------------*/
     /**
-     * connectBus
-     * registers the bus listener, connects the bus attachment to the bus, 
-     * starts discovery, and registers signal handlers. 
+     * isPointToPoint
+     * checks whether the group uses a point to point session profile.
      * 
-     * @return  OK if successful
+     * @param groupName  the name of the group
+     * @return  true if every peer has its own session with the host
      */
-    private Status connectBus() {
-        String methodName = "connectBus()";
-        logInfo(methodName, "");
-        Status status;
-        
-        // Register the bus listener
-        bus.registerBusListener(pgBusListener);
-        logInfo(methodName, "Registering Bus Listener");
-        
-        // Connect the bus
-        status = bus.connect();
-        logInfo(methodName, "Connecting Bus Attachment - " + status.toString());
-        if(status != Status.OK) {
-            return status;
+    private boolean isPointToPoint(String groupName) {
+        SessionProfile profile = groupProfiles.get(groupName);
+        return profile != null && !profile.isMultipoint();
+    }
+    
+    /**
+     * openRawSessionChannel
+     * takes the socket of a raw session and wraps it in a channel.
+     * 
+     * @param groupName  the name of the raw group
+     * @param sessionId  the session id to take the socket of
+     * @return  the channel, or null if it could not be opened
+     */
+    private RawSessionChannel openRawSessionChannel(String groupName, int sessionId) {
+        String methodName = "openRawSessionChannel()";
+        SessionProfile profile = groupProfiles.get(groupName);
+        if(profile == null || !profile.isRaw() || sessionId == -1) {
+            logInfo(methodName, groupName + " is not a raw session");
+            return null;
         }
-        
-        // Start Discovery
-        status = bus.findAdvertisedName(groupPrefix);
-        logInfo(methodName, "FindAdvertisedName(" + groupPrefix + ") - " + status.toString());
+        if(!RawSessionChannel.isSupported()) {
+            logError(methodName, "Raw session channels need API level " + Build.VERSION_CODES.HONEYCOMB_MR2);
+            return null;
+        }
+        Mutable.IntegerValue sockFd = new Mutable.IntegerValue();
+        Status status = busForGroup(groupName).getSessionFd(sessionId, sockFd);
+        logInfo(methodName, "getSessionFd(" + sessionId + ") - " + status.toString());
         if(status != Status.OK) {
-            return status;
+            return null;
         }
-        
-        // Pause the thread for 20 milliseconds to let the foundAdvertiseName() signals come through
         try {
-            Thread.sleep(20);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+            return new RawSessionChannel(sockFd.value);
+        } catch (IOException e) {
             logError(methodName, e.toString());
+            return null;
         }
-
-        return status; 
+    }
+    
+    /**
+     * findAdvertisedName
+     * starts discovery of the given name prefix on the primary bus attachment
+     * or through the shared bus attachment.
+     * 
+     * @param namePrefix  the name prefix to discover
+     * @return  OK if successful
+     */
+    private Status findAdvertisedName(String namePrefix) {
+        if(sharedBus != null) {
+            return sharedBus.findAdvertisedName(namePrefix, pgBusListener);
+        }
+        return bus.findAdvertisedName(namePrefix);
+    }
+    
+    /**
+     * cancelFindAdvertisedName
+     * stops discovery of the given name prefix on the primary bus attachment
+     * or through the shared bus attachment.
+     * 
+     * @param namePrefix  the name prefix to stop discovering
+     * @return  OK if successful
+     */
+    private Status cancelFindAdvertisedName(String namePrefix) {
+        if(sharedBus != null) {
+            return sharedBus.cancelFindAdvertisedName(namePrefix);
+        }
+        return bus.cancelFindAdvertisedName(namePrefix);
     }
     
     /**
@@ -1796,7 +4803,7 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         String methodName = "changeGroupName()";
         logInfo("changeGroupName(" + newGroupName + ", " + prevGroupName + ")", "");
         // Make sure the new group name isn't already taken
-        if(listFoundGroups().contains(newGroupName) || listHostedGroups().contains(newGroupName) 
+        if(listConfirmedFoundGroups().contains(newGroupName) || listHostedGroups().contains(newGroupName) 
                 || listJoinedGroups().contains(newGroupName)) {
             logInfo(methodName, newGroupName + " is already being advertised");
             return status;
@@ -1811,28 +4818,41 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         
         Short sessionPort = groupNameToSessionPort.get(prevGroupName);
         String newAdvertisedName = getAdvertisedName(newGroupName, sessionPort);
+        BusAttachment groupBus = busForGroup(prevGroupName);
         // Request the Well Known Name
         int flag = BusAttachment.ALLJOYN_REQUESTNAME_FLAG_DO_NOT_QUEUE;
-        status = bus.requestName(newAdvertisedName, flag);
+        status = groupBus.requestName(newAdvertisedName, flag);
         logInfo(methodName, "Requesting name " + newAdvertisedName + " - " + status.toString());
         hostedGroups.add(newGroupName);
         if(status == Status.OK) {
             // Advertise the Well Known Name
-            status = bus.advertiseName(newAdvertisedName, defaultSessionOpts.transports);
+            status = groupBus.advertiseName(newAdvertisedName, getTransports(prevGroupName));
             logInfo(methodName, "Advertising name " + newAdvertisedName + " - " + status.toString());
             if(status == Status.OK) {
                 String prevAdvertisedName = getAdvertisedName(prevGroupName, sessionPort);
                 // Cancel the old advertisement
-                bus.cancelAdvertiseName(prevAdvertisedName, defaultSessionOpts.transports);
+                groupBus.cancelAdvertiseName(prevAdvertisedName, getTransports(prevGroupName));
                 // Update all of our mappings
                 removeGroupNameToSessionPort(prevGroupName);
+                groupNameToBus.put(newGroupName, groupNameToBus.remove(prevGroupName));
+                if(groupProfiles.containsKey(prevGroupName)) {
+                    groupProfiles.put(newGroupName, groupProfiles.remove(prevGroupName));
+                }
                 addGroupNameToSessionPort(newGroupName, sessionPort);
+                updateSignalRoutes(newGroupName);
                 hostedGroups.remove(prevGroupName);
+                if(staleFoundGroups.containsKey(newGroupName)) {
+                    removeFoundGroup(newGroupName);
+                }
+                migratingGroups.add(newGroupName);
+                if(hostedGroupJournal != null) {
+                    hostedGroupJournal.groupRenamed(prevGroupName, newGroupName);
+                }
                 return status;
             }
             // Fall through and cleanup on failure
             hostedGroups.remove(newGroupName);
-            bus.releaseName(newAdvertisedName);
+            groupBus.releaseName(newAdvertisedName);
         }
         return status;
     }
@@ -1866,9 +4886,24 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         logInfo("unregisterAllBusObjects()", "");
         // Unregister all bus objects that are still registered
         for(BusObject busObj : registeredBusObjects) {
-            bus.unregisterBusObject(busObj);
+            if(sharedBus != null) {
+                sharedBus.unregisterBusObject(this, busObj);
+            }
+            else {
+                bus.unregisterBusObject(busObj);
+            }
         }
         registeredBusObjects.clear();
+        for(Map.Entry<BusAttachment,HostMigrationService> entry : hostMigrationServices.entrySet()) {
+            entry.getKey().unregisterSignalHandler(entry.getValue(), hostMigrationHandler);
+            if(sharedBus != null) {
+                sharedBus.unregisterBusObject(this, entry.getValue());
+            }
+            else {
+                entry.getKey().unregisterBusObject(entry.getValue());
+            }
+        }
+        hostMigrationServices.clear();
     }
     
     /**
@@ -1909,64 +4944,175 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
      * Private Thread Safe Methods
      *------------------------------------------------------------------------*/
     // Accessing the list of found groups
-    private void addFoundGroup(String groupName, short sessionPort) {
+    private void addFoundGroup(String groupName, short sessionPort, String advertisedName, short transport) {
         foundGroups.remove(groupName);
         foundGroups.put(groupName, sessionPort);
+        // Add the transport to the ones the group is known on unless the 
+        // known transports came from the cache
+        Short transports = foundGroupTransports.get(groupName);
+        if(transports != null && !staleFoundGroups.containsKey(groupName)) {
+            transport |= transports;
+        }
+        foundGroupTransports.put(groupName, transport);
+        // The group has been discovered so it is no longer stale
+        staleFoundGroups.remove(groupName);
+        if(foundGroupsCache != null) {
+            foundGroupsCache.put(groupName, advertisedName, sessionPort, transport);
+        }
+    }
+    
+    private void removeFoundGroupTransport(String groupName, short transport) {
+        Short transports = foundGroupTransports.get(groupName);
+        if(transports == null || (transports & ~transport) == 0) {
+            removeFoundGroup(groupName);
+        }
+        else {
+            foundGroupTransports.put(groupName, (short) (transports & ~transport));
+        }
     }
     
     private void removeFoundGroup(String groupName) {
         foundGroups.remove(groupName);
+        foundGroupTransports.remove(groupName);
+        staleFoundGroups.remove(groupName);
+        if(foundGroupsCache != null) {
+            foundGroupsCache.remove(groupName);
+        }
     }
     
     // Accessing the lists of peers
     private void addPeer(int sessionId, String peerId) {
         logInfo("addPeer(" + sessionId + ", " + peerId + ")", "");
-        if(sessionIdToPeers.containsKey(sessionId)) {
-            sessionIdToPeers.get(sessionId).remove(peerId);
-        }
-        else {
-            sessionIdToPeers.put(sessionId, new ArrayList<String>());
+        LinkedHashSet<String> peers = sessionIdToPeers.get(sessionId);
+        if(peers == null) {
+            peers = new LinkedHashSet<String>();
+            sessionIdToPeers.put(sessionId, peers);
         }
-        sessionIdToPeers.get(sessionId).add(peerId);
+        // Move a peer that is added again to the end
+        peers.remove(peerId);
+        peers.add(peerId);
+        refreshAdmissionPeers(sessionIdToGroupName.get(sessionId));
     }
     
     private void removePeer(int sessionId, String peerId) {
         logInfo("removePeer(" + sessionId + ", " + peerId + ")", "");
-        if(sessionIdToPeers.containsKey(sessionId)) {
-            sessionIdToPeers.get(sessionId).remove(peerId);
+        LinkedHashSet<String> peers = sessionIdToPeers.get(sessionId);
+        if(peers != null) {
+            peers.remove(peerId);
+        }
+        refreshAdmissionPeers(sessionIdToGroupName.get(sessionId));
+    }
+    
+    /*
+     * Counts the peers of a group like getPeers() lists them, in constant 
+     * time and without copying the list.
+     */
+    private int countPeers(String groupName) {
+        if(isBusInvalid()) {
+            return 0;
+        }
+        int sessionId = getSessionId(groupName);
+        if(hostedGroups.contains(groupName) && sessionId == -1) {
+            HashMap<String,Integer> joinerSessions = pointToPointSessions.get(groupName);
+            return 1 + ((joinerSessions == null) ? 0 : joinerSessions.size());
         }
+        LinkedHashSet<String> peers = sessionIdToPeers.get(sessionId);
+        return (peers == null) ? 0 : peers.size();
     }
     
     private void clearPeers(int sessionId) {
         logInfo("clearPeers(" + sessionId + ")", "");
+        settlingSessions.remove(sessionId);
+        earlyMembers.remove(sessionId);
         if(sessionIdToPeers.containsKey(sessionId)) {
             sessionIdToPeers.get(sessionId).clear();
             sessionIdToPeers.remove(sessionId);
         }
+        refreshAdmissionPeers(sessionIdToGroupName.get(sessionId));
+    }
+    
+    /*
+     * Gets the admission state of a hosted group. Hosted JoinOrCreate groups
+     * use the admission policies set on the group name passed to 
+     * joinOrCreateGroup().
+     */
+    private GroupAdmission getAdmission(String groupName) {
+        GroupAdmission admission = admissions.get(groupName);
+        if(admission == null && groupName.contains(".JoC-")) {
+            admission = admissions.get(groupName.substring(0, groupName.lastIndexOf(".JoC-")));
+        }
+        return admission;
+    }
+    
+    /*
+     * Recounts the members of a hosted group checked on admission. The count
+     * the policies see is adjusted by the change rather than overwritten, so
+     * that joiners admitted concurrently stay counted. Joiners that are now
+     * counted as peers release the place reserved when they were admitted, 
+     * and joiners that never joined release it after a while.
+     */
+    private void refreshAdmissionPeers(String groupName) {
+        if(groupName == null || !hostedGroups.contains(groupName)) {
+            return;
+        }
+        GroupAdmission admission = getAdmission(groupName);
+        if(admission == null) {
+            return;
+        }
+        int numPeers = countPeers(groupName);
+        int delta = numPeers - admission.members;
+        admission.members = numPeers;
+        int released = 0;
+        while(released < delta && admission.reservations.poll() != null) {
+            released++;
+        }
+        long expiry = System.currentTimeMillis() - ADMISSION_RESERVATION_MILLIS;
+        Long admitted;
+        while((admitted = admission.reservations.peek()) != null && admitted < expiry) {
+            admission.reservations.poll();
+            released++;
+        }
+        admission.numPeers.addAndGet(delta - released);
     }
     
     // Accessing the maps of group names to session ports
     private void addGroupNameToSessionPort(String groupName, short sessionPort) {
         groupNameToSessionPort.remove(groupName);
         groupNameToSessionPort.put(groupName, sessionPort);
-        sessionPortToGroupName.remove(sessionPort);
-        sessionPortToGroupName.put(sessionPort, groupName);
+        BusAttachment groupBus = busForGroup(groupName);
+        if(!sessionPortToGroupName.containsKey(groupBus)) {
+            sessionPortToGroupName.put(groupBus, new ConcurrentHashMap<Short,String>());
+        }
+        sessionPortToGroupName.get(groupBus).remove(sessionPort);
+        sessionPortToGroupName.get(groupBus).put(sessionPort, groupName);
     }
     
     private void removeGroupNameToSessionPort(String groupName) {
         if(groupNameToSessionPort.containsKey(groupName)) {
             short sessionPort = groupNameToSessionPort.get(groupName);
-            sessionPortToGroupName.remove(sessionPort);
+            ConcurrentHashMap<Short,String> busPorts = sessionPortToGroupName.get(busForGroup(groupName));
+            if(busPorts != null) {
+                busPorts.remove(sessionPort);
+            }
             groupNameToSessionPort.remove(groupName);
         }
     }
     
+    private String getGroupNameOfSessionPort(BusAttachment portBus, short sessionPort) {
+        ConcurrentHashMap<Short,String> busPorts = sessionPortToGroupName.get(portBus);
+        if(busPorts == null) {
+            return null;
+        }
+        return busPorts.get(sessionPort);
+    }
+    
     // Accessing the maps of group names to session Ids
     private void addGroupNameToSessionId(String groupName, int sessionId) {
         groupNameToSessionId.remove(groupName);
         groupNameToSessionId.put(groupName, sessionId);
         sessionIdToGroupName.remove(sessionId);
         sessionIdToGroupName.put(sessionId, groupName);
+        updateSignalRoutes(groupName);
     }
     
     private void removeGroupNameToSessionId(String groupName) {
@@ -1974,6 +5120,43 @@ public class PeerGroupManager implements PeerGroupManagerInterface {
         if(sessionId != null) {
             sessionIdToGroupName.remove(sessionId);
         }
+        updateSignalRoutes(groupName);
+    }
+    
+    /*
+     * Gets all of the sessions of a group: the session of a multipoint group 
+     * and the session of each joiner of a hosted point to point group.
+     */
+    private ArrayList<Integer> getSessionIds(String groupName) {
+        ArrayList<Integer> sessionIds = new ArrayList<Integer>();
+        Integer sessionId = groupNameToSessionId.get(groupName);
+        if(sessionId != null) {
+            sessionIds.add(sessionId);
+        }
+        HashMap<String,Integer> joinerSessions = pointToPointSessions.get(groupName);
+        if(joinerSessions != null) {
+            sessionIds.addAll(joinerSessions.values());
+        }
+        return sessionIds;
+    }
+    
+    /*
+     * Gives the signal routes of a group its current sessions and moves them
+     * to the bus attachment the group is placed on. Routes of a group that 
+     * is not placed stay where they are until it is created or joined again.
+     */
+    private void updateSignalRoutes(String groupName) {
+        ArrayList<GroupSignalRoute> routes = groupSignalRoutes.get(groupName);
+        if(routes != null) {
+            ArrayList<Integer> sessionIds = getSessionIds(groupName);
+            BusAttachment groupBus = groupNameToBus.get(groupName);
+            for(GroupSignalRoute route : routes) {
+                route.setSessionIds(sessionIds);
+                if(groupBus != null && route.setBus(groupBus) != Status.OK) {
+                    logError("updateSignalRoutes()", "Failed to move the signal handlers of " + groupName);
+                }
+            }
+        }
     }
     
     // Accessing the list of JoinOrCreate groups
@@ -17,8 +17,10 @@
 package org.alljoyn.cops.peergroupmanager;
 
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
 import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.MessageContext;
 import org.alljoyn.bus.Status;
 
 interface PeerGroupManagerInterface {
@@ -27,14 +29,40 @@ interface PeerGroupManagerInterface {
     
     public Status createGroup (String groupName, boolean locked); 
     
+    public Status createGroup (String groupName, boolean locked, SessionProfile profile);
+    
     public Status destroyGroup (String groupName);
     
+    public Status restoreHostedGroups(HostedGroupJournal journal);
+    
     public Status joinGroup (String groupName);
     
+    public Status joinGroup (String groupName, SessionProfile profile);
+    
     public Status leaveGroup (String groupName);
     
     public JoinOrCreateReturn joinOrCreateGroup(String groupName); 
     
+    public JoinOrCreateReturn joinOrCreateGroup(String groupName, boolean singleRound);
+    
+    public Status setRejoinPolicy(String groupName, RejoinPolicy policy);
+    
+    public RejoinStats getRejoinStats(String groupName);
+    
+    public Status setAdmissionPolicy(String groupName, AdmissionPolicy... policies);
+    
+    public AdmissionStats getAdmissionStats(String groupName);
+    
+    public RawSessionChannel getRawSessionChannel(String groupName);
+    
+    public RawSessionChannel getRawSessionChannel(String groupName, String peerId);
+    
+    public void setTransportPreference(short[] transports, boolean useMeasuredRtt);
+    
+    public short getGroupTransports(String groupName);
+    
+    public short getJoinedGroupTransport(String groupName);
+    
     public void cleanup();
     
     public Status unlockGroup(String groupName);
@@ -43,6 +71,8 @@ interface PeerGroupManagerInterface {
     
     public ArrayList<String> listFoundGroups();
     
+    public ArrayList<String> listStaleFoundGroups();
+    
     public ArrayList<String> listHostedGroups();
     
     public ArrayList<String> listJoinedGroups();
@@ -54,21 +84,51 @@ interface PeerGroupManagerInterface {
     public int getNumPeers(String groupName);
     
     public void addPeerGroupListener(PeerGroupListenerInterface peerGroupListener);
+    
+    public void addPeerGroupListener(PeerGroupListenerInterface peerGroupListener, PeerGroupListenerFilter filter);
+    
+    public void addPeerGroupListener(PeerGroupListenerInterface peerGroupListener, PeerGroupListenerFilter filter, 
+            ListenerExecutionPolicy execution);
+    
+    public ListenerQueueStats getListenerQueueStats(PeerGroupListenerInterface peerGroupListener);
+    
+    public Status removePeerGroupListener(PeerGroupListenerInterface peerGroupListener);
 
     public <T> T getRemoteObjectInterface(String peerId, String groupName, String objectPath, Class<T> iface);
     
+    public <T,R> ScatterGatherResult<R> scatterGather(String groupName, String objectPath, Class<T> iface, 
+            RemoteCall<T,R> call, long timeoutMillis);
+    
     public <T> T getSignalInterface(String groupName, BusObject busObject, Class<T> iface);
     
     public <T> T getSignalInterface(String peerId, String groupName, BusObject busObject, Class<T> iface);
     
     public Status registerModule(PGModule module, String groupName);
     
+    public RttStats getPeerRttStats(String groupName, String peerId);
+    
+    public CompressionStats getCompressionStats(String groupName);
+    
+    public ArrayList<String> getSuspectedPeers(String groupName);
+    
     public String getGroupPrefix();
     
     public Status registerSignalHandlers(Object classWithSignalHandlers);
     
+    public Status registerSignalHandlers(String groupName, Object classWithSignalHandlers, Class<?> iface);
+    
+    public Status registerSignalRingBuffer(String groupName, SignalRingBuffer ringBuffer, Class<?> iface);
+    
+    public Status unregisterSignalHandlers(String groupName, Object classWithSignalHandlers);
+    
+    public Status setSignalHandlerExecutor(Executor executor);
+    
+    public MessageContext getSignalContext();
+    
     public String getMyPeerId();
     
+    public String getMyPeerId(String groupName);
+    
     public String getGUID();
     
     public String getSenderPeerId();
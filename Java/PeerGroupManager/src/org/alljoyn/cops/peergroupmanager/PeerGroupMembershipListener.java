@@ -0,0 +1,43 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.ArrayList;
+
+/**
+ * The PeerGroupMembershipListener can be implemented by a peer group 
+ * listener, in addition to the PeerGroupListenerInterface, to learn the 
+ * members of a newly joined group in a single call-back instead of one 
+ * peerAdded() call-back per member already in the group.
+ */
+public interface PeerGroupMembershipListener {
+    
+    /**
+     * Called once after a group is joined, when AllJoyn has reported all of
+     * the members the host of the group had when it accepted us. Groups 
+     * hosted by older peers that do not send their members are reported 
+     * after a timeout instead. The listener does not receive
+     * peerAdded() or peerRemoved() for the group until then, and receives 
+     * them for every later change.
+     * 
+     * @param groupName  the group that was joined
+     * @param peerIds    the ids of all of the peers in the group, including 
+     *                   your own
+     */
+    public void membershipSnapshot(String groupName, ArrayList<String> peerIds);
+}
@@ -0,0 +1,249 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The QueuedPeerGroupListener stands in for a listener added with a 
+ * ListenerExecutionPolicy. The PeerGroupManager calls it like any other 
+ * listener and it queues the call-backs and runs them on the executor of the
+ * policy, one at a time and in order. With the BLOCK backpressure the 
+ * call-backs are moved into the bounded queue by a thread of the listener's
+ * own, so only that thread waits for the listener to catch up.
+ */
+class QueuedPeerGroupListener implements PeerGroupListenerInterface, PeerGroupMembershipListener {
+    private static final String TAG = "QueuedPeerGroupListener";
+    
+    private static abstract class QueuedCall implements Runnable {
+        final PeerGroupEvent event;
+        final String groupName;
+        final String peerId;
+        final long queuedNanos = System.nanoTime();
+        
+        QueuedCall(PeerGroupEvent event, String groupName, String peerId) {
+            this.event = event;
+            this.groupName = groupName;
+            this.peerId = peerId;
+        }
+        
+        boolean replaces(QueuedCall call) {
+            return event == call.event && equal(groupName, call.groupName) && equal(peerId, call.peerId);
+        }
+        
+        private static boolean equal(String lhs, String rhs) {
+            return (lhs == null) ? rhs == null : lhs.equals(rhs);
+        }
+    }
+    
+    private final PeerGroupListenerInterface listener;
+    private final ListenerExecutionPolicy policy;
+    private final LinkedList<QueuedCall> queue = new LinkedList<QueuedCall>();
+    // The BLOCK call-backs waiting for room in the queue
+    private final LinkedList<QueuedCall> handoff = new LinkedList<QueuedCall>();
+    private Thread handoffThread = null;
+    private final ListenerQueueStats stats = new ListenerQueueStats();
+    // Whether a drain task is submitted to the executor
+    private boolean draining = false;
+    private boolean closed = false;
+    
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+    
+    QueuedPeerGroupListener(PeerGroupListenerInterface listener, ListenerExecutionPolicy policy) {
+        this.listener = listener;
+        this.policy = policy;
+    }
+    
+    synchronized ListenerQueueStats getStats() {
+        return new ListenerQueueStats(stats, queue.size() + handoff.size());
+    }
+    
+    /**
+     * close
+     * discards the queued call-backs and stops calling the listener.
+     */
+    synchronized void close() {
+        closed = true;
+        queue.clear();
+        handoff.clear();
+        notifyAll();
+    }
+    
+    private synchronized void enqueue(QueuedCall call) {
+        if(closed) {
+            return;
+        }
+        if(policy.getBackpressure() == BackpressurePolicy.BLOCK) {
+            handoff.add(call);
+            if(handoffThread == null) {
+                handoffThread = new Thread(new Runnable() {
+                    public void run() {
+                        handOver();
+                    }
+                }, TAG);
+                handoffThread.setDaemon(true);
+                handoffThread.start();
+            }
+            notifyAll();
+            return;
+        }
+        if(policy.getBackpressure() == BackpressurePolicy.COALESCE) {
+            // Move the newer call-back to the end so the order of the events is kept
+            for(Iterator<QueuedCall> it = queue.iterator(); it.hasNext();) {
+                if(call.replaces(it.next())) {
+                    it.remove();
+                    stats.coalesced();
+                    break;
+                }
+            }
+        }
+        queue.add(call);
+        if(queue.size() > policy.getQueueBound()) {
+            queue.removeFirst();
+            stats.dropped();
+        }
+        startDraining(call);
+    }
+    
+    /*
+     * Moves the BLOCK call-backs into the queue as the listener makes room, 
+     * until the listener is closed.
+     */
+    private synchronized void handOver() {
+        while(true) {
+            while(!closed && (handoff.isEmpty() || queue.size() >= policy.getQueueBound())) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Log.e(TAG, "handOver(): " + e);
+                    return;
+                }
+            }
+            if(closed) {
+                return;
+            }
+            QueuedCall call = handoff.removeFirst();
+            queue.add(call);
+            startDraining(call);
+        }
+    }
+    
+    /*
+     * Submits the drain task unless it is already submitted. The call-back 
+     * just queued is discarded if the executor rejects the task.
+     */
+    private synchronized void startDraining(QueuedCall call) {
+        if(!draining) {
+            draining = true;
+            try {
+                policy.getExecutor().execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                Log.e(TAG, "startDraining(): " + e);
+                draining = false;
+                stats.dropped();
+                queue.remove(call);
+            }
+        }
+    }
+    
+    private void drain() {
+        while(true) {
+            QueuedCall call;
+            synchronized(this) {
+                if(closed || queue.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                call = queue.removeFirst();
+                stats.delivered(System.nanoTime() - call.queuedNanos);
+                notifyAll();
+            }
+            try {
+                call.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "drain(): " + e);
+            }
+        }
+    }
+    
+    @Override
+    public void foundAdvertisedName(final String groupName, final short transport) {
+        enqueue(new QueuedCall(PeerGroupEvent.FOUND_ADVERTISED_NAME, groupName, null) {
+            public void run() {
+                listener.foundAdvertisedName(groupName, transport);
+            }
+        });
+    }
+    
+    @Override
+    public void lostAdvertisedName(final String groupName, final short transport) {
+        enqueue(new QueuedCall(PeerGroupEvent.LOST_ADVERTISED_NAME, groupName, null) {
+            public void run() {
+                listener.lostAdvertisedName(groupName, transport);
+            }
+        });
+    }
+    
+    @Override
+    public void groupLost(final String groupName) {
+        enqueue(new QueuedCall(PeerGroupEvent.GROUP_LOST, groupName, null) {
+            public void run() {
+                listener.groupLost(groupName);
+            }
+        });
+    }
+    
+    @Override
+    public void peerAdded(final String peerId, final String groupName, final int numPeers) {
+        enqueue(new QueuedCall(PeerGroupEvent.PEER_ADDED, groupName, peerId) {
+            public void run() {
+                listener.peerAdded(peerId, groupName, numPeers);
+            }
+        });
+    }
+    
+    @Override
+    public void peerRemoved(final String peerId, final String groupName, final int numPeers) {
+        enqueue(new QueuedCall(PeerGroupEvent.PEER_REMOVED, groupName, peerId) {
+            public void run() {
+                listener.peerRemoved(peerId, groupName, numPeers);
+            }
+        });
+    }
+    
+    @Override
+    public void membershipSnapshot(final String groupName, final ArrayList<String> peerIds) {
+        if(!(listener instanceof PeerGroupMembershipListener)) {
+            return;
+        }
+        enqueue(new QueuedCall(PeerGroupEvent.MEMBERSHIP_SNAPSHOT, groupName, null) {
+            public void run() {
+                ((PeerGroupMembershipListener) listener).membershipSnapshot(groupName, peerIds);
+            }
+        });
+    }
+}
@@ -0,0 +1,99 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.os.Build;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class is returned by the getRawSessionChannel() method of the peer 
+ * group manager. It is an NIO channel over the socket of a raw session so 
+ * that bulk bytes can be read and written directly without AllJoyn 
+ * marshalling.
+ * NOTE: Once the socket of a raw session has been taken, AllJoyn no longer 
+ * reads from it. Closing the channel closes the socket, which ends the 
+ * session for the peer on the other side. Raw session channels need 
+ * Android 3.2 (API level 13) or later, where a socket descriptor can be 
+ * adopted through ParcelFileDescriptor.
+ */
+public class RawSessionChannel implements ByteChannel {
+    private final ParcelFileDescriptor pfd;
+    private final FileInputStream in;
+    private final FileOutputStream out;
+    private final FileChannel inChannel;
+    private final FileChannel outChannel;
+    private boolean open = true;
+    
+    RawSessionChannel(int sockFd) throws IOException {
+        // The channel takes ownership of the socket returned by getSessionFd()
+        pfd = ParcelFileDescriptor.adoptFd(sockFd);
+        FileDescriptor fd = pfd.getFileDescriptor();
+        in = new FileInputStream(fd);
+        out = new FileOutputStream(fd);
+        inChannel = in.getChannel();
+        outChannel = out.getChannel();
+    }
+    
+    /**
+     * isSupported
+     * checks whether this Android version can adopt a session socket. It is 
+     * checked before the socket is taken from AllJoyn so that the session is 
+     * left usable when it cannot be wrapped.
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB_MR2;
+    }
+    
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return inChannel.read(dst);
+    }
+    
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return outChannel.write(src);
+    }
+    
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        if(!open) {
+            return;
+        }
+        open = false;
+        // The streams do not own the descriptor, so closing the parcel 
+        // descriptor is what closes the socket
+        try {
+            out.close();
+            in.close();
+        } finally {
+            pfd.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.Random;
+
+/**
+ * The RejoinPolicy describes how the PeerGroupManager automatically rejoins
+ * a joined group after its session is lost. Attempts are spaced with an
+ * exponential backoff that starts at the initial backoff and doubles up to
+ * the maximum backoff. Each delay is randomized between half and all of its
+ * value so that many peers losing the same host do not rejoin in lock step.
+ */
+public class RejoinPolicy {
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Random random = new Random();
+
+    /**
+     * Constructs a RejoinPolicy.
+     *
+     * @param maxAttempts           the maximum number of rejoin attempts
+     *                              before giving up
+     * @param initialBackoffMillis  the delay before the first attempt
+     * @param maxBackoffMillis      the upper bound of the delay between two
+     *                              attempts
+     */
+    public RejoinPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+        if(maxAttempts <= 0) {
+            throw new IllegalArgumentException("Invalid maximum number of attempts");
+        }
+        if(initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+            throw new IllegalArgumentException("Invalid backoff");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Get the maximum number of rejoin attempts.
+     *
+     * @return the maximum number of rejoin attempts
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Get the delay before the first rejoin attempt.
+     *
+     * @return the initial backoff in milliseconds
+     */
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    /**
+     * Get the upper bound of the delay between two rejoin attempts.
+     *
+     * @return the maximum backoff in milliseconds
+     */
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    /**
+     * getBackoffMillis
+     * computes the randomized delay before the given attempt.
+     *
+     * @param attempt  the number of attempts already made
+     * @return  the delay in milliseconds
+     */
+    long getBackoffMillis(int attempt) {
+        long backoff = initialBackoffMillis;
+        for(int i = 0; i < attempt && backoff < maxBackoffMillis; i++) {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxBackoffMillis);
+        synchronized(random) {
+            return backoff / 2 + (long) (random.nextDouble() * (backoff - backoff / 2));
+        }
+    }
+}
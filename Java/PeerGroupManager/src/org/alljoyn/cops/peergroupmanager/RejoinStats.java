@@ -0,0 +1,102 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * This class is returned by the getRejoinStats() method of the peer group
+ * manager. It is a snapshot of the automatic rejoin activity of a group.
+ */
+public class RejoinStats {
+    private int attempts;
+    private int rejoins;
+    private int failures;
+    private long lastReconnectMillis;
+    private long totalReconnectMillis;
+
+    RejoinStats() {
+    }
+
+    RejoinStats(RejoinStats stats) {
+        this.attempts = stats.attempts;
+        this.rejoins = stats.rejoins;
+        this.failures = stats.failures;
+        this.lastReconnectMillis = stats.lastReconnectMillis;
+        this.totalReconnectMillis = stats.totalReconnectMillis;
+    }
+
+    void attempted() {
+        attempts++;
+    }
+
+    void rejoined(long reconnectMillis) {
+        rejoins++;
+        lastReconnectMillis = reconnectMillis;
+        totalReconnectMillis += reconnectMillis;
+    }
+
+    void failed() {
+        failures++;
+    }
+
+    /**
+     * Get the total number of rejoin attempts.
+     *
+     * @return the number of joinSession() calls made to rejoin the group
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Get the number of times the group was successfully rejoined.
+     *
+     * @return the number of successful rejoins
+     */
+    public int getRejoins() {
+        return rejoins;
+    }
+
+    /**
+     * Get the number of times the manager gave up rejoining the group.
+     *
+     * @return the number of rejoins abandoned after the maximum number of
+     *         attempts
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Get the time between the last session loss and the successful rejoin.
+     *
+     * @return the last reconnect time in milliseconds, or 0 if the group was
+     *         never rejoined
+     */
+    public long getLastReconnectMillis() {
+        return lastReconnectMillis;
+    }
+
+    /**
+     * Get the average time between a session loss and the successful rejoin.
+     *
+     * @return the average reconnect time in milliseconds, or 0 if the group
+     *         was never rejoined
+     */
+    public long getAverageReconnectMillis() {
+        return rejoins == 0 ? 0 : totalReconnectMillis / rejoins;
+    }
+}
@@ -0,0 +1,50 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
+
+/**
+ * The AllJoyn interface used by the ReliableBroadcastModule.
+ */
+@BusInterface(name = "org.alljoyn.cops.peergroupmanager.ReliableBroadcast")
+public interface ReliableBroadcastInterface {
+    
+    /**
+     * Sent to the whole group with a new message, or directly to a peer 
+     * with a retransmitted one.
+     */
+    @BusSignal
+    public void Data(int sequence, byte[] payload) throws BusException;
+    
+    /**
+     * Sent directly to a sender to ask for the messages from first to last.
+     */
+    @BusSignal
+    public void Nack(int first, int last) throws BusException;
+    
+    /**
+     * Sent periodically to the whole group, and directly to a peer that 
+     * asked for messages that are no longer buffered, with the range of 
+     * messages the sender can still retransmit.
+     */
+    @BusSignal
+    public void Sync(int first, int last) throws BusException;
+}
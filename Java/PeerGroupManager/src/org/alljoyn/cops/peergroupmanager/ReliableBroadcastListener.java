@@ -0,0 +1,44 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The ReliableBroadcastListener receives the messages of a 
+ * ReliableBroadcastModule. The call-backs are made on the module thread, in
+ * the order each peer sent its messages.
+ */
+public interface ReliableBroadcastListener {
+    
+    /**
+     * Called with the next message of a peer.
+     * 
+     * @param peerId   the peer that sent the message
+     * @param payload  the message
+     */
+    public void messageReceived(String peerId, byte[] payload);
+    
+    /**
+     * Called when messages of a peer could not be repaired because the 
+     * peer no longer buffers them. Delivery continues with the message 
+     * after them.
+     * 
+     * @param peerId       the peer that sent the messages
+     * @param numMessages  the number of messages lost
+     */
+    public void messagesLost(String peerId, int numMessages);
+}
@@ -0,0 +1,560 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.MessageContext;
+import org.alljoyn.bus.SignalEmitter;
+import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+
+/**
+ * The ReliableBroadcastModule sends messages to a group and delivers the 
+ * messages of each peer in the order they were sent, without loss.
+ * Every message carries a per-sender sequence number. A receiver that sees
+ * a gap in the sequence asks the sender for the missing messages with a 
+ * negative acknowledgement (NACK) and holds back the later messages until
+ * the gap is repaired. Senders keep their last messages in a bounded buffer 
+ * to answer NACKs from, and periodically announce their latest sequence 
+ * number so that the loss of the last messages of a burst is also noticed.
+ * A message that has left the sender's buffer before it could be repaired 
+ * is reported as lost and delivery moves on.
+ * NOTE: Every peer of the group must register the module with 
+ * PeerGroupManager.registerModule() after the group has a session. A peer 
+ * receives the messages of another peer starting from the first one it 
+ * sees after registering.
+ */
+public class ReliableBroadcastModule implements PGLifecycleModule {
+    private static final String TAG = "ReliableBroadcastModule";
+    private static final String IFACE = "org.alljoyn.cops.peergroupmanager.ReliableBroadcast";
+    
+    /** The default number of messages kept for retransmission. */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+    /** The default time between two NACKs for the same gap. */
+    public static final long DEFAULT_NACK_INTERVAL_MILLIS = 200;
+    
+    // Keep announcing the latest sequence number for this many NACK 
+    // intervals after the last message was sent
+    private static final int SYNC_INTERVALS_AFTER_SEND = 10;
+    
+    private final ReliableBroadcastListener listener;
+    private final int bufferSize;
+    private final long nackIntervalMillis;
+    
+    private final ReliableBroadcastService service = new ReliableBroadcastService();
+    private BusAttachment bus;
+    private int sessionId = -1;
+    private String myPeerId;
+    private ReliableBroadcastInterface groupEmitter;
+    
+    // The sent messages that can still be retransmitted, indexed by sequence
+    // number modulo the buffer size
+    private final byte[][] sendBuffer;
+    private final Object sendLock = new Object();
+    private int nextSequence = 0;
+    private long lastSendTime = 0;
+    // The receive state of each sender
+    private final HashMap<String,SenderState> senders = new HashMap<String,SenderState>();
+    
+    private long messagesSent = 0;
+    private long messagesDelivered = 0;
+    private long messagesLost = 0;
+    private long retransmissions = 0;
+    private long nacksSent = 0;
+    private long duplicates = 0;
+    
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            return new Thread(r, TAG);
+        }
+    });
+    
+    private static class SenderState {
+        // The sequence number of the next message to deliver
+        int nextExpected;
+        // The highest sequence number known to have been sent
+        int highestKnown;
+        // Messages received ahead of a gap
+        final TreeMap<Integer,byte[]> pending = new TreeMap<Integer,byte[]>();
+        long lastNackTime = 0;
+        
+        SenderState(int nextExpected) {
+            this.nextExpected = nextExpected;
+            this.highestKnown = nextExpected - 1;
+        }
+        
+        boolean hasGap() {
+            return highestKnown >= nextExpected;
+        }
+        
+        int gapEnd() {
+            return pending.isEmpty() ? highestKnown : pending.firstKey() - 1;
+        }
+    }
+    
+    /**
+     * Constructs a ReliableBroadcastModule with the default buffer size and
+     * NACK interval.
+     * 
+     * @param listener  the listener to deliver the messages to
+     */
+    public ReliableBroadcastModule(ReliableBroadcastListener listener) {
+        this(listener, DEFAULT_BUFFER_SIZE, DEFAULT_NACK_INTERVAL_MILLIS);
+    }
+    
+    /**
+     * Constructs a ReliableBroadcastModule.
+     * 
+     * @param listener            the listener to deliver the messages to
+     * @param bufferSize          the number of sent messages kept for 
+     *                            retransmission, which also bounds the 
+     *                            number of messages held back per sender
+     * @param nackIntervalMillis  the time between two NACKs for the same gap
+     */
+    public ReliableBroadcastModule(ReliableBroadcastListener listener, int bufferSize, long nackIntervalMillis) {
+        if(listener == null) {
+            throw new IllegalArgumentException("Invalid listener");
+        }
+        if(bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid buffer size");
+        }
+        if(nackIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid NACK interval");
+        }
+        this.listener = listener;
+        this.bufferSize = bufferSize;
+        this.nackIntervalMillis = nackIntervalMillis;
+        this.sendBuffer = new byte[bufferSize][];
+    }
+    
+    /**
+     * register
+     * registers the bus object and signal handlers of the module on the bus
+     * attachment of the group and starts repairing gaps.
+     */
+    @Override
+    public synchronized Status register(BusAttachment bus, int sessionId) {
+        if(bus == null || sessionId == -1) {
+            Log.e(TAG, "register(): The group has no session");
+            return Status.FAIL;
+        }
+        if(this.bus != null) {
+            Log.e(TAG, "register(): Already registered");
+            return Status.FAIL;
+        }
+        Status status = bus.registerBusObject(service, "/ReliableBroadcast/s" + (sessionId & 0xffffffffL));
+        if(status != Status.OK) {
+            return status;
+        }
+        status = bus.registerSignalHandlers(this);
+        if(status != Status.OK) {
+            bus.unregisterBusObject(service);
+            return status;
+        }
+        this.bus = bus;
+        this.sessionId = sessionId;
+        this.myPeerId = bus.getUniqueName();
+        this.groupEmitter = new SignalEmitter(service, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                .getInterface(ReliableBroadcastInterface.class);
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                repair();
+            }
+        }, nackIntervalMillis, nackIntervalMillis, TimeUnit.MILLISECONDS);
+        return Status.OK;
+    }
+    
+    /**
+     * unregister
+     * stops the module and removes it from the bus attachment. The module 
+     * cannot be registered again afterwards.
+     */
+    @Override
+    public synchronized void unregister() {
+        executor.shutdownNow();
+        if(bus != null) {
+            bus.unregisterSignalHandlers(this);
+            bus.unregisterBusObject(service);
+            bus = null;
+        }
+    }
+    
+    /**
+     * send
+     * broadcasts a message to the group.
+     * 
+     * @param payload  the message to send. It is copied for retransmission,
+     *                 so the array can be reused once send() returns.
+     * @return  OK if the message was sent. A message that could not be sent
+     *          is still repaired by NACKs, so FAIL only means that the 
+     *          module is not registered.
+     */
+    public Status send(byte[] payload) {
+        if(payload == null) {
+            throw new IllegalArgumentException("Invalid payload");
+        }
+        // Retransmit what was sent even if the caller reuses the array
+        byte[] data = payload.clone();
+        // Hold the send lock while emitting so messages leave in order
+        synchronized(sendLock) {
+            ReliableBroadcastInterface emitter;
+            int sequence;
+            synchronized(this) {
+                if(bus == null) {
+                    return Status.FAIL;
+                }
+                emitter = groupEmitter;
+                sequence = nextSequence++;
+                sendBuffer[sequence % bufferSize] = data;
+                lastSendTime = System.currentTimeMillis();
+                messagesSent++;
+            }
+            try {
+                emitter.Data(sequence, data);
+            } catch (BusException e) {
+                Log.e(TAG, "send(): " + e.toString());
+            }
+        }
+        return Status.OK;
+    }
+    
+    /**
+     * groupJoined
+     * does nothing. The messages of each peer are delivered from the 
+     * first one seen after registering.
+     */
+    @Override
+    public void groupJoined(String hostPeerId) {
+    }
+    
+    /**
+     * removePeer
+     * forgets the receive state of a peer, for example after it left the 
+     * group.
+     * 
+     * @param peerId  the peer to forget
+     */
+    @Override
+    public synchronized void removePeer(String peerId) {
+        senders.remove(peerId);
+    }
+    
+    /**
+     * Get the number of messages sent to the group.
+     * 
+     * @return the number of messages sent, not counting retransmissions
+     */
+    public synchronized long getMessagesSent() {
+        return messagesSent;
+    }
+    
+    /**
+     * Get the number of messages delivered to the listener.
+     * 
+     * @return the number of messages delivered
+     */
+    public synchronized long getMessagesDelivered() {
+        return messagesDelivered;
+    }
+    
+    /**
+     * Get the number of messages that could not be repaired.
+     * 
+     * @return the number of messages reported lost
+     */
+    public synchronized long getMessagesLost() {
+        return messagesLost;
+    }
+    
+    /**
+     * Get the number of messages retransmitted in answer to NACKs.
+     * 
+     * @return the number of retransmissions
+     */
+    public synchronized long getRetransmissions() {
+        return retransmissions;
+    }
+    
+    /**
+     * Get the number of NACKs sent.
+     * 
+     * @return the number of NACKs sent
+     */
+    public synchronized long getNacksSent() {
+        return nacksSent;
+    }
+    
+    /**
+     * Get the number of messages received more than once.
+     * 
+     * @return the number of duplicate messages dropped
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+    
+    /*
+     * Moves the messages that are next in sequence to the delivery list. 
+     * Must be called with the lock held.
+     */
+    private void drain(SenderState state, ArrayList<byte[]> deliveries) {
+        byte[] payload;
+        while((payload = state.pending.remove(state.nextExpected)) != null) {
+            deliveries.add(payload);
+            state.nextExpected++;
+        }
+    }
+    
+    /*
+     * Returns the range to NACK if the sender has a gap that has not been 
+     * NACKed recently. Must be called with the lock held.
+     */
+    private int[] nackRange(SenderState state, long now) {
+        if(!state.hasGap() || now - state.lastNackTime < nackIntervalMillis) {
+            return null;
+        }
+        state.lastNackTime = now;
+        nacksSent++;
+        return new int[] { state.nextExpected, state.gapEnd() };
+    }
+    
+    private void deliver(final String peerId, final ArrayList<byte[]> deliveries, final int numLost) {
+        if((deliveries.isEmpty() && numLost == 0) || executor.isShutdown()) {
+            return;
+        }
+        // Deliver on the module thread to keep the order of each sender
+        executor.execute(new Runnable() {
+            public void run() {
+                if(numLost > 0) {
+                    listener.messagesLost(peerId, numLost);
+                }
+                for(byte[] payload : deliveries) {
+                    listener.messageReceived(peerId, payload);
+                }
+            }
+        });
+    }
+    
+    private void sendNack(String peerId, int[] range) {
+        if(range == null) {
+            return;
+        }
+        ReliableBroadcastInterface emitter;
+        synchronized(this) {
+            if(bus == null) {
+                return;
+            }
+            emitter = new SignalEmitter(service, peerId, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(ReliableBroadcastInterface.class);
+        }
+        try {
+            emitter.Nack(range[0], range[1]);
+        } catch (BusException e) {
+            Log.e(TAG, "sendNack(): " + e.toString());
+        }
+    }
+    
+    private void repair() {
+        ArrayList<String> peers = new ArrayList<String>();
+        ArrayList<int[]> ranges = new ArrayList<int[]>();
+        ReliableBroadcastInterface emitter = null;
+        int first = 0;
+        int last = 0;
+        synchronized(this) {
+            if(bus == null) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            for(Map.Entry<String,SenderState> entry : senders.entrySet()) {
+                int[] range = nackRange(entry.getValue(), now);
+                if(range != null) {
+                    peers.add(entry.getKey());
+                    ranges.add(range);
+                }
+            }
+            // Announce the latest message so that receivers notice a lost tail
+            if(nextSequence > 0 && now - lastSendTime < nackIntervalMillis * SYNC_INTERVALS_AFTER_SEND) {
+                emitter = groupEmitter;
+                first = Math.max(0, nextSequence - bufferSize);
+                last = nextSequence - 1;
+            }
+        }
+        for(int i = 0; i < peers.size(); i++) {
+            sendNack(peers.get(i), ranges.get(i));
+        }
+        if(emitter != null) {
+            try {
+                emitter.Sync(first, last);
+            } catch (BusException e) {
+                Log.e(TAG, "repair(): " + e.toString());
+            }
+        }
+    }
+    
+    /*
+     * Gets the sender of the signal being handled, or null if it is not from
+     * another peer of the group. Must be called with the lock held.
+     */
+    private String getSender() {
+        if(bus == null) {
+            return null;
+        }
+        MessageContext context = bus.getMessageContext();
+        if(context.sessionId != sessionId || context.sender.equals(myPeerId)) {
+            return null;
+        }
+        return context.sender;
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Signal Handlers
+     *------------------------------------------------------------------------*/
+    @BusSignalHandler(iface = IFACE, signal = "Data")
+    public void Data(int sequence, byte[] payload) {
+        String peerId;
+        ArrayList<byte[]> deliveries = new ArrayList<byte[]>();
+        int[] range;
+        synchronized(this) {
+            peerId = getSender();
+            if(peerId == null) {
+                return;
+            }
+            SenderState state = senders.get(peerId);
+            if(state == null) {
+                state = new SenderState(sequence);
+                senders.put(peerId, state);
+            }
+            if(sequence < state.nextExpected || state.pending.containsKey(sequence)) {
+                duplicates++;
+                return;
+            }
+            // Drop messages too far ahead, they are NACKed again later
+            if(sequence - state.nextExpected < bufferSize) {
+                state.pending.put(sequence, payload);
+            }
+            state.highestKnown = Math.max(state.highestKnown, sequence);
+            drain(state, deliveries);
+            messagesDelivered += deliveries.size();
+            range = nackRange(state, System.currentTimeMillis());
+        }
+        deliver(peerId, deliveries, 0);
+        sendNack(peerId, range);
+    }
+    
+    @BusSignalHandler(iface = IFACE, signal = "Nack")
+    public void Nack(int first, int last) {
+        String peerId;
+        ArrayList<Integer> sequences = new ArrayList<Integer>();
+        ArrayList<byte[]> payloads = new ArrayList<byte[]>();
+        boolean gone;
+        int firstBuffered;
+        int lastSent;
+        ReliableBroadcastInterface emitter;
+        synchronized(this) {
+            peerId = getSender();
+            if(peerId == null) {
+                return;
+            }
+            firstBuffered = Math.max(0, nextSequence - bufferSize);
+            lastSent = nextSequence - 1;
+            gone = first < firstBuffered;
+            for(int sequence = Math.max(first, firstBuffered); sequence <= Math.min(last, lastSent); sequence++) {
+                sequences.add(sequence);
+                payloads.add(sendBuffer[sequence % bufferSize]);
+            }
+            retransmissions += sequences.size();
+            emitter = new SignalEmitter(service, peerId, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(ReliableBroadcastInterface.class);
+        }
+        try {
+            if(gone) {
+                emitter.Sync(firstBuffered, lastSent);
+            }
+            for(int i = 0; i < sequences.size(); i++) {
+                emitter.Data(sequences.get(i), payloads.get(i));
+            }
+        } catch (BusException e) {
+            Log.e(TAG, "Nack(): " + e.toString());
+        }
+    }
+    
+    @BusSignalHandler(iface = IFACE, signal = "Sync")
+    public void Sync(int first, int last) {
+        String peerId;
+        ArrayList<byte[]> deliveries = new ArrayList<byte[]>();
+        int numLost = 0;
+        int[] range;
+        synchronized(this) {
+            peerId = getSender();
+            if(peerId == null) {
+                return;
+            }
+            SenderState state = senders.get(peerId);
+            if(state == null) {
+                // Start with the next message of a sender we have not heard yet
+                senders.put(peerId, new SenderState(last + 1));
+                return;
+            }
+            if(state.nextExpected < first) {
+                // The sender no longer buffers the missing messages before 
+                // first, deliver the ones we have and skip the others
+                SortedMap<Integer,byte[]> received = state.pending.headMap(first);
+                numLost = first - state.nextExpected - received.size();
+                messagesLost += numLost;
+                deliveries.addAll(received.values());
+                received.clear();
+                state.nextExpected = first;
+                state.lastNackTime = 0;
+            }
+            state.highestKnown = Math.max(state.highestKnown, last);
+            drain(state, deliveries);
+            messagesDelivered += deliveries.size();
+            range = nackRange(state, System.currentTimeMillis());
+        }
+        deliver(peerId, deliveries, numLost);
+        sendNack(peerId, range);
+    }
+    
+    /*
+     * The bus object the signals are emitted from
+     */
+    private class ReliableBroadcastService implements ReliableBroadcastInterface, BusObject {
+        public void Data(int sequence, byte[] payload) {
+        }
+        
+        public void Nack(int first, int last) {
+        }
+        
+        public void Sync(int first, int last) {
+        }
+    }
+}
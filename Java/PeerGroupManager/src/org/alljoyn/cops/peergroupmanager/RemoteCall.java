@@ -0,0 +1,41 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import org.alljoyn.bus.BusException;
+
+/**
+ * The RemoteCall is passed to the scatterGather() method of the peer group
+ * manager to make the same remote method call on every peer of a group. It
+ * is run concurrently on several threads, once per peer.
+ * 
+ * @param <T>  the interface of the remote bus object
+ * @param <R>  the type of the result of the call
+ */
+public interface RemoteCall<T,R> {
+    
+    /**
+     * Called to make the remote method calls on the bus object of one peer.
+     * 
+     * @param peerId  the peer the proxy calls
+     * @param proxy   the proxy to the remote bus object of the peer
+     * @return  the result to report for the peer
+     * @throws BusException  if a remote method call failed
+     */
+    public R call(String peerId, T proxy) throws BusException;
+}
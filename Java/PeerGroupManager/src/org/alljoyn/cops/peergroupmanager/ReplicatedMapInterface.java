@@ -0,0 +1,49 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusSignal;
+
+/**
+ * The AllJoyn interface used by the ReplicatedMapModule.
+ */
+@BusInterface(name = "org.alljoyn.cops.peergroupmanager.ReplicatedMap")
+public interface ReplicatedMapInterface {
+    
+    /**
+     * Sent to the whole group with the entries written by the sender. The
+     * entries at the same index of the arrays form one entry.
+     */
+    @BusSignal
+    public void Delta(String[] keys, String[] values, boolean[] deleted, long[] versions) throws BusException;
+    
+    /**
+     * Sent directly to a peer to ask for all of its entries.
+     */
+    @BusSignal
+    public void SnapshotRequest() throws BusException;
+    
+    /**
+     * Sent directly to a peer that asked for a snapshot. Large snapshots are 
+     * split over several signals, the last of which is marked complete.
+     */
+    @BusSignal
+    public void Snapshot(String[] keys, String[] values, boolean[] deleted, long[] versions, String[] origins, boolean complete) throws BusException;
+}
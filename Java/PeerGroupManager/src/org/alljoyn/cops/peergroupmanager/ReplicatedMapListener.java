@@ -0,0 +1,43 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The ReplicatedMapListener is notified by a ReplicatedMapModule when other
+ * peers change the map. The call-backs are made on an AllJoyn thread, so 
+ * they should return quickly.
+ */
+public interface ReplicatedMapListener {
+    
+    /**
+     * Called when an entry was changed by another peer.
+     * 
+     * @param key     the key of the entry
+     * @param value   the new value, or null if the entry was removed
+     * @param peerId  the peer that made the change
+     */
+    public void entryChanged(String key, String value, String peerId);
+    
+    /**
+     * Called when the snapshot requested from another peer has been 
+     * completely received.
+     * 
+     * @param peerId  the peer that sent the snapshot
+     */
+    public void snapshotReceived(String peerId);
+}
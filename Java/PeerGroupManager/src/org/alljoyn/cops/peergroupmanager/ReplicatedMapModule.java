@@ -0,0 +1,604 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.MessageContext;
+import org.alljoyn.bus.SignalEmitter;
+import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+
+/**
+ * The ReplicatedMapModule keeps a string map replicated on every peer of a 
+ * group. Reads are served from the local copy. Writes are applied locally 
+ * and sent to the group as deltas that only carry the changed entries.
+ * Every entry carries a version taken from a logical clock that each peer 
+ * advances past any version it has seen, and concurrent writes of the same
+ * key are resolved by keeping the highest version, then the highest peer id,
+ * so all peers converge to the same map whatever order the deltas arrive in.
+ * Removed entries are kept as tombstones so that an older write cannot bring
+ * them back. Tombstones are dropped once they are older than a maximum age,
+ * which must stay well above the time a delta can take to reach every peer.
+ * A peer that joins a group that already has state asks the group host for 
+ * a snapshot of the map when the module is registered, and asks again until
+ * the snapshot arrives. Deltas that arrive while the snapshot is on its way 
+ * are merged the same way, so no catch-up ordering is needed.
+ * NOTE: Every peer of the group must register the module with 
+ * PeerGroupManager.registerModule() after the group has a session.
+ */
+public class ReplicatedMapModule implements PGLifecycleModule {
+    private static final String TAG = "ReplicatedMapModule";
+    private static final String IFACE = "org.alljoyn.cops.peergroupmanager.ReplicatedMap";
+    
+    /** The default age after which tombstones are dropped. */
+    public static final long DEFAULT_TOMBSTONE_MAX_AGE_MILLIS = 5 * 60 * 1000;
+    
+    // Maximum number of entries sent in a single snapshot signal
+    private static final int SNAPSHOT_BATCH_SIZE = 256;
+    // Ask again for a snapshot that has not arrived after this long
+    private static final long SNAPSHOT_RETRY_MILLIS = 2000;
+    private static final long TICK_MILLIS = 1000;
+    
+    private final ReplicatedMapListener listener;
+    private volatile long tombstoneMaxAgeMillis = DEFAULT_TOMBSTONE_MAX_AGE_MILLIS;
+    
+    private final ReplicatedMapService service = new ReplicatedMapService();
+    private final HashMap<String,Entry> entries = new HashMap<String,Entry>();
+    private BusAttachment bus;
+    private int sessionId = -1;
+    private String myPeerId;
+    private ReplicatedMapInterface groupEmitter;
+    // The logical clock used to version local writes
+    private long clock = 0;
+    private int liveEntries = 0;
+    private long deltasSent = 0;
+    private long deltasReceived = 0;
+    // The peer a snapshot was asked from until it has arrived
+    private String snapshotPeer = null;
+    private long snapshotRequestTime = 0;
+    
+    // Drops old tombstones and asks again for missing snapshots while the 
+    // module is registered
+    private ScheduledExecutorService executor = null;
+    
+    private static class Entry {
+        final String value;
+        final long version;
+        final String origin;
+        // When this peer learnt of the entry, for the age of tombstones
+        final long time = System.currentTimeMillis();
+        
+        Entry(String value, long version, String origin) {
+            this.value = value;
+            this.version = version;
+            this.origin = origin;
+        }
+        
+        boolean isNewerThan(Entry entry) {
+            if(entry == null || version != entry.version) {
+                return entry == null || version > entry.version;
+            }
+            return origin.compareTo(entry.origin) > 0;
+        }
+    }
+    
+    /**
+     * Constructs a ReplicatedMapModule.
+     * 
+     * @param listener  the listener to notify of changes made by other 
+     *                  peers. This can be null.
+     */
+    public ReplicatedMapModule(ReplicatedMapListener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * setTombstoneMaxAgeMillis
+     * sets how long removed entries are kept as tombstones. A delta older 
+     * than a dropped tombstone brings the entry back, so the age must be 
+     * much longer than a delta can be on its way.
+     * 
+     * @param tombstoneMaxAgeMillis  the maximum age in milliseconds
+     */
+    public void setTombstoneMaxAgeMillis(long tombstoneMaxAgeMillis) {
+        if(tombstoneMaxAgeMillis <= 0) {
+            throw new IllegalArgumentException("Invalid age");
+        }
+        this.tombstoneMaxAgeMillis = tombstoneMaxAgeMillis;
+    }
+    
+    /**
+     * register
+     * registers the bus object and signal handlers of the module on the bus
+     * attachment of the group.
+     */
+    @Override
+    public synchronized Status register(BusAttachment bus, int sessionId) {
+        if(bus == null || sessionId == -1) {
+            Log.e(TAG, "register(): The group has no session");
+            return Status.FAIL;
+        }
+        if(this.bus != null) {
+            Log.e(TAG, "register(): Already registered");
+            return Status.FAIL;
+        }
+        Status status = bus.registerBusObject(service, "/ReplicatedMap/s" + (sessionId & 0xffffffffL));
+        if(status != Status.OK) {
+            return status;
+        }
+        status = bus.registerSignalHandlers(this);
+        if(status != Status.OK) {
+            bus.unregisterBusObject(service);
+            return status;
+        }
+        this.bus = bus;
+        this.sessionId = sessionId;
+        this.myPeerId = bus.getUniqueName();
+        this.groupEmitter = new SignalEmitter(service, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                .getInterface(ReplicatedMapInterface.class);
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                return new Thread(r, TAG);
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                tick();
+            }
+        }, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        return Status.OK;
+    }
+    
+    /**
+     * unregister
+     * removes the module from the bus attachment and stops asking for a 
+     * missing snapshot. The local copy of the map can still be read 
+     * afterwards.
+     */
+    @Override
+    public synchronized void unregister() {
+        if(executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        snapshotPeer = null;
+        if(bus != null) {
+            bus.unregisterSignalHandlers(this);
+            bus.unregisterBusObject(service);
+            bus = null;
+        }
+    }
+    
+    /**
+     * groupJoined
+     * asks the host of the joined group for a snapshot of the map.
+     */
+    @Override
+    public void groupJoined(String hostPeerId) {
+        requestSnapshot(hostPeerId);
+    }
+    
+    /**
+     * removePeer
+     * stops asking a peer that left the group for a snapshot. The entries 
+     * the peer wrote stay in the map.
+     */
+    @Override
+    public synchronized void removePeer(String peerId) {
+        if(peerId.equals(snapshotPeer)) {
+            snapshotPeer = null;
+        }
+    }
+    
+    /**
+     * requestSnapshot
+     * asks a peer of the group for all of its entries, and asks again until
+     * they have all arrived. This is done automatically with the group host
+     * when the module is registered on a joined group.
+     * 
+     * @param peerId  the peer to get the snapshot from
+     * @return  OK if the request was sent
+     */
+    public Status requestSnapshot(String peerId) {
+        synchronized(this) {
+            if(bus == null || peerId == null || peerId.equals(myPeerId)) {
+                return Status.FAIL;
+            }
+            snapshotPeer = peerId;
+        }
+        return sendSnapshotRequest(peerId);
+    }
+    
+    /**
+     * getTombstoneCount
+     * gets the number of removed entries that are still kept as tombstones.
+     * 
+     * @return  the number of tombstones
+     */
+    public synchronized int getTombstoneCount() {
+        return entries.size() - liveEntries;
+    }
+    
+    private Status sendSnapshotRequest(String peerId) {
+        ReplicatedMapInterface emitter;
+        synchronized(this) {
+            if(bus == null) {
+                return Status.FAIL;
+            }
+            snapshotRequestTime = System.currentTimeMillis();
+            emitter = new SignalEmitter(service, peerId, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(ReplicatedMapInterface.class);
+        }
+        try {
+            emitter.SnapshotRequest();
+        } catch (BusException e) {
+            Log.e(TAG, "sendSnapshotRequest(): " + e.toString());
+            return Status.FAIL;
+        }
+        return Status.OK;
+    }
+    
+    /**
+     * get
+     * reads an entry from the local copy of the map.
+     * 
+     * @param key  the key of the entry
+     * @return  the value of the entry, or null if there is none
+     */
+    public synchronized String get(String key) {
+        Entry entry = entries.get(key);
+        return (entry == null) ? null : entry.value;
+    }
+    
+    /**
+     * containsKey
+     * checks the local copy of the map for an entry.
+     * 
+     * @param key  the key of the entry
+     * @return  true if the map has a value for the key
+     */
+    public synchronized boolean containsKey(String key) {
+        return get(key) != null;
+    }
+    
+    /**
+     * size
+     * counts the entries of the local copy of the map.
+     * 
+     * @return  the number of entries, not counting removed ones
+     */
+    public synchronized int size() {
+        return liveEntries;
+    }
+    
+    /**
+     * getAll
+     * copies the local copy of the map.
+     * 
+     * @return  a map of all the entries
+     */
+    public synchronized HashMap<String,String> getAll() {
+        HashMap<String,String> copy = new HashMap<String,String>(liveEntries * 2);
+        for(Map.Entry<String,Entry> entry : entries.entrySet()) {
+            if(entry.getValue().value != null) {
+                copy.put(entry.getKey(), entry.getValue().value);
+            }
+        }
+        return copy;
+    }
+    
+    /**
+     * put
+     * sets an entry and sends the change to the group.
+     * 
+     * @param key    the key of the entry
+     * @param value  the value of the entry
+     * @return  OK if the change was sent to the group
+     */
+    public Status put(String key, String value) {
+        if(value == null) {
+            throw new IllegalArgumentException("Invalid value");
+        }
+        HashMap<String,String> changes = new HashMap<String,String>();
+        changes.put(key, value);
+        return write(changes);
+    }
+    
+    /**
+     * putAll
+     * sets several entries and sends the changes to the group in a single 
+     * delta.
+     * 
+     * @param values  the entries to set
+     * @return  OK if the changes were sent to the group
+     */
+    public Status putAll(Map<String,String> values) {
+        if(values.containsValue(null)) {
+            throw new IllegalArgumentException("Invalid value");
+        }
+        return write(values);
+    }
+    
+    /**
+     * remove
+     * removes an entry and sends the change to the group.
+     * 
+     * @param key  the key of the entry
+     * @return  OK if the change was sent to the group
+     */
+    public Status remove(String key) {
+        HashMap<String,String> changes = new HashMap<String,String>();
+        changes.put(key, null);
+        return write(changes);
+    }
+    
+    /**
+     * Get the number of deltas sent to the group.
+     * 
+     * @return the number of deltas sent
+     */
+    public synchronized long getDeltasSent() {
+        return deltasSent;
+    }
+    
+    /**
+     * Get the number of deltas received from other peers.
+     * 
+     * @return the number of deltas received
+     */
+    public synchronized long getDeltasReceived() {
+        return deltasReceived;
+    }
+    
+    private Status write(Map<String,String> changes) {
+        int size = changes.size();
+        String[] keys = new String[size];
+        String[] values = new String[size];
+        boolean[] deleted = new boolean[size];
+        long[] versions = new long[size];
+        ReplicatedMapInterface emitter;
+        synchronized(this) {
+            if(bus == null) {
+                return Status.FAIL;
+            }
+            int i = 0;
+            for(Map.Entry<String,String> change : changes.entrySet()) {
+                if(change.getKey() == null) {
+                    throw new IllegalArgumentException("Invalid key");
+                }
+                Entry entry = new Entry(change.getValue(), ++clock, myPeerId);
+                apply(change.getKey(), entry);
+                keys[i] = change.getKey();
+                // AllJoyn cannot marshal null strings
+                values[i] = (entry.value == null) ? "" : entry.value;
+                deleted[i] = (entry.value == null);
+                versions[i] = entry.version;
+                i++;
+            }
+            emitter = groupEmitter;
+        }
+        try {
+            emitter.Delta(keys, values, deleted, versions);
+            synchronized(this) {
+                deltasSent++;
+            }
+        } catch (BusException e) {
+            Log.e(TAG, "write(): " + e.toString());
+            return Status.FAIL;
+        }
+        return Status.OK;
+    }
+    
+    /*
+     * Applies an entry if it wins over the local one. Must be called with 
+     * the lock held.
+     */
+    private boolean apply(String key, Entry entry) {
+        clock = Math.max(clock, entry.version);
+        Entry current = entries.get(key);
+        if(!entry.isNewerThan(current)) {
+            return false;
+        }
+        if(current != null && current.value != null) {
+            liveEntries--;
+        }
+        if(entry.value != null) {
+            liveEntries++;
+        }
+        entries.put(key, entry);
+        return true;
+    }
+    
+    private void merge(String[] keys, String[] values, boolean[] deleted, long[] versions, String[] origins) {
+        ArrayList<String> changedKeys = new ArrayList<String>();
+        ArrayList<Entry> changedEntries = new ArrayList<Entry>();
+        synchronized(this) {
+            for(int i = 0; i < keys.length; i++) {
+                Entry entry = new Entry(deleted[i] ? null : values[i], versions[i], origins[i]);
+                if(apply(keys[i], entry)) {
+                    changedKeys.add(keys[i]);
+                    changedEntries.add(entry);
+                }
+            }
+        }
+        // Notify without holding the lock
+        if(listener != null) {
+            for(int i = 0; i < changedKeys.size(); i++) {
+                listener.entryChanged(changedKeys.get(i), changedEntries.get(i).value, changedEntries.get(i).origin);
+            }
+        }
+    }
+    
+    /**
+     * tick
+     * drops the tombstones older than the maximum age and asks again for a 
+     * snapshot that has not arrived.
+     */
+    private void tick() {
+        long now = System.currentTimeMillis();
+        String peerId = null;
+        synchronized(this) {
+            if(entries.size() > liveEntries) {
+                Iterator<Entry> iterator = entries.values().iterator();
+                while(iterator.hasNext()) {
+                    Entry entry = iterator.next();
+                    if(entry.value == null && now - entry.time >= tombstoneMaxAgeMillis) {
+                        iterator.remove();
+                    }
+                }
+            }
+            if(snapshotPeer != null && now - snapshotRequestTime >= SNAPSHOT_RETRY_MILLIS) {
+                peerId = snapshotPeer;
+            }
+        }
+        if(peerId != null) {
+            Log.i(TAG, "tick(): Asking " + peerId + " again for a snapshot");
+            sendSnapshotRequest(peerId);
+        }
+    }
+    
+    private void sendSnapshot(String peerId) {
+        ArrayList<String> keys = new ArrayList<String>();
+        ArrayList<Entry> snapshot = new ArrayList<Entry>();
+        ReplicatedMapInterface emitter;
+        synchronized(this) {
+            if(bus == null) {
+                return;
+            }
+            for(Map.Entry<String,Entry> entry : entries.entrySet()) {
+                keys.add(entry.getKey());
+                snapshot.add(entry.getValue());
+            }
+            emitter = new SignalEmitter(service, peerId, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(ReplicatedMapInterface.class);
+        }
+        int start = 0;
+        do {
+            int size = Math.min(SNAPSHOT_BATCH_SIZE, keys.size() - start);
+            String[] batchKeys = new String[size];
+            String[] values = new String[size];
+            boolean[] deleted = new boolean[size];
+            long[] versions = new long[size];
+            String[] origins = new String[size];
+            for(int i = 0; i < size; i++) {
+                Entry entry = snapshot.get(start + i);
+                batchKeys[i] = keys.get(start + i);
+                values[i] = (entry.value == null) ? "" : entry.value;
+                deleted[i] = (entry.value == null);
+                versions[i] = entry.version;
+                origins[i] = entry.origin;
+            }
+            start += size;
+            try {
+                emitter.Snapshot(batchKeys, values, deleted, versions, origins, start >= keys.size());
+            } catch (BusException e) {
+                Log.e(TAG, "sendSnapshot(): " + e.toString());
+                return;
+            }
+        } while(start < keys.size());
+    }
+    
+    /*
+     * Gets the sender of the signal being handled, or null if it is not from
+     * another peer of the group.
+     */
+    private synchronized String getSender() {
+        if(bus == null) {
+            return null;
+        }
+        MessageContext context = bus.getMessageContext();
+        if(context.sessionId != sessionId || context.sender.equals(myPeerId)) {
+            return null;
+        }
+        return context.sender;
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Signal Handlers
+     *------------------------------------------------------------------------*/
+    @BusSignalHandler(iface = IFACE, signal = "Delta")
+    public void Delta(String[] keys, String[] values, boolean[] deleted, long[] versions) {
+        String peerId = getSender();
+        if(peerId == null) {
+            return;
+        }
+        synchronized(this) {
+            deltasReceived++;
+        }
+        String[] origins = new String[keys.length];
+        for(int i = 0; i < origins.length; i++) {
+            origins[i] = peerId;
+        }
+        merge(keys, values, deleted, versions, origins);
+    }
+    
+    @BusSignalHandler(iface = IFACE, signal = "SnapshotRequest")
+    public void SnapshotRequest() {
+        String peerId = getSender();
+        if(peerId != null) {
+            sendSnapshot(peerId);
+        }
+    }
+    
+    @BusSignalHandler(iface = IFACE, signal = "Snapshot")
+    public void Snapshot(String[] keys, String[] values, boolean[] deleted, long[] versions, String[] origins, boolean complete) {
+        String peerId = getSender();
+        if(peerId == null) {
+            return;
+        }
+        merge(keys, values, deleted, versions, origins);
+        if(!complete) {
+            return;
+        }
+        synchronized(this) {
+            if(peerId.equals(snapshotPeer)) {
+                snapshotPeer = null;
+            }
+        }
+        if(listener != null) {
+            listener.snapshotReceived(peerId);
+        }
+    }
+    
+    /*
+     * The bus object the signals are emitted from
+     */
+    private class ReplicatedMapService implements ReplicatedMapInterface, BusObject {
+        public void Delta(String[] keys, String[] values, boolean[] deleted, long[] versions) {
+        }
+        
+        public void SnapshotRequest() {
+        }
+        
+        public void Snapshot(String[] keys, String[] values, boolean[] deleted, long[] versions, String[] origins, boolean complete) {
+        }
+    }
+}
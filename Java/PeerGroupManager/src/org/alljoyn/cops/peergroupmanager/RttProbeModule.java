@@ -0,0 +1,252 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.MessageContext;
+import org.alljoyn.bus.SignalEmitter;
+import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+
+/**
+ * The RttProbeModule measures the round trip time to every peer of a group.
+ * At a fixed rate it sends a small probe signal to the whole group, and every
+ * peer running the module echoes it straight back. The round trip times of 
+ * each peer are kept in an RttStats histogram.
+ * NOTE: Every peer of the group must register the module to answer probes.
+ * Register it with PeerGroupManager.registerModule() after the group has a 
+ * session; the manager then reports its measurements through 
+ * getPeerRttStats() and uses them to pick the join transport when measured 
+ * round trip times are enabled.
+ */
+public class RttProbeModule implements PGLifecycleModule {
+    private static final String TAG = "RttProbeModule";
+    private static final String IFACE = "org.alljoyn.cops.peergroupmanager.RttProbe";
+    // Echoes older than this are ignored
+    private static final long MAX_RTT_NANOS = 60L * 1000 * 1000 * 1000;
+    
+    private final long intervalMillis;
+    private final RttProbeService service = new RttProbeService();
+    private final HashMap<String,RttStats> peerStats = new HashMap<String,RttStats>();
+    
+    private BusAttachment bus;
+    private int sessionId = -1;
+    private RttProbeInterface groupEmitter;
+    private int sequence = 0;
+    
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        }
+    });
+    
+    /**
+     * Constructs an RttProbeModule.
+     * 
+     * @param intervalMillis  the time between two probes
+     */
+    public RttProbeModule(long intervalMillis) {
+        if(intervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid probe interval");
+        }
+        this.intervalMillis = intervalMillis;
+    }
+    
+    /**
+     * register
+     * registers the bus object and signal handlers of the module on the bus
+     * attachment of the group and starts probing.
+     */
+    @Override
+    public synchronized Status register(BusAttachment bus, int sessionId) {
+        if(bus == null || sessionId == -1) {
+            Log.e(TAG, "register(): The group has no session");
+            return Status.FAIL;
+        }
+        if(this.bus != null) {
+            Log.e(TAG, "register(): Already registered");
+            return Status.FAIL;
+        }
+        Status status = bus.registerBusObject(service, "/RttProbe/s" + (sessionId & 0xffffffffL));
+        if(status != Status.OK) {
+            return status;
+        }
+        status = bus.registerSignalHandlers(this);
+        if(status != Status.OK) {
+            bus.unregisterBusObject(service);
+            return status;
+        }
+        this.bus = bus;
+        this.sessionId = sessionId;
+        this.groupEmitter = new SignalEmitter(service, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                .getInterface(RttProbeInterface.class);
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                probe();
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+        return Status.OK;
+    }
+    
+    /**
+     * unregister
+     * stops probing and removes the module from the bus attachment. The 
+     * module cannot be registered again afterwards.
+     */
+    @Override
+    public synchronized void unregister() {
+        executor.shutdownNow();
+        if(bus != null) {
+            bus.unregisterSignalHandlers(this);
+            bus.unregisterBusObject(service);
+            bus = null;
+        }
+    }
+    
+    /**
+     * getRttStats
+     * gets the round trip times measured to a peer.
+     * 
+     * @param peerId  the peer to get the round trip times of
+     * @return  a snapshot of the round trip times, or null if no probe to 
+     *          the peer has been answered
+     */
+    public synchronized RttStats getRttStats(String peerId) {
+        RttStats stats = peerStats.get(peerId);
+        return (stats == null) ? null : new RttStats(stats);
+    }
+    
+    /**
+     * getRttStats
+     * gets the round trip times measured to all of the peers together.
+     * 
+     * @return  a snapshot of the round trip times of all peers
+     */
+    public synchronized RttStats getRttStats() {
+        RttStats all = new RttStats();
+        for(RttStats stats : peerStats.values()) {
+            all.merge(stats);
+        }
+        return all;
+    }
+    
+    /**
+     * groupJoined
+     * does nothing, as the whole group is probed at a fixed interval.
+     */
+    @Override
+    public void groupJoined(String hostPeerId) {
+    }
+    
+    /**
+     * removePeer
+     * forgets the round trip times measured to a peer, for example after it
+     * left the group.
+     * 
+     * @param peerId  the peer to forget
+     */
+    @Override
+    public synchronized void removePeer(String peerId) {
+        peerStats.remove(peerId);
+    }
+    
+    private void probe() {
+        RttProbeInterface emitter;
+        int probeSequence;
+        synchronized(this) {
+            if(bus == null) {
+                return;
+            }
+            emitter = groupEmitter;
+            probeSequence = sequence++;
+        }
+        try {
+            emitter.Probe(probeSequence, System.nanoTime());
+        } catch (BusException e) {
+            Log.e(TAG, "probe(): " + e.toString());
+        }
+    }
+    
+    /*------------------------------------------------------------------------*
+     * Signal Handlers
+     *------------------------------------------------------------------------*/
+    @BusSignalHandler(iface = IFACE, signal = "Probe")
+    public void Probe(int sequence, long sentNanos) {
+        RttProbeInterface emitter;
+        synchronized(this) {
+            if(bus == null) {
+                return;
+            }
+            MessageContext context = bus.getMessageContext();
+            if(context.sessionId != sessionId || context.sender.equals(bus.getUniqueName())) {
+                return;
+            }
+            emitter = new SignalEmitter(service, context.sender, sessionId, SignalEmitter.GlobalBroadcast.Off)
+                    .getInterface(RttProbeInterface.class);
+        }
+        try {
+            // The timestamp is only meaningful to the prober so echo it unchanged
+            emitter.Echo(sequence, sentNanos);
+        } catch (BusException e) {
+            Log.e(TAG, "Probe(): " + e.toString());
+        }
+    }
+    
+    @BusSignalHandler(iface = IFACE, signal = "Echo")
+    public void Echo(int sequence, long sentNanos) {
+        long rttNanos = System.nanoTime() - sentNanos;
+        synchronized(this) {
+            if(bus == null) {
+                return;
+            }
+            MessageContext context = bus.getMessageContext();
+            if(context.sessionId != sessionId || rttNanos < 0 || rttNanos > MAX_RTT_NANOS) {
+                return;
+            }
+            RttStats stats = peerStats.get(context.sender);
+            if(stats == null) {
+                stats = new RttStats();
+                peerStats.put(context.sender, stats);
+            }
+            stats.record(rttNanos / 1000);
+        }
+    }
+    
+    /*
+     * The bus object the signals are emitted from
+     */
+    private class RttProbeService implements RttProbeInterface, BusObject {
+        public void Probe(int sequence, long sentNanos) {
+        }
+        
+        public void Echo(int sequence, long sentNanos) {
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * This class is returned by the RttProbeModule and the getPeerRttStats() 
+ * method of the peer group manager. It is a snapshot of the round trip 
+ * times measured to a peer, kept in a histogram with logarithmic buckets so
+ * that percentiles are accurate to within about 12%.
+ */
+public class RttStats {
+    // Eight buckets per power of two
+    private static final int SUB_BUCKETS = 8;
+    private static final int NUM_BUCKETS = 256;
+    
+    private final long[] buckets;
+    private long count;
+    private long totalMicros;
+    private long minMicros = Long.MAX_VALUE;
+    private long maxMicros;
+    private long lastMicros = -1;
+    private double jitterMicros;
+    
+    RttStats() {
+        buckets = new long[NUM_BUCKETS];
+    }
+    
+    RttStats(RttStats stats) {
+        buckets = new long[NUM_BUCKETS];
+        merge(stats);
+        this.lastMicros = stats.lastMicros;
+        this.jitterMicros = stats.jitterMicros;
+    }
+    
+    void record(long rttMicros) {
+        rttMicros = Math.max(0, rttMicros);
+        buckets[bucketOf(rttMicros)]++;
+        count++;
+        totalMicros += rttMicros;
+        minMicros = Math.min(minMicros, rttMicros);
+        maxMicros = Math.max(maxMicros, rttMicros);
+        // Smoothed variation between consecutive samples as in RFC 3550
+        if(lastMicros >= 0) {
+            jitterMicros += (Math.abs(rttMicros - lastMicros) - jitterMicros) / 16;
+        }
+        lastMicros = rttMicros;
+    }
+    
+    void merge(RttStats stats) {
+        for(int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] += stats.buckets[i];
+        }
+        count += stats.count;
+        totalMicros += stats.totalMicros;
+        minMicros = Math.min(minMicros, stats.minMicros);
+        maxMicros = Math.max(maxMicros, stats.maxMicros);
+        jitterMicros = Math.max(jitterMicros, stats.jitterMicros);
+    }
+    
+    private static int bucketOf(long micros) {
+        if(micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) ((micros >> (exponent - 3)) & (SUB_BUCKETS - 1));
+        return Math.min(NUM_BUCKETS - 1, (exponent - 2) * SUB_BUCKETS + sub);
+    }
+    
+    private static long bucketMidpoint(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + 2;
+        long low = ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << (exponent - 3);
+        return low + (1L << (exponent - 3)) / 2;
+    }
+    
+    /**
+     * Get the number of round trip times measured.
+     * 
+     * @return the number of samples
+     */
+    public long getCount() {
+        return count;
+    }
+    
+    /**
+     * Get the lowest round trip time.
+     * 
+     * @return the minimum in microseconds, or 0 if there are no samples
+     */
+    public long getMinMicros() {
+        return count == 0 ? 0 : minMicros;
+    }
+    
+    /**
+     * Get the highest round trip time.
+     * 
+     * @return the maximum in microseconds
+     */
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+    
+    /**
+     * Get the average round trip time.
+     * 
+     * @return the mean in microseconds, or 0 if there are no samples
+     */
+    public long getMeanMicros() {
+        return count == 0 ? 0 : totalMicros / count;
+    }
+    
+    /**
+     * Get the most recent round trip time.
+     * 
+     * @return the last sample in microseconds, or -1 if there are no samples
+     */
+    public long getLastMicros() {
+        return lastMicros;
+    }
+    
+    /**
+     * Get the smoothed variation between consecutive round trip times.
+     * 
+     * @return the jitter in microseconds
+     */
+    public long getJitterMicros() {
+        return (long) jitterMicros;
+    }
+    
+    /**
+     * Get a percentile of the round trip times.
+     * 
+     * @param percentile  the percentile to get, between 0 and 100
+     * @return the round trip time in microseconds below which the given 
+     *         percentage of samples fall, or 0 if there are no samples
+     */
+    public long getPercentileMicros(double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * count);
+        rank = Math.max(1, rank);
+        long seen = 0;
+        for(int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets[i];
+            if(seen >= rank) {
+                return Math.max(getMinMicros(), Math.min(maxMicros, bucketMidpoint(i)));
+            }
+        }
+        return maxMicros;
+    }
+}
@@ -0,0 +1,133 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class is returned by the scatterGather() method of the peer group 
+ * manager. It holds the results of the peers that answered before the 
+ * deadline, the errors of the peers whose call failed, the peers that did
+ * not answer in time and the latency of each call.
+ * 
+ * @param <R>  the type of the result of the call
+ */
+public class ScatterGatherResult<R> {
+    private final ArrayList<String> peers;
+    private final HashMap<String,R> results = new HashMap<String,R>();
+    private final HashMap<String,Exception> errors = new HashMap<String,Exception>();
+    private final HashMap<String,Long> latencies = new HashMap<String,Long>();
+    private final ArrayList<String> timedOut = new ArrayList<String>();
+    private long elapsedMillis = 0;
+    // Set at the deadline; calls finishing later are not recorded
+    private boolean closed = false;
+    
+    ScatterGatherResult(ArrayList<String> peers) {
+        this.peers = new ArrayList<String>(peers);
+    }
+    
+    synchronized void succeeded(String peerId, R result, long latencyNanos) {
+        if(!closed) {
+            results.put(peerId, result);
+            latencies.put(peerId, latencyNanos / 1000);
+        }
+    }
+    
+    synchronized void failed(String peerId, Exception error, long latencyNanos) {
+        if(!closed) {
+            errors.put(peerId, error);
+            latencies.put(peerId, latencyNanos / 1000);
+        }
+    }
+    
+    synchronized void close(long elapsedMillis) {
+        closed = true;
+        this.elapsedMillis = elapsedMillis;
+        for(String peerId : peers) {
+            if(!latencies.containsKey(peerId)) {
+                timedOut.add(peerId);
+            }
+        }
+    }
+    
+    /**
+     * Get the peers the call was made on.
+     * 
+     * @return a list of the PeerIds of the peers of the group other than you
+     */
+    public synchronized ArrayList<String> getPeers() {
+        return new ArrayList<String>(peers);
+    }
+    
+    /**
+     * Get the results of the peers whose call succeeded before the deadline.
+     * 
+     * @return the results keyed by PeerId
+     */
+    public synchronized HashMap<String,R> getResults() {
+        return new HashMap<String,R>(results);
+    }
+    
+    /**
+     * Get the errors of the peers whose call failed before the deadline.
+     * 
+     * @return the exceptions thrown by the calls keyed by PeerId
+     */
+    public synchronized HashMap<String,Exception> getErrors() {
+        return new HashMap<String,Exception>(errors);
+    }
+    
+    /**
+     * Get the peers whose call had not finished at the deadline.
+     * 
+     * @return a list of the PeerIds of the peers that did not answer in time
+     */
+    public synchronized ArrayList<String> getTimedOut() {
+        return new ArrayList<String>(timedOut);
+    }
+    
+    /**
+     * Get the latency of the call to each peer that finished before the 
+     * deadline, whether it succeeded or failed.
+     * 
+     * @return the latencies in microseconds keyed by PeerId
+     */
+    public synchronized HashMap<String,Long> getLatencyMicros() {
+        return new HashMap<String,Long>(latencies);
+    }
+    
+    /**
+     * Get the time between the start of the calls and the last of them 
+     * finishing or the deadline.
+     * 
+     * @return the total time in milliseconds
+     */
+    public synchronized long getElapsedMillis() {
+        return elapsedMillis;
+    }
+    
+    /**
+     * Get a flag denoting whether every peer answered before the deadline.
+     * 
+     * @return true if every call succeeded, false if any failed or timed out
+     */
+    public synchronized boolean isComplete() {
+        return closed && results.size() == peers.size();
+    }
+}
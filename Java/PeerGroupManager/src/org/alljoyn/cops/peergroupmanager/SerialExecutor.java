@@ -0,0 +1,106 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+import android.util.Log;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The SerialExecutor runs its tasks one at a time and in order on a shared 
+ * executor, so that the tasks of one group keep their order while the tasks 
+ * of different groups run in parallel on the threads of the shared executor.
+ */
+class SerialExecutor implements Executor {
+    private static final String TAG = "SerialExecutor";
+    
+    private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+    private volatile Executor executor;
+    // Whether a drain task is submitted to the shared executor
+    private boolean draining = false;
+    // The number of tasks dropped because the shared executor rejected them
+    private long droppedTasks = 0;
+    
+    private final Runnable drainTask = new Runnable() {
+        public void run() {
+            drain();
+        }
+    };
+    
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * setExecutor
+     * changes the shared executor the next tasks run on.
+     */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * getDroppedTasks
+     * gets the number of tasks dropped because the shared executor rejected
+     * them.
+     */
+    synchronized long getDroppedTasks() {
+        return droppedTasks;
+    }
+    
+    /*
+     * Queues the task. If the shared executor rejects the drain, only this 
+     * task is dropped; the tasks queued before it are kept and run with the
+     * next task that is accepted.
+     */
+    @Override
+    public synchronized void execute(Runnable task) {
+        tasks.add(task);
+        if(!draining) {
+            draining = true;
+            try {
+                executor.execute(drainTask);
+            } catch (RejectedExecutionException e) {
+                draining = false;
+                tasks.removeLast();
+                droppedTasks++;
+                Log.e(TAG, "execute(): " + e + " - " + droppedTasks + " tasks dropped");
+            }
+        }
+    }
+    
+    private void drain() {
+        while(true) {
+            Runnable task;
+            synchronized(this) {
+                if(tasks.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                task = tasks.removeFirst();
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "drain(): " + e);
+            }
+        }
+    }
+}
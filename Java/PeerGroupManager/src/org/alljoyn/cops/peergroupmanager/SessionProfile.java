@@ -0,0 +1,133 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+import org.alljoyn.bus.SessionOpts;
+
+/**
+ * The SessionProfile describes the kind of AllJoyn session a group is hosted
+ * or joined with. Groups use MULTIPOINT_MESSAGES unless another profile is
+ * given to createGroup() or joinGroup().
+ * NOTE: Raw sessions do not carry AllJoyn messages, so bus objects, signals
+ * and modules cannot be used over them. Raw sessions are always point to 
+ * point; see PeerGroupManager.getRawSessionChannel().
+ */
+public class SessionProfile {
+    /**
+     * Message based multipoint session used by default for all groups.
+     */
+    public static final SessionProfile MULTIPOINT_MESSAGES = new SessionProfile(SessionOpts.TRAFFIC_MESSAGES, 
+            true, SessionOpts.PROXIMITY_ANY, SessionOpts.TRANSPORT_ANY);
+    
+    /**
+     * Message based session between the host and a single joiner.
+     */
+    public static final SessionProfile POINT_TO_POINT_MESSAGES = new SessionProfile(SessionOpts.TRAFFIC_MESSAGES, 
+            false, SessionOpts.PROXIMITY_ANY, SessionOpts.TRANSPORT_ANY);
+    
+    /**
+     * Reliable raw byte stream between the host and a single joiner, for 
+     * moving bulk data without AllJoyn marshalling.
+     */
+    public static final SessionProfile POINT_TO_POINT_RAW_RELIABLE = new SessionProfile(SessionOpts.TRAFFIC_RAW_RELIABLE, 
+            false, SessionOpts.PROXIMITY_ANY, SessionOpts.TRANSPORT_ANY);
+    
+    private final byte traffic;
+    private final boolean isMultipoint;
+    private final byte proximity;
+    private final short transports;
+    
+    /**
+     * Constructs a SessionProfile.
+     * 
+     * @param traffic       the SessionOpts traffic type
+     * @param isMultipoint  true for a multipoint session
+     * @param proximity     the SessionOpts proximity
+     * @param transports    the SessionOpts transports to allow
+     */
+    public SessionProfile(byte traffic, boolean isMultipoint, byte proximity, short transports) {
+        if(traffic != SessionOpts.TRAFFIC_MESSAGES && traffic != SessionOpts.TRAFFIC_RAW_RELIABLE 
+                && traffic != SessionOpts.TRAFFIC_RAW_UNRELIABLE) {
+            throw new IllegalArgumentException("Invalid traffic type");
+        }
+        if(traffic != SessionOpts.TRAFFIC_MESSAGES && isMultipoint) {
+            throw new IllegalArgumentException("Raw sessions cannot be multipoint");
+        }
+        if(transports == SessionOpts.TRANSPORT_NONE) {
+            throw new IllegalArgumentException("Invalid transports");
+        }
+        this.traffic = traffic;
+        this.isMultipoint = isMultipoint;
+        this.proximity = proximity;
+        this.transports = transports;
+    }
+    
+    /**
+     * Get the SessionOpts traffic type.
+     * 
+     * @return the traffic type
+     */
+    public byte getTraffic() {
+        return traffic;
+    }
+    
+    /**
+     * Get whether the session is multipoint.
+     * 
+     * @return true if the session is multipoint
+     */
+    public boolean isMultipoint() {
+        return isMultipoint;
+    }
+    
+    /**
+     * Get the SessionOpts proximity.
+     * 
+     * @return the proximity
+     */
+    public byte getProximity() {
+        return proximity;
+    }
+    
+    /**
+     * Get the SessionOpts transports.
+     * 
+     * @return the allowed transports
+     */
+    public short getTransports() {
+        return transports;
+    }
+    
+    /**
+     * Get whether the session carries raw bytes instead of AllJoyn messages.
+     * 
+     * @return true if the session is a raw session
+     */
+    public boolean isRaw() {
+        return traffic != SessionOpts.TRAFFIC_MESSAGES;
+    }
+    
+    /**
+     * getSessionOpts
+     * creates the SessionOpts of this profile.
+     * 
+     * @return  a new SessionOpts instance
+     */
+    SessionOpts getSessionOpts() {
+        return new SessionOpts(traffic, isMultipoint, proximity, transports);
+    }
+}
@@ -0,0 +1,224 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.HashMap;
+
+import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusListener;
+import org.alljoyn.bus.BusObject;
+import org.alljoyn.bus.Status;
+
+/**
+ * The SharedBusAttachment lets several PeerGroupManagers that use different
+ * group prefixes share a single connection to the AllJoyn daemon. Each
+ * PeerGroupManager created with the same SharedBusAttachment uses its bus
+ * attachment instead of creating and connecting its own, and a single bus
+ * listener hands the discovery call-backs to the PeerGroupManager that
+ * started the discovery.
+ * NOTE: The bus attachment is connected when the first PeerGroupManager is
+ * created with it and disconnected and released once all of them have been
+ * cleaned up. The SharedBusAttachment cannot be used again after that.
+ * NOTE: The bus objects and signal handlers registered through each 
+ * PeerGroupManager belong to it. Another PeerGroupManager sharing the bus 
+ * attachment cannot register them again or unregister them, and the bus 
+ * objects the PeerGroupManagers register for themselves are placed under 
+ * their group prefix. The object paths of your own bus objects must still 
+ * differ between the PeerGroupManagers, since peers call them by path.
+ */
+public class SharedBusAttachment {
+    private BusAttachment bus;
+    private final BusListener sharedBusListener = new SharedBusListener();
+
+    // The discovery listeners keyed by the name prefix they discover
+    private final HashMap<String,BusListener> discoveryListeners = new HashMap<String,BusListener>();
+    // The number of PeerGroupManagers using the bus attachment
+    private int attachCount = 0;
+    // The PeerGroupManager that registered each bus object and each class 
+    // with signal handlers
+    private final HashMap<Object,Object> busObjectOwners = new HashMap<Object,Object>();
+    private final HashMap<Object,Object> signalHandlerOwners = new HashMap<Object,Object>();
+
+    /**
+     * Constructs a SharedBusAttachment.
+     *
+     * @param applicationName  the application name of the shared bus
+     *                         attachment
+     */
+    public SharedBusAttachment(String applicationName) {
+        if(applicationName == null || applicationName.trim().length() == 0) {
+            throw new IllegalArgumentException("Invalid application name");
+        }
+        PeerGroupManager.loadNativeLibrary();
+        bus = new BusAttachment(applicationName, BusAttachment.RemoteMessage.Receive);
+    }
+
+    /**
+     * attach
+     * adds a PeerGroupManager to the bus attachment and connects it if it is
+     * the first one.
+     *
+     * @return  the connected bus attachment, or null if it could not be
+     *          connected
+     */
+    synchronized BusAttachment attach() {
+        if(bus == null) {
+            return null;
+        }
+        if(attachCount == 0) {
+            bus.registerBusListener(sharedBusListener);
+            Status status = bus.connect();
+            if(status != Status.OK) {
+                bus.unregisterBusListener(sharedBusListener);
+                return null;
+            }
+        }
+        attachCount++;
+        return bus;
+    }
+
+    /**
+     * detach
+     * removes a PeerGroupManager from the bus attachment and disconnects and
+     * releases it if it was the last one.
+     */
+    synchronized void detach() {
+        if(bus == null || attachCount == 0) {
+            return;
+        }
+        attachCount--;
+        if(attachCount == 0) {
+            bus.unregisterBusListener(sharedBusListener);
+            bus.disconnect();
+            bus.release();
+            bus = null;
+        }
+    }
+
+    /**
+     * findAdvertisedName
+     * starts discovering the given name prefix and sends the discovery
+     * call-backs for it to the given listener.
+     */
+    synchronized Status findAdvertisedName(String namePrefix, BusListener listener) {
+        if(discoveryListeners.containsKey(namePrefix)) {
+            // Another PeerGroupManager is already discovering this prefix
+            return Status.FAIL;
+        }
+        discoveryListeners.put(namePrefix, listener);
+        Status status = bus.findAdvertisedName(namePrefix);
+        if(status != Status.OK) {
+            discoveryListeners.remove(namePrefix);
+        }
+        return status;
+    }
+
+    /**
+     * cancelFindAdvertisedName
+     * stops discovering the given name prefix.
+     */
+    synchronized Status cancelFindAdvertisedName(String namePrefix) {
+        if(discoveryListeners.remove(namePrefix) == null) {
+            return Status.FAIL;
+        }
+        return bus.cancelFindAdvertisedName(namePrefix);
+    }
+
+    /**
+     * registerBusObject
+     * registers a bus object for the given PeerGroupManager.
+     *
+     * @return  OK if successful, otherwise FAIL if the bus object belongs to
+     *          another PeerGroupManager
+     */
+    synchronized Status registerBusObject(Object owner, BusObject busObject, String objectPath) {
+        Object currentOwner = busObjectOwners.get(busObject);
+        if(currentOwner != null && currentOwner != owner) {
+            return Status.FAIL;
+        }
+        Status status = bus.registerBusObject(busObject, objectPath);
+        if(status == Status.OK) {
+            busObjectOwners.put(busObject, owner);
+        }
+        return status;
+    }
+
+    /**
+     * unregisterBusObject
+     * unregisters a bus object if it belongs to the given PeerGroupManager.
+     */
+    synchronized void unregisterBusObject(Object owner, BusObject busObject) {
+        if(busObjectOwners.get(busObject) == owner) {
+            busObjectOwners.remove(busObject);
+            bus.unregisterBusObject(busObject);
+        }
+    }
+
+    /**
+     * registerSignalHandlers
+     * registers the signal handlers of a class for the given 
+     * PeerGroupManager.
+     *
+     * @return  OK if successful, otherwise FAIL if the class belongs to 
+     *          another PeerGroupManager
+     */
+    synchronized Status registerSignalHandlers(Object owner, Object classWithSignalHandlers) {
+        Object currentOwner = signalHandlerOwners.get(classWithSignalHandlers);
+        if(currentOwner != null && currentOwner != owner) {
+            return Status.FAIL;
+        }
+        Status status = bus.registerSignalHandlers(classWithSignalHandlers);
+        if(status == Status.OK) {
+            signalHandlerOwners.put(classWithSignalHandlers, owner);
+        }
+        return status;
+    }
+
+    /**
+     * unregisterSignalHandlers
+     * unregisters the signal handlers of a class if it belongs to the given 
+     * PeerGroupManager.
+     */
+    synchronized void unregisterSignalHandlers(Object owner, Object classWithSignalHandlers) {
+        if(signalHandlerOwners.get(classWithSignalHandlers) == owner) {
+            signalHandlerOwners.remove(classWithSignalHandlers);
+            bus.unregisterSignalHandlers(classWithSignalHandlers);
+        }
+    }
+
+    private synchronized BusListener getDiscoveryListener(String namePrefix) {
+        return discoveryListeners.get(namePrefix);
+    }
+
+    private class SharedBusListener extends BusListener {
+        @Override
+        public void foundAdvertisedName(String name, short transport, String namePrefix) {
+            BusListener listener = getDiscoveryListener(namePrefix);
+            if(listener != null) {
+                listener.foundAdvertisedName(name, transport, namePrefix);
+            }
+        }
+
+        @Override
+        public void lostAdvertisedName(String name, short transport, String namePrefix) {
+            BusListener listener = getDiscoveryListener(namePrefix);
+            if(listener != null) {
+                listener.lostAdvertisedName(name, transport, namePrefix);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The SignalConsumer receives the signals drained from a SignalRingBuffer. 
+ * It is called on the thread that drains the buffer.
+ */
+public interface SignalConsumer {
+    
+    /**
+     * Called for each signal drained from the ring buffer, in the order the 
+     * signals were received.
+     * 
+     * @param signalName  the member name of the signal
+     * @param sender      the id of the peer that sent the signal
+     * @param args        the arguments of the signal
+     */
+    public void onSignal(String signalName, String sender, Object[] args);
+}
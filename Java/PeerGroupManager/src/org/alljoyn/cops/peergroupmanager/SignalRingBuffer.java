@@ -0,0 +1,225 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+
+package org.alljoyn.cops.peergroupmanager;
+
+/**
+ * The SignalRingBuffer is an opt-in receive path for groups that get signals
+ * faster than they can be handled one by one. Registered for a group with 
+ * PeerGroupManager.registerSignalRingBuffer(), it has the AllJoyn dispatch 
+ * thread copy each signal of the group into a slot of a preallocated ring, 
+ * and the application drains the ring in batches on its own thread with 
+ * drain(). Signals that arrive while the ring is full are dropped and 
+ * counted, so the counters show when the consumer falls behind.
+ * NOTE: The buffer is meant for a single consumer; concurrent calls to 
+ * drain() run one after the other.
+ */
+public class SignalRingBuffer {
+    private final int capacity;
+    // The ring of signals, guarded by this
+    private final String[] signalNames;
+    private final String[] senders;
+    private final Object[][] args;
+    private int head = 0;
+    private int size = 0;
+    private boolean overflowing = false;
+    private long received = 0;
+    private long drained = 0;
+    private long dropped = 0;
+    private long overflows = 0;
+    private int highWatermark = 0;
+    
+    // The batch handed to the consumer, guarded by drainLock
+    private final Object drainLock = new Object();
+    private final String[] batchSignalNames;
+    private final String[] batchSenders;
+    private final Object[][] batchArgs;
+    
+    /**
+     * Constructs a SignalRingBuffer.
+     * 
+     * @param capacity  the number of signals the ring holds
+     */
+    public SignalRingBuffer(int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity");
+        }
+        this.capacity = capacity;
+        signalNames = new String[capacity];
+        senders = new String[capacity];
+        args = new Object[capacity][];
+        batchSignalNames = new String[capacity];
+        batchSenders = new String[capacity];
+        batchArgs = new Object[capacity][];
+    }
+    
+    /**
+     * put
+     * copies a signal into the ring, or drops it if the ring is full.
+     * 
+     * @return  true if the signal was added
+     */
+    synchronized boolean put(String signalName, String sender, Object[] signalArgs) {
+        received++;
+        if(size == capacity) {
+            dropped++;
+            // Count each time the consumer falls behind once
+            if(!overflowing) {
+                overflowing = true;
+                overflows++;
+            }
+            return false;
+        }
+        overflowing = false;
+        int tail = (head + size) % capacity;
+        signalNames[tail] = signalName;
+        senders[tail] = sender;
+        args[tail] = signalArgs;
+        size++;
+        highWatermark = Math.max(highWatermark, size);
+        if(size == 1) {
+            notifyAll();
+        }
+        return true;
+    }
+    
+    /**
+     * drain
+     * hands the signals waiting in the ring to a consumer, oldest first. The 
+     * ring is unlocked while the consumer runs, so new signals can be added.
+     * 
+     * @param consumer    the consumer of the signals
+     * @param maxSignals  the maximum number of signals to drain
+     * @return  the number of signals drained
+     */
+    public int drain(SignalConsumer consumer, int maxSignals) {
+        synchronized(drainLock) {
+            int count;
+            synchronized(this) {
+                count = Math.min(Math.min(maxSignals, size), capacity);
+                for(int i = 0; i < count; i++) {
+                    int slot = (head + i) % capacity;
+                    batchSignalNames[i] = signalNames[slot];
+                    batchSenders[i] = senders[slot];
+                    batchArgs[i] = args[slot];
+                    signalNames[slot] = null;
+                    senders[slot] = null;
+                    args[slot] = null;
+                }
+                head = (head + count) % capacity;
+                size -= count;
+                drained += count;
+            }
+            try {
+                for(int i = 0; i < count; i++) {
+                    consumer.onSignal(batchSignalNames[i], batchSenders[i], batchArgs[i]);
+                }
+            } finally {
+                for(int i = 0; i < count; i++) {
+                    batchSignalNames[i] = null;
+                    batchSenders[i] = null;
+                    batchArgs[i] = null;
+                }
+            }
+            return count;
+        }
+    }
+    
+    /**
+     * await
+     * waits until there is a signal in the ring.
+     * 
+     * @param timeoutMillis  the maximum time to wait
+     * @return  true if there is a signal to drain
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(size == 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+    
+    /**
+     * Get the number of signals the ring holds.
+     * 
+     * @return the capacity of the ring
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * Get the number of signals waiting to be drained.
+     * 
+     * @return the number of signals in the ring
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+    
+    /**
+     * Get the largest number of signals that were waiting at once.
+     * 
+     * @return the high watermark of the ring
+     */
+    public synchronized int getHighWatermark() {
+        return highWatermark;
+    }
+    
+    /**
+     * Get the number of signals received for the group.
+     * 
+     * @return the number of signals received, including the dropped ones
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+    
+    /**
+     * Get the number of signals handed to a consumer.
+     * 
+     * @return the number of drained signals
+     */
+    public synchronized long getDrained() {
+        return drained;
+    }
+    
+    /**
+     * Get the number of signals dropped because the ring was full.
+     * 
+     * @return the number of dropped signals
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+    
+    /**
+     * Get the number of times the ring filled up, counting each run of 
+     * dropped signals once.
+     * 
+     * @return the number of overflows
+     */
+    public synchronized long getOverflows() {
+        return overflows;
+    }
+}
@@ -0,0 +1,148 @@
+/******************************************************************************
+ * Copyright 2013, Qualcomm Innovation Center, Inc.
+ *
+ *    All rights reserved.
+ *    This file is licensed under the 3-clause BSD license in the NOTICE.txt
+ *    file for this project. A copy of the 3-clause BSD license is found at:
+ *
+ *        http://opensource.org/licenses/BSD-3-Clause.
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the license is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the license for the specific language governing permissions and
+ *    limitations under the license.
+ ******************************************************************************/
+
+package org.alljoyn.cops.peergroupmanager;
+
+import java.util.ArrayList;
+
+import org.alljoyn.bus.Status;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+ * Tests the membership of large groups. It lives in the package of the
+ * PeerGroupManager to report the members of simulated peers, since a device
+ * cannot run a bus attachment for each of them.
+ */
+public class LargeGroupMembershipTest extends AndroidTestCase {
+
+	private PeerGroupManager mPeerGroupManager1;
+	private PeerGroupManager mPeerGroupManager2;
+
+	private final String TAG = "LargeGroupMembershipTest";
+
+	/*
+	 * PeerGroupListener that checks the number of peers reported with each
+	 * member event against the number of events so far
+	 */
+	private class CountingListener extends PeerGroupListener {
+		int numPeers = 0;
+		int numPeersAdded = 0;
+		int numPeersRemoved = 0;
+		int numMiscounts = 0;
+
+		@Override
+		public void peerAdded(String peerId, String groupName, int numParticipants) {
+			numPeersAdded++;
+			if(numParticipants != ++numPeers) {
+				numMiscounts++;
+			}
+		}
+
+		@Override
+		public void peerRemoved(String peerId, String groupName, int numParticipants) {
+			numPeersRemoved++;
+			if(numParticipants != --numPeers) {
+				numMiscounts++;
+			}
+		}
+	}
+
+	protected void setUp(){
+		mPeerGroupManager1 = new PeerGroupManager("test", new PeerGroupListener(), null);
+		mPeerGroupManager2 = new PeerGroupManager("test", new PeerGroupListener(), null);
+
+		logInfo("start of test");
+	}
+
+	protected void tearDown(){
+		mPeerGroupManager1.cleanup();
+		mPeerGroupManager2.cleanup();
+
+		mPeerGroupManager1 = null;
+		mPeerGroupManager2 = null;
+
+		logInfo("end of test");
+	}
+
+	/*
+	 * Testing membership events for large groups
+	 */
+	public void testLargeGroupMembership(){
+		assertTrue(mPeerGroupManager1.createGroup("testLargeGroup") == Status.OK);
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(mPeerGroupManager2.joinGroup("testLargeGroup") == Status.OK);
+		long start = System.currentTimeMillis();
+		while(mPeerGroupManager1.getNumPeers("testLargeGroup") < 2 && System.currentTimeMillis() - start < 20000) {
+			try {
+				Thread.sleep(10);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		assertEquals(2, mPeerGroupManager1.getNumPeers("testLargeGroup"));
+		CountingListener listener = new CountingListener();
+		listener.numPeers = 2;
+		mPeerGroupManager1.addPeerGroupListener(listener);
+
+		// Every member event keeps the count of the group in step
+		final int numPeers = 1000;
+		for(int i = 0; i < numPeers; i++) {
+			assertTrue(mPeerGroupManager1.simulateMemberEvent("testLargeGroup", ":simulated." + i, true));
+			assertEquals(i + 3, mPeerGroupManager1.getNumPeers("testLargeGroup"));
+		}
+		ArrayList<String> peers = mPeerGroupManager1.getPeers("testLargeGroup");
+		assertEquals(numPeers + 2, peers.size());
+		// The peers are listed in the order they joined
+		assertEquals(":simulated.0", peers.get(2));
+		assertEquals(":simulated." + (numPeers - 1), peers.get(numPeers + 1));
+
+		// Adding a peer that is already in the group does not count it twice
+		listener.numPeers--;
+		assertTrue(mPeerGroupManager1.simulateMemberEvent("testLargeGroup", ":simulated.0", true));
+		assertEquals(numPeers + 2, mPeerGroupManager1.getNumPeers("testLargeGroup"));
+
+		for(int i = 0; i < numPeers; i++) {
+			assertTrue(mPeerGroupManager1.simulateMemberEvent("testLargeGroup", ":simulated." + i, false));
+			assertEquals(numPeers + 1 - i, mPeerGroupManager1.getNumPeers("testLargeGroup"));
+		}
+		assertEquals(2, mPeerGroupManager1.getPeers("testLargeGroup").size());
+		assertEquals(numPeers + 1, listener.numPeersAdded);
+		assertEquals(numPeers, listener.numPeersRemoved);
+		assertEquals(0, listener.numMiscounts);
+
+		assertTrue(mPeerGroupManager2.leaveGroup("testLargeGroup") == Status.OK);
+		assertTrue(mPeerGroupManager1.destroyGroup("testLargeGroup") == Status.OK);
+	}
+
+	/*
+	 * Helper functions
+	 */
+	private void logError(String message) {
+		String msg = getName() + ": " + message;
+		Log.e(TAG, msg);
+	}
+
+	private void logInfo(String message) {
+		String msg = getName() + ": " + message;
+		Log.i(TAG, msg);
+	}
+}
@@ -16,16 +16,78 @@
 
 package org.alljoyn.cops.peergroupmanager.test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Pattern;
 
 import org.alljoyn.bus.BusAttachment;
+import org.alljoyn.bus.BusException;
+import org.alljoyn.bus.BusListener;
+import org.alljoyn.bus.BusObject;
 import org.alljoyn.bus.Mutable;
 import org.alljoyn.bus.SessionOpts;
 import org.alljoyn.bus.SessionPortListener;
 import org.alljoyn.bus.Status;
+import org.alljoyn.bus.annotation.BusInterface;
+import org.alljoyn.bus.annotation.BusMethod;
+import org.alljoyn.bus.annotation.BusSignal;
+import org.alljoyn.bus.annotation.BusSignalHandler;
+import org.alljoyn.bus.annotation.Position;
+import org.alljoyn.cops.peergroupmanager.AdmissionStats;
+import org.alljoyn.cops.peergroupmanager.BackpressurePolicy;
+import org.alljoyn.cops.peergroupmanager.BlobTransferListener;
+import org.alljoyn.cops.peergroupmanager.BlobTransferModule;
+import org.alljoyn.cops.peergroupmanager.BusObjectData;
+import org.alljoyn.cops.peergroupmanager.BusPlacement;
+import org.alljoyn.cops.peergroupmanager.CompressionModule;
+import org.alljoyn.cops.peergroupmanager.CompressionStats;
+import org.alljoyn.cops.peergroupmanager.FoundGroupsCache;
+import org.alljoyn.cops.peergroupmanager.FragmentationListener;
+import org.alljoyn.cops.peergroupmanager.FragmentationModule;
+import org.alljoyn.cops.peergroupmanager.HeartbeatListener;
+import org.alljoyn.cops.peergroupmanager.HeartbeatModule;
+import org.alljoyn.cops.peergroupmanager.HostedGroupJournal;
+import org.alljoyn.cops.peergroupmanager.JoinOrCreateReturn;
+import org.alljoyn.cops.peergroupmanager.JoinRatePolicy;
+import org.alljoyn.cops.peergroupmanager.ListenerExecutionPolicy;
+import org.alljoyn.cops.peergroupmanager.ListenerQueueStats;
+import org.alljoyn.cops.peergroupmanager.MaxMembersPolicy;
+import org.alljoyn.cops.peergroupmanager.PayloadReader;
+import org.alljoyn.cops.peergroupmanager.PayloadSchema;
+import org.alljoyn.cops.peergroupmanager.PayloadType;
+import org.alljoyn.cops.peergroupmanager.PayloadWriter;
+import org.alljoyn.cops.peergroupmanager.PeerAccessPolicy;
+import org.alljoyn.cops.peergroupmanager.PeerGroupEvent;
 import org.alljoyn.cops.peergroupmanager.PeerGroupListener;
+import org.alljoyn.cops.peergroupmanager.PeerGroupListenerFilter;
 import org.alljoyn.cops.peergroupmanager.PeerGroupManager;
+import org.alljoyn.cops.peergroupmanager.PeerGroupMembershipListener;
+import org.alljoyn.cops.peergroupmanager.RawSessionChannel;
+import org.alljoyn.cops.peergroupmanager.RejoinPolicy;
+import org.alljoyn.cops.peergroupmanager.RemoteCall;
+import org.alljoyn.cops.peergroupmanager.ReliableBroadcastListener;
+import org.alljoyn.cops.peergroupmanager.ReliableBroadcastModule;
+import org.alljoyn.cops.peergroupmanager.ReplicatedMapListener;
+import org.alljoyn.cops.peergroupmanager.ReplicatedMapModule;
+import org.alljoyn.cops.peergroupmanager.RttProbeModule;
+import org.alljoyn.cops.peergroupmanager.RttStats;
+import org.alljoyn.cops.peergroupmanager.ScatterGatherResult;
+import org.alljoyn.cops.peergroupmanager.SessionProfile;
+import org.alljoyn.cops.peergroupmanager.SharedBusAttachment;
+import org.alljoyn.cops.peergroupmanager.SignalConsumer;
+import org.alljoyn.cops.peergroupmanager.SignalRingBuffer;
 
+import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
@@ -436,6 +498,1887 @@ public class PeerGroupManagerTest extends AndroidTestCase {
 	}
 	
 	
+	/*
+	 * Testing FoundGroupsCache
+	 */
+	public void testFoundGroupsCacheWarmStart(){
+		File cacheFile = new File(getContext().getCacheDir(), "testFoundGroupsCache");
+		cacheFile.delete();
+		
+		PeerGroupManager cachingManager = new PeerGroupManager("test", new PeerGroupListener(), null, 
+				new FoundGroupsCache(cacheFile, 60000));
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testFoundGroupsCache") == Status.OK);
+		assertTrue(cachingManager.listFoundGroups().contains("testFoundGroupsCache"));
+		assertFalse(cachingManager.listStaleFoundGroups().contains("testFoundGroupsCache"));
+		cachingManager.cleanup();
+		
+		// Give the background writer time to flush the cache file
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		// The restarted manager sees the group as stale until discovery confirms it
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testFoundGroupsCache") == Status.OK);
+		cachingManager = new PeerGroupManager("test", new PeerGroupListener(), null, 
+				new FoundGroupsCache(cacheFile, 60000));
+		assertTrue(cachingManager.listFoundGroups().contains("testFoundGroupsCache"));
+		assertTrue(cachingManager.listStaleFoundGroups().contains("testFoundGroupsCache"));
+		
+		// A stale cached group does not keep its name from being hosted
+		assertTrue(callMethodAndWait(cachingManager, "createGroup", "testFoundGroupsCache") == Status.OK);
+		assertFalse(cachingManager.listFoundGroups().contains("testFoundGroupsCache"));
+		assertTrue(callMethodAndWait(cachingManager, "destroyGroup", "testFoundGroupsCache") == Status.OK);
+		cachingManager.cleanup();
+		cacheFile.delete();
+	}
+	
+	
+	/*
+	 * Testing HostedGroupJournal
+	 */
+	public void testRestoreHostedGroups(){
+		File journalFile = new File(getContext().getCacheDir(), "testHostedGroupJournal");
+		journalFile.delete();
+		
+		PeerGroupManager hostManager = new PeerGroupManager("test", new PeerGroupListener(), null);
+		assertTrue(hostManager.restoreHostedGroups(new HostedGroupJournal(journalFile)) == Status.OK);
+		assertTrue(hostManager.createGroup("testRestoreUnlocked") == Status.OK);
+		assertTrue(hostManager.createGroup("testRestoreLocked", true) == Status.OK);
+		assertTrue(hostManager.createGroup("testRestoreP2P", false, SessionProfile.POINT_TO_POINT_MESSAGES) == Status.OK);
+		hostManager.cleanup();
+		
+		// Give the background writer time to sync the journal
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		hostManager = new PeerGroupManager("test", new PeerGroupListener(), null);
+		assertTrue(hostManager.restoreHostedGroups(new HostedGroupJournal(journalFile)) == Status.OK);
+		assertTrue(hostManager.listHostedGroups().contains("testRestoreUnlocked"));
+		assertTrue(hostManager.listHostedGroups().contains("testRestoreLocked"));
+		assertTrue(hostManager.listLockedGroups().contains("testRestoreLocked"));
+		assertFalse(hostManager.listLockedGroups().contains("testRestoreUnlocked"));
+		// The group is restored with its session profile
+		assertTrue(hostManager.listHostedGroups().contains("testRestoreP2P"));
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(mPeerGroupManager2.joinGroup("testRestoreP2P", SessionProfile.POINT_TO_POINT_MESSAGES) == Status.OK);
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(2, hostManager.getNumPeers("testRestoreP2P"));
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testRestoreP2P") == Status.OK);
+		hostManager.cleanup();
+		journalFile.delete();
+	}
+	
+	public void testRestoreHostedGroupsRetry(){
+		File journalFile = new File(getContext().getCacheDir(), "testHostedGroupJournalRetry");
+		journalFile.delete();
+		
+		PeerGroupManager hostManager = new PeerGroupManager("test", new PeerGroupListener(), null);
+		assertTrue(hostManager.restoreHostedGroups(new HostedGroupJournal(journalFile)) == Status.OK);
+		assertTrue(hostManager.createGroup("testRestoreRetry") == Status.OK);
+		hostManager.cleanup();
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		// Another peer took the name while we were away
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testRestoreRetry") == Status.OK);
+		hostManager = new PeerGroupManager("test", new PeerGroupListener(), null);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertFalse(hostManager.restoreHostedGroups(new HostedGroupJournal(journalFile)) == Status.OK);
+		assertFalse(hostManager.listHostedGroups().contains("testRestoreRetry"));
+		
+		// The group is restored once the name is free again
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testRestoreRetry") == Status.OK);
+		long start = System.currentTimeMillis();
+		while(!hostManager.listHostedGroups().contains("testRestoreRetry") && System.currentTimeMillis() - start < 20000) {
+			try {
+				Thread.sleep(100);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		assertTrue(hostManager.listHostedGroups().contains("testRestoreRetry"));
+		hostManager.cleanup();
+		journalFile.delete();
+	}
+	
+	
+	/*
+	 * Testing SharedBusAttachment
+	 */
+	public void testSharedBusAttachment(){
+		SharedBusAttachment sharedBus = new SharedBusAttachment("testSharedBus");
+		PeerGroupManager testManager = new PeerGroupManager("test", new PeerGroupListener(), null, sharedBus);
+		PeerGroupManager otherManager = new PeerGroupManager("other", new PeerGroupListener(), null, sharedBus);
+		
+		// Each manager only discovers the groups with its own prefix
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testSharedBus") == Status.OK);
+		assertTrue(testManager.listFoundGroups().contains("testSharedBus"));
+		assertFalse(otherManager.listFoundGroups().contains("testSharedBus"));
+		
+		// A bus object belongs to the manager it was registered through
+		BusObjectData echo = new BusObjectData(new EchoService(0), "/sharedEcho");
+		assertTrue(testManager.registerBusObject(echo) == Status.OK);
+		assertTrue(otherManager.registerBusObject(echo) == Status.FAIL);
+		
+		// The shared bus attachment stays connected for the remaining manager,
+		// and so do the bus objects of that manager
+		otherManager.cleanup();
+		assertTrue(callMethodAndWait(testManager, "createGroup", "testSharedBusHosted") == Status.OK);
+		assertTrue(mPeerGroupManager2.listFoundGroups().contains("testSharedBusHosted"));
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testSharedBusHosted") == Status.OK);
+		ScatterGatherResult<String> result = mPeerGroupManager2.scatterGather("testSharedBusHosted", "/sharedEcho", 
+				EchoInterface.class, new RemoteCall<EchoInterface,String>() {
+					public String call(String peerId, EchoInterface proxy) throws BusException {
+						return proxy.Echo("hello");
+					}
+				}, 5000);
+		assertTrue(result != null);
+		assertEquals("hello", result.getResults().get(testManager.getMyPeerId()));
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testSharedBusHosted") == Status.OK);
+		testManager.cleanup();
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testSharedBus") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing SessionProfile
+	 */
+	public void testPointToPointProfile(){
+		assertTrue(mPeerGroupManager1.createGroup("testPointToPoint", false, SessionProfile.POINT_TO_POINT_MESSAGES) == Status.OK);
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(mPeerGroupManager2.joinGroup("testPointToPoint", SessionProfile.POINT_TO_POINT_MESSAGES) == Status.OK);
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(2, mPeerGroupManager1.getNumPeers("testPointToPoint"));
+		assertEquals(2, mPeerGroupManager2.getNumPeers("testPointToPoint"));
+		
+		// Message sessions have no raw socket to hand out
+		assertNull(mPeerGroupManager2.getRawSessionChannel("testPointToPoint"));
+		assertNull(mPeerGroupManager1.getRawSessionChannel("testPointToPoint", mPeerGroupManager2.getMyPeerId()));
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testPointToPoint") == Status.OK);
+		assertEquals(1, mPeerGroupManager1.getNumPeers("testPointToPoint"));
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testPointToPoint") == Status.OK);
+	}
+	
+	public void testRawProfileInput(){
+		try {
+			new SessionProfile(SessionOpts.TRAFFIC_RAW_RELIABLE, true, SessionOpts.PROXIMITY_ANY, SessionOpts.TRANSPORT_ANY);
+			fail("Raw multipoint profile accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		assertNull(mPeerGroupManager1.getRawSessionChannel("testRawNotJoined"));
+	}
+	
+	public void testRawSessionChannel(){
+		assertTrue(mPeerGroupManager1.createGroup("testRawChannel", false, SessionProfile.POINT_TO_POINT_RAW_RELIABLE) == Status.OK);
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(mPeerGroupManager2.joinGroup("testRawChannel", SessionProfile.POINT_TO_POINT_RAW_RELIABLE) == Status.OK);
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(2, mPeerGroupManager1.getNumPeers("testRawChannel"));
+		
+		// Channels can not be opened below API level 13
+		if(Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR2) {
+			assertNull(mPeerGroupManager2.getRawSessionChannel("testRawChannel"));
+			assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testRawChannel") == Status.OK);
+			assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testRawChannel") == Status.OK);
+			return;
+		}
+		
+		RawSessionChannel joinerChannel = mPeerGroupManager2.getRawSessionChannel("testRawChannel");
+		RawSessionChannel hostChannel = mPeerGroupManager1.getRawSessionChannel("testRawChannel", mPeerGroupManager2.getMyPeerId());
+		assertNotNull(joinerChannel);
+		assertNotNull(hostChannel);
+		// The socket can only be taken once per session
+		assertNull(mPeerGroupManager2.getRawSessionChannel("testRawChannel"));
+		
+		// Send in chunks and read each one back so the socket buffers never fill up
+		byte[] sent = new byte[64 * 1024];
+		new Random(7).nextBytes(sent);
+		ByteBuffer received = ByteBuffer.allocate(sent.length);
+		int chunkSize = 4096;
+		try {
+			for(int offset = 0; offset < sent.length; offset += chunkSize) {
+				ByteBuffer chunk = ByteBuffer.wrap(sent, offset, chunkSize);
+				while(chunk.hasRemaining()) {
+					joinerChannel.write(chunk);
+				}
+				while(received.position() < offset + chunkSize) {
+					assertTrue(hostChannel.read(received) >= 0);
+				}
+			}
+			joinerChannel.close();
+			hostChannel.close();
+		} catch (IOException e) {
+			fail(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(Arrays.equals(sent, received.array()));
+		assertFalse(joinerChannel.isOpen());
+		assertFalse(hostChannel.isOpen());
+		
+		// Closing the socket may already have ended the session
+		callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testRawChannel");
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testRawChannel") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing BlobTransferModule
+	 */
+	public void testBlobTransfer(){
+		File sendDir = new File(getContext().getCacheDir(), "testBlobSend");
+		File receiveDir = new File(getContext().getCacheDir(), "testBlobReceive");
+		sendDir.mkdirs();
+		receiveDir.mkdirs();
+		File sendFile = new File(sendDir, "testBlob.bin");
+		File receivedFile = new File(receiveDir, "testBlob.bin");
+		receivedFile.delete();
+		
+		// One megabyte of pseudo random content
+		byte[] content = new byte[1024 * 1024];
+		new Random(47).nextBytes(content);
+		try {
+			FileOutputStream out = new FileOutputStream(sendFile);
+			out.write(content);
+			out.close();
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testBlobTransfer") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testBlobTransfer") == Status.OK);
+		
+		final long[] sendResult = new long[] { -1, 0 };
+		BlobTransferListener blobListener = new BlobTransferListener() {
+			public void sendProgress(String transferId, String peerId, long bytesSent, long totalBytes, long bytesPerSecond) {
+				sendResult[1] = bytesPerSecond;
+			}
+			public void sendCompleted(String transferId, String peerId, Status status) {
+				sendResult[0] = (status == Status.OK) ? 1 : 0;
+			}
+			public void receiveProgress(String transferId, String peerId, long bytesReceived, long totalBytes, long bytesPerSecond) {
+			}
+			public void receiveCompleted(String transferId, String peerId, File file) {
+			}
+		};
+		BlobTransferModule sender = new BlobTransferModule(sendDir, blobListener);
+		BlobTransferModule receiver = new BlobTransferModule(receiveDir, blobListener);
+		assertTrue(mPeerGroupManager1.registerModule(sender, "testBlobTransfer") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(receiver, "testBlobTransfer") == Status.OK);
+		
+		ArrayList<String> peers = new ArrayList<String>();
+		peers.add(mPeerGroupManager2.getMyPeerId());
+		long startTime = System.currentTimeMillis();
+		assertNotNull(sender.send(sendFile, peers));
+		for(int i = 0; i < 300 && sendResult[0] == -1; i++) {
+			try {
+				Thread.sleep(100);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		logInfo("Sent " + content.length + " bytes in " + (System.currentTimeMillis() - startTime) 
+				+ " ms, " + sendResult[1] + " bytes/s");
+		assertEquals(1, sendResult[0]);
+		assertEquals(content.length, receivedFile.length());
+		
+		sender.unregister();
+		receiver.unregister();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testBlobTransfer") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testBlobTransfer") == Status.OK);
+		sendFile.delete();
+		receivedFile.delete();
+	}
+	
+	public void testBlobTransferInactivityTimeout(){
+		File sendDir = new File(getContext().getCacheDir(), "testBlobSend");
+		File receiveDir = new File(getContext().getCacheDir(), "testBlobReceive");
+		sendDir.mkdirs();
+		receiveDir.mkdirs();
+		File sendFile = new File(sendDir, "testBlobTimeout.bin");
+		File receivedFile = new File(receiveDir, "testBlobTimeout.bin");
+		receivedFile.delete();
+		
+		byte[] content = new byte[256 * 1024];
+		new Random(53).nextBytes(content);
+		try {
+			FileOutputStream out = new FileOutputStream(sendFile);
+			out.write(content);
+			out.close();
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testBlobTimeout") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testBlobTimeout") == Status.OK);
+		
+		// Send one small chunk at a time so the transfer is still running 
+		// when the sender goes away
+		final BlobTransferModule sender = new BlobTransferModule(sendDir, null, 1024, 1);
+		final boolean[] senderStopped = new boolean[] { false };
+		BlobTransferModule receiver = new BlobTransferModule(receiveDir, new BlobTransferListener() {
+			public void sendProgress(String transferId, String peerId, long bytesSent, long totalBytes, long bytesPerSecond) {
+			}
+			public void sendCompleted(String transferId, String peerId, Status status) {
+			}
+			public void receiveProgress(String transferId, String peerId, long bytesReceived, long totalBytes, long bytesPerSecond) {
+				if(!senderStopped[0]) {
+					senderStopped[0] = true;
+					sender.unregister();
+				}
+			}
+			public void receiveCompleted(String transferId, String peerId, File file) {
+			}
+		});
+		receiver.setIncomingTimeoutMillis(1000);
+		assertTrue(mPeerGroupManager1.registerModule(sender, "testBlobTimeout") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(receiver, "testBlobTimeout") == Status.OK);
+		
+		ArrayList<String> peers = new ArrayList<String>();
+		peers.add(mPeerGroupManager2.getMyPeerId());
+		String transferId = sender.send(sendFile, peers);
+		assertNotNull(transferId);
+		for(int i = 0; i < 50 && !senderStopped[0]; i++) {
+			try {
+				Thread.sleep(100);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		assertTrue(senderStopped[0]);
+		assertEquals(1, countPartFiles(receiveDir, transferId));
+		
+		// The partially received file is deleted once the sender is silent
+		try {
+			Thread.sleep(2000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(0, countPartFiles(receiveDir, transferId));
+		assertFalse(receivedFile.exists());
+		
+		receiver.unregister();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testBlobTimeout") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testBlobTimeout") == Status.OK);
+		sendFile.delete();
+	}
+	
+	public void testBlobTransferResume(){
+		File sendDir = new File(getContext().getCacheDir(), "testBlobSend");
+		File receiveDir = new File(getContext().getCacheDir(), "testBlobReceive");
+		sendDir.mkdirs();
+		receiveDir.mkdirs();
+		File sendFile = new File(sendDir, "testBlobResume.bin");
+		File receivedFile = new File(receiveDir, "testBlobResume.bin");
+		receivedFile.delete();
+		
+		byte[] content = new byte[256 * 1024];
+		new Random(59).nextBytes(content);
+		try {
+			FileOutputStream out = new FileOutputStream(sendFile);
+			out.write(content);
+			out.close();
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testBlobResume") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testBlobResume") == Status.OK);
+		
+		final long[] sendResult = new long[] { -1 };
+		// The bytes received when the receiver was dropped and when it resumed
+		final long[] received = new long[] { -1, -1 };
+		final boolean[] resumed = new boolean[] { false };
+		BlobTransferListener blobListener = new BlobTransferListener() {
+			public void sendProgress(String transferId, String peerId, long bytesSent, long totalBytes, long bytesPerSecond) {
+			}
+			public void sendCompleted(String transferId, String peerId, Status status) {
+				sendResult[0] = (status == Status.OK) ? 1 : 0;
+			}
+			public void receiveProgress(String transferId, String peerId, long bytesReceived, long totalBytes, long bytesPerSecond) {
+				if(received[0] == -1 && bytesReceived >= 16 * 1024) {
+					received[0] = bytesReceived;
+				}
+				else if(resumed[0] && received[1] == -1) {
+					received[1] = bytesReceived;
+				}
+			}
+			public void receiveCompleted(String transferId, String peerId, File file) {
+			}
+		};
+		BlobTransferModule sender = new BlobTransferModule(sendDir, blobListener, 1024, 1);
+		BlobTransferModule receiver = new BlobTransferModule(receiveDir, blobListener, 1024, 1);
+		assertTrue(mPeerGroupManager1.registerModule(sender, "testBlobResume") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(receiver, "testBlobResume") == Status.OK);
+		
+		ArrayList<String> peers = new ArrayList<String>();
+		peers.add(mPeerGroupManager2.getMyPeerId());
+		assertNotNull(sender.send(sendFile, peers));
+		for(int i = 0; i < 50 && received[0] == -1; i++) {
+			try {
+				Thread.sleep(100);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		assertTrue(received[0] != -1);
+		
+		// The receiver loses the transfer and is registered again
+		receiver.unregister();
+		resumed[0] = true;
+		assertTrue(mPeerGroupManager2.registerModule(receiver, "testBlobResume") == Status.OK);
+		for(int i = 0; i < 300 && sendResult[0] == -1; i++) {
+			try {
+				Thread.sleep(100);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		assertEquals(1, sendResult[0]);
+		assertEquals(content.length, receivedFile.length());
+		// The transfer went on from where it was rather than starting over
+		assertTrue(received[1] > received[0]);
+		
+		sender.unregister();
+		receiver.unregister();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testBlobResume") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testBlobResume") == Status.OK);
+		sendFile.delete();
+		receivedFile.delete();
+	}
+	
+	public void testBlobTransferSizeLimit(){
+		File sendDir = new File(getContext().getCacheDir(), "testBlobSend");
+		File receiveDir = new File(getContext().getCacheDir(), "testBlobReceive");
+		sendDir.mkdirs();
+		receiveDir.mkdirs();
+		File sendFile = new File(sendDir, "testBlobLimit.bin");
+		try {
+			FileOutputStream out = new FileOutputStream(sendFile);
+			out.write(new byte[64 * 1024]);
+			out.close();
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testBlobLimit") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testBlobLimit") == Status.OK);
+		BlobTransferModule sender = new BlobTransferModule(sendDir, null);
+		BlobTransferModule receiver = new BlobTransferModule(receiveDir, null);
+		receiver.setMaxIncomingSize(32 * 1024);
+		assertTrue(mPeerGroupManager1.registerModule(sender, "testBlobLimit") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(receiver, "testBlobLimit") == Status.OK);
+		
+		// An offer larger than the limit is ignored before any space is taken
+		ArrayList<String> peers = new ArrayList<String>();
+		peers.add(mPeerGroupManager2.getMyPeerId());
+		String transferId = sender.send(sendFile, peers);
+		assertNotNull(transferId);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(0, countPartFiles(receiveDir, transferId));
+		assertFalse(new File(receiveDir, "testBlobLimit.bin").exists());
+		
+		sender.unregister();
+		receiver.unregister();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testBlobLimit") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testBlobLimit") == Status.OK);
+		sendFile.delete();
+	}
+	
+	public void testBlobTransferPeerRemoved(){
+		File sendDir = new File(getContext().getCacheDir(), "testBlobSend");
+		File receiveDir = new File(getContext().getCacheDir(), "testBlobReceive");
+		sendDir.mkdirs();
+		receiveDir.mkdirs();
+		File sendFile = new File(sendDir, "testBlobRemoved.bin");
+		try {
+			FileOutputStream out = new FileOutputStream(sendFile);
+			out.write(new byte[256 * 1024]);
+			out.close();
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testBlobRemoved") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testBlobRemoved") == Status.OK);
+		final Status[] sendResult = new Status[] { null };
+		final long[] received = new long[] { 0 };
+		BlobTransferListener blobListener = new BlobTransferListener() {
+			public void sendProgress(String transferId, String peerId, long bytesSent, long totalBytes, long bytesPerSecond) {
+			}
+			public void sendCompleted(String transferId, String peerId, Status status) {
+				sendResult[0] = status;
+			}
+			public void receiveProgress(String transferId, String peerId, long bytesReceived, long totalBytes, long bytesPerSecond) {
+				received[0] = bytesReceived;
+			}
+			public void receiveCompleted(String transferId, String peerId, File file) {
+			}
+		};
+		BlobTransferModule sender = new BlobTransferModule(sendDir, blobListener, 1024, 1);
+		BlobTransferModule receiver = new BlobTransferModule(receiveDir, blobListener, 1024, 1);
+		assertTrue(mPeerGroupManager1.registerModule(sender, "testBlobRemoved") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(receiver, "testBlobRemoved") == Status.OK);
+		
+		ArrayList<String> peers = new ArrayList<String>();
+		peers.add(mPeerGroupManager2.getMyPeerId());
+		String transferId = sender.send(sendFile, peers);
+		assertNotNull(transferId);
+		for(int i = 0; i < 50 && received[0] < 16 * 1024; i++) {
+			try {
+				Thread.sleep(100);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		
+		// The transfer fails as soon as the receiver leaves rather than 
+		// after the sender gives up on it, and the receiver keeps its part
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testBlobRemoved") == Status.OK);
+		for(int i = 0; i < 20 && sendResult[0] == null; i++) {
+			try {
+				Thread.sleep(100);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		assertEquals(Status.FAIL, sendResult[0]);
+		assertEquals(1, countPartFiles(receiveDir, transferId));
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testBlobRemoved") == Status.OK);
+		sendFile.delete();
+		for(File file : receiveDir.listFiles()) {
+			if(file.getName().startsWith(transferId)) {
+				file.delete();
+			}
+		}
+	}
+	
+	private int countPartFiles(File receiveDir, String transferId) {
+		int count = 0;
+		for(File file : receiveDir.listFiles()) {
+			if(file.getName().startsWith(transferId) && file.getName().endsWith(".part")) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	
+	/*
+	 * Testing transport selection
+	 */
+	public void testGroupTransports(){
+		assertEquals(SessionOpts.TRANSPORT_NONE, mPeerGroupManager2.getGroupTransports("testTransports"));
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testTransports") == Status.OK);
+		assertTrue(mPeerGroupManager2.getGroupTransports("testTransports") != SessionOpts.TRANSPORT_NONE);
+		
+		mPeerGroupManager2.setTransportPreference(new short[] { SessionOpts.TRANSPORT_LOCAL, SessionOpts.TRANSPORT_WLAN }, false);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testTransports") == Status.OK);
+		short transport = mPeerGroupManager2.getJoinedGroupTransport("testTransports");
+		assertTrue(transport != SessionOpts.TRANSPORT_NONE);
+		assertTrue((transport & mPeerGroupManager2.getGroupTransports("testTransports")) != 0);
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testTransports") == Status.OK);
+		assertEquals(SessionOpts.TRANSPORT_NONE, mPeerGroupManager2.getJoinedGroupTransport("testTransports"));
+		mPeerGroupManager2.setTransportPreference(null, false);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testTransports") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing RttProbeModule
+	 */
+	public void testRttProbe(){
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testRttProbe") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testRttProbe") == Status.OK);
+		RttProbeModule hostProbe = new RttProbeModule(100);
+		RttProbeModule joinerProbe = new RttProbeModule(100);
+		assertTrue(mPeerGroupManager1.registerModule(hostProbe, "testRttProbe") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(joinerProbe, "testRttProbe") == Status.OK);
+		try {
+			Thread.sleep(2000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		RttStats stats = mPeerGroupManager1.getPeerRttStats("testRttProbe", mPeerGroupManager2.getMyPeerId());
+		assertNotNull(stats);
+		assertTrue(stats.getCount() > 0);
+		assertTrue(stats.getMinMicros() <= stats.getPercentileMicros(50));
+		assertTrue(stats.getPercentileMicros(50) <= stats.getPercentileMicros(99));
+		assertTrue(stats.getPercentileMicros(99) <= stats.getMaxMicros());
+		logInfo("RTT p50 " + stats.getPercentileMicros(50) + " us, p99 " + stats.getPercentileMicros(99) 
+				+ " us, jitter " + stats.getJitterMicros() + " us");
+		assertNotNull(mPeerGroupManager2.getPeerRttStats("testRttProbe", mPeerGroupManager1.getMyPeerId()));
+		
+		hostProbe.unregister();
+		joinerProbe.unregister();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testRttProbe") == Status.OK);
+		assertNull(mPeerGroupManager2.getPeerRttStats("testRttProbe", mPeerGroupManager1.getMyPeerId()));
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testRttProbe") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing HeartbeatModule
+	 */
+	public void testHeartbeatSuspectsSilentPeer(){
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testHeartbeat") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testHeartbeat") == Status.OK);
+		
+		final String[] suspectedPeer = new String[1];
+		HeartbeatModule hostHeartbeat = new HeartbeatModule(100, new HeartbeatListener() {
+			public void peerSuspected(String peerId, double phi) {
+				suspectedPeer[0] = peerId;
+			}
+			public void peerRecovered(String peerId) {
+			}
+		});
+		hostHeartbeat.setTimeoutMillis(500);
+		HeartbeatModule joinerHeartbeat = new HeartbeatModule(100, null);
+		assertTrue(mPeerGroupManager1.registerModule(hostHeartbeat, "testHeartbeat") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(joinerHeartbeat, "testHeartbeat") == Status.OK);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(mPeerGroupManager1.getSuspectedPeers("testHeartbeat").isEmpty());
+		assertTrue(hostHeartbeat.getHeartbeatsReceived() > 0);
+		// Every heartbeat counts at least its fixed header and body
+		assertTrue(hostHeartbeat.getBytesReceived() > hostHeartbeat.getHeartbeatsReceived() * 16);
+		assertTrue(hostHeartbeat.getBytesSent() > hostHeartbeat.getHeartbeatsSent() * 16);
+		
+		// Stop the heartbeats of the joiner while its session stays up
+		joinerHeartbeat.unregister();
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(mPeerGroupManager2.getMyPeerId(), suspectedPeer[0]);
+		assertTrue(mPeerGroupManager1.getSuspectedPeers("testHeartbeat").contains(mPeerGroupManager2.getMyPeerId()));
+		assertTrue(mPeerGroupManager1.getPeers("testHeartbeat").contains(mPeerGroupManager2.getMyPeerId()));
+		logInfo("Heartbeat overhead " + hostHeartbeat.getOverheadBytesPerSecond() + " bytes/s");
+		
+		hostHeartbeat.unregister();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testHeartbeat") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testHeartbeat") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing ReplicatedMapModule
+	 */
+	public void testReplicatedMapLateJoiner(){
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testReplicatedMap") == Status.OK);
+		ReplicatedMapModule hostMap = new ReplicatedMapModule(null);
+		assertTrue(mPeerGroupManager1.registerModule(hostMap, "testReplicatedMap") == Status.OK);
+		assertTrue(hostMap.put("a", "1") == Status.OK);
+		assertTrue(hostMap.put("b", "2") == Status.OK);
+		assertTrue(hostMap.remove("a") == Status.OK);
+		assertEquals("2", hostMap.get("b"));
+		assertEquals(1, hostMap.size());
+		
+		// A late joiner gets the current state from the host
+		final String[] snapshotPeer = new String[1];
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testReplicatedMap") == Status.OK);
+		ReplicatedMapModule joinerMap = new ReplicatedMapModule(new ReplicatedMapListener() {
+			public void entryChanged(String key, String value, String peerId) {
+			}
+			public void snapshotReceived(String peerId) {
+				snapshotPeer[0] = peerId;
+			}
+		});
+		assertTrue(mPeerGroupManager2.registerModule(joinerMap, "testReplicatedMap") == Status.OK);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(mPeerGroupManager1.getMyPeerId(), snapshotPeer[0]);
+		assertNull(joinerMap.get("a"));
+		assertEquals("2", joinerMap.get("b"));
+		
+		// Deltas flow both ways and the later write of a key wins
+		assertTrue(joinerMap.put("b", "3") == Status.OK);
+		assertTrue(hostMap.put("c", "4") == Status.OK);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(hostMap.getAll(), joinerMap.getAll());
+		assertEquals("3", hostMap.get("b"));
+		assertEquals("4", joinerMap.get("c"));
+		
+		hostMap.unregister();
+		joinerMap.unregister();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testReplicatedMap") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testReplicatedMap") == Status.OK);
+	}
+	
+	public void testReplicatedMapSnapshotRetry(){
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testReplicatedMapRetry") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testReplicatedMapRetry") == Status.OK);
+		
+		// The joiner asks for a snapshot before the host has a map to answer
+		final String[] snapshotPeer = new String[1];
+		ReplicatedMapModule joinerMap = new ReplicatedMapModule(new ReplicatedMapListener() {
+			public void entryChanged(String key, String value, String peerId) {
+			}
+			public void snapshotReceived(String peerId) {
+				snapshotPeer[0] = peerId;
+			}
+		});
+		joinerMap.setTombstoneMaxAgeMillis(500);
+		assertTrue(mPeerGroupManager2.registerModule(joinerMap, "testReplicatedMapRetry") == Status.OK);
+		try {
+			Thread.sleep(500);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		ReplicatedMapModule hostMap = new ReplicatedMapModule(null);
+		hostMap.setTombstoneMaxAgeMillis(500);
+		assertTrue(mPeerGroupManager1.registerModule(hostMap, "testReplicatedMapRetry") == Status.OK);
+		assertTrue(hostMap.put("a", "1") == Status.OK);
+		for(int i = 0; i < 50 && snapshotPeer[0] == null; i++) {
+			try {
+				Thread.sleep(100);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		assertEquals(mPeerGroupManager1.getMyPeerId(), snapshotPeer[0]);
+		assertEquals("1", joinerMap.get("a"));
+		
+		// Tombstones are dropped on every peer once they are old enough
+		assertTrue(hostMap.remove("a") == Status.OK);
+		assertEquals(1, hostMap.getTombstoneCount());
+		try {
+			Thread.sleep(3000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertNull(joinerMap.get("a"));
+		assertEquals(0, hostMap.getTombstoneCount());
+		assertEquals(0, joinerMap.getTombstoneCount());
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testReplicatedMapRetry") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testReplicatedMapRetry") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing ReliableBroadcastModule
+	 */
+	private class LossyReliableBroadcastModule extends ReliableBroadcastModule {
+		private final Random random = new Random(7);
+		private volatile double lossRate = 0;
+		
+		public LossyReliableBroadcastModule(ReliableBroadcastListener listener) {
+			super(listener);
+		}
+		
+		// Drops a fraction of the incoming messages, including retransmitted ones
+		@Override
+		@BusSignalHandler(iface = "org.alljoyn.cops.peergroupmanager.ReliableBroadcast", signal = "Data")
+		public void Data(int sequence, byte[] payload) {
+			synchronized(random) {
+				if(random.nextDouble() < lossRate) {
+					return;
+				}
+			}
+			super.Data(sequence, payload);
+		}
+	}
+	
+	public void testReliableBroadcastUnderLoss(){
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testReliableBroadcast") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testReliableBroadcast") == Status.OK);
+		
+		final int numMessages = 500;
+		final ArrayList<Integer> received = new ArrayList<Integer>();
+		ReliableBroadcastModule sender = new ReliableBroadcastModule(new ReliableBroadcastListener() {
+			public void messageReceived(String peerId, byte[] payload) {
+			}
+			public void messagesLost(String peerId, int numMessages) {
+			}
+		});
+		LossyReliableBroadcastModule receiver = new LossyReliableBroadcastModule(new ReliableBroadcastListener() {
+			public void messageReceived(String peerId, byte[] payload) {
+				synchronized(received) {
+					received.add(((payload[0] & 0xff) << 8) | (payload[1] & 0xff));
+					received.notifyAll();
+				}
+			}
+			public void messagesLost(String peerId, int numMessages) {
+				logError("Lost " + numMessages + " messages");
+			}
+		});
+		assertTrue(mPeerGroupManager1.registerModule(sender, "testReliableBroadcast") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(receiver, "testReliableBroadcast") == Status.OK);
+		
+		// The receiver starts with the first message it sees, so send one 
+		// before simulating loss
+		assertTrue(sender.send(new byte[] { 0, 0 }) == Status.OK);
+		try {
+			Thread.sleep(500);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		receiver.lossRate = 0.2;
+		
+		long start = System.currentTimeMillis();
+		for(int i = 1; i < numMessages; i++) {
+			assertTrue(sender.send(new byte[] { (byte) (i >> 8), (byte) i }) == Status.OK);
+		}
+		synchronized(received) {
+			while(received.size() < numMessages && System.currentTimeMillis() - start < 20000) {
+				try {
+					received.wait(1000);
+				} catch (InterruptedException e) {
+					logError(e.getClass().getName() + " - " + e.getMessage());
+				}
+			}
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		assertEquals(numMessages, received.size());
+		for(int i = 0; i < numMessages; i++) {
+			assertEquals(i, received.get(i).intValue());
+		}
+		assertEquals(0, receiver.getMessagesLost());
+		assertTrue(receiver.getNacksSent() > 0);
+		logInfo("Reliable broadcast at 20% loss: " + (numMessages * 1000L / elapsed) + " messages/s, " 
+				+ sender.getRetransmissions() + " retransmissions, " + receiver.getNacksSent() + " NACKs, "
+				+ receiver.getDuplicates() + " duplicates");
+		
+		sender.unregister();
+		receiver.unregister();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testReliableBroadcast") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testReliableBroadcast") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing automatic rejoin
+	 */
+	public void testAutomaticRejoin(){
+		PeerGroupManager firstHost = new PeerGroupManager("test", new PeerGroupListener(), null);
+		assertTrue(callMethodAndWait(firstHost, "createGroup", "testRejoin") == Status.OK);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(mPeerGroupManager2.setRejoinPolicy("testRejoin", new RejoinPolicy(50, 100, 500)) == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testRejoin") == Status.OK);
+		
+		// The host leaves and another peer hosts the group again with a 
+		// member already in it
+		firstHost.cleanup();
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertFalse(mPeerGroupManager2.listJoinedGroups().contains("testRejoin"));
+		PeerGroupManager member = new PeerGroupManager("test", new PeerGroupListener(), null);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testRejoin") == Status.OK);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(callMethodAndWait(member, "joinGroup", "testRejoin") == Status.OK);
+		long start = System.currentTimeMillis();
+		while(!mPeerGroupManager2.listJoinedGroups().contains("testRejoin") && System.currentTimeMillis() - start < 10000) {
+			try {
+				Thread.sleep(50);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		assertTrue(mPeerGroupManager2.listJoinedGroups().contains("testRejoin"));
+		assertEquals(1, mPeerGroupManager2.getRejoinStats("testRejoin").getRejoins());
+		// Rejoining picks the transport like joinGroup() does
+		assertTrue(mPeerGroupManager2.getJoinedGroupTransport("testRejoin") != SessionOpts.TRANSPORT_NONE);
+		
+		// The members reported right after the rejoin are not lost
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		ArrayList<String> peers = mPeerGroupManager2.getPeers("testRejoin");
+		assertEquals(3, peers.size());
+		assertTrue(peers.contains(mPeerGroupManager1.getMyPeerId()));
+		assertTrue(peers.contains(member.getMyPeerId()));
+		
+		member.cleanup();
+		assertTrue(mPeerGroupManager2.setRejoinPolicy("testRejoin", null) == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testRejoin") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testRejoin") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing host migration of JoinOrCreate groups
+	 */
+	public void testJoinOrCreateHostMigration(){
+		PeerGroupManager hostManager = new PeerGroupManager("test", new PeerGroupListener(), null);
+		assertFalse(hostManager.joinOrCreateGroup("testHostMigration").isJoiner());
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		JoinOrCreateReturn joc1 = mPeerGroupManager1.joinOrCreateGroup("testHostMigration");
+		JoinOrCreateReturn joc2 = mPeerGroupManager2.joinOrCreateGroup("testHostMigration");
+		assertTrue(joc1.isJoiner() && joc1.getStatus() == Status.OK);
+		assertTrue(joc2.isJoiner() && joc2.getStatus() == Status.OK);
+		
+		// Let the host send the members of the group
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		
+		// The host leaves and one of the remaining peers takes over
+		long start = System.currentTimeMillis();
+		hostManager.cleanup();
+		PeerGroupManager successor = null;
+		PeerGroupManager follower = null;
+		while(System.currentTimeMillis() - start < 10000) {
+			if(mPeerGroupManager1.listHostedGroups().contains("testHostMigration")) {
+				successor = mPeerGroupManager1;
+				follower = mPeerGroupManager2;
+			}
+			else if(mPeerGroupManager2.listHostedGroups().contains("testHostMigration")) {
+				successor = mPeerGroupManager2;
+				follower = mPeerGroupManager1;
+			}
+			if(follower != null && follower.listJoinedGroups().contains("testHostMigration")) {
+				break;
+			}
+			try {
+				Thread.sleep(50);
+			} catch (Exception e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+		}
+		long gap = System.currentTimeMillis() - start;
+		assertNotNull(successor);
+		// Both peers elected the lowest peer id among the members
+		assertTrue(successor.getMyPeerId().compareTo(follower.getMyPeerId()) < 0);
+		assertTrue(follower.listJoinedGroups().contains("testHostMigration"));
+		assertEquals(successor.getMyPeerId(), follower.getGroupHostPeerId("testHostMigration"));
+		assertTrue(follower.getRejoinStats("testHostMigration").getRejoins() == 1);
+		logInfo("Host migration gap " + gap + " ms, successor took over in " 
+				+ successor.getRejoinStats("testHostMigration").getLastReconnectMillis() + " ms, follower rejoined in " 
+				+ follower.getRejoinStats("testHostMigration").getLastReconnectMillis() + " ms");
+		
+		assertTrue(callMethodAndWait(follower, "leaveGroup", "testHostMigration") == Status.OK);
+		assertTrue(callMethodAndWait(successor, "destroyGroup", "testHostMigration") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing single round JoinOrCreate
+	 */
+	public void testSingleRoundJoinOrCreate(){
+		// Watch the advertisements to count the host claims
+		final ArrayList<String> advertisedNames = new ArrayList<String>();
+		BusAttachment observer = new BusAttachment("PeerGroupManager", BusAttachment.RemoteMessage.Receive);
+		observer.registerBusListener(new BusListener() {
+			@Override
+			public void foundAdvertisedName(String name, short transport, String namePrefix) {
+				synchronized(advertisedNames) {
+					if(!advertisedNames.contains(name)) {
+						advertisedNames.add(name);
+					}
+				}
+			}
+		});
+		assertTrue(observer.connect() == Status.OK);
+		assertTrue(observer.findAdvertisedName("test.sp") == Status.OK);
+		
+		long start = System.currentTimeMillis();
+		JoinOrCreateReturn joc1 = mPeerGroupManager1.joinOrCreateGroup("testSingleRoundJoC", true);
+		JoinOrCreateReturn joc2 = mPeerGroupManager2.joinOrCreateGroup("testSingleRoundJoC", true);
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(joc1.getStatus() == Status.OK);
+		assertFalse(joc1.isJoiner());
+		assertTrue(joc2.getStatus() == Status.OK);
+		assertTrue(joc2.isJoiner());
+		assertTrue(mPeerGroupManager1.listHostedGroups().contains("testSingleRoundJoC"));
+		assertTrue(mPeerGroupManager2.listJoinedGroups().contains("testSingleRoundJoC"));
+		// No GUID groups are advertised and host claims are not listed as groups
+		for(String group : mPeerGroupManager2.listFoundGroups()) {
+			assertFalse(group.startsWith("testSingleRoundJoC.JoC-"));
+			assertFalse(group.startsWith("testSingleRoundJoC.JoCHost-"));
+		}
+		logInfo("Single round JoinOrCreate took " + elapsed + " ms");
+		
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		// A single round: the host claimed the group once, the joiner never 
+		// claimed it and no regular round GUID group was advertised
+		int numHostClaims = 0;
+		synchronized(advertisedNames) {
+			for(String name : advertisedNames) {
+				if(name.contains(".testSingleRoundJoC.JoCHost-")) {
+					numHostClaims++;
+				}
+				assertFalse(name.contains(".testSingleRoundJoC.JoC-"));
+			}
+		}
+		assertEquals(1, numHostClaims);
+		observer.cancelFindAdvertisedName("test.sp");
+		observer.disconnect();
+		
+		assertTrue(mPeerGroupManager1.getPeers("testSingleRoundJoC").contains(mPeerGroupManager2.getMyPeerId()));
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testSingleRoundJoC") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testSingleRoundJoC") == Status.OK);
+		
+		// Group names with the same hash share a session port, which is not 
+		// lost arbitration, so the regular round is used instead
+		assertEquals("testSingleRoundAa".hashCode(), "testSingleRoundBB".hashCode());
+		assertTrue(mPeerGroupManager1.joinOrCreateGroup("testSingleRoundAa", true).getStatus() == Status.OK);
+		joc1 = mPeerGroupManager1.joinOrCreateGroup("testSingleRoundBB", true);
+		assertTrue(joc1.getStatus() == Status.OK);
+		assertFalse(joc1.isJoiner());
+		assertTrue(mPeerGroupManager1.listHostedGroups().contains("testSingleRoundBB"));
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testSingleRoundBB") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testSingleRoundAa") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing PeerGroupMembershipListener
+	 */
+	private class MembershipListener extends PeerGroupListener implements PeerGroupMembershipListener {
+		final ArrayList<String> snapshot = new ArrayList<String>();
+		int numSnapshots = 0;
+		int numPeersAdded = 0;
+		int numPeersRemoved = 0;
+		
+		@Override
+		public void peerAdded(String peerId, String groupName, int numPeers) {
+			numPeersAdded++;
+		}
+		
+		@Override
+		public void peerRemoved(String peerId, String groupName, int numPeers) {
+			numPeersRemoved++;
+		}
+		
+		public void membershipSnapshot(String groupName, ArrayList<String> peerIds) {
+			numSnapshots++;
+			snapshot.addAll(peerIds);
+		}
+	}
+	
+	public void testMembershipSnapshotOnJoin(){
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testMembershipSnapshot") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testMembershipSnapshot") == Status.OK);
+		
+		MembershipListener listener = new MembershipListener();
+		PeerGroupManager joinerManager = new PeerGroupManager("test", listener, null);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(callMethodAndWait(joinerManager, "joinGroup", "testMembershipSnapshot") == Status.OK);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		// The members already in the group come in a single call-back
+		assertEquals(1, listener.numSnapshots);
+		assertEquals(0, listener.numPeersAdded);
+		assertEquals(3, listener.snapshot.size());
+		assertTrue(listener.snapshot.contains(mPeerGroupManager1.getMyPeerId()));
+		assertTrue(listener.snapshot.contains(mPeerGroupManager2.getMyPeerId()));
+		assertTrue(listener.snapshot.contains(joinerManager.getMyPeerId()));
+		
+		// Later changes are incremental
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testMembershipSnapshot") == Status.OK);
+		assertEquals(1, listener.numPeersRemoved);
+		assertEquals(1, listener.numSnapshots);
+		
+		joinerManager.cleanup();
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testMembershipSnapshot") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing filtered PeerGroupListeners
+	 */
+	private class CountingListener extends PeerGroupListener {
+		int numPeersAdded = 0;
+		int numPeersRemoved = 0;
+		
+		@Override
+		public void peerAdded(String peerId, String groupName, int numPeers) {
+			numPeersAdded++;
+		}
+		
+		@Override
+		public void peerRemoved(String peerId, String groupName, int numPeers) {
+			numPeersRemoved++;
+		}
+	}
+	
+	public void testFilteredListeners(){
+		CountingListener groupListener = new CountingListener();
+		CountingListener patternListener = new CountingListener();
+		mPeerGroupManager1.addPeerGroupListener(groupListener, 
+				new PeerGroupListenerFilter(Collections.singleton("testFilterA"), EnumSet.of(PeerGroupEvent.PEER_ADDED)));
+		mPeerGroupManager1.addPeerGroupListener(patternListener, 
+				new PeerGroupListenerFilter(Pattern.compile("testFilter.*"), EnumSet.of(PeerGroupEvent.PEER_REMOVED)));
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testFilterA") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testFilterB") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testFilterA") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testFilterB") == Status.OK);
+		// Only the peerAdded() of the first group is delivered
+		assertEquals(1, groupListener.numPeersAdded);
+		assertEquals(0, patternListener.numPeersAdded);
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testFilterA") == Status.OK);
+		assertEquals(0, groupListener.numPeersRemoved);
+		assertEquals(1, patternListener.numPeersRemoved);
+		
+		// Removed listeners get no more call-backs
+		assertEquals(Status.OK, mPeerGroupManager1.removePeerGroupListener(patternListener));
+		assertEquals(Status.FAIL, mPeerGroupManager1.removePeerGroupListener(patternListener));
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testFilterB") == Status.OK);
+		assertEquals(1, patternListener.numPeersRemoved);
+		
+		mPeerGroupManager1.removePeerGroupListener(groupListener);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testFilterA") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testFilterB") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing ListenerExecutionPolicy
+	 */
+	private class SlowListener extends CountingListener {
+		@Override
+		public void peerAdded(String peerId, String groupName, int numPeers) {
+			try {
+				Thread.sleep(1500);
+			} catch (InterruptedException e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+			super.peerAdded(peerId, groupName, numPeers);
+		}
+	}
+	
+	public void testListenerExecutionPolicy(){
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		SlowListener slowListener = new SlowListener();
+		CountingListener fastListener = new CountingListener();
+		mPeerGroupManager1.addPeerGroupListener(slowListener, null, 
+				new ListenerExecutionPolicy(executor, 16, BackpressurePolicy.DROP_OLDEST));
+		mPeerGroupManager1.addPeerGroupListener(fastListener);
+		assertNull(mPeerGroupManager1.getListenerQueueStats(fastListener));
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testListenerExecution") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testListenerExecution") == Status.OK);
+		// The slow listener does not hold up the others
+		assertEquals(1, fastListener.numPeersAdded);
+		assertEquals(0, slowListener.numPeersAdded);
+		
+		try {
+			Thread.sleep(2000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(1, slowListener.numPeersAdded);
+		ListenerQueueStats stats = mPeerGroupManager1.getListenerQueueStats(slowListener);
+		assertEquals(0, stats.getQueued());
+		assertEquals(0, stats.getDropped());
+		assertTrue(stats.getDelivered() >= 1);
+		logInfo("Max queue delay " + stats.getMaxQueueDelayMillis() + " ms, average " + stats.getAverageQueueDelayMillis() + " ms");
+		
+		assertEquals(Status.OK, mPeerGroupManager1.removePeerGroupListener(slowListener));
+		assertEquals(Status.OK, mPeerGroupManager1.removePeerGroupListener(fastListener));
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testListenerExecution") == Status.OK);
+		executor.shutdown();
+	}
+	
+	public void testBlockingListenerExecutionPolicy(){
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		SlowListener slowListener = new SlowListener();
+		CountingListener otherListener = new CountingListener();
+		mPeerGroupManager1.addPeerGroupListener(slowListener, null, 
+				new ListenerExecutionPolicy(executor, 1, BackpressurePolicy.BLOCK));
+		mPeerGroupManager2.addPeerGroupListener(otherListener);
+		
+		PeerGroupManager thirdManager = new PeerGroupManager("test", new PeerGroupListener(), null);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testBlockingListener") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testBlockingListener") == Status.OK);
+		int otherPeersAdded = otherListener.numPeersAdded;
+		// The slow listener is still in its first call-back while its queue fills up
+		assertTrue(callMethodAndWait(thirdManager, "joinGroup", "testBlockingListener") == Status.OK);
+		assertTrue(callMethodAndWait(thirdManager, "leaveGroup", "testBlockingListener") == Status.OK);
+		try {
+			Thread.sleep(200);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		// The full queue holds up neither the call-backs of the other PeerGroupManager...
+		assertEquals(otherPeersAdded + 1, otherListener.numPeersAdded);
+		assertEquals(1, otherListener.numPeersRemoved);
+		// ...nor calls into the PeerGroupManager of the slow listener
+		assertEquals(2, mPeerGroupManager1.getNumPeers("testBlockingListener"));
+		
+		try {
+			Thread.sleep(4000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		// No call-back is dropped
+		assertEquals(2, slowListener.numPeersAdded);
+		assertEquals(1, slowListener.numPeersRemoved);
+		ListenerQueueStats stats = mPeerGroupManager1.getListenerQueueStats(slowListener);
+		assertEquals(0, stats.getQueued());
+		assertEquals(0, stats.getDropped());
+		
+		thirdManager.cleanup();
+		assertEquals(Status.OK, mPeerGroupManager1.removePeerGroupListener(slowListener));
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testBlockingListener") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testBlockingListener") == Status.OK);
+		executor.shutdown();
+	}
+	
+	
+	/*
+	 * Testing AdmissionPolicy
+	 */
+	public void testAdmissionPolicy(){
+		assertTrue(mPeerGroupManager1.setAdmissionPolicy("testAdmission", new MaxMembersPolicy(2), 
+				new JoinRatePolicy(10, 5)) == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testAdmission") == Status.OK);
+		
+		PeerGroupManager thirdManager = new PeerGroupManager("test", new PeerGroupListener(), null);
+		try {
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testAdmission") == Status.OK);
+		// The group is full
+		assertFalse(callMethodAndWait(thirdManager, "joinGroup", "testAdmission") == Status.OK);
+		assertEquals(2, mPeerGroupManager1.getNumPeers("testAdmission"));
+		
+		// Denied peers are rejected even when there is room
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testAdmission") == Status.OK);
+		assertTrue(mPeerGroupManager1.setAdmissionPolicy("testAdmission", new MaxMembersPolicy(2), 
+				new PeerAccessPolicy(null, Collections.singleton(thirdManager.getMyPeerId()))) == Status.OK);
+		assertFalse(callMethodAndWait(thirdManager, "joinGroup", "testAdmission") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testAdmission") == Status.OK);
+		
+		AdmissionStats stats = mPeerGroupManager1.getAdmissionStats("testAdmission");
+		assertEquals(2, stats.getAdmitted());
+		assertEquals(2, stats.getRejected());
+		logInfo("Admission decisions took " + stats.getAverageDecisionMicros() + " us on average, " 
+				+ stats.getMaxDecisionMicros() + " us at most");
+		
+		thirdManager.cleanup();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testAdmission") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testAdmission") == Status.OK);
+		// The admission state goes away with the group
+		assertNull(mPeerGroupManager1.getAdmissionStats("testAdmission"));
+	}
+	
+	
+	/*
+	 * Testing signal handlers registered per group
+	 */
+	@BusInterface(name = "org.alljoyn.cops.peergroupmanager.test.GroupSignal")
+	public interface GroupSignalInterface {
+		@BusSignal
+		public void Ping(String text) throws BusException;
+	}
+	
+	private class GroupSignalService implements GroupSignalInterface, BusObject {
+		public void Ping(String text) {
+		}
+	}
+	
+	private class GroupSignalHandler {
+		final ArrayList<String> received = new ArrayList<String>();
+		final ArrayList<Integer> sessionIds = new ArrayList<Integer>();
+		PeerGroupManager manager;
+		
+		GroupSignalHandler(PeerGroupManager manager) {
+			this.manager = manager;
+		}
+		
+		@BusSignalHandler(iface = "org.alljoyn.cops.peergroupmanager.test.GroupSignal", signal = "Ping")
+		public void Ping(String text) {
+			synchronized(this) {
+				received.add(text);
+				sessionIds.add(manager.getSignalContext().sessionId);
+			}
+		}
+	}
+	
+	public void testGroupSignalHandlers(){
+		GroupSignalService service = new GroupSignalService();
+		assertTrue(mPeerGroupManager2.registerBusObject(new BusObjectData(service, "/groupSignal")) == Status.OK);
+		GroupSignalHandler handlerA = new GroupSignalHandler(mPeerGroupManager1);
+		GroupSignalHandler handlerB = new GroupSignalHandler(mPeerGroupManager1);
+		assertTrue(mPeerGroupManager1.registerSignalHandlers("testSignalA", handlerA, GroupSignalInterface.class) == Status.OK);
+		assertTrue(mPeerGroupManager1.registerSignalHandlers("testSignalB", handlerB, GroupSignalInterface.class) == Status.OK);
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testSignalA") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testSignalB") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testSignalA") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testSignalB") == Status.OK);
+		
+		GroupSignalInterface signalsA = mPeerGroupManager2.getSignalInterface("testSignalA", service, GroupSignalInterface.class);
+		try {
+			for(int i = 0; i < 50; i++) {
+				signalsA.Ping("ping " + i);
+			}
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		// Only the handler of the group gets the signals, in order
+		synchronized(handlerA) {
+			assertEquals(50, handlerA.received.size());
+			assertTrue(handlerA.sessionIds.get(0) != 0);
+			for(int i = 0; i < 50; i++) {
+				assertEquals("ping " + i, handlerA.received.get(i));
+				assertEquals(handlerA.sessionIds.get(0), handlerA.sessionIds.get(i));
+			}
+		}
+		synchronized(handlerB) {
+			assertTrue(handlerB.received.isEmpty());
+		}
+		
+		assertTrue(mPeerGroupManager1.unregisterSignalHandlers("testSignalA", handlerA) == Status.OK);
+		assertTrue(mPeerGroupManager1.unregisterSignalHandlers("testSignalB", handlerB) == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testSignalA") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testSignalB") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testSignalA") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testSignalB") == Status.OK);
+	}
+	
+	public void testGroupSignalHandlersPointToPoint(){
+		GroupSignalService service = new GroupSignalService();
+		assertTrue(mPeerGroupManager2.registerBusObject(new BusObjectData(service, "/groupSignalP2P")) == Status.OK);
+		GroupSignalHandler handler = new GroupSignalHandler(mPeerGroupManager1);
+		assertTrue(mPeerGroupManager1.registerSignalHandlers("testSignalP2P", handler, GroupSignalInterface.class) == Status.OK);
+		assertTrue(mPeerGroupManager1.createGroup("testSignalP2P", false, SessionProfile.POINT_TO_POINT_MESSAGES) == Status.OK);
+		try {
+			Thread.sleep(400);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertTrue(mPeerGroupManager2.joinGroup("testSignalP2P", SessionProfile.POINT_TO_POINT_MESSAGES) == Status.OK);
+		
+		// The joiner's own session with the host belongs to the group
+		GroupSignalInterface signals = mPeerGroupManager2.getSignalInterface(mPeerGroupManager1.getMyPeerId(), 
+				"testSignalP2P", service, GroupSignalInterface.class);
+		try {
+			Thread.sleep(400);
+			signals.Ping("ping");
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		synchronized(handler) {
+			assertEquals(1, handler.received.size());
+		}
+		
+		assertTrue(mPeerGroupManager1.unregisterSignalHandlers("testSignalP2P", handler) == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testSignalP2P") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testSignalP2P") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing SignalRingBuffer
+	 */
+	public void testSignalRingBuffer(){
+		GroupSignalService service = new GroupSignalService();
+		assertTrue(mPeerGroupManager2.registerBusObject(new BusObjectData(service, "/groupSignalRing")) == Status.OK);
+		SignalRingBuffer ringBuffer = new SignalRingBuffer(64);
+		assertTrue(mPeerGroupManager1.registerSignalRingBuffer("testSignalRing", ringBuffer, GroupSignalInterface.class) == Status.OK);
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testSignalRing") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testSignalRing") == Status.OK);
+		
+		// Send more signals than the ring holds without draining it
+		GroupSignalInterface signals = mPeerGroupManager2.getSignalInterface("testSignalRing", service, GroupSignalInterface.class);
+		long start = System.currentTimeMillis();
+		try {
+			for(int i = 0; i < 200; i++) {
+				signals.Ping(Integer.toString(i));
+			}
+			Thread.sleep(1000);
+		} catch (Exception e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(64, ringBuffer.getSize());
+		
+		final ArrayList<Integer> pings = new ArrayList<Integer>();
+		SignalConsumer consumer = new SignalConsumer() {
+			public void onSignal(String signalName, String sender, Object[] args) {
+				assertEquals("Ping", signalName);
+				pings.add(Integer.parseInt((String) args[0]));
+			}
+		};
+		int batches = 0;
+		while(ringBuffer.drain(consumer, 16) > 0) {
+			batches++;
+		}
+		assertEquals(4, batches);
+		assertEquals(64, pings.size());
+		for(int i = 1; i < pings.size(); i++) {
+			assertTrue(pings.get(i - 1) < pings.get(i));
+		}
+		assertEquals(ringBuffer.getReceived(), ringBuffer.getDrained() + ringBuffer.getDropped());
+		assertTrue(ringBuffer.getDropped() > 0);
+		assertEquals(1, ringBuffer.getOverflows());
+		logInfo(ringBuffer.getReceived() + " signals received in " + (System.currentTimeMillis() - start) + " ms, " 
+				+ ringBuffer.getDropped() + " dropped");
+		
+		assertTrue(mPeerGroupManager1.unregisterSignalHandlers("testSignalRing", ringBuffer) == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testSignalRing") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testSignalRing") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing PayloadSchema
+	 */
+	public static class SampleStruct {
+		@Position(0) public boolean valid;
+		@Position(1) public int id;
+		@Position(2) public long time;
+		@Position(3) public double value;
+		@Position(4) public String name;
+	}
+	
+	@BusInterface(name = "org.alljoyn.cops.peergroupmanager.test.Sample")
+	public interface SampleInterface {
+		@BusSignal
+		public void Sample(SampleStruct sample) throws BusException;
+		
+		@BusSignal
+		public void SamplePayload(byte[] payload) throws BusException;
+	}
+	
+	private class SampleService implements SampleInterface, BusObject {
+		public void Sample(SampleStruct sample) {
+		}
+		
+		public void SamplePayload(byte[] payload) {
+		}
+	}
+	
+	public void testPayloadSchema(){
+		PayloadSchema schema = new PayloadSchema(PayloadType.BOOLEAN, PayloadType.INT, PayloadType.LONG, 
+				PayloadType.DOUBLE, PayloadType.STRING);
+		PayloadWriter writer = new PayloadWriter(16);
+		schema.encode(writer, true, -42, 1234567890123L, 0.5, "sensor \u00e9\u4e2d");
+		Object[] values = schema.decode(new PayloadReader(writer.toByteArray()));
+		assertEquals(Boolean.TRUE, values[0]);
+		assertEquals(-42, values[1]);
+		assertEquals(1234567890123L, values[2]);
+		assertEquals(0.5, values[3]);
+		assertEquals("sensor \u00e9\u4e2d", values[4]);
+		try {
+			new PayloadReader(new byte[] {(byte) 0x80}).readVarint();
+			fail("Truncated payload decoded");
+		} catch (IllegalArgumentException e) {
+		}
+		PayloadWriter negativeLength = new PayloadWriter(16);
+		negativeLength.writeVarint(-1L);
+		try {
+			new PayloadReader(negativeLength.toByteArray()).readBytes();
+			fail("Negative length decoded");
+		} catch (IllegalArgumentException e) {
+		}
+		
+		// Benchmark the codec
+		int numSamples = 10000;
+		PayloadReader reader = new PayloadReader(writer.getBuffer());
+		long start = System.nanoTime();
+		int totalBytes = 0;
+		for(int i = 0; i < numSamples; i++) {
+			totalBytes += schema.encode(writer, (i & 1) == 0, i, start + i, i * 0.25, "sensor");
+			reader.reset(writer.getBuffer(), 0, writer.getLength());
+			schema.decode(reader, values);
+		}
+		long codecNanos = System.nanoTime() - start;
+		logInfo("PayloadSchema: " + numSamples + " samples encoded and decoded in " + codecNanos / 1000000 + " ms, " 
+				+ totalBytes / numSamples + " bytes per sample");
+		
+		// Compare emitting the samples as a struct and as a payload
+		SampleService service = new SampleService();
+		assertTrue(mPeerGroupManager1.registerBusObject(new BusObjectData(service, "/sample")) == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testPayload") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testPayload") == Status.OK);
+		SampleInterface signals = mPeerGroupManager1.getSignalInterface("testPayload", service, SampleInterface.class);
+		int numSignals = 1000;
+		try {
+			SampleStruct sample = new SampleStruct();
+			start = System.nanoTime();
+			for(int i = 0; i < numSignals; i++) {
+				sample.valid = (i & 1) == 0;
+				sample.id = i;
+				sample.time = start + i;
+				sample.value = i * 0.25;
+				sample.name = "sensor";
+				signals.Sample(sample);
+			}
+			long structNanos = System.nanoTime() - start;
+			start = System.nanoTime();
+			for(int i = 0; i < numSignals; i++) {
+				schema.encode(writer, (i & 1) == 0, i, start + i, i * 0.25, "sensor");
+				signals.SamplePayload(writer.toByteArray());
+			}
+			long payloadNanos = System.nanoTime() - start;
+			logInfo("Emitting " + numSignals + " samples took " + structNanos / 1000000 + " ms as structs and " 
+					+ payloadNanos / 1000000 + " ms as payloads");
+		} catch (BusException e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+			fail(e.getMessage());
+		}
+		
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testPayload") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testPayload") == Status.OK);
+	}
+	
+	
+	/*
+	 * Testing CompressionModule
+	 */
+	public void testPayloadCompression(){
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testCompression") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testCompression") == Status.OK);
+		CompressionModule hostCompression = new CompressionModule(256);
+		CompressionModule joinerCompression = new CompressionModule(1024);
+		assertTrue(mPeerGroupManager1.registerModule(hostCompression, "testCompression") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(joinerCompression, "testCompression") == Status.OK);
+		try {
+			Thread.sleep(1000);
+		} catch (InterruptedException e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		// Both peers settle on deflate and the higher threshold
+		assertEquals(CompressionModule.ALGORITHM_DEFLATE, hostCompression.getAlgorithm());
+		assertEquals(CompressionModule.ALGORITHM_DEFLATE, joinerCompression.getAlgorithm());
+		assertEquals(1024, hostCompression.getThresholdBytes());
+		assertEquals(1024, joinerCompression.getThresholdBytes());
+		
+		// Small payloads pass through and large ones shrink
+		byte[] small = "{\"id\":1}".getBytes();
+		byte[] frame = hostCompression.compress(small);
+		assertEquals(small.length + 1, frame.length);
+		assertTrue(Arrays.equals(small, joinerCompression.decompress(frame)));
+		StringBuilder json = new StringBuilder("[");
+		for(int i = 0; i < 100; i++) {
+			json.append("{\"id\":").append(i).append(",\"name\":\"sensor\",\"value\":0.5},");
+		}
+		byte[] large = json.append("]").toString().getBytes();
+		frame = hostCompression.compress(large);
+		assertTrue(frame.length < large.length / 2);
+		assertTrue(Arrays.equals(large, joinerCompression.decompress(frame)));
+		try {
+			frame[frame.length - 1] ^= 0x55;
+			frame[frame.length - 2] ^= 0x55;
+			joinerCompression.decompress(frame);
+			fail("Corrupted frame decompressed");
+		} catch (IllegalArgumentException e) {
+		}
+		
+		// Random bytes do not compress and are passed through
+		byte[] noise = new byte[4096];
+		new Random(1).nextBytes(noise);
+		frame = hostCompression.compress(noise);
+		assertEquals(noise.length + 1, frame.length);
+		
+		CompressionStats stats = mPeerGroupManager1.getCompressionStats("testCompression");
+		assertTrue(stats != null);
+		assertEquals(1, stats.getCompressed());
+		assertEquals(2, stats.getPassedThrough());
+		assertTrue(stats.getBytesSaved() > large.length / 2);
+		logInfo("CompressionModule: saved " + stats.getBytesSaved() + " of " + stats.getBytesIn() + " bytes in " 
+				+ stats.getTotalMicros() + " us");
+		
+		// Once the joiner leaves the host falls back to its own threshold
+		joinerCompression.unregister();
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testCompression") == Status.OK);
+		assertEquals(256, hostCompression.getThresholdBytes());
+		hostCompression.unregister();
+		assertEquals(CompressionModule.ALGORITHM_NONE, hostCompression.getAlgorithm());
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testCompression") == Status.OK);
+		assertTrue(mPeerGroupManager1.getCompressionStats("testCompression") == null);
+	}
+	
+	
+	/*
+	 * Testing FragmentationModule
+	 */
+	private class ReassemblyListener implements FragmentationListener {
+		private ArrayList<byte[]> messages = new ArrayList<byte[]>();
+		
+		public synchronized void messageReceived(String peerId, byte[] message) {
+			messages.add(message);
+		}
+		
+		public synchronized ArrayList<byte[]> getMessages() {
+			return new ArrayList<byte[]>(messages);
+		}
+	}
+	
+	public void testFragmentation(){
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testFragmentation") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testFragmentation") == Status.OK);
+		FragmentationModule sender = new FragmentationModule(null, 8 * 1024, 
+				FragmentationModule.DEFAULT_MAX_REASSEMBLY_BYTES, 2000);
+		ReassemblyListener listener = new ReassemblyListener();
+		FragmentationModule receiver = new FragmentationModule(listener, 8 * 1024, 256 * 1024, 2000);
+		assertTrue(mPeerGroupManager1.registerModule(sender, "testFragmentation") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(receiver, "testFragmentation") == Status.OK);
+		
+		// A small message sent after a large one overtakes it
+		byte[] large = new byte[200 * 1024];
+		new Random(1).nextBytes(large);
+		byte[] small = "ping".getBytes();
+		assertTrue(sender.send(large) == Status.OK);
+		assertTrue(sender.send(small) == Status.OK);
+		try {
+			Thread.sleep(2000);
+		} catch (InterruptedException e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		ArrayList<byte[]> messages = listener.getMessages();
+		assertEquals(2, messages.size());
+		assertTrue(Arrays.equals(small, messages.get(0)));
+		assertTrue(Arrays.equals(large, messages.get(1)));
+		assertEquals(26, sender.getFragmentsSent());
+		assertEquals(0, receiver.getReassemblyBytes());
+		assertTrue(receiver.getPeakReassemblyBytes() <= 256 * 1024);
+		
+		// A message larger than the reassembly bound is dropped
+		assertTrue(sender.send(mPeerGroupManager2.getMyPeerId(), new byte[512 * 1024]) == Status.OK);
+		try {
+			Thread.sleep(3000);
+		} catch (InterruptedException e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(2, listener.getMessages().size());
+		assertEquals(1, receiver.getMessagesDropped());
+		assertEquals(0, receiver.getReassemblyBytes());
+		logInfo("FragmentationModule: peak reassembly " + receiver.getPeakReassemblyBytes() + " bytes, " 
+				+ receiver.getFragmentsReceived() + " fragments received");
+		
+		sender.unregister();
+		receiver.unregister();
+		
+		// The slots of many tiny fragments count against the bound as well
+		sender = new FragmentationModule(null, 1, FragmentationModule.DEFAULT_MAX_REASSEMBLY_BYTES, 2000);
+		receiver = new FragmentationModule(listener, 1, 64, 2000);
+		assertTrue(mPeerGroupManager1.registerModule(sender, "testFragmentation") == Status.OK);
+		assertTrue(mPeerGroupManager2.registerModule(receiver, "testFragmentation") == Status.OK);
+		assertTrue(sender.send(new byte[16]) == Status.OK);
+		try {
+			Thread.sleep(1000);
+		} catch (InterruptedException e) {
+			logError(e.getClass().getName() + " - " + e.getMessage());
+		}
+		assertEquals(2, listener.getMessages().size());
+		assertEquals(1, receiver.getMessagesDropped());
+		assertEquals(0, receiver.getPeakReassemblyBytes());
+		
+		// Leaving and destroying the group unregisters the modules
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testFragmentation") == Status.OK);
+		assertTrue(receiver.send(new byte[16]) == Status.FAIL);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testFragmentation") == Status.OK);
+		assertTrue(sender.send(new byte[16]) == Status.FAIL);
+	}
+	
+	
+	/*
+	 * Testing scatterGather
+	 */
+	@BusInterface(name = "org.alljoyn.cops.peergroupmanager.test.Echo")
+	public interface EchoInterface {
+		@BusMethod
+		public String Echo(String text) throws BusException;
+	}
+	
+	private class EchoService implements EchoInterface, BusObject {
+		private long delayMillis;
+		
+		EchoService(long delayMillis) {
+			this.delayMillis = delayMillis;
+		}
+		
+		public String Echo(String text) {
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				logError(e.getClass().getName() + " - " + e.getMessage());
+			}
+			return text;
+		}
+	}
+	
+	public void testScatterGather(){
+		PeerGroupManager slowManager = new PeerGroupManager("test", new PeerGroupListener(), null);
+		assertTrue(mPeerGroupManager2.registerBusObject(new BusObjectData(new EchoService(0), "/echo")) == Status.OK);
+		assertTrue(slowManager.registerBusObject(new BusObjectData(new EchoService(3000), "/echo")) == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "createGroup", "testScatterGather") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testScatterGather") == Status.OK);
+		assertTrue(callMethodAndWait(slowManager, "joinGroup", "testScatterGather") == Status.OK);
+		String fastPeer = mPeerGroupManager2.getMyPeerId();
+		String slowPeer = slowManager.getMyPeerId();
+		
+		RemoteCall<EchoInterface,String> echo = new RemoteCall<EchoInterface,String>() {
+			public String call(String peerId, EchoInterface proxy) throws BusException {
+				return proxy.Echo("hello " + peerId);
+			}
+		};
+		// The fast peer answers and the slow one misses the deadline
+		ScatterGatherResult<String> result = mPeerGroupManager1.scatterGather("testScatterGather", "/echo", 
+				EchoInterface.class, echo, 1000);
+		assertTrue(result != null);
+		assertEquals(2, result.getPeers().size());
+		assertEquals("hello " + fastPeer, result.getResults().get(fastPeer));
+		assertTrue(result.getTimedOut().contains(slowPeer));
+		assertTrue(result.getLatencyMicros().containsKey(fastPeer));
+		assertFalse(result.isComplete());
+		assertTrue(result.getElapsedMillis() < 2000);
+		logInfo("scatterGather: " + result.getResults().size() + " results in " + result.getElapsedMillis() + " ms");
+		
+		// Calls to a missing object fail per peer
+		result = mPeerGroupManager1.scatterGather("testScatterGather", "/missing", EchoInterface.class, echo, 5000);
+		assertTrue(result != null);
+		assertEquals(2, result.getErrors().size());
+		assertTrue(result.getTimedOut().isEmpty());
+		
+		assertTrue(callMethodAndWait(slowManager, "leaveGroup", "testScatterGather") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testScatterGather") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager1, "destroyGroup", "testScatterGather") == Status.OK);
+		slowManager.cleanup();
+	}
+	
+	
+	/*
+	 * Testing multiple bus attachments
+	 */
+	public void testMultipleBusAttachments(){
+		// The hashes of the group names put them on different bus attachments
+		PeerGroupManager spreadManager = new PeerGroupManager("test", new PeerGroupListener(), null, 2, BusPlacement.HASH);
+		assertNull(spreadManager.getMyPeerId("testSpread0"));
+		assertTrue(callMethodAndWait(spreadManager, "createGroup", "testSpread0") == Status.OK);
+		assertTrue(callMethodAndWait(spreadManager, "createGroup", "testSpread1") == Status.OK);
+		String peerId0 = spreadManager.getMyPeerId("testSpread0");
+		String peerId1 = spreadManager.getMyPeerId("testSpread1");
+		assertFalse(peerId0.equals(peerId1));
+		assertTrue(peerId0.equals(spreadManager.getMyPeerId()) || peerId1.equals(spreadManager.getMyPeerId()));
+		
+		// Peers see the bus attachment of each group as its host
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testSpread0") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", "testSpread1") == Status.OK);
+		assertEquals(peerId0, mPeerGroupManager2.getGroupHostPeerId("testSpread0"));
+		assertEquals(peerId1, mPeerGroupManager2.getGroupHostPeerId("testSpread1"));
+		assertEquals(peerId0, spreadManager.getGroupHostPeerId("testSpread0"));
+		assertTrue(mPeerGroupManager2.getPeers("testSpread0").contains(peerId0));
+		assertTrue(mPeerGroupManager2.getPeers("testSpread1").contains(peerId1));
+		
+		// Bus objects cannot be registered once groups are spread
+		assertTrue(spreadManager.registerBusObject(new BusObjectData(new EchoService(0), "/echo")) == Status.FAIL);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testSpread0") == Status.OK);
+		assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", "testSpread1") == Status.OK);
+		spreadManager.cleanup();
+		
+		// Groups of a PeerGroupManager with bus objects stay on the first bus attachment
+		ArrayList<BusObjectData> busObjects = new ArrayList<BusObjectData>();
+		busObjects.add(new BusObjectData(new EchoService(0), "/echo"));
+		PeerGroupManager objectManager = new PeerGroupManager("test", new PeerGroupListener(), busObjects, 2, BusPlacement.HASH);
+		assertTrue(callMethodAndWait(objectManager, "createGroup", "testSpread0") == Status.OK);
+		assertTrue(callMethodAndWait(objectManager, "createGroup", "testSpread1") == Status.OK);
+		assertEquals(objectManager.getMyPeerId(), objectManager.getMyPeerId("testSpread0"));
+		assertEquals(objectManager.getMyPeerId(), objectManager.getMyPeerId("testSpread1"));
+		
+		// The bus objects can be reached in each of the groups
+		RemoteCall<EchoInterface,String> echo = new RemoteCall<EchoInterface,String>() {
+			public String call(String peerId, EchoInterface proxy) throws BusException {
+				return proxy.Echo("hello " + peerId);
+			}
+		};
+		for(String groupName : new String[] {"testSpread0", "testSpread1"}) {
+			assertTrue(callMethodAndWait(mPeerGroupManager2, "joinGroup", groupName) == Status.OK);
+			ScatterGatherResult<String> result = mPeerGroupManager2.scatterGather(groupName, "/echo", 
+					EchoInterface.class, echo, 5000);
+			assertTrue(result != null);
+			assertEquals("hello " + objectManager.getMyPeerId(), result.getResults().get(objectManager.getMyPeerId()));
+			assertTrue(callMethodAndWait(mPeerGroupManager2, "leaveGroup", groupName) == Status.OK);
+		}
+		objectManager.cleanup();
+	}
+	
+	
 	/*
 	 * Private helper functions
 	 */